@@ -4,11 +4,14 @@ import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.cloud.client.discovery.EnableDiscoveryClient;
 import org.springframework.cloud.openfeign.EnableFeignClients;
+import org.springframework.context.annotation.Import;
 import ru.practicum.feign.EventFeign;
+import ru.practicum.loader.EventShortLoader;
 
 @SpringBootApplication
 @EnableDiscoveryClient
 @EnableFeignClients(clients = {EventFeign.class})
+@Import(EventShortLoader.class)
 public class CompilationApplication {
 
     public static void main(String[] args) {
@@ -12,18 +12,17 @@ import ru.practicum.dto.EventShortDto;
 import ru.practicum.dto.NewCompilationDto;
 import ru.practicum.dto.UpdateCompilationRequest;
 import ru.practicum.exception.NotFoundException;
-import ru.practicum.feign.EventFeign;
+import ru.practicum.loader.EventShortLoader;
 import ru.practicum.model.Compilation;
 import ru.practicum.model.EventCompilation;
 import ru.practicum.model.EventCompilationId;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Objects;
 import java.util.Set;
 import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 @Slf4j
 @Service
@@ -31,7 +30,7 @@ import java.util.stream.Stream;
 public class CompilationServiceImpl implements CompilationService {
     private final MapperCompilation mapperCompilation;
     private final CompilationRepository compilationRepository;
-    private final EventFeign eventFeign;
+    private final EventShortLoader eventShortLoader;
     private final EventCompilationRepository eventCompilationRepository;
 
     @Override
@@ -100,16 +99,10 @@ public class CompilationServiceImpl implements CompilationService {
 
         if (updateCompilationRequest.hasEvents()) {
             log.trace("Необходимо обновить events");
-            Set<EventShortDto> eventsInDb = eventFeign.getEventsByIds(updateCompilationRequest.getEvents()).getBody();
-            List<Long> eventIds;
+            Map<Long, EventShortDto> eventsInDb = eventShortLoader.getMany(updateCompilationRequest.getEvents());
+            List<Long> eventIds = new ArrayList<>(eventsInDb.keySet());
 
-            if (eventsInDb != null) {
-                eventIds = eventsInDb.stream().map(EventShortDto::getId).toList();
-            } else {
-                eventIds = new ArrayList<>();
-            }
-
-            long sizeEventsInDb = Stream.of(eventsInDb).count();
+            long sizeEventsInDb = eventsInDb.size();
             log.debug("Количество events в запросе = {} найдено в БД = {}",
                     updateCompilationRequest.getEvents().size(),
                     sizeEventsInDb);
@@ -154,7 +147,8 @@ public class CompilationServiceImpl implements CompilationService {
             }
 
             eventCompilationRepository.saveAll(eventCompilations);
-            Set<EventShortDto> events = eventFeign.getEventsByIds(updateCompilationRequest.getEvents()).getBody();
+            // события уже загружены в этом запросе, повторного вызова event-service не будет
+            Set<EventShortDto> events = new HashSet<>(eventShortLoader.getMany(updateCompilationRequest.getEvents()).values());
             result.setEvents(events);
         }
 
@@ -180,10 +174,7 @@ public class CompilationServiceImpl implements CompilationService {
                 .map(eventCompilation -> eventCompilation.getEventCompilationId().getEventId())
                 .collect(Collectors.toSet());
 
-        Map<Long, EventShortDto> eventMap = Objects.requireNonNull(eventFeign.getEventsByIds(allEventIds)
-                        .getBody())
-                .stream()
-                .collect(Collectors.toMap(EventShortDto::getId, e -> e));
+        Map<Long, EventShortDto> eventMap = eventShortLoader.getMany(allEventIds);
 
         return eventCompilations.stream()
                 .collect(Collectors.groupingBy(
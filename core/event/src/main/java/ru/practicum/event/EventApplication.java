@@ -1,16 +1,26 @@
 package ru.practicum.event;
 
+import client.StatsClientConfiguration;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.cloud.client.discovery.EnableDiscoveryClient;
 import org.springframework.cloud.openfeign.EnableFeignClients;
+import org.springframework.context.annotation.Import;
+import org.springframework.scheduling.annotation.EnableScheduling;
+import ru.practicum.cache.UserCacheController;
+import ru.practicum.cache.UserShortCache;
 import ru.practicum.feign.RequestFeign;
 import ru.practicum.feign.StatsFeign;
 import ru.practicum.feign.UserFeign;
+import ru.practicum.loader.ConfirmedRequestsLoader;
+import ru.practicum.loader.UserShortLoader;
 
 @SpringBootApplication
 @EnableDiscoveryClient
+@EnableScheduling
 @EnableFeignClients(clients = {StatsFeign.class, RequestFeign.class, UserFeign.class})
+@Import({StatsClientConfiguration.class, UserShortLoader.class, ConfirmedRequestsLoader.class,
+        UserShortCache.class, UserCacheController.class})
 public class EventApplication {
 
     public static void main(String[] args) {
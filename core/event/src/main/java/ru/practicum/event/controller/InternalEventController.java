@@ -0,0 +1,36 @@
+package ru.practicum.event.controller;
+
+import jakarta.validation.constraints.Min;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Controller;
+import org.springframework.validation.annotation.Validated;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import ru.practicum.event.service.EventService;
+
+/**
+ * Вызовы от других сервисов; через gateway не маршрутизируется.
+ */
+@Slf4j
+@Controller
+@RequiredArgsConstructor
+@RequestMapping("/internal/events")
+@Validated
+public class InternalEventController {
+
+    private final EventService eventService;
+
+    @PutMapping("/{eventId}/confirmed-requests")
+    public ResponseEntity<Void> setConfirmedRequests(@PathVariable(name = "eventId") Long eventId,
+                                                     @RequestParam(name = "count") @Min(0) Integer count,
+                                                     @RequestParam(name = "version", required = false) Long version) {
+        log.debug("Пришел PUT запрос на /internal/events/{}/confirmed-requests, count = {}, version = {}",
+                eventId, count, version);
+        eventService.setConfirmedRequests(eventId, count, version);
+        return ResponseEntity.noContent().build();
+    }
+}
@@ -1,5 +1,6 @@
 package ru.practicum.event.controller;
 
+import client.StatsClient;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.validation.constraints.Min;
 import lombok.RequiredArgsConstructor;
@@ -23,7 +24,6 @@ import ru.practicum.event.enums.EventSortType;
 import ru.practicum.event.service.EventService;
 import ru.practicum.event.service.param.GetEventUserParam;
 import ru.practicum.exception.BadRequestException;
-import ru.practicum.feign.StatsFeign;
 
 import java.time.LocalDateTime;
 import java.util.List;
@@ -39,7 +39,7 @@ import static ru.practicum.Constants.DATE_PATTERN;
 public class PublicEventController {
 
     private final EventService eventService;
-    private final StatsFeign statsFeign;
+    private final StatsClient statsClient;
 
     @GetMapping
     public ResponseEntity<List<EventShortDto>> getEventsByFilters(@RequestParam(name = "text", required = false) String text,
@@ -62,7 +62,7 @@ public class PublicEventController {
         if (sort != null) {
             Sort sortType = switch (sort) {
                 case EVENT_DATE -> Sort.by("createdOn").ascending();
-                case VIEWS -> Sort.by("views").ascending();
+                case VIEWS -> Sort.by(Sort.Order.desc("eventViews.views"), Sort.Order.asc("id"));
             };
             page = PageRequest.of(from, size, sortType);
         } else {
@@ -104,6 +104,6 @@ public class PublicEventController {
         hitDto.setIp(request.getRemoteAddr());
         hitDto.setUri(request.getRequestURI());
         hitDto.setCreated(LocalDateTime.now());
-        statsFeign.hitStat(hitDto);
+        statsClient.createHit(hitDto);
     }
 }
@@ -9,6 +9,7 @@ import ru.practicum.exception.BadRequestException;
 import ru.practicum.exception.ConflictException;
 import ru.practicum.exception.DuplicateException;
 import ru.practicum.exception.NotFoundException;
+import ru.practicum.exception.ServiceUnavailableException;
 
 @RestControllerAdvice
 public class EventExceptionHandler {
@@ -36,4 +37,10 @@ public class EventExceptionHandler {
     public ApiError handleConflict(final ConflictException e) {
         return e.getError();
     }
+
+    @ExceptionHandler
+    @ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+    public ApiError handleServiceUnavailable(final ServiceUnavailableException e) {
+        return e.getError();
+    }
 }
@@ -17,13 +17,19 @@ import ru.practicum.event.model.Event;
 public interface MapperEvent {
 
     @Mapping(source = "category", target = "category.id", ignore = true)
+    @Mapping(target = "eventViews", ignore = true)
+    @Mapping(target = "confirmedRequests", ignore = true)
     Event toEvent(NewEventDto newEventDto);
 
     @Mapping(source = "category", target = "category.id", ignore = true)
+    @Mapping(target = "eventViews", ignore = true)
+    @Mapping(target = "confirmedRequests", ignore = true)
     @Mapping(source = "stateAction", target = "state", qualifiedByName = "stateFromAdminAction")
     Event toEvent(UpdateEventAdminRequest updateEventAdminRequest);
 
     @Mapping(source = "category", target = "category.id", ignore = true)
+    @Mapping(target = "eventViews", ignore = true)
+    @Mapping(target = "confirmedRequests", ignore = true)
     @Mapping(source = "stateAction", target = "state", qualifiedByName = "stateFromUserAction")
     Event toEvent(UpdateEventUserRequest updateEventUserRequest);
 
@@ -76,6 +76,20 @@ public class Event {
     @Column(name = "request_moderation")
     Boolean requestModeration;
 
+    /**
+     * Подтвержденные заявки по данным request-service, только для фильтрации запросом.
+     * Пишется отдельным запросом, сохранение события его не перезаписывает.
+     */
+    @Column(name = "confirmed_requests", insertable = false, updatable = false)
+    Integer confirmedRequests;
+
     @OneToOne(mappedBy = "event")
     Location location;
+
+    /**
+     * Проекция просмотров для сортировки запросом; в ответ не попадает.
+     */
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "event_id", insertable = false, updatable = false)
+    EventViews eventViews;
 }
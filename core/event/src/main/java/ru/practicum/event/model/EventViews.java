@@ -0,0 +1,38 @@
+package ru.practicum.event.model;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.experimental.FieldDefaults;
+
+import java.time.LocalDateTime;
+
+/**
+ * Просмотры события, перенесенные из сервера статистики, для сортировки по популярности в БД.
+ * Обновляются {@link ru.practicum.event.service.EventViewsSync}, в ответах просмотры берутся из статистики.
+ */
+@Entity
+@Table(name = "event_views")
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@FieldDefaults(level = AccessLevel.PRIVATE)
+public class EventViews {
+
+    @Id
+    @Column(name = "event_id")
+    Long eventId;
+
+    @Column(nullable = false)
+    Long views;
+
+    @Column(name = "updated_at")
+    LocalDateTime updatedAt;
+}
@@ -1,8 +1,12 @@
 package ru.practicum.event.repository;
 
+import org.springframework.data.domain.Limit;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.querydsl.QuerydslPredicateExecutor;
+import org.springframework.data.repository.query.Param;
 import ru.practicum.enums.EventState;
 import ru.practicum.event.model.Event;
 
@@ -20,4 +24,23 @@ public interface EventRepository extends JpaRepository<Event, Long>, QuerydslPre
     Optional<Event> findByIdAndState(Long eventId, EventState state);
 
     Set<Event> findAllByIdIn(List<Long> eventIds);
+
+    /**
+     * Записывает счетчик, если version больше записанной ранее; version = null записывает без проверки.
+     */
+    @Modifying
+    @Query(value = """
+            UPDATE events
+            SET confirmed_requests = :count,
+                confirmed_requests_version = COALESCE(CAST(:version AS BIGINT), confirmed_requests_version)
+            WHERE event_id = :eventId
+              AND (CAST(:version AS BIGINT) IS NULL
+                   OR confirmed_requests_version IS NULL
+                   OR confirmed_requests_version < CAST(:version AS BIGINT))
+            """, nativeQuery = true)
+    int updateConfirmedRequests(@Param("eventId") Long eventId, @Param("count") Integer count,
+                                @Param("version") Long version);
+
+    @Query("SELECT e.id FROM Event e WHERE e.id > :afterId AND e.state = :state AND e.participantLimit > 0 ORDER BY e.id")
+    List<Long> findLimitedIdsAfter(@Param("afterId") Long afterId, @Param("state") EventState state, Limit limit);
 }
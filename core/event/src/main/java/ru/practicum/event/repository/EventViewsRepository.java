@@ -0,0 +1,21 @@
+package ru.practicum.event.repository;
+
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import ru.practicum.event.model.EventViews;
+
+import java.util.List;
+
+public interface EventViewsRepository extends JpaRepository<EventViews, Long> {
+
+    @Modifying
+    @Query(value = "INSERT INTO event_views (event_id, views) VALUES (:eventId, 0) ON CONFLICT DO NOTHING",
+            nativeQuery = true)
+    void insertIfAbsent(@Param("eventId") Long eventId);
+
+    @Query("SELECT v.eventId FROM EventViews v WHERE v.eventId > :afterId ORDER BY v.eventId")
+    List<Long> findIdsAfter(@Param("afterId") Long afterId, Limit limit);
+}
@@ -0,0 +1,105 @@
+package ru.practicum.event.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Limit;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import ru.practicum.dto.ConfirmedRequests;
+import ru.practicum.event.repository.EventRepository;
+import ru.practicum.feign.RequestFeign;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static ru.practicum.enums.EventState.PUBLISHED;
+
+/**
+ * Сверяет events.confirmed_requests с request-service. Счетчик обновляет сам request-service
+ * после каждого подтверждения и отмены, сверка исправляет потерянные уведомления.
+ * Сверяются только опубликованные события с ограничением участников: для остальных счетчик
+ * не влияет на выдачу.
+ * <p>
+ * Первая сверка после старта выполняется всегда и заполняет столбец для событий, созданных до его
+ * появления. Периодическую сверку можно отключить через event.confirmed-sync.enabled, тогда счетчик
+ * держится только уведомлениями, и потерянное уведомление не исправится до следующего старта.
+ * Сверка пишет без версии: если уведомление пришло между ее чтением и записью, до следующего
+ * уведомления или сверки останется прочитанное сверкой значение.
+ */
+@Slf4j
+@Component
+public class ConfirmedRequestsSync {
+
+    private final RequestFeign requestFeign;
+    private final EventRepository eventRepository;
+    private final JdbcTemplate jdbcTemplate;
+    private final int batchSize;
+    private final boolean enabled;
+
+    public ConfirmedRequestsSync(RequestFeign requestFeign,
+                                 EventRepository eventRepository,
+                                 JdbcTemplate jdbcTemplate,
+                                 @Value("${event.confirmed-sync.batch-size:500}") int batchSize,
+                                 @Value("${event.confirmed-sync.enabled:true}") boolean enabled) {
+        this.requestFeign = requestFeign;
+        this.eventRepository = eventRepository;
+        this.jdbcTemplate = jdbcTemplate;
+        this.batchSize = batchSize;
+        this.enabled = enabled;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void backfill() {
+        Thread.ofVirtual().name("confirmed-requests-backfill").start(this::sync);
+    }
+
+    @Scheduled(initialDelayString = "${event.confirmed-sync.interval-ms:600000}",
+            fixedDelayString = "${event.confirmed-sync.interval-ms:600000}")
+    public void run() {
+        if (enabled) {
+            sync();
+        }
+    }
+
+    private void sync() {
+        try {
+            long afterId = 0;
+            int updated = 0;
+            List<Long> ids;
+            do {
+                ids = eventRepository.findLimitedIdsAfter(afterId, PUBLISHED, Limit.of(batchSize));
+                if (!ids.isEmpty()) {
+                    updated += update(ids);
+                    afterId = ids.getLast();
+                }
+            } while (ids.size() == batchSize);
+            if (updated > 0) {
+                log.info("Сверка подтвержденных заявок: исправлено {} событий", updated);
+            }
+        } catch (RuntimeException e) {
+            log.warn("Не удалось сверить подтвержденные заявки: {}", e.getMessage());
+        }
+    }
+
+    private int update(List<Long> eventIds) {
+        Map<Long, Integer> counts = new HashMap<>();
+        eventIds.forEach(id -> counts.put(id, 0));
+        for (ConfirmedRequests confirmed : requestFeign.getRequestsByEvents(eventIds)) {
+            counts.put(confirmed.eventId(), confirmed.countRequests());
+        }
+
+        List<Object[]> args = counts.entrySet().stream()
+                .map(entry -> new Object[]{entry.getValue(), entry.getKey(), entry.getValue()})
+                .toList();
+        int updated = 0;
+        for (int count : jdbcTemplate.batchUpdate(
+                "UPDATE events SET confirmed_requests = ? WHERE event_id = ? AND confirmed_requests <> ?", args)) {
+            updated += Math.max(count, 0);
+        }
+        return updated;
+    }
+}
@@ -38,4 +38,9 @@ public interface EventService {
     EventFullDto getEventById(Long eventId);
 
     Set<EventShortDto> getEventsByIds(Set<Long> eventIds);
+
+    /**
+     * @param version момент чтения count в request-service; null - записать без проверки версии
+     */
+    void setConfirmedRequests(Long eventId, Integer count, Long version);
 }
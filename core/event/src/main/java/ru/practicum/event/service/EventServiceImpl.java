@@ -25,6 +25,7 @@ import ru.practicum.event.model.Category;
 import ru.practicum.event.model.Event;
 import ru.practicum.event.model.QEvent;
 import ru.practicum.event.repository.EventRepository;
+import ru.practicum.event.repository.EventViewsRepository;
 import ru.practicum.event.repository.LocationRepository;
 import ru.practicum.event.service.param.GetEventAdminParam;
 import ru.practicum.event.service.param.GetEventUserParam;
@@ -61,6 +62,7 @@ public class EventServiceImpl implements EventService {
     private final EventRepository eventRepository;
     private final MapperEvent eventMapper;
     private final LocationRepository locationRepository;
+    private final EventViewsRepository eventViewsRepository;
     private final ResponseEventBuilder responseEventBuilder;
     private final CategoryService categoryService;
     private final MapperCategory mapperCategory;
@@ -123,14 +125,12 @@ public class EventServiceImpl implements EventService {
             requestBuilder.and(event.eventDate.lt(param.getRangeEnd()));
         }
 
-        List<Event> events = eventRepository.findAll(requestBuilder, param.getPage()).getContent();
-        List<EventShortDto> eventDtoList = responseEventBuilder.buildManyEventResponseDto(events, EventShortDto.class);
-
         if (param.getOnlyAvailable()) {
-            eventDtoList.removeIf(dto -> dto.getConfirmedRequests() == dto.getParticipantLimit());
+            requestBuilder.andAnyOf(event.participantLimit.eq(0), event.confirmedRequests.lt(event.participantLimit));
         }
 
-        return eventDtoList;
+        List<Event> events = eventRepository.findAll(requestBuilder, param.getPage()).getContent();
+        return responseEventBuilder.buildManyEventResponseDto(events, EventShortDto.class);
     }
 
     @Override
@@ -162,6 +162,8 @@ public class EventServiceImpl implements EventService {
         locationRepository.save(event.getLocation());
 
         event = eventRepository.save(event);
+        // сортировка по просмотрам соединяет events с event_views, строка нужна каждому событию
+        eventViewsRepository.insertIfAbsent(event.getId());
         return responseEventBuilder.buildOneEventResponseDto(event, EventFullDto.class);
     }
 
@@ -343,6 +345,18 @@ public class EventServiceImpl implements EventService {
                 .collect(Collectors.toSet());
     }
 
+    @Override
+    @Transactional
+    public void setConfirmedRequests(Long eventId, Integer count, Long version) {
+        if (eventRepository.updateConfirmedRequests(eventId, count, version) > 0) {
+            return;
+        }
+        if (!eventRepository.existsById(eventId)) {
+            throw new NotFoundException(EVENT_NOT_FOUND);
+        }
+        log.debug("Число подтвержденных заявок события {} с версией {} устарело и не записано", eventId, version);
+    }
+
     private void updateEvent(Event event, UpdateEventParam param) {
         if (param.hasCategory()) {
             Category category = mapperCategory.toCategory(categoryService.getById(param.getCategory()));
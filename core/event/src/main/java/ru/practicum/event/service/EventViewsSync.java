@@ -0,0 +1,154 @@
+package ru.practicum.event.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.domain.Limit;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import ru.practicum.dto.ViewStatsDto;
+import ru.practicum.event.repository.EventViewsRepository;
+import ru.practicum.feign.StatsFeign;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Переносит просмотры событий из сервера статистики в event_views.
+ * <p>
+ * Обычный запуск обновляет только события, у которых за время с прошлого запуска (с запасом overlap)
+ * появились хиты: их находит запрос /stats за это окно. Хиты, дошедшие до статистики позже запаса,
+ * подхватывает полное обновление раз в full-interval. Запуски идемпотентны, поэтому
+ * выполнение на нескольких экземплярах сразу лишь повторяет работу.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "event.views-sync.enabled", havingValue = "true", matchIfMissing = true)
+public class EventViewsSync {
+
+    private static final String EVENT_URI_PREFIX = "/events/";
+
+    private final StatsFeign statsFeign;
+    private final EventViewsRepository eventViewsRepository;
+    private final JdbcTemplate jdbcTemplate;
+    private final int batchSize;
+    private final Duration overlap;
+    private final Duration fullInterval;
+
+    private LocalDateTime syncedTo;
+    private LocalDateTime fullSyncedAt;
+
+    public EventViewsSync(StatsFeign statsFeign,
+                          EventViewsRepository eventViewsRepository,
+                          JdbcTemplate jdbcTemplate,
+                          @Value("${event.views-sync.batch-size:500}") int batchSize,
+                          @Value("${event.views-sync.overlap-ms:60000}") long overlapMs,
+                          @Value("${event.views-sync.full-interval-ms:3600000}") long fullIntervalMs) {
+        this.statsFeign = statsFeign;
+        this.eventViewsRepository = eventViewsRepository;
+        this.jdbcTemplate = jdbcTemplate;
+        this.batchSize = batchSize;
+        this.overlap = Duration.ofMillis(overlapMs);
+        this.fullInterval = Duration.ofMillis(fullIntervalMs);
+    }
+
+    @Scheduled(fixedDelayString = "${event.views-sync.interval-ms:30000}")
+    public synchronized void run() {
+        LocalDateTime now = LocalDateTime.now();
+        try {
+            if (fullSyncedAt == null || fullSyncedAt.plus(fullInterval).isBefore(now)) {
+                syncAll();
+                fullSyncedAt = now;
+            } else {
+                syncChanged(syncedTo.minus(overlap), now);
+            }
+            syncedTo = now;
+        } catch (RuntimeException e) {
+            // окно не сдвигается: следующий запуск повторит его целиком
+            log.warn("Не удалось обновить просмотры событий: {}", e.getMessage());
+        }
+    }
+
+    private void syncAll() {
+        long afterId = 0;
+        int updated = 0;
+        List<Long> ids;
+        do {
+            ids = eventViewsRepository.findIdsAfter(afterId, Limit.of(batchSize));
+            if (!ids.isEmpty()) {
+                updated += update(ids);
+                afterId = ids.getLast();
+            }
+        } while (ids.size() == batchSize);
+        log.info("Полное обновление просмотров событий: изменено {}", updated);
+    }
+
+    private void syncChanged(LocalDateTime start, LocalDateTime end) {
+        List<ViewStatsDto> stats = statsFeign.getStats(start, end, null, false).getBody();
+        if (stats == null || stats.isEmpty()) {
+            return;
+        }
+
+        Set<Long> ids = new LinkedHashSet<>();
+        for (ViewStatsDto stat : stats) {
+            Long eventId = eventIdOf(stat.getUri());
+            if (eventId != null) {
+                ids.add(eventId);
+            }
+        }
+
+        List<Long> batch = new ArrayList<>(batchSize);
+        int updated = 0;
+        for (Long id : ids) {
+            batch.add(id);
+            if (batch.size() == batchSize) {
+                updated += update(batch);
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) {
+            updated += update(batch);
+        }
+        log.debug("Просмотры обновлены у {} из {} событий с хитами за [{}, {}]", updated, ids.size(), start, end);
+    }
+
+    /**
+     * Записывает текущие просмотры событий; строки, где значение не изменилось, не трогаются.
+     */
+    private int update(Collection<Long> eventIds) {
+        Map<Long, Long> views = statsFeign.getEventViews(List.copyOf(eventIds), true).getBody();
+        if (views == null || views.isEmpty()) {
+            return 0;
+        }
+
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        List<Object[]> args = views.entrySet().stream()
+                .map(entry -> new Object[]{entry.getValue(), now, entry.getKey(), entry.getValue()})
+                .toList();
+        int updated = 0;
+        for (int count : jdbcTemplate.batchUpdate(
+                "UPDATE event_views SET views = ?, updated_at = ? WHERE event_id = ? AND views <> ?", args)) {
+            updated += Math.max(count, 0);
+        }
+        return updated;
+    }
+
+    private static Long eventIdOf(String uri) {
+        if (uri == null || !uri.startsWith(EVENT_URI_PREFIX)) {
+            return null;
+        }
+        try {
+            return Long.parseLong(uri.substring(EVENT_URI_PREFIX.length()));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
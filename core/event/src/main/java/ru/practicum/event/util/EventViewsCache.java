@@ -0,0 +1,149 @@
+package ru.practicum.event.util;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.practicum.feign.StatsFeign;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Просмотры одного события по схеме stale-while-revalidate. Значение моложе staleness отдается как есть,
+ * более старое тоже отдается сразу, но в фоне запрашивается новое. Ждать сервер статистики приходится
+ * только при первом обращении к событию или если значение старше expire. Одновременные обновления
+ * одного события объединяются в один запрос, поэтому просмотры отстают не больше чем на staleness
+ * плюс время одного запроса к статистике.
+ */
+@Slf4j
+@Component
+public class EventViewsCache {
+
+    private final StatsFeign statsFeign;
+    private final boolean enabled;
+    private final long stalenessNanos;
+    private final long expireNanos;
+    private final int maxSize;
+    private final Map<Long, Entry> entries;
+    private final Map<Long, CompletableFuture<Long>> inFlight = new ConcurrentHashMap<>();
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    private final Counter hits;
+    private final Counter staleHits;
+    private final Counter misses;
+
+    public EventViewsCache(StatsFeign statsFeign,
+                           MeterRegistry meterRegistry,
+                           @Value("${event.views-cache.enabled:true}") boolean enabled,
+                           @Value("${event.views-cache.staleness-ms:5000}") long stalenessMs,
+                           @Value("${event.views-cache.expire-ms:600000}") long expireMs,
+                           @Value("${event.views-cache.max-size:10000}") int maxSize) {
+        this.statsFeign = statsFeign;
+        this.enabled = enabled;
+        this.stalenessNanos = TimeUnit.MILLISECONDS.toNanos(stalenessMs);
+        this.expireNanos = TimeUnit.MILLISECONDS.toNanos(expireMs);
+        this.maxSize = maxSize;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Entry> eldest) {
+                return size() > EventViewsCache.this.maxSize;
+            }
+        };
+
+        this.hits = Counter.builder("event.views.cache.hits").register(meterRegistry);
+        this.staleHits = Counter.builder("event.views.cache.stale.hits").register(meterRegistry);
+        this.misses = Counter.builder("event.views.cache.misses").register(meterRegistry);
+        Gauge.builder("event.views.cache.size", this, cache -> cache.size()).register(meterRegistry);
+        Gauge.builder("event.views.cache.refreshing", inFlight, Map::size).register(meterRegistry);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Просмотры события: готовое значение из кэша или будущий ответ сервера статистики.
+     * Если значение старше expire и обновить его не удалось, возвращается прежнее значение.
+     * Отмена возвращенного будущего не прерывает запрос, который ждут другие.
+     */
+    public CompletableFuture<Long> get(long eventId) {
+        if (!enabled) {
+            return CompletableFuture.supplyAsync(() -> fetch(eventId), executor);
+        }
+
+        Entry entry = lookup(eventId);
+        long age = entry == null ? Long.MAX_VALUE : System.nanoTime() - entry.loadedNanos();
+        if (age < stalenessNanos) {
+            hits.increment();
+            return CompletableFuture.completedFuture(entry.views());
+        }
+        if (age < expireNanos) {
+            staleHits.increment();
+            refresh(eventId);
+            return CompletableFuture.completedFuture(entry.views());
+        }
+        misses.increment();
+        if (entry == null) {
+            return refresh(eventId).copy();
+        }
+        // устаревшее значение лучше нуля, если сервер статистики недоступен
+        return refresh(eventId).copy().exceptionally(e -> entry.views());
+    }
+
+    /**
+     * Запускает запрос просмотров события, если он еще не идет, и возвращает идущий запрос.
+     */
+    private CompletableFuture<Long> refresh(long eventId) {
+        CompletableFuture<Long> future = new CompletableFuture<>();
+        CompletableFuture<Long> running = inFlight.putIfAbsent(eventId, future);
+        if (running != null) {
+            return running;
+        }
+
+        executor.execute(() -> {
+            try {
+                long views = fetch(eventId);
+                put(eventId, views);
+                future.complete(views);
+            } catch (RuntimeException e) {
+                // при ошибке остается прежнее значение, следующее обращение попробует снова
+                log.debug("Не удалось обновить просмотры события {}: {}", eventId, e.getMessage());
+                future.completeExceptionally(e);
+            } finally {
+                inFlight.remove(eventId, future);
+            }
+        });
+        return future;
+    }
+
+    private long fetch(long eventId) {
+        Map<Long, Long> views = statsFeign.getEventViews(List.of(eventId), true).getBody();
+        return views == null ? 0L : views.getOrDefault(eventId, 0L);
+    }
+
+    private synchronized Entry lookup(long eventId) {
+        return entries.get(eventId);
+    }
+
+    private synchronized void put(long eventId, long views) {
+        entries.put(eventId, new Entry(views, System.nanoTime()));
+    }
+
+    private synchronized int size() {
+        return entries.size();
+    }
+
+    private record Entry(long views, long loadedNanos) {
+    }
+}
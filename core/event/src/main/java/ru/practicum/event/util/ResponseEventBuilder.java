@@ -1,148 +1,207 @@
 package ru.practicum.event.util;
 
-import lombok.RequiredArgsConstructor;
+import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
-import ru.practicum.dto.ConfirmedRequests;
 import ru.practicum.dto.EventFullDto;
 import ru.practicum.dto.EventShortDto;
 import ru.practicum.dto.ResponseEvent;
-import ru.practicum.dto.StatParam;
 import ru.practicum.dto.UserShortDto;
-import ru.practicum.dto.ViewStatsDto;
-import ru.practicum.enums.RequestStatus;
 import ru.practicum.event.mapper.MapperEvent;
 import ru.practicum.event.model.Event;
-import ru.practicum.feign.RequestFeign;
+import ru.practicum.exception.ServiceUnavailableException;
+import ru.practicum.loader.BatchLoader;
+import ru.practicum.loader.ConfirmedRequestsLoader;
+import ru.practicum.loader.UserShortLoader;
+import ru.practicum.feign.ForwardedHeaders;
 import ru.practicum.feign.StatsFeign;
-import ru.practicum.feign.UserFeign;
 
-import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-
-import static ru.practicum.Constants.MIN_START_DATE;
-
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Collectors;
+
+/**
+ * Собирает ответ по событиям: инициатор, подтвержденные заявки и просмотры запрашиваются
+ * параллельно в виртуальных потоках, каждый источник со своим таймаутом. Без инициатора
+ * и заявок ответ не собрать, а просмотры при сбое или таймауте считаются нулевыми.
+ * Инициаторы и заявки берутся через пакетные загрузчики: на все события - по одному вызову сервиса.
+ * Просмотры одного события берутся из {@link EventViewsCache}. Если обязательный источник не ответил,
+ * остальные вызовы этого ответа отменяются.
+ */
 @Component
-@RequiredArgsConstructor
 @Slf4j
 public class ResponseEventBuilder {
     private final MapperEvent eventMapper;
     private final StatsFeign statsFeign;
-    private final RequestFeign requestFeign;
-    private final UserFeign userFeign;
-
-    public <T extends ResponseEvent> T buildOneEventResponseDto(Event event, Class<T> type) {
-        T dto;
+    private final ConfirmedRequestsLoader confirmedRequestsLoader;
+    private final UserShortLoader userShortLoader;
+    private final EventViewsCache eventViewsCache;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final long usersTimeoutNanos;
+    private final long requestsTimeoutNanos;
+    private final long viewsTimeoutNanos;
+
+    public ResponseEventBuilder(MapperEvent eventMapper,
+                                StatsFeign statsFeign,
+                                ConfirmedRequestsLoader confirmedRequestsLoader,
+                                UserShortLoader userShortLoader,
+                                EventViewsCache eventViewsCache,
+                                @Value("${event.enrichment.users-timeout-ms:2000}") long usersTimeoutMs,
+                                @Value("${event.enrichment.requests-timeout-ms:2000}") long requestsTimeoutMs,
+                                @Value("${event.enrichment.views-timeout-ms:500}") long viewsTimeoutMs) {
+        this.eventMapper = eventMapper;
+        this.statsFeign = statsFeign;
+        this.confirmedRequestsLoader = confirmedRequestsLoader;
+        this.userShortLoader = userShortLoader;
+        this.eventViewsCache = eventViewsCache;
+        this.usersTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(usersTimeoutMs);
+        this.requestsTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(requestsTimeoutMs);
+        this.viewsTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(viewsTimeoutMs);
+    }
 
-        if (type == EventFullDto.class) {
-            EventFullDto dtoTemp = eventMapper.toEventFullDto(event);
-            UserShortDto user = userFeign.getUser(event.getInitiatorId());
-            dtoTemp.setInitiator(user);
-            dto = type.cast(dtoTemp);
-        } else {
-            EventShortDto dtoTemp = eventMapper.toEventShortDto(event);
-            UserShortDto user = userFeign.getUser(event.getInitiatorId());
-            dtoTemp.setInitiator(user);
-            dto = type.cast(dtoTemp);
-        }
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
 
+    public <T extends ResponseEvent> T buildOneEventResponseDto(Event event, Class<T> type) {
+        long startNanos = System.nanoTime();
         long eventId = event.getId();
-        LocalDateTime created = event.getCreatedOn();
+        Future<UserShortDto> user = submit(() -> userShortLoader.get(event.getInitiatorId()));
+        Future<Integer> confirmedRequests = submit(() -> confirmedRequestsLoader.get(eventId));
+        // будущее из кэша просмотров общее с другими запросами, его не отменяем
+        Future<Long> views = eventViewsCache.get(eventId);
 
-        dto.setConfirmedRequests(getOneEventConfirmedRequests(eventId));
-        dto.setViews(getOneEventViews(created, eventId));
+        T dto;
+        try {
+            dto = toDto(event, type, await(user, startNanos + usersTimeoutNanos, "user-service"));
+            dto.setConfirmedRequests(await(confirmedRequests, startNanos + requestsTimeoutNanos, "request-service"));
+        } catch (RuntimeException e) {
+            cancel(user, confirmedRequests);
+            throw e;
+        }
+        dto.setViews(awaitOrDefault(views, startNanos + viewsTimeoutNanos, "stats-server", 0L));
         return dto;
     }
 
     public <T extends ResponseEvent> List<T> buildManyEventResponseDto(List<Event> events, Class<T> type) {
-        Map<Long, T> dtoById = new HashMap<>();
+        long startNanos = System.nanoTime();
+        List<Long> eventIds = events.stream().map(Event::getId).toList();
+
+        Set<Long> initiatorIds = events.stream().map(Event::getInitiatorId).collect(Collectors.toSet());
+        Future<Map<Long, UserShortDto>> users = submit(() -> userShortLoader.getMany(initiatorIds));
+        Future<Map<Long, Integer>> confirmedRequests = submit(() -> confirmedRequestsLoader.getMany(eventIds));
+        Future<Map<Long, Long>> views = submit(() -> getManyEventsViews(eventIds));
+
+        Map<Long, UserShortDto> usersById;
+        Map<Long, Integer> confirmedById;
+        try {
+            usersById = await(users, startNanos + usersTimeoutNanos, "user-service");
+            confirmedById = await(confirmedRequests, startNanos + requestsTimeoutNanos, "request-service");
+        } catch (RuntimeException e) {
+            cancel(users, confirmedRequests, views);
+            throw e;
+        }
 
+        Map<Long, T> dtoById = new LinkedHashMap<>();
         for (Event event : events) {
-            if (type == EventFullDto.class) {
-                EventFullDto dtoTemp = eventMapper.toEventFullDto(event);
-                UserShortDto user = userFeign.getUser(event.getInitiatorId());
-                dtoTemp.setInitiator(user);
-                dtoById.put(event.getId(), type.cast(dtoTemp));
-            } else {
-                EventShortDto dtoTemp = eventMapper.toEventShortDto(event);
-                UserShortDto user = userFeign.getUser(event.getInitiatorId());
-                dtoTemp.setInitiator(user);
-                dtoById.put(event.getId(), type.cast(dtoTemp));
-            }
+            dtoById.put(event.getId(), toDto(event, type, usersById.get(event.getInitiatorId())));
         }
+        dtoById.forEach((eventId, dto) -> dto.setConfirmedRequests(confirmedById.getOrDefault(eventId, 0)));
 
-        getManyEventsConfirmedRequests(dtoById.keySet()).forEach(req ->
-                dtoById.get(req.eventId()).setConfirmedRequests(req.countRequests()));
-
-
-        getManyEventsViews(dtoById.keySet()).forEach(stats -> {
-            Long id = Long.parseLong(stats.getUri().replace("/events/", ""));
-            dtoById.get(id).setViews(stats.getHits());
-        });
+        Map<Long, Long> viewsById = awaitOrDefault(views, startNanos + viewsTimeoutNanos, "stats-server", Map.of());
+        dtoById.forEach((eventId, dto) -> dto.setViews(viewsById.getOrDefault(eventId, 0L)));
 
         return new ArrayList<>(dtoById.values());
     }
 
-    private int getOneEventConfirmedRequests(long eventId) {
-        return Math.toIntExact(requestFeign.getRequestsByEventId(eventId).stream()
-                .filter(request -> request.getStatus().equals(RequestStatus.CONFIRMED))
-                .count());
+    private <T extends ResponseEvent> T toDto(Event event, Class<T> type, UserShortDto user) {
+        if (type == EventFullDto.class) {
+            EventFullDto dtoTemp = eventMapper.toEventFullDto(event);
+            dtoTemp.setInitiator(user);
+            return type.cast(dtoTemp);
+        } else {
+            EventShortDto dtoTemp = eventMapper.toEventShortDto(event);
+            dtoTemp.setInitiator(user);
+            return type.cast(dtoTemp);
+        }
     }
 
-    private long getOneEventViews(LocalDateTime created, long eventId) {
-        StatParam statParam = StatParam.builder()
-                .start(created.minusMinutes(1))
-                .end(LocalDateTime.now().plusMinutes(1))
-                .unique(true)
-                .uris(List.of("/events/" + eventId))
-                .build();
-
-        List<ViewStatsDto> viewStats = statsFeign.getStats(statParam.getStart(), statParam.getEnd(), statParam.getUris(), statParam.getUnique()).getBody();
-
-        if (viewStats == null) {
-            viewStats = new ArrayList<>();
+    /**
+     * Просмотры событий одним запросом по их id: сервер статистики сам знает, какой uri у события.
+     */
+    private Map<Long, Long> getManyEventsViews(Collection<Long> eventIds) {
+        if (eventIds.isEmpty()) {
+            return Map.of();
         }
 
-        log.debug("Статистика пустая = {} . Одиночный от статистики по запросу uris = {}, start = {}, end = {}",
-                viewStats.isEmpty(),
-                statParam.getUris(),
-                statParam.getStart(),
-                statParam.getEnd());
-        return viewStats.isEmpty() ? 0 : viewStats.getFirst().getHits();
-    }
+        Map<Long, Long> views = statsFeign.getEventViews(List.copyOf(eventIds), true).getBody();
 
-    private List<ConfirmedRequests> getManyEventsConfirmedRequests(Collection<Long> eventIds) {
-        return requestFeign.getRequestsByEvents(eventIds.stream().toList());
+        log.debug("Статистика пустая = {} . Пакетный ответ от статистики по {} событиям",
+                views == null,
+                eventIds.size());
+        return views == null ? Map.of() : views;
     }
 
-    private List<ViewStatsDto> getManyEventsViews(Collection<Long> eventIds) {
-        List<String> uris = eventIds.stream()
-                .map(id -> "/events/" + id)
-                .toList();
-
-        StatParam statParam = StatParam.builder()
-                .start(MIN_START_DATE)
-                .end(LocalDateTime.now().plusMinutes(1))
-                .unique(true)
-                .uris(uris)
-                .build();
+    /**
+     * Запускает вызов в виртуальном потоке. Заголовки исходного запроса и память загрузчиков берутся сейчас,
+     * в потоке запроса: сам запрос в рабочий поток не передается, он может завершиться раньше вызова,
+     * если другой источник упал.
+     */
+    private <V> Future<V> submit(Callable<V> call) {
+        return executor.submit(ForwardedHeaders.propagate(BatchLoader.propagate(call)));
+    }
 
-        List<ViewStatsDto> viewStats = statsFeign.getStats(statParam.getStart(), statParam.getEnd(), statParam.getUris(),
-                statParam.getUnique()).getBody();
+    private void cancel(Future<?>... futures) {
+        for (Future<?> future : futures) {
+            future.cancel(true);
+        }
+    }
 
-        if (viewStats == null) {
-            viewStats = new ArrayList<>();
+    /**
+     * Ждет обязательный источник до deadlineNanos; ошибка вызова пробрасывается как есть.
+     */
+    private <V> V await(Future<V> future, long deadlineNanos, String source) {
+        try {
+            return future.get(Math.max(0, deadlineNanos - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            throw new ServiceUnavailableException("Сервис " + source + " не ответил вовремя");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw new IllegalStateException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServiceUnavailableException("Ожидание ответа сервиса " + source + " прервано");
         }
+    }
 
-        log.debug("Получен ответ size = {}, массовый от статистики по запросу uris = {}, start = {}, end = {}",
-                viewStats.size(),
-                statParam.getUris(),
-                statParam.getStart(),
-                statParam.getEnd());
-        return viewStats;
+    /**
+     * Ждет необязательный источник до deadlineNanos; при ошибке или таймауте возвращает defaultValue.
+     */
+    private <V> V awaitOrDefault(Future<V> future, long deadlineNanos, String source, V defaultValue) {
+        try {
+            return await(future, deadlineNanos, source);
+        } catch (ServiceUnavailableException e) {
+            log.warn("{}, ответ собран без этих данных", e.getMessage());
+            return defaultValue;
+        } catch (RuntimeException e) {
+            log.warn("Ошибка запроса к {}, ответ собран без этих данных", source, e);
+            return defaultValue;
+        }
     }
 }
@@ -20,6 +20,8 @@ CREATE TABLE IF NOT EXISTS events
     paid               BOOLEAN       NOT NULL,
     participant_limit  INTEGER       NOT NULL,
     request_moderation BOOLEAN       NOT NULL,
+    confirmed_requests INTEGER       NOT NULL DEFAULT 0,
+    confirmed_requests_version BIGINT,
     CONSTRAINT annotation_len CHECK (LENGTH(annotation) >= 20 AND LENGTH(annotation) <= 2000),
     CONSTRAINT description_len CHECK (LENGTH(description) >= 20 AND LENGTH(description) <= 7000),
     CONSTRAINT event_title_len CHECK (LENGTH(event_title) >= 3 AND LENGTH(event_title) <= 120),
@@ -27,6 +29,21 @@ CREATE TABLE IF NOT EXISTS events
     CONSTRAINT event_date_not_null CHECK (event_date <> NULL)
 );
 
+ALTER TABLE events
+    ADD COLUMN IF NOT EXISTS confirmed_requests INTEGER NOT NULL DEFAULT 0;
+
+ALTER TABLE events
+    ADD COLUMN IF NOT EXISTS confirmed_requests_version BIGINT;
+
+CREATE TABLE IF NOT EXISTS event_views
+(
+    event_id   BIGINT PRIMARY KEY,
+    views      BIGINT NOT NULL DEFAULT 0,
+    updated_at TIMESTAMP WITHOUT TIME ZONE
+);
+
+CREATE INDEX IF NOT EXISTS event_views_views_idx ON event_views (views DESC, event_id);
+
 CREATE TABLE IF NOT EXISTS locations
 (
     event_id  BIGINT PRIMARY KEY,
@@ -44,4 +61,15 @@ ALTER TABLE locations
     DROP CONSTRAINT IF EXISTS fk_locations_event_id;
 ALTER TABLE locations
     ADD CONSTRAINT fk_locations_event_id FOREIGN KEY (event_id)
-        REFERENCES events (event_id) ON DELETE CASCADE;
\ No newline at end of file
+        REFERENCES events (event_id) ON DELETE CASCADE;
+
+ALTER TABLE event_views
+    DROP CONSTRAINT IF EXISTS fk_event_views_event_id;
+ALTER TABLE event_views
+    ADD CONSTRAINT fk_event_views_event_id FOREIGN KEY (event_id)
+        REFERENCES events (event_id) ON DELETE CASCADE;
+
+INSERT INTO event_views (event_id)
+SELECT event_id
+FROM events
+ON CONFLICT DO NOTHING;
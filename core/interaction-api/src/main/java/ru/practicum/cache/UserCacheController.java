@@ -0,0 +1,59 @@
+package ru.practicum.cache;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+/**
+ * Сброс записей {@link UserShortCache} по уведомлению user-service. Через gateway не маршрутизируется.
+ * Сервис с включенным кэшем отмечает себя в Eureka метаданными user-cache=true,
+ * по ним user-service находит экземпляры, которые нужно уведомить.
+ * Запрос принимается только с заголовком {@value #SECRET_HEADER}, равным user.cache.secret;
+ * без настроенного секрета отклоняются все запросы.
+ */
+@Slf4j
+@RestController
+@RequestMapping(UserCacheController.PATH)
+@ConditionalOnProperty(name = "user.cache.enabled", havingValue = "true")
+public class UserCacheController {
+
+    public static final String PATH = "/internal/cache/users";
+    public static final String METADATA_KEY = "user-cache";
+    public static final String SECRET_HEADER = "X-User-Cache-Secret";
+
+    private final UserShortCache userShortCache;
+    private final byte[] secret;
+
+    public UserCacheController(UserShortCache userShortCache,
+                               @Value("${user.cache.secret:}") String secret) {
+        this.userShortCache = userShortCache;
+        this.secret = secret.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @DeleteMapping("/{userId}")
+    public ResponseEntity<Void> invalidate(@PathVariable Long userId,
+                                           @RequestHeader(name = SECRET_HEADER, required = false) String token) {
+        if (!authorized(token)) {
+            log.warn("Отклонен DELETE {}/{}: неверный секрет", PATH, userId);
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+        log.debug("Получен DELETE {}/{}", PATH, userId);
+        userShortCache.invalidate(userId);
+        return ResponseEntity.noContent().build();
+    }
+
+    private boolean authorized(String token) {
+        return secret.length > 0 && token != null
+                && MessageDigest.isEqual(secret, token.getBytes(StandardCharsets.UTF_8));
+    }
+}
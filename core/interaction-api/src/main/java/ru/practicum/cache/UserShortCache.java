@@ -0,0 +1,133 @@
+package ru.practicum.cache;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import ru.practicum.dto.UserShortDto;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Ближний кэш пользователей перед user-service с ограничением по размеру (LRU) и по времени жизни.
+ * Отсутствующие пользователи тоже запоминаются, на меньший срок negative-ttl-seconds.
+ * При удалении пользователя user-service сбрасывает запись через {@link UserCacheController},
+ * срок жизни ограничивает устаревание, если сброс не дошел.
+ * <p>
+ * Подключается через @Import вместе с {@link UserCacheController} и включается user.cache.enabled.
+ */
+public class UserShortCache {
+
+    private final boolean enabled;
+    private final long ttlNanos;
+    private final long negativeTtlNanos;
+    private final int maxSize;
+    private final Map<Long, Entry> entries;
+    private long invalidations;
+
+    private final Counter hits;
+    private final Counter negativeHits;
+    private final Counter misses;
+    private final Counter evictions;
+
+    public UserShortCache(MeterRegistry meterRegistry,
+                          @Value("${user.cache.enabled:false}") boolean enabled,
+                          @Value("${user.cache.ttl-seconds:300}") long ttlSeconds,
+                          @Value("${user.cache.negative-ttl-seconds:10}") long negativeTtlSeconds,
+                          @Value("${user.cache.max-size:10000}") int maxSize) {
+        this.enabled = enabled;
+        this.ttlNanos = TimeUnit.SECONDS.toNanos(ttlSeconds);
+        this.negativeTtlNanos = TimeUnit.SECONDS.toNanos(negativeTtlSeconds);
+        this.maxSize = maxSize;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Entry> eldest) {
+                return size() > UserShortCache.this.maxSize;
+            }
+        };
+
+        this.hits = Counter.builder("user.cache.hits").register(meterRegistry);
+        this.negativeHits = Counter.builder("user.cache.negative.hits").register(meterRegistry);
+        this.misses = Counter.builder("user.cache.misses").register(meterRegistry);
+        this.evictions = Counter.builder("user.cache.invalidations").register(meterRegistry);
+        Gauge.builder("user.cache.size", this, cache -> cache.size()).register(meterRegistry);
+        Gauge.builder("user.cache.hit.ratio", this, UserShortCache::hitRatio).register(meterRegistry);
+    }
+
+    /**
+     * Пользователи по id: найденные в кэше отдаются сразу, остальные запрашиваются через loader одним вызовом.
+     * Пользователи, которых нет ни в кэше, ни в ответе loader, в результат не попадают.
+     */
+    public Map<Long, UserShortDto> getAll(Set<Long> ids, Function<Set<Long>, Map<Long, UserShortDto>> loader) {
+        if (!enabled) {
+            return loader.apply(ids);
+        }
+
+        Map<Long, UserShortDto> result = new HashMap<>();
+        Set<Long> missed = new HashSet<>();
+        long generation;
+        synchronized (this) {
+            generation = invalidations;
+            long now = System.nanoTime();
+            for (Long id : ids) {
+                Entry entry = entries.get(id);
+                if (entry == null || now - entry.expiresNanos() > 0) {
+                    missed.add(id);
+                } else if (entry.user() == null) {
+                    negativeHits.increment();
+                } else {
+                    hits.increment();
+                    result.put(id, entry.user());
+                }
+            }
+        }
+        if (missed.isEmpty()) {
+            return result;
+        }
+
+        misses.increment(missed.size());
+        Map<Long, UserShortDto> loaded = loader.apply(missed);
+        result.putAll(loaded);
+        put(missed, loaded, generation);
+        return result;
+    }
+
+    /**
+     * Сбрасывает запись пользователя. Ответы, запрошенные до сброса, в кэш уже не попадут.
+     */
+    public synchronized void invalidate(Long userId) {
+        invalidations++;
+        entries.remove(userId);
+        evictions.increment();
+    }
+
+    private synchronized void put(Set<Long> ids, Map<Long, UserShortDto> loaded, long generation) {
+        if (generation != invalidations) {
+            return;
+        }
+        long now = System.nanoTime();
+        for (Long id : ids) {
+            UserShortDto user = loaded.get(id);
+            entries.put(id, new Entry(user, now + (user == null ? negativeTtlNanos : ttlNanos)));
+        }
+    }
+
+    private synchronized int size() {
+        return entries.size();
+    }
+
+    private double hitRatio() {
+        double found = hits.count() + negativeHits.count();
+        double total = found + misses.count();
+        return total == 0 ? 0 : found / total;
+    }
+
+    private record Entry(UserShortDto user, long expiresNanos) {
+    }
+}
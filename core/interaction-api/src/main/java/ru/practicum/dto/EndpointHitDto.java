@@ -22,7 +22,7 @@ public class EndpointHitDto {
     @Size(max = 100, message = "Размерность поля uri не может превышать 100 символов")
     String uri;
     @NotEmpty(message = "Поле ip не может быть пустым")
-    @Size(min = 7, max = 15, message = "Размерность поля ip не может быть меньше 7 и больше 15 символов")
+    @Size(min = 2, max = 45, message = "Размерность поля ip не может быть меньше 2 и больше 45 символов")
     String ip;
     @JsonFormat(shape = JsonFormat.Shape.STRING, pattern = "yyyy-MM-dd HH:mm:ss")
     @NotNull(message = "Поле created не может быть пустым")
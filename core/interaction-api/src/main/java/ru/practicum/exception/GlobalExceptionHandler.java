@@ -31,4 +31,10 @@ public class GlobalExceptionHandler {
     public ApiError handleConflict(final ConflictException e) {
         return e.getError();
     }
+
+    @ExceptionHandler
+    @ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+    public ApiError handleServiceUnavailable(final ServiceUnavailableException e) {
+        return e.getError();
+    }
 }
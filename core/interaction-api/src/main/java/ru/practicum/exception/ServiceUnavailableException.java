@@ -0,0 +1,23 @@
+package ru.practicum.exception;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.experimental.FieldDefaults;
+import org.springframework.http.HttpStatus;
+
+import java.time.LocalDateTime;
+
+@Getter
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+public class ServiceUnavailableException extends RuntimeException {
+    ApiError error;
+
+    public ServiceUnavailableException(String message) {
+        super(message);
+        error = new ApiError(
+                message,
+                "The dependent service did not respond in time.",
+                HttpStatus.SERVICE_UNAVAILABLE,
+                LocalDateTime.now());
+    }
+}
@@ -5,6 +5,7 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import ru.practicum.dto.EventFullDto;
 import ru.practicum.dto.EventShortDto;
@@ -20,4 +21,12 @@ public interface EventFeign {
 
     @GetMapping("/events/find")
     ResponseEntity<Set<EventShortDto>> getEventsByIds(@RequestParam Set<Long> eventIds);
+
+    /**
+     * Текущее число подтвержденных заявок события, для фильтрации событий в event-service.
+     * Значение с версией не больше уже записанной игнорируется.
+     */
+    @PutMapping("/internal/events/{eventId}/confirmed-requests")
+    ResponseEntity<Void> setConfirmedRequests(@PathVariable Long eventId, @RequestParam Integer count,
+                                              @RequestParam Long version);
 }
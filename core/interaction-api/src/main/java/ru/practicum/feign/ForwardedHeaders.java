@@ -0,0 +1,63 @@
+package ru.practicum.feign;
+
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+/**
+ * Заголовки исходного запроса, которые {@link FeignHeadersInterceptor} пересылает в вызовы других сервисов.
+ * В потоке запроса они читаются из самого запроса. В рабочий поток передается снимок значений,
+ * снятый заранее через {@link #propagate(Callable)}: к моменту работы потока запрос может быть
+ * уже завершен и переиспользован контейнером.
+ */
+public final class ForwardedHeaders {
+
+    private static final ThreadLocal<Map<String, List<String>>> SNAPSHOT = new ThreadLocal<>();
+
+    private ForwardedHeaders() {
+    }
+
+    /**
+     * Заголовки текущего потока: снимок, переданный в него, или копия заголовков текущего запроса.
+     */
+    public static Map<String, List<String>> current() {
+        Map<String, List<String>> snapshot = SNAPSHOT.get();
+        if (snapshot != null) {
+            return snapshot;
+        }
+        if (!(RequestContextHolder.getRequestAttributes() instanceof ServletRequestAttributes attributes)) {
+            return Map.of();
+        }
+
+        HttpServletRequest request = attributes.getRequest();
+        Map<String, List<String>> headers = new LinkedHashMap<>();
+        Enumeration<String> names = request.getHeaderNames();
+        while (names != null && names.hasMoreElements()) {
+            String name = names.nextElement();
+            headers.put(name, List.copyOf(Collections.list(request.getHeaders(name))));
+        }
+        return Collections.unmodifiableMap(headers);
+    }
+
+    /**
+     * Снимает заголовки сейчас и возвращает вызов, который выполнится с этим снимком в любом потоке.
+     */
+    public static <V> Callable<V> propagate(Callable<V> call) {
+        Map<String, List<String>> snapshot = current();
+        return () -> {
+            SNAPSHOT.set(snapshot);
+            try {
+                return call.call();
+            } finally {
+                SNAPSHOT.remove();
+            }
+        };
+    }
+}
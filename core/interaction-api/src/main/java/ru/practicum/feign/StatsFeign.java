@@ -1,8 +1,10 @@
 package ru.practicum.feign;
 
+import feign.Response;
 import jakarta.validation.Valid;
 import org.springframework.cloud.openfeign.FeignClient;
 import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.GetMapping;
@@ -10,10 +12,12 @@ import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestParam;
 import ru.practicum.dto.EndpointHitDto;
+import ru.practicum.dto.StatsQueryDto;
 import ru.practicum.dto.ViewStatsDto;
 
 import java.time.LocalDateTime;
 import java.util.List;
+import java.util.Map;
 
 @FeignClient(name = "stats-server")
 @Validated
@@ -27,4 +31,27 @@ public interface StatsFeign {
                                                 @RequestParam(name = "end") @DateTimeFormat(pattern = "yyyy-MM-dd HH:mm:ss") LocalDateTime end,
                                                 @RequestParam(name = "uris", required = false) List<String> uris,
                                                 @RequestParam(name = "unique", defaultValue = "false") Boolean unique);
+
+    /**
+     * Та же статистика потоком application/x-ndjson. Тело читается через
+     * {@link ru.practicum.util.NdjsonReader}, ответ нужно закрыть после чтения.
+     */
+    @GetMapping(value = "/stats", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    Response streamStats(@RequestParam(name = "start") @DateTimeFormat(pattern = "yyyy-MM-dd HH:mm:ss") LocalDateTime start,
+                         @RequestParam(name = "end") @DateTimeFormat(pattern = "yyyy-MM-dd HH:mm:ss") LocalDateTime end,
+                         @RequestParam(name = "uris", required = false) List<String> uris,
+                         @RequestParam(name = "unique", defaultValue = "false") Boolean unique);
+
+    /**
+     * Пакет запросов статистики с собственными окнами; i-й список ответа соответствует i-му запросу.
+     */
+    @PostMapping("/stats/query")
+    ResponseEntity<List<List<ViewStatsDto>>> queryStats(@RequestBody List<StatsQueryDto> queries);
+
+    /**
+     * Просмотры событий по их id за всю историю; для событий без хитов в ответе 0.
+     */
+    @PostMapping("/stats/views/events")
+    ResponseEntity<Map<Long, Long>> getEventViews(@RequestBody List<Long> eventIds,
+                                                  @RequestParam(name = "unique", defaultValue = "true") Boolean unique);
 }
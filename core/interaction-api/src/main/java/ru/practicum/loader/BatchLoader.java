@@ -0,0 +1,219 @@
+package ru.practicum.loader;
+
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Загрузчик по ключам с пакетированием в рамках одного HTTP-запроса (DataLoader).
+ * {@link #load} только ставит ключ в очередь, первый {@link #get} или {@link #dispatch} отправляет
+ * все накопленные ключи одним пакетным вызовом. Повторные ключи в пределах запроса отвечаются
+ * из памяти запроса без вызова.
+ * <p>
+ * Вне HTTP-запроса память не сохраняется, каждый get - отдельный пакетный вызов.
+ * Рабочие потоки запроса видят его память, если вызов обернут в {@link #propagate(Callable)}
+ * в потоке запроса: сам запрос в поток не передается, только его память загрузчиков.
+ *
+ * @param <K> ключ
+ * @param <V> значение
+ */
+public abstract class BatchLoader<K, V> {
+
+    private static final String ATTRIBUTE = BatchLoader.class.getName();
+    private static final ThreadLocal<Map<String, State<?, ?>>> PROPAGATED = new ThreadLocal<>();
+
+    private final String key = getClass().getName();
+
+    /**
+     * Возвращает вызов, который в любом потоке работает с памятью загрузчиков текущего HTTP-запроса.
+     * Вне запроса вызов возвращается как есть.
+     */
+    public static <V> Callable<V> propagate(Callable<V> call) {
+        Map<String, State<?, ?>> states = requestStates();
+        if (states == null) {
+            return call;
+        }
+        return () -> {
+            Map<String, State<?, ?>> previous = PROPAGATED.get();
+            PROPAGATED.set(states);
+            try {
+                return call.call();
+            } finally {
+                if (previous == null) {
+                    PROPAGATED.remove();
+                } else {
+                    PROPAGATED.set(previous);
+                }
+            }
+        };
+    }
+
+    /**
+     * Пакетный вызов: значения для найденных ключей, отсутствующие в ответе считаются не найденными.
+     */
+    protected abstract Map<K, V> loadAll(Set<K> keys);
+
+    /**
+     * Значение для не найденного ключа. По умолчанию null, можно бросить исключение.
+     */
+    protected V missing(K key) {
+        return null;
+    }
+
+    /**
+     * Ставит ключ в очередь и возвращает будущее значение; запрос уйдет при следующем dispatch.
+     * Вне HTTP-запроса копить ключи негде, поэтому вызов выполняется сразу.
+     */
+    public CompletableFuture<V> load(K key) {
+        State<K, V> state = state();
+        CompletableFuture<V> future = load(state, key);
+        if (!state.scoped) {
+            dispatch(state);
+        }
+        return future;
+    }
+
+    public V get(K key) {
+        State<K, V> state = state();
+        CompletableFuture<V> future = load(state, key);
+        dispatch(state);
+        return join(future);
+    }
+
+    /**
+     * Значения для ключей одним пакетным вызовом; ключи со значением null в результат не попадают.
+     */
+    public Map<K, V> getMany(Collection<K> keys) {
+        State<K, V> state = state();
+        Map<K, CompletableFuture<V>> futures = new LinkedHashMap<>();
+        keys.forEach(key -> futures.put(key, load(state, key)));
+        dispatch(state);
+
+        Map<K, V> result = new LinkedHashMap<>();
+        futures.forEach((key, future) -> {
+            V value = join(future);
+            if (value != null) {
+                result.put(key, value);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Отправляет все ключи, накопленные через {@link #load}, одним пакетным вызовом.
+     */
+    public void dispatch() {
+        dispatch(state());
+    }
+
+    private CompletableFuture<V> load(State<K, V> state, K key) {
+        synchronized (state) {
+            return state.memo.computeIfAbsent(key, k -> {
+                state.pending.add(k);
+                return new CompletableFuture<>();
+            });
+        }
+    }
+
+    private void dispatch(State<K, V> state) {
+        Set<K> keys;
+        Map<K, CompletableFuture<V>> futures = new HashMap<>();
+        synchronized (state) {
+            if (state.pending.isEmpty()) {
+                return;
+            }
+            keys = state.pending;
+            state.pending = new LinkedHashSet<>();
+            keys.forEach(key -> futures.put(key, state.memo.get(key)));
+        }
+
+        Map<K, V> values;
+        try {
+            values = loadAll(keys);
+        } catch (RuntimeException e) {
+            // ошибка вызова не запоминается: повторный get в том же запросе попробует снова
+            synchronized (state) {
+                keys.forEach(state.memo::remove);
+            }
+            futures.values().forEach(future -> future.completeExceptionally(e));
+            return;
+        }
+
+        futures.forEach((key, future) -> {
+            V value = values.get(key);
+            if (value != null) {
+                future.complete(value);
+                return;
+            }
+            try {
+                future.complete(missing(key));
+            } catch (RuntimeException e) {
+                future.completeExceptionally(e);
+            }
+        });
+    }
+
+    private V join(CompletableFuture<V> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private State<K, V> state() {
+        Map<String, State<?, ?>> states = PROPAGATED.get();
+        if (states == null) {
+            states = requestStates();
+        }
+        if (states == null) {
+            return new State<>(false);
+        }
+        return (State<K, V>) states.computeIfAbsent(key, k -> new State<>(true));
+    }
+
+    /**
+     * Память загрузчиков текущего HTTP-запроса, по одной записи на класс загрузчика; null вне запроса.
+     */
+    @SuppressWarnings("unchecked")
+    private static Map<String, State<?, ?>> requestStates() {
+        RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+        if (attributes == null) {
+            return null;
+        }
+        // блокируется только этот запрос, а не все загрузчики JVM
+        synchronized (attributes) {
+            Map<String, State<?, ?>> states =
+                    (Map<String, State<?, ?>>) attributes.getAttribute(ATTRIBUTE, RequestAttributes.SCOPE_REQUEST);
+            if (states == null) {
+                states = new ConcurrentHashMap<>();
+                attributes.setAttribute(ATTRIBUTE, states, RequestAttributes.SCOPE_REQUEST);
+            }
+            return states;
+        }
+    }
+
+    private static final class State<K, V> {
+        private final boolean scoped;
+        private final Map<K, CompletableFuture<V>> memo = new HashMap<>();
+        private Set<K> pending = new LinkedHashSet<>();
+
+        private State(boolean scoped) {
+            this.scoped = scoped;
+        }
+    }
+}
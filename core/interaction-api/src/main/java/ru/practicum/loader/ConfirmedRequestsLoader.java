@@ -0,0 +1,31 @@
+package ru.practicum.loader;
+
+import lombok.RequiredArgsConstructor;
+import ru.practicum.dto.ConfirmedRequests;
+import ru.practicum.feign.RequestFeign;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Число подтвержденных заявок по id события через GET /requests; события без заявок - 0.
+ * Подключается через @Import в сервисе, где включен {@link RequestFeign}.
+ */
+@RequiredArgsConstructor
+public class ConfirmedRequestsLoader extends BatchLoader<Long, Integer> {
+
+    private final RequestFeign requestFeign;
+
+    @Override
+    protected Map<Long, Integer> loadAll(Set<Long> keys) {
+        return requestFeign.getRequestsByEvents(List.copyOf(keys)).stream()
+                .collect(Collectors.toMap(ConfirmedRequests::eventId, ConfirmedRequests::countRequests));
+    }
+
+    @Override
+    protected Integer missing(Long key) {
+        return 0;
+    }
+}
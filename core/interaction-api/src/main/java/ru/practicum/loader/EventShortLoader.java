@@ -0,0 +1,30 @@
+package ru.practicum.loader;
+
+import lombok.RequiredArgsConstructor;
+import ru.practicum.dto.EventShortDto;
+import ru.practicum.feign.EventFeign;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * События по id через GET /events/find; не найденные события в {@link #getMany} не попадают.
+ * Подключается через @Import в сервисе, где включен {@link EventFeign}.
+ */
+@RequiredArgsConstructor
+public class EventShortLoader extends BatchLoader<Long, EventShortDto> {
+
+    private final EventFeign eventFeign;
+
+    @Override
+    protected Map<Long, EventShortDto> loadAll(Set<Long> keys) {
+        Set<EventShortDto> events = eventFeign.getEventsByIds(keys).getBody();
+        if (events == null) {
+            return Map.of();
+        }
+        return events.stream()
+                .collect(Collectors.toMap(EventShortDto::getId, Function.identity()));
+    }
+}
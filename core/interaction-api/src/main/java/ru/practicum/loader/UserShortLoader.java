@@ -0,0 +1,38 @@
+package ru.practicum.loader;
+
+import lombok.RequiredArgsConstructor;
+import ru.practicum.cache.UserShortCache;
+import ru.practicum.dto.UserShortDto;
+import ru.practicum.exception.NotFoundException;
+import ru.practicum.feign.UserFeign;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static ru.practicum.Constants.USER_NOT_FOUND;
+
+/**
+ * Пользователи по id через GET /admin/users/short. Не найденный пользователь - {@link NotFoundException}.
+ * Пользователи сначала ищутся в {@link UserShortCache}, user-service спрашивается только о промахах.
+ * Подключается через @Import вместе с кэшем в сервисе, где включен {@link UserFeign}.
+ */
+@RequiredArgsConstructor
+public class UserShortLoader extends BatchLoader<Long, UserShortDto> {
+
+    private final UserFeign userFeign;
+    private final UserShortCache userShortCache;
+
+    @Override
+    protected Map<Long, UserShortDto> loadAll(Set<Long> keys) {
+        return userShortCache.getAll(keys, ids -> userFeign.getUsersShort(List.copyOf(ids)).stream()
+                .collect(Collectors.toMap(UserShortDto::getId, Function.identity())));
+    }
+
+    @Override
+    protected UserShortDto missing(Long key) {
+        throw new NotFoundException(USER_NOT_FOUND);
+    }
+}
@@ -0,0 +1,30 @@
+package ru.practicum.util;
+
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.function.Consumer;
+
+/**
+ * Построчное чтение ответа application/x-ndjson: объекты разбираются по одному по мере поступления,
+ * поэтому весь ответ в памяти не держится.
+ */
+public final class NdjsonReader {
+
+    private NdjsonReader() {
+    }
+
+    public static <T> long read(InputStream inputStream, ObjectMapper objectMapper, Class<T> type,
+                                Consumer<T> consumer) throws IOException {
+        long count = 0;
+        try (MappingIterator<T> iterator = objectMapper.readerFor(type).readValues(inputStream)) {
+            while (iterator.hasNextValue()) {
+                consumer.accept(iterator.nextValue());
+                count++;
+            }
+        }
+        return count;
+    }
+}
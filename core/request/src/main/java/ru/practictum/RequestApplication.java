@@ -4,12 +4,17 @@ import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.cloud.client.discovery.EnableDiscoveryClient;
 import org.springframework.cloud.openfeign.EnableFeignClients;
+import org.springframework.context.annotation.Import;
+import ru.practicum.cache.UserCacheController;
+import ru.practicum.cache.UserShortCache;
 import ru.practicum.feign.EventFeign;
 import ru.practicum.feign.UserFeign;
+import ru.practicum.loader.UserShortLoader;
 
 @SpringBootApplication
 @EnableDiscoveryClient
 @EnableFeignClients(clients = {EventFeign.class, UserFeign.class})
+@Import({UserShortLoader.class, UserShortCache.class, UserCacheController.class})
 public class RequestApplication {
 
     public static void main(String[] args) {
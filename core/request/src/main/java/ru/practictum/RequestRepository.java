@@ -20,6 +20,18 @@ public interface RequestRepository extends JpaRepository<Request, Long> {
 
     int countByEventIdAndStatus(Long eventId, RequestStatus requestStatus);
 
+    /**
+     * Число заявок события в статусе и момент чтения в микросекундах по часам БД. По этой версии
+     * event-service отбрасывает значение, прочитанное раньше уже примененного.
+     */
+    @Query(value = """
+            SELECT COUNT(*) AS count,
+                   CAST(EXTRACT(EPOCH FROM statement_timestamp()) * 1000000 AS BIGINT) AS version
+            FROM requests
+            WHERE event_id = :eventId AND status = :status
+            """, nativeQuery = true)
+    VersionedCount countVersioned(@Param("eventId") Long eventId, @Param("status") int status);
+
     @Query("""
             SELECT new ru.practicum.dto.ConfirmedRequests(r.eventId, CAST(COUNT(r.requesterId) AS INTEGER))
             FROM Request r
@@ -28,4 +40,10 @@ public interface RequestRepository extends JpaRepository<Request, Long> {
             """)
     List<ConfirmedRequests> getConfirmedRequests(@Param("eventIds") Collection<Long> eventIds,
                                                  @Param("status") RequestStatus status);
+
+    interface VersionedCount {
+        int getCount();
+
+        long getVersion();
+    }
 }
@@ -0,0 +1,93 @@
+package ru.practictum.service;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import ru.practictum.RequestRepository;
+import ru.practicum.enums.RequestStatus;
+import ru.practicum.feign.EventFeign;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Сообщает event-service текущее число подтвержденных заявок события после фиксации транзакции.
+ * Отправляется абсолютное значение, прочитанное перед отправкой, а не приращение, поэтому повтор безопасен.
+ * Отправки по одному событию идут последовательно, изменения за время отправки сливаются в одну следующую.
+ * Между экземплярами request-service порядок не гарантирован, поэтому значение отправляется с версией -
+ * моментом чтения по часам БД, и event-service не применяет значение старше уже записанного.
+ * Потерянное уведомление исправит периодическая сверка в event-service.
+ */
+@Slf4j
+@Component
+public class ConfirmedRequestsPublisher {
+
+    private final RequestRepository requestRepository;
+    private final EventFeign eventFeign;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final Set<Long> dirty = ConcurrentHashMap.newKeySet();
+    private final Set<Long> sending = ConcurrentHashMap.newKeySet();
+
+    public ConfirmedRequestsPublisher(RequestRepository requestRepository, EventFeign eventFeign) {
+        this.requestRepository = requestRepository;
+        this.eventFeign = eventFeign;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * Отмечает, что подтвержденные заявки события изменились; внутри транзакции - после ее фиксации.
+     */
+    public void changed(Long eventId) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            schedule(eventId);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                schedule(eventId);
+            }
+        });
+    }
+
+    private void schedule(Long eventId) {
+        dirty.add(eventId);
+        if (sending.add(eventId)) {
+            executor.execute(() -> drain(eventId));
+        }
+    }
+
+    private void drain(Long eventId) {
+        try {
+            while (dirty.remove(eventId)) {
+                send(eventId);
+            }
+        } finally {
+            sending.remove(eventId);
+            // изменение могло прийти между последней проверкой и снятием отметки
+            if (dirty.contains(eventId) && sending.add(eventId)) {
+                executor.execute(() -> drain(eventId));
+            }
+        }
+    }
+
+    private void send(Long eventId) {
+        try {
+            RequestRepository.VersionedCount confirmed =
+                    requestRepository.countVersioned(eventId, RequestStatus.CONFIRMED.ordinal());
+            eventFeign.setConfirmedRequests(eventId, confirmed.getCount(), confirmed.getVersion());
+            log.debug("В event-service отправлено число подтвержденных заявок события {}: {}",
+                    eventId, confirmed.getCount());
+        } catch (RuntimeException e) {
+            log.warn("Не удалось отправить число подтвержденных заявок события {}: {}", eventId, e.getMessage());
+        }
+    }
+}
@@ -17,7 +17,7 @@ import ru.practicum.exception.ConflictException;
 import ru.practicum.exception.DuplicateException;
 import ru.practicum.exception.NotFoundException;
 import ru.practicum.feign.EventFeign;
-import ru.practicum.feign.UserFeign;
+import ru.practicum.loader.UserShortLoader;
 
 import java.time.LocalDateTime;
 import java.util.ArrayList;
@@ -31,7 +31,8 @@ public class RequestServiceImpl implements RequestService {
     private final RequestRepository requestRepository;
     private final MapperRequest mapperRequest;
     private final EventFeign eventFeign;
-    private final UserFeign userFeign;
+    private final UserShortLoader userShortLoader;
+    private final ConfirmedRequestsPublisher confirmedRequestsPublisher;
 
     @Override
     public List<ParticipationRequestDto> getParticipationRequests(Long userId) {
@@ -50,7 +51,7 @@ public class RequestServiceImpl implements RequestService {
             throw new ConflictException(EVENT_NOT_FOUND);
         }
 
-        UserShortDto user = userFeign.getUser(userId);
+        UserShortDto user = userShortLoader.get(userId);
 
         if (requestRepository.existsByEventIdAndRequesterId(eventId, userId)) {
             throw new DuplicateException("Запрос на такое событие уже есть");
@@ -80,6 +81,9 @@ public class RequestServiceImpl implements RequestService {
         );
 
         request = requestRepository.save(request);
+        if (request.getStatus() == RequestStatus.CONFIRMED) {
+            confirmedRequestsPublisher.changed(eventId);
+        }
 
         return mapperRequest.toParticipationRequestDto(request);
     }
@@ -91,11 +95,15 @@ public class RequestServiceImpl implements RequestService {
                 new NotFoundException("Запрос не найден"));
 
         // просто проверка на существование юзера
-        userFeign.getUser(userId);
+        userShortLoader.get(userId);
 
+        boolean wasConfirmed = request.getStatus() == RequestStatus.CONFIRMED;
         request.setStatus(RequestStatus.CANCELED);
 
         request = requestRepository.save(request);
+        if (wasConfirmed) {
+            confirmedRequestsPublisher.changed(request.getEventId());
+        }
 
         return mapperRequest.toParticipationRequestDto(request);
     }
@@ -120,11 +128,15 @@ public class RequestServiceImpl implements RequestService {
                 new NotFoundException("Запрос не найден"));
 
         // просто проверка на существование юзера
-        userFeign.getUser(userId);
+        userShortLoader.get(userId);
 
+        boolean wasConfirmed = request.getStatus() == RequestStatus.CONFIRMED;
         request.setStatus(RequestStatus.CONFIRMED);
 
         request = requestRepository.save(request);
+        if (!wasConfirmed) {
+            confirmedRequestsPublisher.changed(request.getEventId());
+        }
 
         return mapperRequest.toParticipationRequestDto(request);
     }
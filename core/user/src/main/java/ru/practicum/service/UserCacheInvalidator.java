@@ -0,0 +1,91 @@
+package ru.practicum.service;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.client.discovery.DiscoveryClient;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.web.client.RestClient;
+import org.springframework.web.client.RestClientException;
+import ru.practicum.cache.UserCacheController;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Рассылает сброс кэша пользователя всем экземплярам с метаданными user-cache=true в Eureka.
+ * Рассылка идет после фиксации транзакции и не задерживает ответ. Недоставленный сброс не повторяется:
+ * запись в кэше получателя устареет по своему сроку жизни. Запросы подписываются общим секретом
+ * user.cache.secret, который должен совпадать у всех сервисов.
+ */
+@Slf4j
+@Component
+public class UserCacheInvalidator {
+
+    private final DiscoveryClient discoveryClient;
+    private final RestClient restClient;
+    private final String secret;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    public UserCacheInvalidator(DiscoveryClient discoveryClient,
+                                @Value("${user.cache.invalidation.connect-timeout-ms:500}") int connectTimeoutMs,
+                                @Value("${user.cache.invalidation.read-timeout-ms:1000}") int readTimeoutMs,
+                                @Value("${user.cache.secret:}") String secret) {
+        this.discoveryClient = discoveryClient;
+        this.secret = secret;
+        SimpleClientHttpRequestFactory requestFactory = new SimpleClientHttpRequestFactory();
+        requestFactory.setConnectTimeout(connectTimeoutMs);
+        requestFactory.setReadTimeout(readTimeoutMs);
+        this.restClient = RestClient.builder()
+                .requestFactory(requestFactory)
+                .build();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * Сбрасывает пользователя в кэшах других сервисов, внутри транзакции - после ее фиксации.
+     */
+    public void userDeleted(Long userId) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            executor.execute(() -> broadcast(userId));
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                executor.execute(() -> broadcast(userId));
+            }
+        });
+    }
+
+    private void broadcast(Long userId) {
+        for (String service : discoveryClient.getServices()) {
+            for (ServiceInstance instance : discoveryClient.getInstances(service)) {
+                if ("true".equals(instance.getMetadata().get(UserCacheController.METADATA_KEY))) {
+                    executor.execute(() -> invalidate(instance, userId));
+                }
+            }
+        }
+    }
+
+    private void invalidate(ServiceInstance instance, Long userId) {
+        try {
+            restClient.delete()
+                    .uri(instance.getUri() + UserCacheController.PATH + "/{userId}", userId)
+                    .header(UserCacheController.SECRET_HEADER, secret)
+                    .retrieve()
+                    .toBodilessEntity();
+            log.debug("Кэш пользователя {} сброшен в {}", userId, instance.getUri());
+        } catch (RestClientException e) {
+            log.warn("Не удалось сбросить кэш пользователя {} в {}: {}", userId, instance.getUri(), e.getMessage());
+        }
+    }
+}
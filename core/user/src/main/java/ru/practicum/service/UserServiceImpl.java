@@ -22,6 +22,7 @@ public class UserServiceImpl implements UserService {
 
     private final UserRepository userRepository;
     private final MapperUser mapperUser;
+    private final UserCacheInvalidator userCacheInvalidator;
 
     @Override
     public List<UserDto> getUsers(GetUserParam getUserParam) {
@@ -57,6 +58,7 @@ public class UserServiceImpl implements UserService {
         }
 
         userRepository.deleteById(userId);
+        userCacheInvalidator.userDeleted(userId);
     }
 
     @Override
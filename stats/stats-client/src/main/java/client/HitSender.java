@@ -0,0 +1,336 @@
+package client;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import exception.StatsServerUnavailable;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.RestClient;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.util.UriComponentsBuilder;
+import ru.practicum.dto.EndpointHitDto;
+import spool.HitSpool;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+import static org.springframework.http.MediaType.APPLICATION_JSON;
+import static util.StatsServerPaths.PATH_HITS;
+
+/**
+ * Асинхронная отправка хитов: вызывающий поток только кладет хит в ограниченную очередь,
+ * фоновый поток пачками отправляет их на POST /hits в gzip. Пока сервер статистики недоступен,
+ * хиты копятся в {@link HitSpool} и досылаются после восстановления.
+ * <p>
+ * Пачка из начала спула, на которую сервер max-attempts раз подряд ответил ошибкой 5xx (кроме 503),
+ * считается отравленной: она переносится в файл спула с суффиксом .rejected и не блокирует остальные хиты.
+ * Если роутер шардов принял пачку частично, он возвращает 503 с непринятыми хитами, и повторяются только они.
+ */
+@Slf4j
+@Component
+public class HitSender {
+
+    /**
+     * Заголовок ответа роутера шардов на частично принятую пачку; тело ответа - непринятые хиты.
+     */
+    private static final String REJECTED_HEADER = "X-Rejected-Hits";
+
+    private final BlockingQueue<EndpointHitDto> queue;
+    private final StatsServerLocator locator;
+    private final ObjectMapper objectMapper;
+    private final RestClient restClient;
+    private final HitSpool spool;
+    private final ScheduledExecutorService executor;
+    private final int batchSize;
+    private final int replayBatches;
+    private final int maxAttempts;
+    private final Path quarantinePath;
+    private int headAttempts;
+    private final long retryIntervalNanos;
+    private long retryAtNanos;
+
+    private final Counter sent;
+    private final Counter dropped;
+
+    public HitSender(StatsServerLocator locator,
+                     ObjectMapper objectMapper,
+                     MeterRegistry meterRegistry,
+                     @Value("${stats.client.queue-capacity:10000}") int capacity,
+                     @Value("${stats.client.batch-size:500}") int batchSize,
+                     @Value("${stats.client.flush-interval-ms:200}") long flushIntervalMs,
+                     @Value("${stats.client.retry-interval-ms:5000}") long retryIntervalMs,
+                     @Value("${stats.client.replay-batches:20}") int replayBatches,
+                     @Value("${stats.client.max-attempts:10}") int maxAttempts,
+                     @Value("${stats.client.connect-timeout-ms:1000}") int connectTimeoutMs,
+                     @Value("${stats.client.read-timeout-ms:3000}") int readTimeoutMs,
+                     @Value("${stats.client.spool.path:${java.io.tmpdir}/${spring.application.name:stats-client}/hits.spool}") String spoolPath,
+                     @Value("${stats.client.spool.capacity-mb:64}") int spoolCapacityMb,
+                     @Value("${stats.client.spool.slots:8}") int spoolSlots) {
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.locator = locator;
+        this.objectMapper = objectMapper;
+        this.batchSize = batchSize;
+        this.replayBatches = replayBatches;
+        this.maxAttempts = maxAttempts;
+        this.retryIntervalNanos = TimeUnit.MILLISECONDS.toNanos(retryIntervalMs);
+        this.retryAtNanos = System.nanoTime();
+        this.spool = HitSpool.openFree(Path.of(spoolPath), spoolSlots, spoolCapacityMb * 1024 * 1024, objectMapper);
+        this.quarantinePath = spool.path().resolveSibling(spool.path().getFileName() + ".rejected");
+
+        SimpleClientHttpRequestFactory requestFactory = new SimpleClientHttpRequestFactory();
+        requestFactory.setConnectTimeout(connectTimeoutMs);
+        requestFactory.setReadTimeout(readTimeoutMs);
+        this.restClient = RestClient.builder()
+                .requestFactory(requestFactory)
+                .build();
+
+        Gauge.builder("stats.client.queue.depth", queue, BlockingQueue::size)
+                .register(meterRegistry);
+        Gauge.builder("stats.client.spool.bytes", spool, HitSpool::size)
+                .register(meterRegistry);
+        this.sent = Counter.builder("stats.client.sent")
+                .register(meterRegistry);
+        this.dropped = Counter.builder("stats.client.dropped")
+                .register(meterRegistry);
+
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "stats-hit-sender");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(this::sendPending, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Ставит хит в очередь отправки. Никогда не блокирует: при переполненной очереди хит отбрасывается.
+     */
+    public void send(EndpointHitDto hitDto) {
+        if (!queue.offer(hitDto)) {
+            dropped.increment();
+            log.debug("Очередь хитов переполнена, hit uri = {} отброшен", hitDto.getUri());
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(5, TimeUnit.SECONDS)) {
+                log.warn("Поток отправки хитов не завершился за 5 секунд");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        List<EndpointHitDto> rest = new ArrayList<>(queue.size());
+        queue.drainTo(rest);
+        if (!rest.isEmpty()) {
+            Outcome outcome = post(rest);
+            if (outcome.status() != Status.DONE) {
+                toSpool(outcome.unsent());
+            }
+        }
+        spool.close();
+    }
+
+    private void sendPending() {
+        try {
+            if (System.nanoTime() - retryAtNanos < 0) {
+                // сервер недавно не ответил, до следующей попытки очередь уходит в спул
+                spoolQueued();
+                return;
+            }
+
+            List<EndpointHitDto> batch = new ArrayList<>(batchSize);
+            while (queue.drainTo(batch, batchSize) > 0) {
+                Outcome outcome = post(batch);
+                if (outcome.status() != Status.DONE) {
+                    backOff();
+                    toSpool(outcome.unsent());
+                    spoolQueued();
+                    return;
+                }
+                batch.clear();
+            }
+
+            // досылка ограничена, чтобы очередь не переполнилась за время разбора большого спула
+            for (int i = 0; i < replayBatches && !spool.isEmpty(); i++) {
+                HitSpool.Batch spooled = spool.peek(batchSize);
+                Outcome outcome = spooled.hits().isEmpty() ? Outcome.DONE : post(spooled.hits());
+                if (outcome.status() == Status.SERVER_ERROR && ++headAttempts >= maxAttempts) {
+                    quarantine(spooled.hits());
+                    outcome = Outcome.DONE;
+                }
+                if (outcome.status() == Status.PARTIAL) {
+                    // непринятые хиты переносятся в конец спула до удаления пачки: при сбое между этими
+                    // шагами хиты повторятся, но не потеряются
+                    toSpool(outcome.unsent());
+                    headAttempts = 0;
+                    spool.commit(spooled);
+                    backOff();
+                    return;
+                }
+                if (outcome.status() != Status.DONE) {
+                    backOff();
+                    return;
+                }
+                headAttempts = 0;
+                spool.commit(spooled);
+            }
+        } catch (RuntimeException e) {
+            log.error("Ошибка в потоке отправки хитов", e);
+        }
+    }
+
+    /**
+     * @return DONE, если пачка принята или отклонена сервером как некорректная (такая отбрасывается);
+     * RETRY, если сервер недоступен или перегружен; PARTIAL, если роутер шардов принял часть пачки;
+     * SERVER_ERROR, если сервер ответил ошибкой 5xx
+     */
+    private Outcome post(List<EndpointHitDto> hits) {
+        StatsServerInstance instance;
+        try {
+            instance = locator.choose();
+        } catch (StatsServerUnavailable e) {
+            log.warn("Сервер статистики недоступен: {}", e.getMessage());
+            return new Outcome(Status.RETRY, hits);
+        }
+
+        long startNanos = System.nanoTime();
+        try {
+            restClient.post()
+                    .uri(UriComponentsBuilder.fromUri(instance.uri()).path(PATH_HITS).build().toUri())
+                    .contentType(APPLICATION_JSON)
+                    .header(HttpHeaders.CONTENT_ENCODING, "gzip")
+                    .body(gzip(hits))
+                    .retrieve()
+                    .toBodilessEntity();
+            instance.success(System.nanoTime() - startNanos);
+            sent.increment(hits.size());
+            log.debug("Отправлена пачка из {} хитов на {}", hits.size(), instance.uri());
+            return Outcome.DONE;
+        } catch (HttpClientErrorException e) {
+            instance.success(System.nanoTime() - startNanos);
+            if (e.getStatusCode().isSameCodeAs(HttpStatus.TOO_MANY_REQUESTS)) {
+                log.warn("Сервер статистики перегружен, пачка из {} хитов будет повторена", hits.size());
+                return new Outcome(Status.RETRY, hits);
+            }
+            dropped.increment(hits.size());
+            log.error("Сервер статистики отклонил пачку из {} хитов: {}", hits.size(), e.getResponseBodyAsString());
+            return Outcome.DONE;
+        } catch (HttpServerErrorException e) {
+            if (e.getResponseHeaders() != null && e.getResponseHeaders().containsKey(REJECTED_HEADER)) {
+                instance.success(System.nanoTime() - startNanos);
+                return partial(hits, e);
+            }
+            instance.failure();
+            log.warn("Сервер статистики {} ответил {} на пачку из {} хитов", instance.uri(), e.getStatusCode(), hits.size());
+            Status status = e.getStatusCode().isSameCodeAs(HttpStatus.SERVICE_UNAVAILABLE) ? Status.RETRY : Status.SERVER_ERROR;
+            return new Outcome(status, hits);
+        } catch (RestClientException e) {
+            instance.failure();
+            log.warn("Сервер статистики {} недоступен: {}", instance.uri(), e.getMessage());
+            return new Outcome(Status.RETRY, hits);
+        }
+    }
+
+    private Outcome partial(List<EndpointHitDto> hits, HttpServerErrorException e) {
+        List<EndpointHitDto> unsent;
+        try {
+            unsent = objectMapper.readValue(e.getResponseBodyAsByteArray(), new TypeReference<>() {
+            });
+        } catch (IOException parseError) {
+            log.warn("Не удалось разобрать непринятые хиты, пачка из {} хитов будет повторена целиком", hits.size());
+            return new Outcome(Status.RETRY, hits);
+        }
+        sent.increment(hits.size() - unsent.size());
+        log.warn("Сервер статистики принял {} из {} хитов, остальные будут повторены",
+                hits.size() - unsent.size(), hits.size());
+        return new Outcome(Status.PARTIAL, unsent);
+    }
+
+    /**
+     * Переносит пачку в файл отклоненных хитов (по хиту в строке), откуда ее можно разобрать и дослать вручную.
+     */
+    private void quarantine(List<EndpointHitDto> hits) {
+        headAttempts = 0;
+        dropped.increment(hits.size());
+        try (OutputStream out = Files.newOutputStream(quarantinePath, StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            for (EndpointHitDto hit : hits) {
+                out.write(objectMapper.writeValueAsBytes(hit));
+                out.write('\n');
+            }
+            log.error("Пачка из {} хитов {} раз подряд получила ошибку сервера и перенесена в {}",
+                    hits.size(), maxAttempts, quarantinePath);
+        } catch (IOException e) {
+            log.error("Не удалось записать {} отклоненных хитов в {}, хиты потеряны", hits.size(), quarantinePath, e);
+        }
+    }
+
+    private void backOff() {
+        retryAtNanos = System.nanoTime() + retryIntervalNanos;
+    }
+
+    private void spoolQueued() {
+        List<EndpointHitDto> batch = new ArrayList<>(queue.size());
+        queue.drainTo(batch);
+        if (!batch.isEmpty()) {
+            toSpool(batch);
+        }
+    }
+
+    private void toSpool(List<EndpointHitDto> hits) {
+        int lost = spool.append(hits);
+        if (lost > 0) {
+            dropped.increment(lost);
+            log.error("Спул хитов заполнен, потеряно {} хитов", lost);
+        }
+    }
+
+    private byte[] gzip(List<EndpointHitDto> hits) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(bytes)) {
+            objectMapper.writeValue(out, hits);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private enum Status {
+        DONE,
+        RETRY,
+        PARTIAL,
+        SERVER_ERROR
+    }
+
+    /**
+     * Результат отправки пачки и хиты, которые нужно повторить.
+     */
+    private record Outcome(Status status, List<EndpointHitDto> unsent) {
+        static final Outcome DONE = new Outcome(Status.DONE, List.of());
+    }
+}
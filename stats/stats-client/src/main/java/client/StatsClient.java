@@ -7,13 +7,16 @@ import ru.practicum.dto.StatParam;
 import ru.practicum.dto.ViewStatsDto;
 
 import java.util.List;
+import java.util.function.Consumer;
 
 public interface StatsClient {
     /**
+     * Ставит хит в очередь асинхронной отправки и сразу возвращает управление. Ошибки и недоступность
+     * сервера статистики вызывающему не передаются: хиты досылаются позже.
+     *
      * @param hitDto             - тело запроса
-     * @throws RequestException  - генерируется, если статус ответа 4xx/5xx
      */
-    void createHit(EndpointHitDto hitDto) throws RequestException;
+    void createHit(EndpointHitDto hitDto);
 
     /**
      * @param statParam       - данные для формирования запроса
@@ -21,4 +24,13 @@ public interface StatsClient {
      * @throws NullBodyException - генерируется, если тело ответа пустое
      */
     List<ViewStatsDto> getStat(StatParam statParam) throws RequestException, NullBodyException;
+
+    /**
+     * Потоковое получение статистики (application/x-ndjson): строки передаются в consumer по мере чтения ответа.
+     *
+     * @param statParam       - данные для формирования запроса
+     * @param consumer        - обработчик очередной строки статистики
+     * @throws RequestException  - генерируется, если статус ответа 4xx/5xx
+     */
+    void streamStat(StatParam statParam, Consumer<ViewStatsDto> consumer) throws RequestException;
 }
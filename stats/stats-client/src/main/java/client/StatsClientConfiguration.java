@@ -0,0 +1,12 @@
+package client;
+
+import org.springframework.context.annotation.ComponentScan;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Подключение клиента статистики в сервис: {@code @Import(StatsClientConfiguration.class)}.
+ */
+@Configuration
+@ComponentScan
+public class StatsClientConfiguration {
+}
@@ -2,97 +2,53 @@ package client;
 
 import exception.NullBodyException;
 import exception.RequestException;
-import exception.StatsServerUnavailable;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.cloud.client.ServiceInstance;
-import org.springframework.cloud.client.discovery.DiscoveryClient;
 import org.springframework.core.ParameterizedTypeReference;
-import org.springframework.http.ResponseEntity;
-import org.springframework.retry.backoff.FixedBackOffPolicy;
-import org.springframework.retry.policy.MaxAttemptsRetryPolicy;
-import org.springframework.retry.support.RetryTemplate;
 import org.springframework.stereotype.Component;
 import org.springframework.web.client.RestClient;
+import org.springframework.web.util.UriBuilder;
 import ru.practicum.dto.EndpointHitDto;
 import ru.practicum.dto.StatParam;
 import ru.practicum.dto.ViewStatsDto;
+import ru.practicum.util.NdjsonReader;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.URI;
 import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 import static org.springframework.http.MediaType.APPLICATION_JSON;
-import static util.StatsServerPaths.PATH_HIT;
+import static org.springframework.http.MediaType.APPLICATION_NDJSON;
 import static util.StatsServerPaths.PATH_STAT;
 
 @Slf4j
 @Component
 public class StatsClientRest implements StatsClient {
     private final RestClient restClient;
-    private final DiscoveryClient discoveryClient;
-
-    public StatsClientRest(DiscoveryClient discoveryClient) {
-        this.discoveryClient = discoveryClient;
-        RetryTemplate retryTemplate = new RetryTemplate();
-
-        FixedBackOffPolicy fixedBackOffPolicy = new FixedBackOffPolicy();
-        fixedBackOffPolicy.setBackOffPeriod(3000L);
-        retryTemplate.setBackOffPolicy(fixedBackOffPolicy);
-
-        MaxAttemptsRetryPolicy retryPolicy = new MaxAttemptsRetryPolicy();
-        retryPolicy.setMaxAttempts(3);
-        retryTemplate.setRetryPolicy(retryPolicy);
-
-        ServiceInstance instance = retryTemplate.execute(cxt -> getInstance());
-        restClient = RestClient.builder()
-                .baseUrl(instance.getHost() + ":" + instance.getPort())
-                .build();
-    }
-
-    private ServiceInstance getInstance() {
-        String statsServerId = "stats-server";
-
-        try {
-            return discoveryClient
-                    .getInstances(statsServerId)
-                    .getFirst();
-        } catch (Exception exception) {
-            throw new StatsServerUnavailable(
-                    "Ошибка обнаружения адреса сервиса статистики с id: " + statsServerId
-            );
-        }
+    private final StatsServerLocator locator;
+    private final HitSender hitSender;
+    private final ObjectMapper objectMapper;
+
+    public StatsClientRest(StatsServerLocator locator, HitSender hitSender, ObjectMapper objectMapper) {
+        this.locator = locator;
+        this.hitSender = hitSender;
+        this.objectMapper = objectMapper;
+        this.restClient = RestClient.create();
     }
 
     @Override
-    public void createHit(EndpointHitDto hitDto) throws RequestException {
-        log.info("Отправка hit app = {}, uri = {}, ip = {}, created = {}",
+    public void createHit(EndpointHitDto hitDto) {
+        log.debug("Постановка в очередь hit app = {}, uri = {}, ip = {}, created = {}",
                 hitDto.getApp(),
                 hitDto.getUri(),
                 hitDto.getIp(),
                 hitDto.getCreated());
-
-        log.trace("Отправка запроса создания hit");
-        ResponseEntity<Void> response = restClient.post()
-                .uri(uriBuilder -> uriBuilder
-                        .path(PATH_HIT)
-                        .build())
-                .body(hitDto)
-                .contentType(APPLICATION_JSON)
-                .retrieve()
-                .onStatus(httpStatusCode -> httpStatusCode.is4xxClientError() || httpStatusCode.is5xxServerError(),
-                        (req, resp) -> {
-                            log.trace("Произошла ошибка при отправке Hit");
-                            throw new RequestException(req.getMethod().name(),
-                                    req.getURI().toString(),
-                                    resp.getStatusCode().value(),
-                                    convertBody(resp.getBody()));
-                        })
-                .toBodilessEntity();
-        log.trace("Ответ при создании hit получен без ошибок");
-
-        log.info("Hit был успешно отправлен на сервер, response code: {}", response.getStatusCode());
+        hitSender.send(hitDto);
     }
 
     @Override
@@ -104,22 +60,8 @@ public class StatsClientRest implements StatsClient {
                 statParam.getUnique());
 
         log.trace("Отправка запроса на получение статистики");
-        List<ViewStatsDto> response = restClient.get()
-                .uri(uriBuilder -> {
-                    uriBuilder.path(PATH_STAT)
-                            .queryParam("start", statParam.getStart())
-                            .queryParam("end", statParam.getEnd());
-
-                    if (statParam.getUris() != null) {
-                        uriBuilder.queryParam("uris", statParam.getUris());
-                    }
-
-                    if (statParam.getUnique() != null) {
-                        uriBuilder.queryParam("unique", statParam.getUnique());
-                    }
-
-                    return uriBuilder.build();
-                })
+        List<ViewStatsDto> response = call(baseUri -> restClient.get()
+                .uri(uriBuilder -> statUri(uriBuilder, baseUri, statParam))
                 .accept(APPLICATION_JSON)
                 .retrieve()
                 .onStatus(code -> code.is4xxClientError() || code.is5xxServerError(),
@@ -130,8 +72,8 @@ public class StatsClientRest implements StatsClient {
                                     resp.getStatusCode().value(),
                                     convertBody(resp.getBody()));
                         })
-                .body(new ParameterizedTypeReference<>() {
-                });
+                .body(new ParameterizedTypeReference<List<ViewStatsDto>>() {
+                }));
         log.trace("Ответ при запросе статистике получен без ошибок");
 
         log.debug("response == null ? {}", response == null);
@@ -143,6 +85,74 @@ public class StatsClientRest implements StatsClient {
         return response;
     }
 
+    @Override
+    public void streamStat(StatParam statParam, Consumer<ViewStatsDto> consumer) throws RequestException {
+        log.info("Потоковое получение статистики с параметрами: start = {}, end = {}, uris = {}, unique = {}",
+                statParam.getStart(),
+                statParam.getEnd(),
+                statParam.getUris(),
+                statParam.getUnique());
+
+        Long count = call(baseUri -> restClient.get()
+                .uri(uriBuilder -> statUri(uriBuilder, baseUri, statParam))
+                .accept(APPLICATION_NDJSON)
+                .exchange((req, resp) -> {
+                    if (resp.getStatusCode().is4xxClientError() || resp.getStatusCode().is5xxServerError()) {
+                        log.trace("Произошла ошибка при потоковом получении статистики");
+                        throw new RequestException(req.getMethod().name(),
+                                req.getURI().toString(),
+                                resp.getStatusCode().value(),
+                                convertBody(resp.getBody()));
+                    }
+                    return NdjsonReader.read(resp.getBody(), objectMapper, ViewStatsDto.class, consumer);
+                }));
+
+        log.info("Статистика была успешно получена потоком, count = {}", count);
+    }
+
+    /**
+     * Выполняет запрос на выбранный экземпляр и сообщает ему результат: ответ 5xx и ошибка соединения
+     * считаются отказом экземпляра, 4xx - ошибкой запроса.
+     */
+    private <T> T call(Function<URI, T> request) {
+        StatsServerInstance instance = locator.choose();
+        long startNanos = System.nanoTime();
+        try {
+            T result = request.apply(instance.uri());
+            instance.success(System.nanoTime() - startNanos);
+            return result;
+        } catch (RequestException e) {
+            if (e.getStatusCode() >= 500) {
+                instance.failure();
+            } else {
+                instance.success(System.nanoTime() - startNanos);
+            }
+            throw e;
+        } catch (RuntimeException e) {
+            instance.failure();
+            throw e;
+        }
+    }
+
+    private URI statUri(UriBuilder uriBuilder, URI baseUri, StatParam statParam) {
+        uriBuilder.scheme(baseUri.getScheme())
+                .host(baseUri.getHost())
+                .port(baseUri.getPort())
+                .path(PATH_STAT)
+                .queryParam("start", statParam.getStart())
+                .queryParam("end", statParam.getEnd());
+
+        if (statParam.getUris() != null) {
+            uriBuilder.queryParam("uris", statParam.getUris());
+        }
+
+        if (statParam.getUnique() != null) {
+            uriBuilder.queryParam("unique", statParam.getUnique());
+        }
+
+        return uriBuilder.build();
+    }
+
     private String convertBody(InputStream inputStream) {
         try (inputStream) {
             return new String(inputStream.readAllBytes(), StandardCharsets.UTF_8);
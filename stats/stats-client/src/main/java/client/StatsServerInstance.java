@@ -0,0 +1,117 @@
+package client;
+
+import java.net.URI;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Экземпляр сервера статистики с оценкой задержки (EWMA) и счетчиком ошибок подряд.
+ * После каждого запроса к экземпляру нужно вызвать {@link #success(long)} или {@link #failure()}.
+ * Ошибка учитывается в оценке как запрос длиной failurePenaltyNanos, поэтому сбоящий экземпляр
+ * проигрывает выбор еще до исключения.
+ */
+public class StatsServerInstance {
+
+    private final URI uri;
+    private final double alpha;
+    private final int maxFailures;
+    private final long ejectionNanos;
+    private final long failurePenaltyNanos;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicBoolean probing = new AtomicBoolean();
+    private double ewmaNanos;
+    private int failures;
+    private long ejectedUntilNanos;
+    private boolean ejected;
+    private volatile long probeStartedNanos;
+
+    StatsServerInstance(URI uri, double alpha, int maxFailures, long ejectionNanos,
+                        long failurePenaltyNanos, double initialEwmaNanos) {
+        this.uri = uri;
+        this.alpha = alpha;
+        this.maxFailures = maxFailures;
+        this.ejectionNanos = ejectionNanos;
+        this.failurePenaltyNanos = failurePenaltyNanos;
+        this.ewmaNanos = initialEwmaNanos;
+    }
+
+    public URI uri() {
+        return uri;
+    }
+
+    public synchronized void success(long latencyNanos) {
+        inFlight.decrementAndGet();
+        update(latencyNanos);
+        failures = 0;
+        ejected = false;
+        probing.set(false);
+    }
+
+    public synchronized void failure() {
+        inFlight.decrementAndGet();
+        update(Math.max(failurePenaltyNanos, 2 * ewmaNanos));
+        failures++;
+        if (failures >= maxFailures) {
+            ejected = true;
+            ejectedUntilNanos = System.nanoTime() + ejectionNanos;
+        }
+        probing.set(false);
+    }
+
+    private void update(double sampleNanos) {
+        ewmaNanos = ewmaNanos == 0 ? sampleNanos : ewmaNanos + alpha * (sampleNanos - ewmaNanos);
+    }
+
+    /**
+     * Занимает экземпляр под запрос. После истечения срока исключения пропускается только один
+     * пробный запрос (half-open), остальные получают false, пока проба не завершится. Проба,
+     * не вернувшая результат за срок исключения, считается потерянной, и пропускается следующая.
+     */
+    boolean tryAcquire(long nowNanos) {
+        synchronized (this) {
+            if (ejected) {
+                if (nowNanos - ejectedUntilNanos < 0) {
+                    return false;
+                }
+                if (!probing.compareAndSet(false, true)) {
+                    if (nowNanos - probeStartedNanos < ejectionNanos) {
+                        return false;
+                    }
+                }
+                probeStartedNanos = nowNanos;
+            }
+        }
+        inFlight.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Занимает экземпляр без проверки исключения: когда исключены все, лучше попробовать, чем сразу отказать.
+     */
+    void acquire() {
+        inFlight.incrementAndGet();
+    }
+
+    /**
+     * Выброшенный экземпляр снова становится доступным по истечении срока, пока к нему не отправлен
+     * пробный запрос; результат пробы решит, вернуть его или выбросить повторно.
+     */
+    synchronized boolean isAvailable(long nowNanos) {
+        if (!ejected) {
+            return true;
+        }
+        return nowNanos - ejectedUntilNanos >= 0
+                && (!probing.get() || nowNanos - probeStartedNanos >= ejectionNanos);
+    }
+
+    synchronized double ewmaNanos() {
+        return ewmaNanos;
+    }
+
+    /**
+     * Чем меньше, тем предпочтительнее: задержка с поправкой на число запросов в полете.
+     */
+    synchronized double score() {
+        return ewmaNanos * (inFlight.get() + 1);
+    }
+}
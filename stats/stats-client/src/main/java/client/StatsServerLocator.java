@@ -0,0 +1,147 @@
+package client;
+
+import exception.StatsServerUnavailable;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.client.discovery.DiscoveryClient;
+import org.springframework.stereotype.Component;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Выбор экземпляра сервера статистики. Список экземпляров периодически обновляется из discovery,
+ * из двух случайных доступных экземпляров выбирается тот, у которого меньше оценка задержки
+ * (power of two choices). Экземпляры, не ответившие несколько раз подряд, на время исключаются.
+ * Новый экземпляр получает среднюю оценку уже известных, чтобы не забрать на себя весь поток до первого ответа.
+ * Старт сервиса не ждет discovery: список запрашивается при первом вызове.
+ */
+@Slf4j
+@Component
+public class StatsServerLocator {
+
+    private final DiscoveryClient discoveryClient;
+    private final String statsServerId;
+    private final long refreshNanos;
+    private final double alpha;
+    private final int maxFailures;
+    private final long ejectionNanos;
+    private final long failurePenaltyNanos;
+
+    private volatile List<StatsServerInstance> instances = List.of();
+    private volatile long refreshedAtNanos;
+    private volatile boolean refreshed;
+
+    public StatsServerLocator(DiscoveryClient discoveryClient,
+                              @Value("${stats.server.id:stats-server}") String statsServerId,
+                              @Value("${stats.client.balancer.refresh-interval-ms:30000}") long refreshIntervalMs,
+                              @Value("${stats.client.balancer.ewma-alpha:0.3}") double alpha,
+                              @Value("${stats.client.balancer.max-failures:3}") int maxFailures,
+                              @Value("${stats.client.balancer.ejection-ms:30000}") long ejectionMs,
+                              @Value("${stats.client.balancer.failure-penalty-ms:1000}") long failurePenaltyMs) {
+        this.discoveryClient = discoveryClient;
+        this.statsServerId = statsServerId;
+        this.refreshNanos = TimeUnit.MILLISECONDS.toNanos(refreshIntervalMs);
+        this.alpha = alpha;
+        this.maxFailures = maxFailures;
+        this.ejectionNanos = TimeUnit.MILLISECONDS.toNanos(ejectionMs);
+        this.failurePenaltyNanos = TimeUnit.MILLISECONDS.toNanos(failurePenaltyMs);
+    }
+
+    /**
+     * @throws StatsServerUnavailable - если discovery не знает ни одного экземпляра
+     */
+    public StatsServerInstance choose() {
+        long now = System.nanoTime();
+        if (!refreshed || now - refreshedAtNanos >= refreshNanos) {
+            refresh(now);
+        }
+
+        List<StatsServerInstance> all = instances;
+        if (all.isEmpty()) {
+            refreshed = false;
+            throw new StatsServerUnavailable("Нет доступных экземпляров сервиса статистики с id: " + statsServerId);
+        }
+        List<StatsServerInstance> available = all.stream()
+                .filter(instance -> instance.isAvailable(now))
+                .toList();
+        // если исключены все, выбираем из всех: лучше попробовать, чем сразу отказать
+
+        if (available.isEmpty()) {
+            StatsServerInstance chosen = pick(all);
+            chosen.acquire();
+            return chosen;
+        }
+
+        StatsServerInstance chosen = pick(available);
+        if (chosen.tryAcquire(now)) {
+            return chosen;
+        }
+        // пробу к этому экземпляру успел занять другой запрос
+        for (StatsServerInstance instance : available) {
+            if (instance != chosen && instance.tryAcquire(now)) {
+                return instance;
+            }
+        }
+        chosen = pick(all);
+        chosen.acquire();
+        return chosen;
+    }
+
+    private StatsServerInstance pick(List<StatsServerInstance> candidates) {
+        if (candidates.size() == 1) {
+            return candidates.getFirst();
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int first = random.nextInt(candidates.size());
+        int second = random.nextInt(candidates.size() - 1);
+        if (second >= first) {
+            second++;
+        }
+        StatsServerInstance a = candidates.get(first);
+        StatsServerInstance b = candidates.get(second);
+        return a.score() <= b.score() ? a : b;
+    }
+
+    private synchronized void refresh(long now) {
+        if (refreshed && now - refreshedAtNanos < refreshNanos) {
+            return;
+        }
+
+        List<ServiceInstance> found;
+        try {
+            found = discoveryClient.getInstances(statsServerId);
+        } catch (Exception e) {
+            log.warn("Ошибка обнаружения адреса сервиса статистики с id: {}", statsServerId, e);
+            found = List.of();
+        }
+        if (found.isEmpty() && !instances.isEmpty()) {
+            // discovery бывает кратковременно пуст, прежний список лучше, чем никакого
+            log.warn("Discovery не вернул экземпляров {}, используется прежний список", statsServerId);
+        } else {
+            Map<URI, StatsServerInstance> known = new HashMap<>();
+            instances.forEach(instance -> known.put(instance.uri(), instance));
+            double initialEwma = instances.stream()
+                    .mapToDouble(StatsServerInstance::ewmaNanos)
+                    .filter(ewma -> ewma > 0)
+                    .average()
+                    .orElse(0);
+            List<StatsServerInstance> updated = new ArrayList<>(found.size());
+            for (ServiceInstance serviceInstance : found) {
+                URI uri = serviceInstance.getUri();
+                StatsServerInstance instance = known.get(uri);
+                updated.add(instance != null ? instance : new StatsServerInstance(uri, alpha, maxFailures,
+                        ejectionNanos, failurePenaltyNanos, initialEwma));
+            }
+            instances = List.copyOf(updated);
+        }
+        refreshedAtNanos = now;
+        refreshed = true;
+    }
+}
@@ -1,10 +1,17 @@
 package exception;
 
 public class RequestException extends RuntimeException {
+    private final int statusCode;
+
     public RequestException(String method, String uri, int statusCode, String body) {
         super("Метод: " + method
               + "\n URI: " + uri
               + "\n Код: " + statusCode
               + "\n Ответ сервера: " + body);
+        this.statusCode = statusCode;
+    }
+
+    public int getStatusCode() {
+        return statusCode;
     }
 }
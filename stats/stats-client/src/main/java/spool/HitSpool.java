@@ -0,0 +1,286 @@
+package spool;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import ru.practicum.dto.EndpointHitDto;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Append-only файл хитов, отображенный в память. Копит хиты, пока сервер статистики недоступен,
+ * и отдает их по порядку после восстановления. Позиции чтения и записи хранятся в заголовке файла,
+ * поэтому неотправленные хиты переживают перезапуск сервиса.
+ * <p>
+ * Формат: [long позиция чтения][long позиция записи], далее записи [int длина][json хита].
+ * Класс не потокобезопасен, обращаться к нему должен один поток отправки.
+ * Файл блокируется на время работы, поэтому два процесса не могут открыть один спул.
+ * <p>
+ * Место от отправленных хитов освобождается сжатием: хвост пишется в соседний временный файл,
+ * который атомарно заменяет спул. Падение во время сжатия оставляет прежний файл целым.
+ */
+@Slf4j
+public class HitSpool implements AutoCloseable {
+
+    private static final int HEADER = 2 * Long.BYTES;
+
+    private final Path path;
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private final ObjectMapper objectMapper;
+    private int readPos;
+    private int writePos;
+
+    /**
+     * @throws LockedException если файл уже открыт другим процессом
+     */
+    public HitSpool(Path path, int capacity, ObjectMapper objectMapper) {
+        this.path = path;
+        this.objectMapper = objectMapper;
+        try {
+            Files.createDirectories(path.toAbsolutePath().getParent());
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            lock(channel, path);
+            this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Не удалось открыть спул хитов " + path, e);
+        }
+
+        long storedRead = buffer.getLong(0);
+        long storedWrite = buffer.getLong(Long.BYTES);
+        if (storedRead < HEADER || storedWrite < storedRead || storedWrite > capacity) {
+            // новый или поврежденный файл
+            reset();
+        } else {
+            readPos = (int) storedRead;
+            writePos = (int) storedWrite;
+        }
+        if (!isEmpty()) {
+            log.info("В спуле {} найдено {} байт неотправленных хитов", path, size());
+        }
+    }
+
+    /**
+     * Открывает первый незанятый из slots файлов: сам path, затем path с суффиксами -1, -2 и т.д.
+     * Так экземпляры сервиса на одном хосте получают разные файлы, а перезапущенный экземпляр
+     * забирает хиты, оставшиеся в освободившемся файле.
+     *
+     * @throws IllegalStateException если заняты все файлы
+     */
+    public static HitSpool openFree(Path path, int slots, int capacity, ObjectMapper objectMapper) {
+        for (int slot = 0; slot < slots; slot++) {
+            try {
+                return new HitSpool(slotPath(path, slot), capacity, objectMapper);
+            } catch (LockedException e) {
+                log.debug("Спул {} занят другим процессом", e.getMessage());
+            }
+        }
+        throw new IllegalStateException("Все " + slots + " файлов спула " + path + " заняты другими процессами");
+    }
+
+    public Path path() {
+        return path;
+    }
+
+    public boolean isEmpty() {
+        return readPos == writePos;
+    }
+
+    public int size() {
+        return writePos - readPos;
+    }
+
+    /**
+     * Дописывает хиты в конец файла.
+     *
+     * @return число хитов, которые не поместились и были отброшены
+     */
+    public int append(List<EndpointHitDto> hits) {
+        int dropped = 0;
+        for (EndpointHitDto hit : hits) {
+            byte[] record = serialize(hit);
+            if (!ensureSpace(Integer.BYTES + record.length)) {
+                dropped++;
+                continue;
+            }
+            buffer.putInt(writePos, record.length);
+            buffer.put(writePos + Integer.BYTES, record);
+            writePos += Integer.BYTES + record.length;
+        }
+        buffer.putLong(Long.BYTES, writePos);
+        buffer.force();
+        return dropped;
+    }
+
+    /**
+     * Читает до limit хитов с начала спула, не удаляя их. После успешной отправки нужно вызвать
+     * {@link #commit(Batch)}.
+     */
+    public Batch peek(int limit) {
+        List<EndpointHitDto> hits = new ArrayList<>(Math.min(limit, 1024));
+        int pos = readPos;
+        while (pos < writePos && hits.size() < limit) {
+            int length = buffer.getInt(pos);
+            if (length <= 0 || pos + Integer.BYTES + length > writePos) {
+                log.error("Спул хитов поврежден на позиции {}, остаток {} байт отброшен", pos, writePos - pos);
+                pos = writePos;
+                break;
+            }
+            byte[] record = new byte[length];
+            buffer.get(pos + Integer.BYTES, record);
+            try {
+                hits.add(objectMapper.readValue(record, EndpointHitDto.class));
+            } catch (IOException e) {
+                log.error("Не удалось прочитать хит из спула, запись пропущена", e);
+            }
+            pos += Integer.BYTES + length;
+        }
+        return new Batch(hits, pos);
+    }
+
+    public void commit(Batch batch) {
+        readPos = batch.end();
+        if (isEmpty()) {
+            reset();
+        } else {
+            buffer.putLong(0, readPos);
+        }
+    }
+
+    @Override
+    public void close() {
+        buffer.force();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            log.warn("Не удалось закрыть спул хитов", e);
+        }
+    }
+
+    private static void lock(FileChannel channel, Path path) throws IOException {
+        FileLock lock;
+        try {
+            lock = channel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            lock = null;
+        }
+        if (lock == null) {
+            channel.close();
+            throw new LockedException(path.toString());
+        }
+    }
+
+    private static Path slotPath(Path path, int slot) {
+        if (slot == 0) {
+            return path;
+        }
+        String name = path.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        String slotName = dot > 0
+                ? name.substring(0, dot) + "-" + slot + name.substring(dot)
+                : name + "-" + slot;
+        return path.resolveSibling(slotName);
+    }
+
+    private boolean ensureSpace(int length) {
+        if (writePos + length <= buffer.capacity()) {
+            return true;
+        }
+        if (readPos > HEADER) {
+            compact();
+        }
+        return writePos + length <= buffer.capacity();
+    }
+
+    /**
+     * Переносит неотправленный хвост в начало нового файла и атомарно подменяет им спул.
+     * Сдвиг хвоста на месте не годится: упав между копированием и записью заголовка,
+     * процесс оставил бы заголовок, указывающий на уже перезаписанные байты.
+     */
+    private void compact() {
+        int size = size();
+        Path temp = path.resolveSibling(path.getFileName() + ".compact");
+        FileChannel compacted = null;
+        try {
+            compacted = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            // блокировка переходит к новому файлу до переименования, спул не остается без нее
+            lock(compacted, temp);
+            MappedByteBuffer compactedBuffer = compacted.map(FileChannel.MapMode.READ_WRITE, 0, buffer.capacity());
+            compactedBuffer.put(HEADER, buffer, readPos, size);
+            compactedBuffer.putLong(0, HEADER);
+            compactedBuffer.putLong(Long.BYTES, HEADER + size);
+            compactedBuffer.force();
+            Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            forceDirectory();
+
+            FileChannel old = channel;
+            channel = compacted;
+            buffer = compactedBuffer;
+            readPos = HEADER;
+            writePos = HEADER + size;
+            old.close();
+        } catch (IOException | LockedException e) {
+            log.warn("Не удалось сжать спул хитов {}, новые хиты не поместятся до отправки старых", path, e);
+            if (compacted != null && compacted != channel) {
+                try {
+                    compacted.close();
+                } catch (IOException closeError) {
+                    e.addSuppressed(closeError);
+                }
+            }
+        }
+    }
+
+    /**
+     * Фиксирует переименование на диске. Не все ОС позволяют открыть каталог как файл,
+     * тогда переименование переживет падение процесса, но не обязательно отключение питания.
+     */
+    private void forceDirectory() {
+        try (FileChannel directory = FileChannel.open(path.toAbsolutePath().getParent(), StandardOpenOption.READ)) {
+            directory.force(true);
+        } catch (IOException e) {
+            log.debug("Не удалось сбросить каталог спула {} на диск", path, e);
+        }
+    }
+
+    private void reset() {
+        readPos = HEADER;
+        writePos = HEADER;
+        buffer.putLong(0, readPos);
+        buffer.putLong(Long.BYTES, writePos);
+    }
+
+    private byte[] serialize(EndpointHitDto hit) {
+        try {
+            return objectMapper.writeValueAsBytes(hit);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Прочитанные хиты и позиция, до которой их можно удалить из спула.
+     */
+    public record Batch(List<EndpointHitDto> hits, int end) {
+    }
+
+    /**
+     * Файл спула заблокирован другим процессом.
+     */
+    public static class LockedException extends IllegalStateException {
+        public LockedException(String path) {
+            super(path);
+        }
+    }
+}
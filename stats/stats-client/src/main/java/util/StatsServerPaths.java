@@ -3,5 +3,6 @@ package util;
 public interface StatsServerPaths {
     String PATH_BASE = "http://localhost:9090";
     String PATH_HIT = "/hit";
+    String PATH_HITS = "/hits";
     String PATH_STAT = "/stats";
 }
@@ -0,0 +1,265 @@
+package ru.practicum.stats.server.archive;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Неизменяемый архивный файл с хитами, отсортированными по created.
+ * <p>
+ * Заголовок не сжат: [int magic][int строк][long min created][long max created][фильтр Блума по uri].
+ * Далее deflate: словари app, uri и ip файла, затем столбцы created (разности соседних значений),
+ * app, uri и ip (номер в словаре + 1, 0 - без ip) в varint. Файл не зависит от словарей Postgres.
+ * Открытый файл держит в памяти только заголовок, столбцы читаются при запросе и кэшируются в {@link HitArchive}.
+ */
+final class ArchiveFile {
+
+    private static final int MAGIC = 0x41524331;
+    private static final double BLOOM_FALSE_POSITIVE_RATE = 0.01;
+
+    final String name;
+    final int rows;
+    final long minCreated;
+    final long maxCreated;
+    private final Path path;
+    private final BloomFilter uriFilter;
+    private final long dataOffset;
+
+    private ArchiveFile(String name, Path path, int rows, long minCreated, long maxCreated, BloomFilter uriFilter) {
+        this.name = name;
+        this.path = path;
+        this.rows = rows;
+        this.minCreated = minCreated;
+        this.maxCreated = maxCreated;
+        this.uriFilter = uriFilter;
+        this.dataOffset = Integer.BYTES * 2 + Long.BYTES * 2 + uriFilter.serializedSize();
+    }
+
+    /**
+     * Пишет файл через временный и атомарно переименовывает его после fsync.
+     */
+    static ArchiveFile write(Path path, ArchiveRows rows, Map<Integer, String> appNames, Map<Integer, String> uriNames) {
+        Map<Integer, Integer> localApps = new LinkedHashMap<>();
+        Map<Integer, Integer> localUris = new LinkedHashMap<>();
+        Map<String, Integer> localIps = new LinkedHashMap<>();
+        for (int row = 0; row < rows.size(); row++) {
+            localApps.putIfAbsent(rows.appId(row), localApps.size());
+            localUris.putIfAbsent(rows.uriId(row), localUris.size());
+            if (rows.ip(row) != null) {
+                localIps.putIfAbsent(rows.ip(row), localIps.size());
+            }
+        }
+
+        BloomFilter bloom = BloomFilter.create(localUris.size(), BLOOM_FALSE_POSITIVE_RATE);
+        localUris.keySet().forEach(uriId -> bloom.put(uriNames.get(uriId)));
+        long minCreated = rows.isEmpty() ? Long.MAX_VALUE : rows.created(0);
+        long maxCreated = rows.isEmpty() ? Long.MIN_VALUE : rows.created(rows.size() - 1);
+
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            OutputStream file = new BufferedOutputStream(Channels.newOutputStream(channel));
+            DataOutputStream header = new DataOutputStream(file);
+            header.writeInt(MAGIC);
+            header.writeInt(rows.size());
+            header.writeLong(minCreated);
+            header.writeLong(maxCreated);
+            bloom.writeTo(header);
+            header.flush();
+
+            Deflater deflater = new Deflater();
+            try {
+                DeflaterOutputStream deflated = new DeflaterOutputStream(file, deflater, 64 * 1024);
+                DataOutputStream data = new DataOutputStream(new BufferedOutputStream(deflated, 64 * 1024));
+                writeNames(data, localApps.keySet().stream().map(appNames::get).toList());
+                writeNames(data, localUris.keySet().stream().map(uriNames::get).toList());
+                writeNames(data, localIps.keySet());
+                long previous = minCreated;
+                for (int row = 0; row < rows.size(); row++) {
+                    writeVarLong(data, rows.created(row) - previous);
+                    previous = rows.created(row);
+                }
+                for (int row = 0; row < rows.size(); row++) {
+                    writeVarLong(data, localApps.get(rows.appId(row)));
+                }
+                for (int row = 0; row < rows.size(); row++) {
+                    writeVarLong(data, localUris.get(rows.uriId(row)));
+                }
+                for (int row = 0; row < rows.size(); row++) {
+                    writeVarLong(data, rows.ip(row) == null ? 0 : localIps.get(rows.ip(row)) + 1);
+                }
+                data.flush();
+                deflated.finish();
+                file.flush();
+            } finally {
+                deflater.end();
+            }
+            channel.force(true);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Не удалось записать архивный файл " + path, e);
+        }
+
+        try {
+            Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Не удалось переименовать архивный файл " + tmp, e);
+        }
+        return new ArchiveFile(path.getFileName().toString(), path, rows.size(), minCreated, maxCreated, bloom);
+    }
+
+    /**
+     * Читает только заголовок и фильтр Блума.
+     */
+    static ArchiveFile open(Path path) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            int magic = in.readInt();
+            if (magic != MAGIC) {
+                throw new IOException("Неизвестный формат файла");
+            }
+            int rows = in.readInt();
+            long minCreated = in.readLong();
+            long maxCreated = in.readLong();
+            BloomFilter bloom = BloomFilter.readFrom(in);
+            return new ArchiveFile(path.getFileName().toString(), path, rows, minCreated, maxCreated, bloom);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Не удалось открыть архивный файл " + path, e);
+        }
+    }
+
+    boolean overlaps(long fromMicros, long toMicros) {
+        return rows > 0 && minCreated <= toMicros && maxCreated >= fromMicros;
+    }
+
+    /**
+     * false, если ни одного из uri в файле точно нет; null - без фильтра.
+     */
+    boolean mightContainAny(Iterable<String> uris) {
+        if (uris == null) {
+            return true;
+        }
+        for (String uri : uris) {
+            if (uriFilter.mightContain(uri)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    Columns read() {
+        try (InputStream file = Files.newInputStream(path)) {
+            file.skipNBytes(dataOffset);
+            DataInputStream data = new DataInputStream(new BufferedInputStream(new InflaterInputStream(file), 64 * 1024));
+            String[] apps = readNames(data);
+            String[] uris = readNames(data);
+            String[] ips = readNames(data);
+            long[] created = new long[rows];
+            long previous = minCreated;
+            for (int row = 0; row < rows; row++) {
+                previous += readVarLong(data);
+                created[row] = previous;
+            }
+            int[] appColumn = readColumn(data, rows);
+            int[] uriColumn = readColumn(data, rows);
+            int[] ipColumn = readColumn(data, rows);
+            return new Columns(apps, uris, ips, created, appColumn, uriColumn, ipColumn);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Не удалось прочитать архивный файл " + path, e);
+        }
+    }
+
+    /**
+     * Столбцы файла. ip[row] - номер в словаре ipNames + 1, 0 - хит без ip.
+     */
+    record Columns(String[] appNames, String[] uriNames, String[] ipNames,
+                   long[] created, int[] app, int[] uri, int[] ip) {
+
+        /**
+         * Первая строка с created >= fromMicros.
+         */
+        int lowerBound(long fromMicros) {
+            int low = 0;
+            int high = created.length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (created[mid] < fromMicros) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        Map<String, Integer> uriIndex() {
+            Map<String, Integer> index = new HashMap<>();
+            for (int i = 0; i < uriNames.length; i++) {
+                index.put(uriNames[i], i);
+            }
+            return index;
+        }
+    }
+
+    private static void writeNames(DataOutput out, Iterable<String> names) throws IOException {
+        int count = 0;
+        for (String ignored : names) {
+            count++;
+        }
+        writeVarLong(out, count);
+        for (String name : names) {
+            out.writeUTF(name);
+        }
+    }
+
+    private static String[] readNames(DataInput in) throws IOException {
+        String[] names = new String[(int) readVarLong(in)];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = in.readUTF();
+        }
+        return names;
+    }
+
+    private static int[] readColumn(DataInput in, int rows) throws IOException {
+        int[] column = new int[rows];
+        for (int row = 0; row < rows; row++) {
+            column[row] = (int) readVarLong(in);
+        }
+        return column;
+    }
+
+    private static void writeVarLong(DataOutput out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) (value & 0x7F | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static long readVarLong(DataInput in) throws IOException {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = in.readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package ru.practicum.stats.server.archive;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+import ru.practicum.stats.server.util.IpAddresses;
+
+import javax.sql.DataSource;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Учет архивных файлов в таблице stats_archive и выборка строк stats для архивации.
+ * Диапазон архива - полуинтервал [range_from, range_to); файлов у диапазона может быть несколько:
+ * основной и файлы с опоздавшими хитами.
+ */
+@Repository
+public class ArchiveRepository {
+
+    static final LocalDateTime EPOCH = LocalDateTime.of(1970, 1, 1, 0, 0);
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+    private final NamedParameterJdbcTemplate streamingJdbcTemplate;
+
+    public ArchiveRepository(NamedParameterJdbcTemplate jdbcTemplate,
+                             DataSource dataSource,
+                             @Value("${stats.stream.fetch-size:1000}") int fetchSize) {
+        this.jdbcTemplate = jdbcTemplate;
+        JdbcTemplate streaming = new JdbcTemplate(dataSource);
+        streaming.setFetchSize(fetchSize);
+        this.streamingJdbcTemplate = new NamedParameterJdbcTemplate(streaming);
+    }
+
+    public List<ArchiveEntry> findFiles() {
+        return jdbcTemplate.query("SELECT file, range_to FROM stats_archive", (rs, rowNum) ->
+                new ArchiveEntry(rs.getString("file"), rs.getTimestamp("range_to").toLocalDateTime()));
+    }
+
+    /**
+     * Диапазоны архива по возрастанию range_to.
+     */
+    public List<ArchiveRange> findRanges() {
+        return jdbcTemplate.query("""
+                SELECT range_from, range_to, MAX(max_id) AS max_id,
+                       MIN(archived_at) AS archived_at, BOOL_AND(purged) AS purged
+                FROM stats_archive
+                GROUP BY range_from, range_to
+                ORDER BY range_to
+                """, (rs, rowNum) -> new ArchiveRange(
+                rs.getTimestamp("range_from").toLocalDateTime(),
+                rs.getTimestamp("range_to").toLocalDateTime(),
+                rs.getLong("max_id"),
+                rs.getTimestamp("archived_at").toLocalDateTime(),
+                rs.getBoolean("purged")));
+    }
+
+    public void insert(String file, ArchiveRange range, ArchiveRows rows, boolean purged) {
+        jdbcTemplate.update("""
+                INSERT INTO stats_archive (file, range_from, range_to, max_id, row_count, archived_at, purged)
+                VALUES (:file, :from, :to, :maxId, :rows, :archivedAt, :purged)
+                """, new MapSqlParameterSource()
+                .addValue("file", file)
+                .addValue("from", Timestamp.valueOf(range.from()))
+                .addValue("to", Timestamp.valueOf(range.to()))
+                .addValue("maxId", Math.max(range.maxId(), rows.maxId()))
+                .addValue("rows", rows.size())
+                .addValue("archivedAt", Timestamp.valueOf(LocalDateTime.now()))
+                .addValue("purged", purged));
+    }
+
+    public void markPurged(ArchiveRange range) {
+        jdbcTemplate.update("UPDATE stats_archive SET purged = TRUE WHERE range_to = :to",
+                new MapSqlParameterSource("to", Timestamp.valueOf(range.to())));
+    }
+
+    /**
+     * Все строки stats из [from, to), включая попавшие в партицию по умолчанию.
+     */
+    public ArchiveRows loadRange(LocalDateTime from, LocalDateTime to) {
+        ArchiveRows rows = new ArchiveRows();
+        streamingJdbcTemplate.query("""
+                SELECT s.id, s.app_id, s.uri_id, host(s.ip) AS ip, s.created
+                FROM stats s
+                WHERE s.created >= :from AND s.created < :to
+                ORDER BY s.created
+                """, new MapSqlParameterSource()
+                        .addValue("from", Timestamp.valueOf(from))
+                        .addValue("to", Timestamp.valueOf(to)),
+                (RowCallbackHandler) rs -> addRow(rows, rs));
+        return rows;
+    }
+
+    /**
+     * Опоздавшие хиты: строки stats из уже заархивированных диапазонов с id больше учтенного в архиве.
+     * Ключ результата - номер диапазона в списке.
+     */
+    public Map<Integer, ArchiveRows> loadLate(List<ArchiveRange> ranges) {
+        Map<Integer, ArchiveRows> result = new HashMap<>();
+        if (ranges.isEmpty()) {
+            return result;
+        }
+
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("froms", ranges.stream().map(range -> Timestamp.valueOf(range.from()).toString()).toArray(String[]::new))
+                .addValue("tos", ranges.stream().map(range -> Timestamp.valueOf(range.to()).toString()).toArray(String[]::new))
+                .addValue("maxIds", ranges.stream().map(range -> String.valueOf(range.maxId())).toArray(String[]::new));
+        streamingJdbcTemplate.query("""
+                SELECT r.idx, s.id, s.app_id, s.uri_id, host(s.ip) AS ip, s.created
+                FROM unnest(CAST(:froms AS timestamp[]), CAST(:tos AS timestamp[]), CAST(:maxIds AS bigint[]))
+                     WITH ORDINALITY AS r(range_from, range_to, max_id, idx)
+                JOIN stats s ON s.created >= r.range_from AND s.created < r.range_to AND s.id > r.max_id
+                ORDER BY r.idx, s.created
+                """, params, (RowCallbackHandler) rs ->
+                addRow(result.computeIfAbsent(rs.getInt("idx") - 1, k -> new ArchiveRows()), rs));
+        return result;
+    }
+
+    /**
+     * Строки отсоединенной партиции с id больше учтенного в архиве.
+     */
+    public ArchiveRows loadPartition(String partition, long afterId) {
+        ArchiveRows rows = new ArchiveRows();
+        streamingJdbcTemplate.query("""
+                SELECT s.id, s.app_id, s.uri_id, host(s.ip) AS ip, s.created
+                FROM %s s
+                WHERE s.id > :afterId
+                ORDER BY s.created
+                """.formatted(partition), new MapSqlParameterSource("afterId", afterId),
+                (RowCallbackHandler) rs -> addRow(rows, rs));
+        return rows;
+    }
+
+    /**
+     * Удаляет из stats строки диапазона, уже записанные в архив (id не больше maxId).
+     */
+    public int deleteArchived(LocalDateTime from, LocalDateTime to, long maxId) {
+        return jdbcTemplate.update("DELETE FROM stats WHERE created >= :from AND created < :to AND id <= :maxId",
+                new MapSqlParameterSource()
+                        .addValue("from", Timestamp.valueOf(from))
+                        .addValue("to", Timestamp.valueOf(to))
+                        .addValue("maxId", maxId));
+    }
+
+    private static void addRow(ArchiveRows rows, ResultSet rs) throws SQLException {
+        String ip = rs.getString("ip");
+        rows.add(rs.getLong("id"), rs.getInt("app_id"), rs.getInt("uri_id"),
+                ip == null ? null : IpAddresses.normalize(ip),
+                toMicros(rs.getTimestamp("created").toLocalDateTime()));
+    }
+
+    static long toMicros(LocalDateTime dateTime) {
+        return ChronoUnit.MICROS.between(EPOCH, dateTime);
+    }
+
+    public record ArchiveEntry(String file, LocalDateTime rangeTo) {
+    }
+
+    public record ArchiveRange(LocalDateTime from, LocalDateTime to, long maxId, LocalDateTime archivedAt,
+                               boolean purged) {
+    }
+}
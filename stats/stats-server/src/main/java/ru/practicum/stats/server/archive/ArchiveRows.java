@@ -0,0 +1,75 @@
+package ru.practicum.stats.server.archive;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Строки stats, собранные для записи в один архивный файл, в порядке возрастания created.
+ * app и uri хранятся как id словарей Postgres, в файле они заменяются строками.
+ */
+final class ArchiveRows {
+
+    private long[] created = new long[1024];
+    private int[] apps = new int[1024];
+    private int[] uris = new int[1024];
+    private final List<String> ips = new ArrayList<>();
+    private int size;
+    private long maxId;
+
+    void add(long id, int appId, int uriId, String ip, long createdMicros) {
+        if (size == created.length) {
+            created = Arrays.copyOf(created, size * 2);
+            apps = Arrays.copyOf(apps, size * 2);
+            uris = Arrays.copyOf(uris, size * 2);
+        }
+        created[size] = createdMicros;
+        apps[size] = appId;
+        uris[size] = uriId;
+        ips.add(ip);
+        size++;
+        maxId = Math.max(maxId, id);
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Наибольший id среди строк; 0 для пустого набора.
+     */
+    long maxId() {
+        return maxId;
+    }
+
+    long created(int row) {
+        return created[row];
+    }
+
+    int appId(int row) {
+        return apps[row];
+    }
+
+    int uriId(int row) {
+        return uris[row];
+    }
+
+    /**
+     * null, если ip у хита не было.
+     */
+    String ip(int row) {
+        return ips.get(row);
+    }
+
+    List<Integer> appIds() {
+        return Arrays.stream(apps, 0, size).distinct().boxed().toList();
+    }
+
+    List<Integer> uriIds() {
+        return Arrays.stream(uris, 0, size).distinct().boxed().toList();
+    }
+}
@@ -0,0 +1,242 @@
+package ru.practicum.stats.server.archive;
+
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import ru.practicum.dto.ViewStatsDto;
+import ru.practicum.stats.server.model.Visit;
+import ru.practicum.stats.server.shard.ConditionalOnLocalStorage;
+import ru.practicum.stats.server.util.ViewStats;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Холодный уровень хранения: хиты старше stats.archive.after-days, перенесенные из stats в архивные файлы.
+ * Все хиты с created раньше {@link #hotFrom()} отвечаются только архивом, более новые - только таблицей stats.
+ * <p>
+ * Список файлов берется из stats_archive и периодически перечитывается, поэтому каталог архива
+ * должен быть общим для всех экземпляров сервера. Раскодированные столбцы последних прочитанных
+ * файлов держатся в памяти, пока их суммарный размер не превысит stats.archive.cache-rows строк.
+ */
+@Slf4j
+@Component
+@ConditionalOnLocalStorage
+public class HitArchive {
+
+    private final ArchiveRepository archiveRepository;
+    private final Path dir;
+    private final Set<String> missing = new HashSet<>();
+    private final long cacheRows;
+    private final Map<String, Decoded> decoded = new LinkedHashMap<>(16, 0.75f, true);
+    private long decodedRows;
+
+    private volatile Snapshot snapshot = new Snapshot(List.of(), null);
+
+    public HitArchive(ArchiveRepository archiveRepository,
+                      @Value("${stats.archive.dir:${java.io.tmpdir}/stats-archive}") String dir,
+                      @Value("${stats.archive.cache-rows:10000000}") long cacheRows) {
+        this.archiveRepository = archiveRepository;
+        this.dir = Path.of(dir);
+        this.cacheRows = cacheRows;
+    }
+
+    @PostConstruct
+    public void init() throws IOException {
+        Files.createDirectories(dir);
+        refresh();
+    }
+
+    /**
+     * Перечитывает список файлов: архив мог пополниться на другом экземпляре.
+     */
+    @Scheduled(fixedDelayString = "${stats.archive.refresh-interval-ms:60000}")
+    public synchronized void refresh() {
+        Map<String, ArchiveFile> known = new HashMap<>();
+        snapshot.files().forEach(file -> known.put(file.name, file));
+
+        List<ArchiveFile> files = new ArrayList<>();
+        LocalDateTime hotFrom = null;
+        for (ArchiveRepository.ArchiveEntry entry : archiveRepository.findFiles()) {
+            if (hotFrom == null || entry.rangeTo().isAfter(hotFrom)) {
+                hotFrom = entry.rangeTo();
+            }
+            ArchiveFile file = known.get(entry.file());
+            if (file == null) {
+                try {
+                    file = ArchiveFile.open(dir.resolve(entry.file()));
+                    missing.remove(entry.file());
+                } catch (UncheckedIOException e) {
+                    if (missing.add(entry.file())) {
+                        log.error("Архивный файл {} недоступен, его хиты не попадут в статистику", entry.file(), e);
+                    }
+                    continue;
+                }
+            }
+            files.add(file);
+        }
+        snapshot = new Snapshot(List.copyOf(files), hotFrom);
+
+        Set<String> current = new HashSet<>();
+        files.forEach(file -> current.add(file.name));
+        synchronized (decoded) {
+            decoded.keySet().removeIf(name -> !current.contains(name));
+            decodedRows = decoded.values().stream().mapToLong(columns -> columns.columns().created().length).sum();
+        }
+    }
+
+    /**
+     * Граница уровней: хиты раньше нее есть только в архиве. null, если архив пуст.
+     */
+    public LocalDateTime hotFrom() {
+        return snapshot.hotFrom();
+    }
+
+    Path dir() {
+        return dir;
+    }
+
+    /**
+     * Неуникальные просмотры из архива за [start, end].
+     */
+    public List<ViewStatsDto> getHits(LocalDateTime start, LocalDateTime end, List<String> uris) {
+        long from = ArchiveRepository.toMicros(start);
+        long to = ArchiveRepository.toMicros(end);
+        List<ViewStatsDto> parts = new ArrayList<>();
+        for (ArchiveFile file : candidates(from, to, uris)) {
+            Decoded decodedFile = decode(file);
+            ArchiveFile.Columns columns = decodedFile.columns();
+            boolean[] uriMask = decodedFile.uriMask(uris);
+            if (uriMask == null) {
+                continue;
+            }
+
+            int uriCount = columns.uriNames().length;
+            long[] counts = new long[columns.appNames().length * uriCount];
+            int last = columns.lowerBound(to + 1);
+            for (int row = columns.lowerBound(from); row < last; row++) {
+                // как COUNT(ip): хиты без ip не считаются
+                if (columns.ip()[row] != 0 && uriMask[columns.uri()[row]]) {
+                    counts[columns.app()[row] * uriCount + columns.uri()[row]]++;
+                }
+            }
+            for (int key = 0; key < counts.length; key++) {
+                if (counts[key] > 0) {
+                    parts.add(new ViewStatsDto(columns.appNames()[key / uriCount], columns.uriNames()[key % uriCount], counts[key]));
+                }
+            }
+        }
+        return ViewStats.merge(parts);
+    }
+
+    /**
+     * Посещения app + uri + ip из архива за [start, end] для подсчета уникальных. Файлы раскодируются
+     * по мере чтения потока, повторы убираются в пределах файла, между файлами посещения могут повторяться.
+     */
+    public Stream<Visit> streamVisits(LocalDateTime start, LocalDateTime end, List<String> uris) {
+        long from = ArchiveRepository.toMicros(start);
+        long to = ArchiveRepository.toMicros(end);
+        return candidates(from, to, uris).stream().flatMap(file -> {
+            Decoded decodedFile = decode(file);
+            ArchiveFile.Columns columns = decodedFile.columns();
+            boolean[] uriMask = decodedFile.uriMask(uris);
+            if (uriMask == null) {
+                return Stream.empty();
+            }
+
+            int uriCount = columns.uriNames().length;
+            Set<Long> seen = new HashSet<>();
+            return IntStream.range(columns.lowerBound(from), columns.lowerBound(to + 1))
+                    .filter(row -> {
+                        int ip = columns.ip()[row];
+                        int uri = columns.uri()[row];
+                        return ip != 0 && uriMask[uri]
+                                && seen.add((long) (columns.app()[row] * uriCount + uri) << 32 | ip);
+                    })
+                    .mapToObj(row -> new Visit(columns.appNames()[columns.app()[row]],
+                            columns.uriNames()[columns.uri()[row]], columns.ipNames()[columns.ip()[row] - 1]));
+        });
+    }
+
+    private List<ArchiveFile> candidates(long from, long to, List<String> uris) {
+        if (uris != null && uris.isEmpty()) {
+            return List.of();
+        }
+        return snapshot.files().stream()
+                .filter(file -> file.overlaps(from, to) && file.mightContainAny(uris))
+                .toList();
+    }
+
+    /**
+     * Столбцы файла из кэша или с диска. Файл раскодируется вне блокировки: два запроса к одному
+     * файлу могут прочитать его одновременно, в кэше останется один результат.
+     */
+    private Decoded decode(ArchiveFile file) {
+        synchronized (decoded) {
+            Decoded cached = decoded.get(file.name);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        ArchiveFile.Columns columns = file.read();
+        Decoded result = new Decoded(columns, columns.uriIndex());
+        if (file.rows > cacheRows) {
+            return result;
+        }
+        synchronized (decoded) {
+            if (decoded.putIfAbsent(file.name, result) == null) {
+                decodedRows += file.rows;
+                Iterator<Decoded> eldest = decoded.values().iterator();
+                while (decodedRows > cacheRows && eldest.hasNext()) {
+                    decodedRows -= eldest.next().columns().created().length;
+                    eldest.remove();
+                }
+            }
+        }
+        return result;
+    }
+
+    private record Decoded(ArchiveFile.Columns columns, Map<String, Integer> uriIndex) {
+
+        /**
+         * Отметки нужных uri по номеру в словаре файла; null, если ни одного из них в файле нет.
+         */
+        boolean[] uriMask(List<String> uris) {
+            boolean[] mask = new boolean[columns.uriNames().length];
+            if (uris == null) {
+                Arrays.fill(mask, true);
+                return mask;
+            }
+
+            boolean any = false;
+            for (String uri : uris) {
+                Integer local = uriIndex.get(uri);
+                if (local != null) {
+                    mask[local] = true;
+                    any = true;
+                }
+            }
+            return any ? mask : null;
+        }
+    }
+
+    private record Snapshot(List<ArchiveFile> files, LocalDateTime hotFrom) {
+    }
+}
@@ -0,0 +1,242 @@
+package ru.practicum.stats.server.archive;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.practicum.stats.server.archive.ArchiveRepository.ArchiveRange;
+import ru.practicum.stats.server.dictionary.AppDictionary;
+import ru.practicum.stats.server.dictionary.UriDictionary;
+import ru.practicum.stats.server.partition.StatsPartitionManager;
+import ru.practicum.stats.server.partition.StatsPartitionManager.Partition;
+import ru.practicum.stats.server.shard.ConditionalOnLocalStorage;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Переносит партиции stats старше after-days в архивные файлы {@link HitArchive}.
+ * <p>
+ * Перенос идет в два шага. Сначала партиция записывается в файл, а граница уровней сдвигается:
+ * с этого момента ее хиты читаются из архива, строки в stats остаются. Через grace-minutes,
+ * когда новую границу узнали все экземпляры, партиция удаляется. Хиты, пришедшие в уже
+ * заархивированный диапазон, распознаются по id больше учтенного и дописываются отдельными файлами.
+ * Одновременно архивацию выполняет только один экземпляр (advisory lock Postgres).
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "stats.archive.enabled", havingValue = "true")
+@ConditionalOnLocalStorage
+public class HitArchiver {
+
+    private static final long LOCK_KEY = 0x53544152434849L;
+    private static final DateTimeFormatter FILE_TIME = DateTimeFormatter.ofPattern("yyyyMMddHHmmss");
+
+    private final ArchiveRepository archiveRepository;
+    private final HitArchive hitArchive;
+    private final StatsPartitionManager partitionManager;
+    private final AppDictionary appDictionary;
+    private final UriDictionary uriDictionary;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final int afterDays;
+    private final Duration grace;
+
+    public HitArchiver(ArchiveRepository archiveRepository,
+                       HitArchive hitArchive,
+                       StatsPartitionManager partitionManager,
+                       AppDictionary appDictionary,
+                       UriDictionary uriDictionary,
+                       JdbcTemplate jdbcTemplate,
+                       TransactionTemplate transactionTemplate,
+                       @Value("${stats.archive.after-days:30}") int afterDays,
+                       @Value("${stats.archive.grace-minutes:60}") long graceMinutes,
+                       @Value("${stats.partition.retention-days:0}") int retentionDays) {
+        if (retentionDays > 0 && retentionDays < afterDays) {
+            // партиции удалялись бы раньше, чем попадут в архив
+            throw new IllegalStateException("stats.partition.retention-days = " + retentionDays
+                    + " меньше stats.archive.after-days = " + afterDays + ", хиты будут удалены без архивации");
+        }
+        this.archiveRepository = archiveRepository;
+        this.hitArchive = hitArchive;
+        this.partitionManager = partitionManager;
+        this.appDictionary = appDictionary;
+        this.uriDictionary = uriDictionary;
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.afterDays = afterDays;
+        this.grace = Duration.ofMinutes(graceMinutes);
+    }
+
+    @Scheduled(cron = "${stats.archive.cron:0 20 * * * *}")
+    public void run() {
+        jdbcTemplate.execute((ConnectionCallback<Void>) connection -> {
+            if (!advisoryLock(connection, "SELECT pg_try_advisory_lock(?)")) {
+                log.debug("Архивация уже выполняется на другом экземпляре");
+                return null;
+            }
+            try {
+                removeOrphans();
+                archiveExpired();
+                archiveLate();
+                purge();
+            } finally {
+                advisoryLock(connection, "SELECT pg_advisory_unlock(?)");
+                hitArchive.refresh();
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Записывает в архив партиции, целиком ставшие старше after-days.
+     */
+    private void archiveExpired() {
+        List<ArchiveRange> ranges = archiveRepository.findRanges();
+        LocalDateTime from = ranges.isEmpty() ? ArchiveRepository.EPOCH : ranges.getLast().to();
+        LocalDateTime threshold = LocalDateTime.now().minusDays(afterDays);
+
+        for (Partition partition : partitionManager.findAttached()) {
+            if (partition.to().isAfter(threshold)) {
+                break;
+            }
+            if (!partition.to().isAfter(from)) {
+                continue;
+            }
+
+            // первый диапазон начинается с эпохи и забирает старые строки из партиции по умолчанию
+            ArchiveRange range = new ArchiveRange(from, partition.to(), 0, null, false);
+            inTransaction(written -> {
+                ArchiveRows rows = archiveRepository.loadRange(range.from(), range.to());
+                write(range, rows, false, written);
+                log.info("Диапазон [{}, {}) записан в архив: {} хитов", range.from(), range.to(), rows.size());
+            });
+            from = partition.to();
+        }
+    }
+
+    /**
+     * Дописывает хиты, пришедшие в уже заархивированные диапазоны. После удаления партиции
+     * такие хиты попадают в партицию по умолчанию и удаляются из нее сразу после записи.
+     */
+    private void archiveLate() {
+        List<ArchiveRange> ranges = archiveRepository.findRanges();
+        inTransaction(written -> {
+            for (Map.Entry<Integer, ArchiveRows> entry : archiveRepository.loadLate(ranges).entrySet()) {
+                ArchiveRange range = ranges.get(entry.getKey());
+                ArchiveRows rows = entry.getValue();
+                write(range, rows, range.purged(), written);
+                if (range.purged()) {
+                    archiveRepository.deleteArchived(range.from(), range.to(), rows.maxId());
+                }
+                log.info("В архив [{}, {}) дописано {} опоздавших хитов", range.from(), range.to(), rows.size());
+            }
+        });
+    }
+
+    /**
+     * Удаляет из stats строки диапазонов, заархивированных раньше чем grace назад.
+     */
+    private void purge() {
+        LocalDateTime graceEnd = LocalDateTime.now().minus(grace);
+        for (ArchiveRange range : archiveRepository.findRanges()) {
+            if (range.purged() || range.archivedAt().isAfter(graceEnd)) {
+                continue;
+            }
+
+            inTransaction(written -> {
+                long maxId = range.maxId();
+                for (Partition partition : partitionManager.findAttached()) {
+                    if (partition.to().isAfter(range.from()) && !partition.to().isAfter(range.to())) {
+                        // запись в партицию блокируется, чтобы между дозаписью и удалением не пропал хит
+                        partitionManager.lock(partition);
+                        ArchiveRows late = archiveRepository.loadPartition(partition.name(), range.maxId());
+                        if (!late.isEmpty()) {
+                            write(range, late, true, written);
+                            maxId = Math.max(maxId, late.maxId());
+                        }
+                        partitionManager.drop(partition);
+                    }
+                }
+                int deleted = archiveRepository.deleteArchived(range.from(), range.to(), maxId);
+                archiveRepository.markPurged(range);
+                log.info("Диапазон [{}, {}) удален из stats, строк вне партиций: {}", range.from(), range.to(), deleted);
+            });
+        }
+    }
+
+    private void write(ArchiveRange range, ArchiveRows rows, boolean purged, List<Path> written) {
+        String name = "hits-" + range.to().format(FILE_TIME) + "-" + Math.max(range.maxId(), rows.maxId()) + ".arc";
+        Path path = hitArchive.dir().resolve(name);
+        ArchiveFile.write(path, rows, appDictionary.names(rows.appIds()), uriDictionary.names(rows.uriIds()));
+        written.add(path);
+        archiveRepository.insert(name, range, rows, purged);
+    }
+
+    /**
+     * Выполняет работу в транзакции; файлы, записанные в откатившейся транзакции, удаляются.
+     */
+    private void inTransaction(Consumer<List<Path>> work) {
+        List<Path> written = new ArrayList<>();
+        try {
+            transactionTemplate.executeWithoutResult(status -> work.accept(written));
+        } catch (RuntimeException e) {
+            written.forEach(this::deleteQuietly);
+            throw e;
+        }
+    }
+
+    /**
+     * Файлы, которых нет в stats_archive, остались от прерванной архивации.
+     */
+    private void removeOrphans() {
+        Set<String> known = archiveRepository.findFiles().stream()
+                .map(ArchiveRepository.ArchiveEntry::file)
+                .collect(Collectors.toSet());
+        try (Stream<Path> files = Files.list(hitArchive.dir())) {
+            files.filter(path -> !known.contains(path.getFileName().toString()))
+                    .forEach(path -> {
+                        log.warn("Удаляется незарегистрированный архивный файл {}", path);
+                        deleteQuietly(path);
+                    });
+        } catch (IOException e) {
+            log.error("Не удалось просмотреть каталог архива {}", hitArchive.dir(), e);
+        }
+    }
+
+    private void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            log.error("Не удалось удалить файл {}", path, e);
+        }
+    }
+
+    private static boolean advisoryLock(Connection connection, String sql) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            statement.setLong(1, LOCK_KEY);
+            try (ResultSet rs = statement.executeQuery()) {
+                return rs.next() && rs.getBoolean(1);
+            }
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package ru.practicum.stats.server.cache;
+
+import ru.practicum.stats.server.service.StatsPrecision;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Ключ кэша результатов. Конец интервала выровнен вверх по сетке, uris отсортированы,
+ * поэтому запросы, отличающиеся только end внутри одного окна или порядком uris, совпадают.
+ */
+public record StatsCacheKey(LocalDateTime start,
+                            LocalDateTime end,
+                            List<String> uris,
+                            boolean unique,
+                            StatsPrecision precision) {
+}
@@ -0,0 +1,158 @@
+package ru.practicum.stats.server.cache;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.practicum.dto.ViewStatsDto;
+import ru.practicum.stats.server.service.param.GetStatsParam;
+import ru.practicum.stats.server.shard.ConditionalOnLocalStorage;
+
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Кэш результатов GET /stats с ограничением по размеру (LRU) и по времени жизни записи.
+ * Одинаковые запросы, пришедшие одновременно, ждут одно вычисление вместо похода в БД каждый.
+ */
+@Component
+@ConditionalOnLocalStorage
+public class StatsResultCache {
+
+    private final boolean enabled;
+    private final long granularitySeconds;
+    private final long ttlNanos;
+    private final int maxSize;
+    private final Map<StatsCacheKey, Entry> entries;
+    private final Map<StatsCacheKey, CompletableFuture<List<ViewStatsDto>>> inFlight = new ConcurrentHashMap<>();
+
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter bypasses;
+
+    public StatsResultCache(MeterRegistry meterRegistry,
+                            @Value("${stats.cache.enabled:true}") boolean enabled,
+                            @Value("${stats.cache.granularity-seconds:60}") long granularitySeconds,
+                            @Value("${stats.cache.ttl-seconds:10}") long ttlSeconds,
+                            @Value("${stats.cache.max-size:10000}") int maxSize) {
+        this.enabled = enabled;
+        this.granularitySeconds = granularitySeconds;
+        this.ttlNanos = ttlSeconds * 1_000_000_000L;
+        this.maxSize = maxSize;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<StatsCacheKey, Entry> eldest) {
+                return size() > StatsResultCache.this.maxSize;
+            }
+        };
+
+        this.hits = Counter.builder("stats.cache.hits").register(meterRegistry);
+        this.misses = Counter.builder("stats.cache.misses").register(meterRegistry);
+        this.bypasses = Counter.builder("stats.cache.bypasses").register(meterRegistry);
+        Gauge.builder("stats.cache.size", this, cache -> cache.size()).register(meterRegistry);
+        Gauge.builder("stats.cache.hit.ratio", this, StatsResultCache::hitRatio).register(meterRegistry);
+    }
+
+    /**
+     * Возвращает результат из кэша или вычисляет его через loader. При bypassCache результат
+     * всегда вычисляется заново и замещает запись в кэше.
+     */
+    public List<ViewStatsDto> get(GetStatsParam param, Supplier<List<ViewStatsDto>> loader) {
+        if (!enabled) {
+            return loader.get();
+        }
+
+        StatsCacheKey key = keyOf(param);
+        if (param.isBypassCache()) {
+            bypasses.increment();
+            List<ViewStatsDto> result = List.copyOf(loader.get());
+            put(key, result);
+            return result;
+        }
+
+        List<ViewStatsDto> cached = lookup(key);
+        if (cached != null) {
+            hits.increment();
+            return cached;
+        }
+
+        misses.increment();
+        CompletableFuture<List<ViewStatsDto>> future = new CompletableFuture<>();
+        CompletableFuture<List<ViewStatsDto>> running = inFlight.putIfAbsent(key, future);
+        if (running != null) {
+            return await(running);
+        }
+
+        try {
+            List<ViewStatsDto> result = List.copyOf(loader.get());
+            put(key, result);
+            future.complete(result);
+            return result;
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, future);
+        }
+    }
+
+    private StatsCacheKey keyOf(GetStatsParam param) {
+        List<String> uris = param.hasUris() ? param.getUris().stream().distinct().sorted().toList() : null;
+        return new StatsCacheKey(param.getStart(), ceil(param.getEnd()), uris, param.isUnique(), param.getPrecision());
+    }
+
+    private LocalDateTime ceil(LocalDateTime time) {
+        LocalDateTime day = time.truncatedTo(ChronoUnit.DAYS);
+        long seconds = ChronoUnit.SECONDS.between(day, time);
+        long rounded = (seconds + granularitySeconds - 1) / granularitySeconds * granularitySeconds;
+        LocalDateTime result = day.plusSeconds(rounded);
+        return result.isBefore(time) ? result.plusSeconds(granularitySeconds) : result;
+    }
+
+    private synchronized List<ViewStatsDto> lookup(StatsCacheKey key) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (System.nanoTime() - entry.createdNanos() > ttlNanos) {
+            entries.remove(key);
+            return null;
+        }
+        return entry.result();
+    }
+
+    private synchronized void put(StatsCacheKey key, List<ViewStatsDto> result) {
+        entries.put(key, new Entry(result, System.nanoTime()));
+    }
+
+    private synchronized int size() {
+        return entries.size();
+    }
+
+    private double hitRatio() {
+        double total = hits.count() + misses.count();
+        return total == 0 ? 0 : hits.count() / total;
+    }
+
+    private List<ViewStatsDto> await(CompletableFuture<List<ViewStatsDto>> running) {
+        try {
+            return running.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    private record Entry(List<ViewStatsDto> result, long createdNanos) {
+    }
+}
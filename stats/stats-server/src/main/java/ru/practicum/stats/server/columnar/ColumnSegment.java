@@ -0,0 +1,49 @@
+package ru.practicum.stats.server.columnar;
+
+/**
+ * Сегмент колоночного хранилища: по массиву int на столбец, без объекта на хит.
+ * Пишет один поток, читатели видят строки до опубликованного {@link #size()}.
+ */
+final class ColumnSegment {
+
+    final int[] apps;
+    final int[] uris;
+    final int[] ips;
+    final int[] times;
+    int minTime = Integer.MAX_VALUE;
+    int maxTime = Integer.MIN_VALUE;
+    private int count;
+    private volatile int size;
+
+    ColumnSegment(int capacity) {
+        apps = new int[capacity];
+        uris = new int[capacity];
+        ips = new int[capacity];
+        times = new int[capacity];
+    }
+
+    boolean isFull() {
+        return count == times.length;
+    }
+
+    void append(int app, int uri, int ip, int time) {
+        apps[count] = app;
+        uris[count] = uri;
+        ips[count] = ip;
+        times[count] = time;
+        minTime = Math.min(minTime, time);
+        maxTime = Math.max(maxTime, time);
+        count++;
+    }
+
+    /**
+     * Делает дописанные строки видимыми читателям.
+     */
+    void publish() {
+        size = count;
+    }
+
+    int size() {
+        return size;
+    }
+}
@@ -0,0 +1,113 @@
+package ru.practicum.stats.server.columnar;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Component;
+import ru.practicum.stats.server.ingest.HitBuffer;
+import ru.practicum.stats.server.shard.ConditionalOnLocalStorage;
+import ru.practicum.stats.server.sketch.IpDictionary;
+import ru.practicum.stats.server.util.IpAddresses;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Фоновая загрузка истории из stats в колоночное хранилище после старта. Прием новых хитов
+ * включается вместе со снимком максимального id, пока ни одна пачка не пишется, поэтому каждый хит
+ * попадает в память ровно один раз: либо из истории, либо из потока записи.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+@ConditionalOnProperty(name = "stats.engine", havingValue = "columnar")
+@ConditionalOnLocalStorage
+public class ColumnarHitLoader {
+
+    private final ColumnarHitStore store;
+    private final HitBuffer hitBuffer;
+    private final JdbcTemplate jdbcTemplate;
+    private final IpDictionary ipDictionary;
+    @Value("${stats.columnar.load-chunk-size:100000}")
+    private int chunkSize;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        Thread.ofPlatform()
+                .name("columnar-loader")
+                .daemon(true)
+                .start(this::load);
+    }
+
+    private void load() {
+        try {
+            AtomicLong maxId = new AtomicLong();
+            hitBuffer.runExclusive(() -> {
+                store.startAccepting();
+                Long id = jdbcTemplate.queryForObject("SELECT MAX(id) FROM stats", Long.class);
+                maxId.set(id == null ? 0 : id);
+            });
+
+            long afterId = 0;
+            while (afterId < maxId.get()) {
+                afterId = loadChunk(afterId, maxId.get());
+            }
+            store.markReady();
+        } catch (RuntimeException e) {
+            log.error("Не удалось загрузить историю в колоночное хранилище, запросы остаются на БД", e);
+        }
+    }
+
+    private long loadChunk(long afterId, long maxId) {
+        int[] apps = new int[chunkSize];
+        int[] uris = new int[chunkSize];
+        int[] ips = new int[chunkSize];
+        int[] times = new int[chunkSize];
+        // ip, которых еще нет в stats_ip (битмапы могут догружаться), доразрешаются после чтения
+        List<Integer> unresolvedRows = new ArrayList<>();
+        List<String> unresolvedIps = new ArrayList<>();
+        long[] lastId = {maxId};
+        int[] count = {0};
+
+        jdbcTemplate.query("""
+                        SELECT s.id, s.app_id, s.uri_id, i.id AS ip_id, host(s.ip) AS ip, s.created
+                        FROM stats s
+                        LEFT JOIN stats_ip i ON i.ip = s.ip
+                        WHERE s.id > ? AND s.id <= ?
+                        ORDER BY s.id
+                        LIMIT ?
+                        """, (RowCallbackHandler) rs -> {
+                    int row = count[0]++;
+                    apps[row] = rs.getInt("app_id");
+                    uris[row] = rs.getInt("uri_id");
+                    times[row] = ColumnarHitStore.toTime(rs.getTimestamp("created").toLocalDateTime());
+                    int ipId = rs.getInt("ip_id");
+                    if (!rs.wasNull()) {
+                        ips[row] = ipId;
+                    } else if (rs.getString("ip") != null) {
+                        unresolvedRows.add(row);
+                        unresolvedIps.add(IpAddresses.normalize(rs.getString("ip")));
+                    } else {
+                        ips[row] = ColumnarHitStore.NO_IP;
+                    }
+                    lastId[0] = rs.getLong("id");
+                },
+                afterId, maxId, chunkSize);
+
+        if (!unresolvedRows.isEmpty()) {
+            Map<String, Integer> ipIds = ipDictionary.resolve(unresolvedIps.stream().distinct().toList());
+            for (int i = 0; i < unresolvedRows.size(); i++) {
+                ips[unresolvedRows.get(i)] = ipIds.get(unresolvedIps.get(i));
+            }
+        }
+        store.append(apps, uris, ips, times, count[0]);
+        return count[0] == chunkSize ? lastId[0] : maxId;
+    }
+}
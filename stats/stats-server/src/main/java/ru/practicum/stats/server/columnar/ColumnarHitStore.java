@@ -0,0 +1,384 @@
+package ru.practicum.stats.server.columnar;
+
+import lombok.extern.slf4j.Slf4j;
+import org.roaringbitmap.RoaringBitmap;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import ru.practicum.dto.ViewStatsDto;
+import ru.practicum.stats.server.archive.HitArchive;
+import ru.practicum.stats.server.dictionary.AppDictionary;
+import ru.practicum.stats.server.dictionary.UriDictionary;
+import ru.practicum.stats.server.ingest.HitAggregator;
+import ru.practicum.stats.server.model.EndpointHit;
+import ru.practicum.stats.server.model.Visit;
+import ru.practicum.stats.server.shard.ConditionalOnLocalStorage;
+import ru.practicum.stats.server.sketch.IpDictionary;
+import ru.practicum.stats.server.util.ViewStats;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * Колоночное хранилище хитов в памяти: app, uri и ip как id словарей, время в секундах.
+ * Новые хиты дописываются после коммита пачки в stats, история загружается {@link ColumnarHitLoader}.
+ * <p>
+ * Память ограничена: сверх max-hits, а также для хитов старше срока хранения stats и границы архива
+ * вытесняются самые старые сегменты. Граница {@link #covers(LocalDateTime)} сдвигается за вытесненные
+ * хиты, запросы, начинающиеся раньше нее, считаются по БД и архиву.
+ * <p>
+ * Время хранится как int секунд от 2020-01-01, чего хватает на годы 1952-2088.
+ * Границы запроса сравниваются с точностью до секунды.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "stats.engine", havingValue = "columnar")
+@ConditionalOnLocalStorage
+public class ColumnarHitStore implements HitAggregator {
+
+    private static final long BASE_EPOCH_SECOND = LocalDateTime.of(2020, 1, 1, 0, 0).toEpochSecond(ZoneOffset.UTC);
+    /**
+     * id ip для хитов без ip: учитываются в просмотрах, но не в уникальных.
+     */
+    static final int NO_IP = -1;
+
+    private final AppDictionary appDictionary;
+    private final UriDictionary uriDictionary;
+    private final IpDictionary ipDictionary;
+    private final HitArchive hitArchive;
+    private final int segmentSize;
+    private final long maxHits;
+    private final int retentionDays;
+    private final List<ColumnSegment> segments = new CopyOnWriteArrayList<>();
+    private long appended;
+    /**
+     * Хиты с временем раньше этой границы могли быть вытеснены из памяти.
+     */
+    private volatile int coveredFrom = Integer.MIN_VALUE;
+    private volatile int maxAppId;
+    private volatile int maxUriId;
+    private volatile boolean accepting;
+    private volatile boolean ready;
+
+    public ColumnarHitStore(AppDictionary appDictionary,
+                            UriDictionary uriDictionary,
+                            IpDictionary ipDictionary,
+                            HitArchive hitArchive,
+                            @Value("${stats.columnar.segment-size:1048576}") int segmentSize,
+                            @Value("${stats.columnar.max-hits:100000000}") long maxHits,
+                            @Value("${stats.partition.retention-days:0}") int retentionDays) {
+        this.appDictionary = appDictionary;
+        this.uriDictionary = uriDictionary;
+        this.ipDictionary = ipDictionary;
+        this.hitArchive = hitArchive;
+        this.segmentSize = segmentSize;
+        this.maxHits = maxHits;
+        this.retentionDays = retentionDays;
+    }
+
+    /**
+     * Хиты из пачки попадают в память только после коммита: откаченная пачка вернется в буфер
+     * и придет сюда повторно.
+     */
+    @Override
+    public void aggregate(List<EndpointHit> hits) {
+        if (!accepting) {
+            return;
+        }
+
+        Map<String, Integer> apps = appDictionary.resolve(hits.stream().map(EndpointHit::getApp).distinct().toList());
+        Map<String, Integer> uris = uriDictionary.resolve(hits.stream().map(EndpointHit::getUri).distinct().toList());
+        Map<String, Integer> ips = ipDictionary.resolve(hits.stream().map(EndpointHit::getIp).distinct().toList());
+        int[][] columns = new int[4][hits.size()];
+        for (int i = 0; i < hits.size(); i++) {
+            EndpointHit hit = hits.get(i);
+            columns[0][i] = apps.get(hit.getApp());
+            columns[1][i] = uris.get(hit.getUri());
+            columns[2][i] = ips.get(hit.getIp());
+            columns[3][i] = toTime(hit.getCreated());
+        }
+
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                append(columns[0], columns[1], columns[2], columns[3], hits.size());
+            }
+        });
+    }
+
+    public synchronized void append(int[] apps, int[] uris, int[] ips, int[] times, int length) {
+        // границы id публикуются раньше строк, читатель не встретит id больше известного ему максимума
+        int maxApp = maxAppId;
+        int maxUri = maxUriId;
+        for (int i = 0; i < length; i++) {
+            maxApp = Math.max(maxApp, apps[i]);
+            maxUri = Math.max(maxUri, uris[i]);
+        }
+        maxAppId = maxApp;
+        maxUriId = maxUri;
+
+        ColumnSegment segment = segments.isEmpty() ? null : segments.getLast();
+        for (int i = 0; i < length; i++) {
+            if (segment == null || segment.isFull()) {
+                if (segment != null) {
+                    segment.publish();
+                }
+                segment = new ColumnSegment(segmentSize);
+                segments.add(segment);
+            }
+            segment.append(apps[i], uris[i], ips[i], times[i]);
+        }
+        if (segment != null) {
+            segment.publish();
+        }
+
+        appended += length;
+        while (appended > maxHits && segments.size() > 1) {
+            evictOldest();
+        }
+    }
+
+    /**
+     * Вытесняет сегменты, все хиты которых старше срока хранения stats или уже лежат в архиве.
+     */
+    @Scheduled(fixedDelayString = "${stats.columnar.evict-interval-ms:60000}")
+    public synchronized void evictExpired() {
+        int cutoff = Integer.MIN_VALUE;
+        if (retentionDays > 0) {
+            cutoff = toTime(LocalDateTime.now().minusDays(retentionDays));
+        }
+        LocalDateTime hotFrom = hitArchive.hotFrom();
+        if (hotFrom != null) {
+            cutoff = Math.max(cutoff, toTime(hotFrom));
+        }
+        while (segments.size() > 1 && segments.getFirst().maxTime < cutoff) {
+            evictOldest();
+        }
+    }
+
+    /**
+     * true, если все хиты с created не раньше start есть в памяти.
+     */
+    public boolean covers(LocalDateTime start) {
+        return toTime(start) >= coveredFrom;
+    }
+
+    private void evictOldest() {
+        ColumnSegment oldest = segments.removeFirst();
+        appended -= oldest.size();
+        if (oldest.maxTime >= coveredFrom) {
+            coveredFrom = oldest.maxTime == Integer.MAX_VALUE ? Integer.MAX_VALUE : oldest.maxTime + 1;
+        }
+        log.debug("Из колоночного хранилища вытеснен сегмент из {} хитов", oldest.size());
+    }
+
+    /**
+     * Включает прием новых хитов; вызывается загрузчиком перед снимком истории.
+     */
+    void startAccepting() {
+        accepting = true;
+    }
+
+    void markReady() {
+        ready = true;
+        log.info("Колоночное хранилище загружено: {} хитов", size());
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    public long size() {
+        return segments.stream().mapToLong(ColumnSegment::size).sum();
+    }
+
+    /**
+     * Просмотры по паре app + uri за [start, end], с сортировкой по убыванию, вместе с еще не записанными
+     * хитами pending. Снимок pending берется после снимка сегментов: хит, попавший в сегменты позже,
+     * к этому моменту уже ушел из буфера и не посчитается дважды.
+     */
+    public List<ViewStatsDto> getStats(LocalDateTime start, LocalDateTime end, List<String> uris, boolean unique,
+                                       Supplier<List<EndpointHit>> pending) {
+        int from = toTime(start);
+        int to = toTime(end);
+
+        // сначала снимок сегментов и их размеров, затем границы id: они опубликованы раньше строк
+        List<ColumnSegment> snapshot = List.copyOf(segments);
+        int[] sizes = new int[snapshot.size()];
+        for (int i = 0; i < sizes.length; i++) {
+            sizes[i] = snapshot.get(i).size();
+        }
+        int appCount = maxAppId + 1;
+
+        int[] slotByUri;
+        int[] uriBySlot;
+        if (uris == null) {
+            slotByUri = null;
+            uriBySlot = null;
+        } else {
+            // uri без хитов в снимке еще могут встретиться среди хитов буфера
+            Set<Integer> uriIds = new HashSet<>(uriDictionary.find(uris).values());
+            uriBySlot = uriIds.stream().mapToInt(Integer::intValue).toArray();
+            slotByUri = new int[Arrays.stream(uriBySlot).max().orElse(-1) + 1];
+            Arrays.fill(slotByUri, -1);
+            for (int slot = 0; slot < uriBySlot.length; slot++) {
+                slotByUri[uriBySlot[slot]] = slot;
+            }
+        }
+        int slotCount = uriBySlot == null ? maxUriId + 1 : uriBySlot.length;
+
+        long[] counts = new long[appCount * slotCount];
+        RoaringBitmap[] visitors = unique ? new RoaringBitmap[counts.length] : null;
+        for (int s = 0; s < snapshot.size(); s++) {
+            ColumnSegment segment = snapshot.get(s);
+            int size = sizes[s];
+            if (size == 0 || segment.maxTime < from || segment.minTime > to) {
+                continue;
+            }
+            boolean whole = segment.minTime >= from && segment.maxTime <= to;
+            scan(segment, size, whole, from, to, slotByUri, slotCount, counts, visitors);
+        }
+
+        Set<String> uriFilter = uris == null ? null : new HashSet<>(uris);
+        List<EndpointHit> pendingHits = pending.get().stream()
+                .filter(hit -> toTime(hit.getCreated()) >= from && toTime(hit.getCreated()) <= to)
+                .filter(hit -> uriFilter == null || uriFilter.contains(hit.getUri()))
+                .toList();
+        List<ViewStatsDto> unknown = addPending(pendingHits, appCount, slotByUri, slotCount, counts, visitors);
+        List<ViewStatsDto> stats = toStats(counts, visitors, slotCount, uriBySlot);
+        if (unknown.isEmpty()) {
+            return stats;
+        }
+        List<ViewStatsDto> parts = new ArrayList<>(stats);
+        parts.addAll(unknown);
+        return ViewStats.merge(parts);
+    }
+
+    /**
+     * Добавляет хиты буфера к счетчикам снимка. Хиты с app или uri, которых в снимке нет, считаются
+     * отдельно по именам: строк снимка с такими парами нет, и слияние с ними ничего не задвоит.
+     */
+    private List<ViewStatsDto> addPending(List<EndpointHit> hits, int appCount, int[] slotByUri, int slotCount,
+                                          long[] counts, RoaringBitmap[] visitors) {
+        if (hits.isEmpty()) {
+            return List.of();
+        }
+
+        Map<String, Integer> apps = appDictionary.find(hits.stream().map(EndpointHit::getApp).distinct().toList());
+        Map<String, Integer> uris = uriDictionary.find(hits.stream().map(EndpointHit::getUri).distinct().toList());
+        Map<String, Integer> ips = visitors == null ? Map.of()
+                : ipDictionary.resolve(hits.stream().map(EndpointHit::getIp).filter(Objects::nonNull).distinct().toList());
+        List<Visit> unknown = new ArrayList<>();
+        for (EndpointHit hit : hits) {
+            Integer app = apps.get(hit.getApp());
+            Integer uri = uris.get(hit.getUri());
+            int slot = -1;
+            if (uri != null) {
+                if (slotByUri == null) {
+                    slot = uri < slotCount ? uri : -1;
+                } else {
+                    slot = uri < slotByUri.length ? slotByUri[uri] : -1;
+                }
+            }
+            if (app == null || app >= appCount || slot < 0) {
+                unknown.add(new Visit(hit.getApp(), hit.getUri(), hit.getIp()));
+                continue;
+            }
+
+            int key = app * slotCount + slot;
+            if (visitors == null) {
+                counts[key]++;
+            } else if (hit.getIp() != null) {
+                RoaringBitmap bitmap = visitors[key];
+                if (bitmap == null) {
+                    bitmap = new RoaringBitmap();
+                    visitors[key] = bitmap;
+                }
+                bitmap.add(ips.get(hit.getIp()));
+            }
+        }
+
+        if (visitors != null) {
+            return ViewStats.countDistinct(unknown.stream().filter(visit -> visit.ip() != null));
+        }
+        return unknown.stream()
+                .collect(Collectors.groupingBy(visit -> List.of(visit.app(), visit.uri()), Collectors.counting()))
+                .entrySet().stream()
+                .map(e -> new ViewStatsDto(e.getKey().get(0), e.getKey().get(1), e.getValue()))
+                .toList();
+    }
+
+    /**
+     * Плотный цикл по столбцам сегмента. Для сегмента, целиком попавшего в интервал,
+     * проверка времени не нужна.
+     */
+    private void scan(ColumnSegment segment, int size, boolean whole, int from, int to, int[] slotByUri,
+                      int slotCount, long[] counts, RoaringBitmap[] visitors) {
+        int[] apps = segment.apps;
+        int[] uris = segment.uris;
+        int[] ips = segment.ips;
+        int[] times = segment.times;
+        for (int i = 0; i < size; i++) {
+            if (!whole && (times[i] < from || times[i] > to)) {
+                continue;
+            }
+            int slot = uris[i];
+            if (slotByUri != null) {
+                slot = slot < slotByUri.length ? slotByUri[slot] : -1;
+                if (slot < 0) {
+                    continue;
+                }
+            }
+            int key = apps[i] * slotCount + slot;
+            if (visitors == null) {
+                counts[key]++;
+            } else if (ips[i] != NO_IP) {
+                RoaringBitmap bitmap = visitors[key];
+                if (bitmap == null) {
+                    bitmap = new RoaringBitmap();
+                    visitors[key] = bitmap;
+                }
+                bitmap.add(ips[i]);
+            }
+        }
+    }
+
+    private List<ViewStatsDto> toStats(long[] counts, RoaringBitmap[] visitors, int slotCount, int[] uriBySlot) {
+        List<int[]> keys = new ArrayList<>();
+        for (int key = 0; key < counts.length; key++) {
+            long hits = visitors == null ? counts[key] : visitors[key] == null ? 0 : visitors[key].getLongCardinality();
+            if (hits > 0) {
+                counts[key] = hits;
+                int slot = key % slotCount;
+                keys.add(new int[]{key / slotCount, uriBySlot == null ? slot : uriBySlot[slot], key});
+            }
+        }
+        if (keys.isEmpty()) {
+            return List.of();
+        }
+
+        Map<Integer, String> appNames = appDictionary.names(keys.stream().map(key -> key[0]).distinct().toList());
+        Map<Integer, String> uriNames = uriDictionary.names(keys.stream().map(key -> key[1]).distinct().toList());
+        return ViewStats.merge(keys.stream()
+                .map(key -> new ViewStatsDto(appNames.get(key[0]), uriNames.get(key[1]), counts[key[2]]))
+                .toList());
+    }
+
+    static int toTime(LocalDateTime dateTime) {
+        long seconds = dateTime.toEpochSecond(ZoneOffset.UTC) - BASE_EPOCH_SECOND;
+        return (int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, seconds));
+    }
+}
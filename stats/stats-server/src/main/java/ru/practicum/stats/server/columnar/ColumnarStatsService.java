@@ -0,0 +1,92 @@
+package ru.practicum.stats.server.columnar;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Primary;
+import org.springframework.stereotype.Service;
+import ru.practicum.dto.EndpointHitDto;
+import ru.practicum.dto.StatsQueryDto;
+import ru.practicum.dto.ViewStatsBucketDto;
+import ru.practicum.dto.ViewStatsDto;
+import ru.practicum.stats.server.archive.HitArchive;
+import ru.practicum.stats.server.cache.StatsResultCache;
+import ru.practicum.stats.server.ingest.HitBuffer;
+import ru.practicum.stats.server.service.StatsService;
+import ru.practicum.stats.server.service.StatsServiceImpl;
+import ru.practicum.stats.server.service.param.GetStatsParam;
+import ru.practicum.stats.server.service.param.GetTimeSeriesParam;
+import ru.practicum.stats.server.shard.ConditionalOnLocalStorage;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * GET /stats из колоночного хранилища в памяти, всегда с точным подсчетом. Запись хитов и остальные
+ * запросы идут через {@link StatsServiceImpl}; пока история не загружена, а также для интервалов,
+ * начинающихся в архиве или раньше вытесненных из памяти хитов, /stats тоже считается по БД.
+ * <p>
+ * Результаты идут через тот же {@link StatsResultCache}, что и в StatsServiceImpl. Еще не записанные
+ * хиты буфера досчитываются из его снимка, запрос не сбрасывает буфер в БД сам.
+ */
+@Service
+@Primary
+@RequiredArgsConstructor
+@ConditionalOnProperty(name = "stats.engine", havingValue = "columnar")
+@ConditionalOnLocalStorage
+public class ColumnarStatsService implements StatsService {
+
+    private final StatsServiceImpl delegate;
+    private final ColumnarHitStore store;
+    private final HitBuffer hitBuffer;
+    private final HitArchive hitArchive;
+    private final StatsResultCache resultCache;
+
+    @Override
+    public void saveHit(EndpointHitDto hitDto) {
+        delegate.saveHit(hitDto);
+    }
+
+    @Override
+    public void saveHits(List<EndpointHitDto> hitDtos) {
+        delegate.saveHits(hitDtos);
+    }
+
+    @Override
+    public List<ViewStatsDto> getStats(GetStatsParam param) {
+        LocalDateTime hotFrom = hitArchive.hotFrom();
+        if (!store.isReady() || !store.covers(param.getStart())
+                || hotFrom != null && param.getStart().isBefore(hotFrom)) {
+            return delegate.getStats(param);
+        }
+
+        return resultCache.get(param, () -> store.getStats(param.getStart(), param.getEnd(), param.getUris(),
+                param.isUnique(), hitBuffer::pending));
+    }
+
+    @Override
+    public void streamStats(GetStatsParam param, Consumer<ViewStatsDto> consumer) {
+        delegate.streamStats(param, consumer);
+    }
+
+    @Override
+    public List<ViewStatsDto> getTop(String window, int limit) {
+        return delegate.getTop(window, limit);
+    }
+
+    @Override
+    public List<ViewStatsBucketDto> getTimeSeries(GetTimeSeriesParam param) {
+        return delegate.getTimeSeries(param);
+    }
+
+    @Override
+    public List<List<ViewStatsDto>> queryStats(List<StatsQueryDto> queries) {
+        return delegate.queryStats(queries);
+    }
+
+    @Override
+    public Map<Long, Long> getEventViews(List<Long> eventIds, boolean unique) {
+        return delegate.getEventViews(eventIds, unique);
+    }
+}
@@ -0,0 +1,154 @@
+package ru.practicum.stats.server.controller;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ReadListener;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletInputStream;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletRequestWrapper;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipException;
+
+/**
+ * Распаковывает тела запросов с Content-Encoding: gzip, в таком виде клиент присылает пачки хитов.
+ * Тело распаковывается целиком до передачи дальше и не больше чем в max-inflated-bytes:
+ * больший объем - 413, поврежденный архив - 400. Оба ответа клиент не повторяет.
+ */
+@Slf4j
+@Component
+public class GzipRequestFilter extends OncePerRequestFilter {
+
+    private final long maxInflatedBytes;
+
+    public GzipRequestFilter(@Value("${stats.ingest.max-inflated-bytes:16777216}") long maxInflatedBytes) {
+        this.maxInflatedBytes = maxInflatedBytes;
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return !"gzip".equalsIgnoreCase(request.getHeader(HttpHeaders.CONTENT_ENCODING));
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        byte[] body;
+        try {
+            body = inflate(request.getInputStream());
+        } catch (InflatedTooLargeException e) {
+            log.warn("413 распакованное тело запроса больше {} байт", maxInflatedBytes);
+            response.sendError(HttpStatus.PAYLOAD_TOO_LARGE.value(), "Распакованное тело запроса больше " + maxInflatedBytes + " байт");
+            return;
+        } catch (ZipException | EOFException e) {
+            log.info("400 поврежденное gzip-тело запроса: {}", e.getMessage());
+            response.sendError(HttpStatus.BAD_REQUEST.value(), "Поврежденное gzip-тело запроса");
+            return;
+        }
+        filterChain.doFilter(new GzipRequest(request, body), response);
+    }
+
+    private byte[] inflate(InputStream compressed) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] chunk = new byte[8192];
+        try (GZIPInputStream in = new GZIPInputStream(compressed)) {
+            int count;
+            while ((count = in.read(chunk)) != -1) {
+                if (out.size() + count > maxInflatedBytes) {
+                    throw new InflatedTooLargeException();
+                }
+                out.write(chunk, 0, count);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private static class InflatedTooLargeException extends IOException {
+    }
+
+    private static class GzipRequest extends HttpServletRequestWrapper {
+
+        private final byte[] body;
+
+        GzipRequest(HttpServletRequest request, byte[] body) {
+            super(request);
+            this.body = body;
+        }
+
+        @Override
+        public ServletInputStream getInputStream() {
+            return new InflatedInputStream(body);
+        }
+
+        @Override
+        public int getContentLength() {
+            return body.length;
+        }
+
+        @Override
+        public long getContentLengthLong() {
+            return body.length;
+        }
+
+        @Override
+        public String getHeader(String name) {
+            return HttpHeaders.CONTENT_ENCODING.equalsIgnoreCase(name) ? null : super.getHeader(name);
+        }
+    }
+
+    /**
+     * Тело уже в памяти, поэтому для асинхронного чтения все данные доступны сразу.
+     */
+    private static class InflatedInputStream extends ServletInputStream {
+
+        private final ByteArrayInputStream delegate;
+
+        InflatedInputStream(byte[] body) {
+            this.delegate = new ByteArrayInputStream(body);
+        }
+
+        @Override
+        public int read() {
+            return delegate.read();
+        }
+
+        @Override
+        public int read(byte[] bytes, int off, int len) {
+            return delegate.read(bytes, off, len);
+        }
+
+        @Override
+        public boolean isFinished() {
+            return delegate.available() == 0;
+        }
+
+        @Override
+        public boolean isReady() {
+            return true;
+        }
+
+        @Override
+        public void setReadListener(ReadListener readListener) {
+            try {
+                if (!isFinished()) {
+                    readListener.onDataAvailable();
+                }
+                readListener.onAllDataRead();
+            } catch (IOException e) {
+                readListener.onError(e);
+            }
+        }
+    }
+}
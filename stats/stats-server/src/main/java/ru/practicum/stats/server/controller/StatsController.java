@@ -1,46 +1,136 @@
 package ru.practicum.stats.server.controller;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import jakarta.validation.Valid;
+import jakarta.validation.constraints.NotNull;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
+import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import ru.practicum.dto.EndpointHitDto;
+import ru.practicum.dto.StatsQueryDto;
+import ru.practicum.dto.ViewStatsBucketDto;
 import ru.practicum.dto.ViewStatsDto;
 import ru.practicum.stats.server.error.BadRequestException;
+import ru.practicum.stats.server.service.StatsPrecision;
 import ru.practicum.stats.server.service.StatsService;
+import ru.practicum.stats.server.service.param.GetStatsParam;
+import ru.practicum.stats.server.service.param.GetTimeSeriesParam;
+import ru.practicum.stats.server.util.Durations;
 
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.time.LocalDateTime;
 import java.util.List;
+import java.util.Map;
 
 @Controller
 @RequiredArgsConstructor
 @Slf4j
+@Validated
 public class StatsController {
 
     private final StatsService statService;
+    private final ObjectMapper objectMapper;
 
     @GetMapping("/stats")
     public ResponseEntity<List<ViewStatsDto>> getStats(@RequestParam(name = "start") @DateTimeFormat(pattern = "yyyy-MM-dd HH:mm:ss") LocalDateTime start,
                                                        @RequestParam(name = "end") @DateTimeFormat(pattern = "yyyy-MM-dd HH:mm:ss") LocalDateTime end,
                                                        @RequestParam(name = "uris", required = false) List<String> uris,
-                                                       @RequestParam(name = "unique", defaultValue = "false") Boolean unique) {
+                                                       @RequestParam(name = "unique", defaultValue = "false") Boolean unique,
+                                                       @RequestParam(name = "precision", defaultValue = "exact") String precision,
+                                                       @RequestHeader(name = HttpHeaders.CACHE_CONTROL, required = false) String cacheControl) {
+        log.info("Пришел запрос на сервер статистики GET /stats");
+        GetStatsParam param = buildParam(start, end, uris, unique, precision);
+        param.setBypassCache(cacheControl != null && cacheControl.contains("no-cache"));
+        List<ViewStatsDto> stats = statService.getStats(param);
+        log.info("Статистика собрана. GET /stats отработал без ошибок, size = {}", stats.size());
+        return new ResponseEntity<>(stats, HttpStatus.OK);
+    }
+
+    /**
+     * Потоковый вариант GET /stats для больших выборок: строки пишутся в ответ по мере чтения из БД.
+     */
+    @GetMapping(value = "/stats", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> streamStats(@RequestParam(name = "start") @DateTimeFormat(pattern = "yyyy-MM-dd HH:mm:ss") LocalDateTime start,
+                                                             @RequestParam(name = "end") @DateTimeFormat(pattern = "yyyy-MM-dd HH:mm:ss") LocalDateTime end,
+                                                             @RequestParam(name = "uris", required = false) List<String> uris,
+                                                             @RequestParam(name = "unique", defaultValue = "false") Boolean unique) {
+        log.info("Пришел запрос на сервер статистики GET /stats (ndjson)");
+        GetStatsParam param = buildParam(start, end, uris, unique, StatsPrecision.EXACT.name());
+        StreamingResponseBody body = outputStream -> {
+            OutputStream out = new BufferedOutputStream(outputStream);
+            statService.streamStats(param, stat -> writeLine(out, stat));
+            out.flush();
+            log.info("Статистика отправлена. GET /stats (ndjson) отработал без ошибок");
+        };
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .body(body);
+    }
+
+    @GetMapping("/stats/top")
+    public ResponseEntity<List<ViewStatsDto>> getTop(@RequestParam(name = "window", defaultValue = "15m") String window,
+                                                     @RequestParam(name = "limit", defaultValue = "10") Integer limit) {
+        log.info("Пришел запрос на сервер статистики GET /stats/top, window = {}, limit = {}", window, limit);
+        List<ViewStatsDto> top = statService.getTop(window, limit);
+        log.info("Топ собран. GET /stats/top отработал без ошибок, size = {}", top.size());
+        return new ResponseEntity<>(top, HttpStatus.OK);
+    }
+
+    @GetMapping("/stats/timeseries")
+    public ResponseEntity<List<ViewStatsBucketDto>> getTimeSeries(@RequestParam(name = "start") @DateTimeFormat(pattern = "yyyy-MM-dd HH:mm:ss") LocalDateTime start,
+                                                                  @RequestParam(name = "end") @DateTimeFormat(pattern = "yyyy-MM-dd HH:mm:ss") LocalDateTime end,
+                                                                  @RequestParam(name = "uris", required = false) List<String> uris,
+                                                                  @RequestParam(name = "interval", defaultValue = "1h") String interval,
+                                                                  @RequestParam(name = "unique", defaultValue = "false") Boolean unique) {
         if (end.isBefore(start)) {
             throw new BadRequestException("end < start");
         }
 
-        log.info("Пришел запрос на сервер статистики GET /stats");
-        List<ViewStatsDto> stats = statService.getStats(start, end, uris, unique);
-        log.info("Статистика собрана. GET /stats отработал без ошибок, size = {}", stats.size());
+        log.info("Пришел запрос на сервер статистики GET /stats/timeseries, interval = {}", interval);
+        GetTimeSeriesParam param = GetTimeSeriesParam.builder()
+                .start(start)
+                .end(end)
+                .uris(uris)
+                .unique(unique)
+                .interval(Durations.parse("interval", interval))
+                .build();
+        List<ViewStatsBucketDto> series = statService.getTimeSeries(param);
+        log.info("Гистограмма собрана. GET /stats/timeseries отработал без ошибок, size = {}", series.size());
+        return new ResponseEntity<>(series, HttpStatus.OK);
+    }
+
+    @PostMapping("/stats/query")
+    public ResponseEntity<List<List<ViewStatsDto>>> queryStats(@RequestBody List<@Valid StatsQueryDto> queries) {
+        log.info("Пришел запрос на сервер статистики POST /stats/query, size = {}", queries.size());
+        List<List<ViewStatsDto>> stats = statService.queryStats(queries);
+        log.info("Статистика собрана. POST /stats/query отработал без ошибок");
         return new ResponseEntity<>(stats, HttpStatus.OK);
     }
 
+    @PostMapping("/stats/views/events")
+    public ResponseEntity<Map<Long, Long>> getEventViews(@RequestBody List<@NotNull Long> eventIds,
+                                                         @RequestParam(name = "unique", defaultValue = "true") Boolean unique) {
+        log.info("Пришел запрос на сервер статистики POST /stats/views/events, size = {}", eventIds.size());
+        Map<Long, Long> views = statService.getEventViews(eventIds, unique);
+        log.info("Просмотры собраны. POST /stats/views/events отработал без ошибок");
+        return new ResponseEntity<>(views, HttpStatus.OK);
+    }
+
     @PostMapping("/hit")
     public ResponseEntity<String> hitStat(@Valid @RequestBody EndpointHitDto hitDto) {
         log.info("Пришел запрос на сервис статистики POST /hit");
@@ -49,4 +139,35 @@ public class StatsController {
         return new ResponseEntity<>("Информация сохранена", HttpStatus.CREATED);
     }
 
+    @PostMapping("/hits")
+    public ResponseEntity<String> hitStats(@RequestBody List<@Valid EndpointHitDto> hitDtos) {
+        log.info("Пришел запрос на сервис статистики POST /hits, size = {}", hitDtos.size());
+        statService.saveHits(hitDtos);
+        log.info("Информация принята. POST /hits отработал без ошибок");
+        return new ResponseEntity<>("Информация принята", HttpStatus.ACCEPTED);
+    }
+
+    private GetStatsParam buildParam(LocalDateTime start, LocalDateTime end, List<String> uris,
+                                     Boolean unique, String precision) {
+        if (end.isBefore(start)) {
+            throw new BadRequestException("end < start");
+        }
+
+        return GetStatsParam.builder()
+                .start(start)
+                .end(end)
+                .uris(uris)
+                .unique(unique)
+                .precision(StatsPrecision.from(precision))
+                .build();
+    }
+
+    private void writeLine(OutputStream out, ViewStatsDto stat) {
+        try {
+            out.write(objectMapper.writeValueAsBytes(stat));
+            out.write('\n');
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
 }
@@ -0,0 +1,13 @@
+package ru.practicum.stats.server.dictionary;
+
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+
+@Component
+public class AppDictionary extends NameDictionary {
+
+    public AppDictionary(NamedParameterJdbcTemplate jdbcTemplate, PlatformTransactionManager transactionManager) {
+        super(jdbcTemplate, transactionManager, "stats_app", "name");
+    }
+}
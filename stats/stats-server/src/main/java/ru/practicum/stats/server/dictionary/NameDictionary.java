@@ -0,0 +1,137 @@
+package ru.practicum.stats.server.dictionary;
+
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Словарь строка <-> int id для сжатого хранения хитов. Оба направления кэшируются в памяти процесса;
+ * словарь только растет, поэтому закэшированный id никогда не устаревает.
+ */
+public abstract class NameDictionary {
+
+    private static final int CHUNK_SIZE = 1000;
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final String table;
+    private final String column;
+    private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+    private final Map<Integer, String> names = new ConcurrentHashMap<>();
+
+    protected NameDictionary(NamedParameterJdbcTemplate jdbcTemplate,
+                             PlatformTransactionManager transactionManager,
+                             String table,
+                             String column) {
+        this.jdbcTemplate = jdbcTemplate;
+        // новые значения фиксируются сразу, чтобы откат пачки хитов не оставил в кэше несуществующих id
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.table = table;
+        this.column = column;
+    }
+
+    /**
+     * Возвращает id для каждого значения, добавляя отсутствующие значения в словарь.
+     */
+    public Map<String, Integer> resolve(Collection<String> values) {
+        Map<String, Integer> result = find(values);
+        List<String> missing = values.stream()
+                .filter(value -> !result.containsKey(value))
+                .distinct()
+                .toList();
+
+        for (int from = 0; from < missing.size(); from += CHUNK_SIZE) {
+            List<String> chunk = missing.subList(from, Math.min(from + CHUNK_SIZE, missing.size()));
+            transactionTemplate.executeWithoutResult(status -> insert(chunk));
+            load("SELECT id, " + column + " FROM " + table + " WHERE " + column + " IN (:values)", chunk, result);
+        }
+        return result;
+    }
+
+    /**
+     * Возвращает id только для уже известных значений, ничего не добавляя.
+     */
+    public Map<String, Integer> find(Collection<String> values) {
+        Map<String, Integer> result = new HashMap<>();
+        List<String> missing = new ArrayList<>();
+        for (String value : values) {
+            Integer id = ids.get(value);
+            if (id != null) {
+                result.put(value, id);
+            } else {
+                missing.add(value);
+            }
+        }
+
+        for (int from = 0; from < missing.size(); from += CHUNK_SIZE) {
+            List<String> chunk = missing.subList(from, Math.min(from + CHUNK_SIZE, missing.size()));
+            load("SELECT id, " + column + " FROM " + table + " WHERE " + column + " IN (:values)", chunk, result);
+        }
+        return result;
+    }
+
+    public Map<Integer, String> names(Collection<Integer> keys) {
+        Map<Integer, String> result = new HashMap<>();
+        List<Integer> missing = new ArrayList<>();
+        for (Integer key : keys) {
+            String name = names.get(key);
+            if (name != null) {
+                result.put(key, name);
+            } else {
+                missing.add(key);
+            }
+        }
+
+        for (int from = 0; from < missing.size(); from += CHUNK_SIZE) {
+            List<Integer> chunk = missing.subList(from, Math.min(from + CHUNK_SIZE, missing.size()));
+            Map<String, Integer> loaded = new HashMap<>();
+            load("SELECT id, " + column + " FROM " + table + " WHERE id IN (:values)", chunk, loaded);
+            loaded.forEach((name, id) -> result.put(id, name));
+        }
+        return result;
+    }
+
+    public String name(int key) {
+        String name = names.get(key);
+        return name != null ? name : names(List.of(key)).get(key);
+    }
+
+    /**
+     * SQL вставки нового значения. Наследник может сохранять вместе со значением производные столбцы.
+     */
+    protected String insertSql() {
+        return "INSERT INTO " + table + " (" + column + ") VALUES (:value) ON CONFLICT (" + column + ") DO NOTHING";
+    }
+
+    protected MapSqlParameterSource insertParams(String value) {
+        return new MapSqlParameterSource("value", value);
+    }
+
+    private void insert(List<String> values) {
+        MapSqlParameterSource[] params = values.stream()
+                .map(this::insertParams)
+                .toArray(MapSqlParameterSource[]::new);
+        jdbcTemplate.batchUpdate(insertSql(), params);
+    }
+
+    private void load(String sql, List<?> values, Map<String, Integer> result) {
+        jdbcTemplate.query(sql, new MapSqlParameterSource("values", values), (RowCallbackHandler) rs -> {
+            int id = rs.getInt("id");
+            String name = rs.getString(column);
+            ids.put(name, id);
+            names.put(id, name);
+            result.put(name, id);
+        });
+    }
+}
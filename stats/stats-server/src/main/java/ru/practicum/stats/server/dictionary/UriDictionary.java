@@ -0,0 +1,65 @@
+package ru.practicum.stats.server.dictionary;
+
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Словарь uri. Для uri вида /events/{id} при добавлении сохраняется id события,
+ * по которому затем ищутся просмотры без сборки и разбора строк.
+ */
+@Component
+public class UriDictionary extends NameDictionary {
+
+    private static final Pattern EVENT_URI = Pattern.compile("/events/(\\d{1,18})");
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+
+    public UriDictionary(NamedParameterJdbcTemplate jdbcTemplate, PlatformTransactionManager transactionManager) {
+        super(jdbcTemplate, transactionManager, "stats_uri", "uri");
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * Возвращает все uri событий, по которым уже были хиты, с идентификатором события.
+     * У одного события их может быть несколько: /events/5 и /events/05 разбираются в один event_id.
+     */
+    public Map<String, Long> findEventUris(Collection<Long> eventIds) {
+        Map<String, Long> result = new HashMap<>();
+        if (eventIds.isEmpty()) {
+            return result;
+        }
+
+        jdbcTemplate.query("SELECT event_id, uri FROM stats_uri WHERE event_id IN (:ids)",
+                new MapSqlParameterSource("ids", eventIds),
+                (RowCallbackHandler) rs -> result.put(rs.getString("uri"), rs.getLong("event_id")));
+        return result;
+    }
+
+    /**
+     * Id события для uri вида /events/{id} или null для прочих uri.
+     */
+    public static Long eventId(String uri) {
+        Matcher matcher = EVENT_URI.matcher(uri);
+        return matcher.matches() ? Long.valueOf(matcher.group(1)) : null;
+    }
+
+    @Override
+    protected String insertSql() {
+        return "INSERT INTO stats_uri (uri, event_id) VALUES (:value, :eventId) ON CONFLICT (uri) DO NOTHING";
+    }
+
+    @Override
+    protected MapSqlParameterSource insertParams(String value) {
+        return super.insertParams(value)
+                .addValue("eventId", eventId(value));
+    }
+}
@@ -0,0 +1,13 @@
+package ru.practicum.stats.server.error;
+
+import lombok.Getter;
+
+@Getter
+public class BufferOverflowException extends RuntimeException {
+    private final long retryAfterSeconds;
+
+    public BufferOverflowException(String msg, long retryAfterSeconds) {
+        super(msg);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+}
@@ -1,14 +1,20 @@
 package ru.practicum.stats.server.error;
 
+import jakarta.validation.ConstraintViolationException;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.web.bind.MethodArgumentNotValidException;
 import org.springframework.web.bind.MissingServletRequestParameterException;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestControllerAdvice;
+import ru.practicum.dto.EndpointHitDto;
 
 import java.io.StringWriter;
+import java.util.List;
 
 @Slf4j
 @RestControllerAdvice
@@ -33,6 +39,45 @@ public class ErrorHandler {
         return new AppError(HttpStatus.BAD_REQUEST, "BAD REQUEST проверьте запрос", e.getMessage(), stackTrace);
     }
 
+    /**
+     * Невалидное тело или параметры запроса. Без этого обработчика ошибка валидации пачки хитов
+     * превращалась в 500, и клиент бесконечно повторял пачку.
+     */
+    @ExceptionHandler({ConstraintViolationException.class, MethodArgumentNotValidException.class,
+            HttpMessageNotReadableException.class})
+    @ResponseStatus(HttpStatus.BAD_REQUEST)
+    public AppError handleValidation(final Exception e) {
+        log.info("400 {}", e.getMessage());
+        return new AppError(HttpStatus.BAD_REQUEST, "BAD REQUEST проверьте запрос", e.getMessage(), "");
+    }
+
+    @ExceptionHandler(BufferOverflowException.class)
+    public ResponseEntity<AppError> handleBufferOverflow(final BufferOverflowException e) {
+        log.warn("429 {}", e.getMessage());
+        AppError apiError = new AppError(HttpStatus.TOO_MANY_REQUESTS, "Сервис статистики перегружен", e.getMessage(), "");
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()))
+                .body(apiError);
+    }
+
+    /**
+     * 503 с непринятыми хитами в теле: клиент повторяет только их.
+     */
+    @ExceptionHandler(PartialSaveException.class)
+    public ResponseEntity<List<EndpointHitDto>> handlePartialSave(final PartialSaveException e) {
+        log.warn("503 {}", e.getMessage(), e.getCause());
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(PartialSaveException.REJECTED_HEADER, String.valueOf(e.getRejected().size()))
+                .body(e.getRejected());
+    }
+
+    @ExceptionHandler(ShardUnavailableException.class)
+    @ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+    public AppError handleShardUnavailable(final ShardUnavailableException e) {
+        log.warn("503 {}", e.getMessage(), e);
+        return new AppError(HttpStatus.SERVICE_UNAVAILABLE, "Шард статистики недоступен", e.getMessage(), "");
+    }
+
     @ExceptionHandler
     @ResponseStatus(HttpStatus.INTERNAL_SERVER_ERROR)
     public AppError handleException(final Exception exp) {
@@ -0,0 +1,26 @@
+package ru.practicum.stats.server.error;
+
+import lombok.Getter;
+import ru.practicum.dto.EndpointHitDto;
+
+import java.util.List;
+
+/**
+ * Часть пачки хитов не принята: роутер разослал пачку по шардам, и часть шардов ответила ошибкой.
+ * Клиенту возвращаются только непринятые хиты, чтобы повтор не продублировал принятые.
+ */
+@Getter
+public class PartialSaveException extends RuntimeException {
+
+    /**
+     * Заголовок ответа с числом непринятых хитов; тело ответа - сами хиты.
+     */
+    public static final String REJECTED_HEADER = "X-Rejected-Hits";
+
+    private final List<EndpointHitDto> rejected;
+
+    public PartialSaveException(String msg, List<EndpointHitDto> rejected, Throwable cause) {
+        super(msg, cause);
+        this.rejected = rejected;
+    }
+}
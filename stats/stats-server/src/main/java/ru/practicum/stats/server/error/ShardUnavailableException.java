@@ -0,0 +1,7 @@
+package ru.practicum.stats.server.error;
+
+public class ShardUnavailableException extends RuntimeException {
+    public ShardUnavailableException(String msg, Throwable cause) {
+        super(msg, cause);
+    }
+}
@@ -0,0 +1,82 @@
+package ru.practicum.stats.server.ingest;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.practicum.stats.server.model.EndpointHit;
+import ru.practicum.stats.server.repository.HitBatchRepository;
+import ru.practicum.stats.server.shard.ConditionalOnLocalStorage;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Однократно заполняет новые агрегаты по хитам, накопленным до их появления.
+ * Пока заполнение не завершено, читатели агрегата должны считать по таблице stats.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+@ConditionalOnLocalStorage
+public class AggregateBackfill {
+
+    private static final int CHUNK_SIZE = 10_000;
+
+    private final List<HitAggregator> aggregators;
+    private final HitBatchRepository hitBatchRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final JdbcTemplate jdbcTemplate;
+    private final Set<String> completed = ConcurrentHashMap.newKeySet();
+
+    public boolean isComplete(HitAggregator aggregator) {
+        return completed.contains(aggregator.getName());
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        completed.addAll(jdbcTemplate.queryForList("SELECT aggregator FROM stats_backfill", String.class));
+
+        List<HitAggregator> pending = aggregators.stream()
+                .filter(HitAggregator::isBackfillable)
+                .filter(aggregator -> !isComplete(aggregator))
+                .toList();
+        if (pending.isEmpty()) {
+            return;
+        }
+
+        Thread.ofVirtual().name("stats-aggregate-backfill").start(() -> backfill(pending));
+    }
+
+    private void backfill(List<HitAggregator> pending) {
+        long maxId = hitBatchRepository.findMaxId();
+        long lastId = 0;
+        long processed = 0;
+        log.info("Заполнение агрегатов {} по хитам с id <= {}", pending.stream().map(HitAggregator::getName).toList(), maxId);
+
+        try {
+            while (lastId < maxId) {
+                List<EndpointHit> chunk = hitBatchRepository.findChunkAfter(lastId, maxId, CHUNK_SIZE);
+                if (chunk.isEmpty()) {
+                    break;
+                }
+                transactionTemplate.executeWithoutResult(status -> pending.forEach(a -> a.aggregate(chunk)));
+                lastId = chunk.getLast().getId();
+                processed += chunk.size();
+            }
+
+            for (HitAggregator aggregator : pending) {
+                jdbcTemplate.update("INSERT INTO stats_backfill (aggregator, completed_at) VALUES (?, now())",
+                        aggregator.getName());
+                completed.add(aggregator.getName());
+            }
+            log.info("Заполнение агрегатов завершено, обработано {} хитов", processed);
+        } catch (RuntimeException e) {
+            log.error("Заполнение агрегатов прервано на id = {}, будет повторено при следующем запуске", lastId, e);
+        }
+    }
+}
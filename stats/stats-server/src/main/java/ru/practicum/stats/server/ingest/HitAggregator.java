@@ -0,0 +1,26 @@
+package ru.practicum.stats.server.ingest;
+
+import ru.practicum.stats.server.model.EndpointHit;
+
+import java.util.List;
+
+/**
+ * Получает каждую пачку хитов, записанную в stats, в той же транзакции.
+ */
+public interface HitAggregator {
+
+    void aggregate(List<EndpointHit> hits);
+
+    /**
+     * true, если агрегат нужно один раз заполнить по хитам, накопленным в stats до его появления.
+     * Такой агрегат обязан быть идемпотентным: хит, попавший и в заполнение, и в обычный поток,
+     * не должен учитываться дважды.
+     */
+    default boolean isBackfillable() {
+        return false;
+    }
+
+    default String getName() {
+        return getClass().getSimpleName();
+    }
+}
@@ -0,0 +1,174 @@
+package ru.practicum.stats.server.ingest;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.practicum.stats.server.error.BufferOverflowException;
+import ru.practicum.stats.server.model.EndpointHit;
+import ru.practicum.stats.server.repository.HitBatchRepository;
+import ru.practicum.stats.server.shard.ConditionalOnLocalStorage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Ограниченный буфер хитов с отложенной записью: запросы только кладут хит в очередь,
+ * а фоновый flusher пачками пишет их в таблицу stats.
+ * <p>
+ * Место в буфере занимается разрешениями семафора и освобождается только после записи пачки в БД,
+ * поэтому пачка хитов принимается целиком или не принимается вовсе, а возврат неудачной пачки
+ * в очередь всегда находит место.
+ */
+@Slf4j
+@Component
+@ConditionalOnLocalStorage
+public class HitBuffer {
+
+    private final BlockingQueue<EndpointHit> queue;
+    private final Semaphore capacity;
+    private final HitBatchRepository hitBatchRepository;
+    private final List<HitAggregator> aggregators;
+    private final TransactionTemplate transactionTemplate;
+    private final int batchSize;
+    private final long retryAfterSeconds;
+    private final ReentrantLock flushLock = new ReentrantLock();
+
+    private final DistributionSummary flushSize;
+    private final Timer flushLatency;
+    private final Counter rejected;
+
+    public HitBuffer(HitBatchRepository hitBatchRepository,
+                     List<HitAggregator> aggregators,
+                     PlatformTransactionManager transactionManager,
+                     MeterRegistry meterRegistry,
+                     @Value("${stats.ingest.buffer-capacity:65536}") int capacity,
+                     @Value("${stats.ingest.batch-size:1000}") int batchSize,
+                     @Value("${stats.ingest.retry-after-seconds:1}") long retryAfterSeconds) {
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.capacity = new Semaphore(capacity);
+        this.hitBatchRepository = hitBatchRepository;
+        this.aggregators = aggregators;
+        // flush может быть вызван из read-only транзакции чтения статистики
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.batchSize = batchSize;
+        this.retryAfterSeconds = retryAfterSeconds;
+
+        Gauge.builder("stats.ingest.queue.depth", queue, BlockingQueue::size)
+                .register(meterRegistry);
+        this.flushSize = DistributionSummary.builder("stats.ingest.flush.size")
+                .register(meterRegistry);
+        this.flushLatency = Timer.builder("stats.ingest.flush.latency")
+                .register(meterRegistry);
+        this.rejected = Counter.builder("stats.ingest.rejected")
+                .register(meterRegistry);
+    }
+
+    public void add(EndpointHit hit) {
+        addAll(List.of(hit));
+    }
+
+    /**
+     * Принимает пачку целиком или бросает {@link BufferOverflowException}, не приняв ни одного хита:
+     * клиент повторит пачку, и принятые ранее хиты не задвоятся.
+     */
+    public void addAll(List<EndpointHit> hits) {
+        if (hits.isEmpty()) {
+            return;
+        }
+        if (!capacity.tryAcquire(hits.size())) {
+            rejected.increment(hits.size());
+            throw new BufferOverflowException("Буфер хитов переполнен", retryAfterSeconds);
+        }
+        // место зарезервировано, offer не может не пройти
+        hits.forEach(queue::offer);
+    }
+
+    /**
+     * Сбрасывает всё накопленное в БД. Вызывается по расписанию и перед чтением статистики,
+     * чтобы запрос видел уже принятые хиты.
+     */
+    @Scheduled(fixedDelayString = "${stats.ingest.flush-interval-ms:200}")
+    public void flush() {
+        if (queue.isEmpty()) {
+            return;
+        }
+
+        flushLock.lock();
+        try {
+            List<EndpointHit> batch = new ArrayList<>(batchSize);
+            while (queue.drainTo(batch, batchSize) > 0) {
+                write(batch);
+                batch.clear();
+            }
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    /**
+     * Снимок хитов, которые приняты, но еще не взяты flusher-ом в пачку. Хит, взятый в пачку,
+     * в снимок уже не попадет, поэтому читатель, снявший свое хранилище раньше буфера, не посчитает хит дважды.
+     */
+    public List<EndpointHit> pending() {
+        return List.copyOf(queue);
+    }
+
+    /**
+     * Выполняет действие, пока ни одна пачка не пишется: всё записанное до него уже закоммичено,
+     * а всё записанное после пройдет через агрегаторы.
+     */
+    public void runExclusive(Runnable action) {
+        flushLock.lock();
+        try {
+            action.run();
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flush();
+    }
+
+    private void write(List<EndpointHit> batch) {
+        long startNanos = System.nanoTime();
+        try {
+            transactionTemplate.executeWithoutResult(status -> {
+                hitBatchRepository.insertAll(batch);
+                aggregators.forEach(aggregator -> aggregator.aggregate(batch));
+            });
+            capacity.release(batch.size());
+            flushSize.record(batch.size());
+        } catch (RuntimeException e) {
+            log.error("Не удалось записать пачку из {} хитов, пачка возвращается в буфер", batch.size(), e);
+            requeue(batch);
+            throw e;
+        } finally {
+            flushLatency.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Возвращает пачку в очередь. Разрешения пачки еще заняты, поэтому место для нее в очереди есть.
+     */
+    private void requeue(List<EndpointHit> batch) {
+        batch.forEach(queue::offer);
+    }
+}
@@ -1,14 +1,21 @@
 package ru.practicum.stats.server.mapper;
 
 import org.mapstruct.Mapper;
+import org.mapstruct.Mapping;
 import ru.practicum.dto.EndpointHitDto;
 import ru.practicum.stats.server.model.EndpointHit;
+import ru.practicum.stats.server.util.IpAddresses;
 
-@Mapper(componentModel = "spring")
+import java.util.List;
+
+@Mapper(componentModel = "spring", imports = IpAddresses.class)
 public interface StatsMapper {
 
+    @Mapping(target = "ip", expression = "java(IpAddresses.normalize(endpointHitDto.getIp()))")
     EndpointHit mapToModel(EndpointHitDto endpointHitDto);
 
+    List<EndpointHit> mapToModel(List<EndpointHitDto> endpointHitDtos);
+
     EndpointHitDto mapToDto(EndpointHit endpointHit);
 
 }
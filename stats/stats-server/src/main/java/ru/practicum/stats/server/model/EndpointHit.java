@@ -1,10 +1,5 @@
 package ru.practicum.stats.server.model;
 
-import jakarta.persistence.Entity;
-import jakarta.persistence.GeneratedValue;
-import jakarta.persistence.GenerationType;
-import jakarta.persistence.Id;
-import jakarta.persistence.Table;
 import lombok.AccessLevel;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
@@ -15,8 +10,9 @@ import lombok.experimental.FieldDefaults;
 
 import java.time.LocalDateTime;
 
-@Entity
-@Table(name = "stats")
+/**
+ * Хит в раскодированном виде. В таблице stats app и uri хранятся как id словарей, ip - как inet.
+ */
 @Getter
 @Setter
 @Builder
@@ -25,8 +21,6 @@ import java.time.LocalDateTime;
 @FieldDefaults(level = AccessLevel.PRIVATE)
 public class EndpointHit {
 
-    @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
     Long id;
     String app;
     String uri;
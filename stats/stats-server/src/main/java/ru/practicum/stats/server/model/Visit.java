@@ -0,0 +1,4 @@
+package ru.practicum.stats.server.model;
+
+public record Visit(String app, String uri, String ip) {
+}
@@ -0,0 +1,247 @@
+package ru.practicum.stats.server.partition;
+
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.practicum.stats.server.rollup.RollupGranularity;
+import ru.practicum.stats.server.shard.ConditionalOnLocalStorage;
+
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+
+/**
+ * Управляет range-партициями таблицы stats по полю created: заранее создает будущие партиции,
+ * отсоединяет или удаляет партиции старше срока хранения вместе с агрегатами за тот же период.
+ * Таблица stats старого формата при старте переводится в новый через {@link StatsTableMigration}.
+ * DDL выполняется под транзакционным advisory lock Postgres, поэтому экземпляры не создают
+ * и не удаляют одну партицию одновременно.
+ */
+@Slf4j
+@Component
+@ConditionalOnLocalStorage
+public class StatsPartitionManager {
+
+    private static final String PREFIX = "stats_p";
+    private static final DateTimeFormatter SUFFIX = DateTimeFormatter.BASIC_ISO_DATE;
+    private static final long DDL_LOCK_KEY = 0x53545041525449L;
+    private static final List<String> AGGREGATE_TABLES = List.of(
+            RollupGranularity.MINUTE.getTable(), RollupGranularity.HOUR.getTable(), "stats_hll_hour", "stats_bitmap_day");
+
+    private final JdbcTemplate jdbcTemplate;
+    private final StatsTableMigration tableMigration;
+    private final TransactionTemplate transactionTemplate;
+    private final int intervalDays;
+    private final int premake;
+    private final int retentionDays;
+    private final boolean dropExpired;
+
+    public StatsPartitionManager(JdbcTemplate jdbcTemplate,
+                                 StatsTableMigration tableMigration,
+                                 TransactionTemplate transactionTemplate,
+                                 @Value("${stats.partition.interval-days:1}") int intervalDays,
+                                 @Value("${stats.partition.premake:7}") int premake,
+                                 @Value("${stats.partition.retention-days:0}") int retentionDays,
+                                 @Value("${stats.partition.drop-expired:false}") boolean dropExpired) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.tableMigration = tableMigration;
+        this.transactionTemplate = transactionTemplate;
+        this.intervalDays = intervalDays;
+        this.premake = premake;
+        this.retentionDays = retentionDays;
+        this.dropExpired = dropExpired;
+    }
+
+    @PostConstruct
+    public void init() {
+        // агрегаты переводятся первыми: перенос старой stats пересчитывает rollup уже в новом формате
+        for (String table : AGGREGATE_TABLES) {
+            if (tableMigration.isAggregateLegacy(table)) {
+                transactionTemplate.executeWithoutResult(status -> {
+                    lockDdl();
+                    if (tableMigration.isAggregateLegacy(table)) {
+                        tableMigration.migrateAggregate(table);
+                    }
+                });
+            }
+        }
+        if (tableMigration.isRequired()) {
+            transactionTemplate.executeWithoutResult(status -> {
+                lockDdl();
+                if (!tableMigration.isRequired()) {
+                    return;
+                }
+                LocalDateTime min = tableMigration.prepare();
+                if (min != null) {
+                    LocalDate last = floor(LocalDate.now());
+                    for (LocalDate from = floor(min.toLocalDate()); !from.isAfter(last); from = from.plusDays(intervalDays)) {
+                        createPartition(from);
+                    }
+                }
+                tableMigration.copyLegacy();
+            });
+        }
+        transactionTemplate.executeWithoutResult(status -> {
+            lockDdl();
+            if (tableMigration.isIpDictionaryLegacy()) {
+                tableMigration.migrateIpDictionary();
+            }
+        });
+        transactionTemplate.executeWithoutResult(status -> {
+            lockDdl();
+            if (tableMigration.hasNullableIp()) {
+                tableMigration.quarantineNullIps();
+            }
+        });
+        transactionTemplate.executeWithoutResult(status -> {
+            lockDdl();
+            jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS stats_default PARTITION OF stats DEFAULT");
+            jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS stats_created_idx ON stats (created, uri_id)");
+            // пакетные запросы POST /stats/query соединяются со stats по uri_id и окну created
+            jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS stats_uri_created_idx ON stats (uri_id, created)");
+        });
+        maintain();
+    }
+
+    @Scheduled(cron = "${stats.partition.maintenance-cron:0 5 * * * *}")
+    public void maintain() {
+        LocalDate current = floor(LocalDate.now());
+        for (int i = 0; i <= premake; i++) {
+            LocalDate from = current.plusDays((long) i * intervalDays);
+            transactionTemplate.executeWithoutResult(status -> {
+                lockDdl();
+                createPartition(from);
+            });
+        }
+
+        if (retentionDays > 0) {
+            LocalDate threshold = LocalDate.now().minusDays(retentionDays);
+            for (String partition : findPartitions()) {
+                LocalDate from = LocalDate.parse(partition.substring(PREFIX.length()), SUFFIX);
+                if (!from.plusDays(intervalDays).isAfter(threshold)) {
+                    transactionTemplate.executeWithoutResult(status -> {
+                        lockDdl();
+                        expire(partition);
+                    });
+                }
+            }
+            pruneAggregates(floor(threshold).atStartOfDay());
+        }
+    }
+
+    /**
+     * Удаляет строки агрегатов раньше cutoff: хитов этого периода в stats уже нет.
+     */
+    private void pruneAggregates(LocalDateTime cutoff) {
+        for (String table : AGGREGATE_TABLES) {
+            int deleted = jdbcTemplate.update("DELETE FROM " + table + " WHERE bucket < ?", Timestamp.valueOf(cutoff));
+            if (deleted > 0) {
+                log.info("Из {} удалено {} строк старше {}", table, deleted, cutoff);
+            }
+        }
+    }
+
+    /**
+     * Блокировка DDL партиций до конца текущей транзакции, общая для всех экземпляров.
+     */
+    private void lockDdl() {
+        jdbcTemplate.execute("SELECT pg_advisory_xact_lock(" + DDL_LOCK_KEY + ")");
+    }
+
+    /**
+     * Создает партицию [from, from + interval), перенося в нее строки этого диапазона из партиции по умолчанию.
+     */
+    private void createPartition(LocalDate from) {
+        String name = PREFIX + from.format(SUFFIX);
+        Boolean exists = jdbcTemplate.queryForObject("SELECT to_regclass(?) IS NOT NULL", Boolean.class, name);
+        if (Boolean.TRUE.equals(exists)) {
+            return;
+        }
+
+        Timestamp start = Timestamp.valueOf(from.atStartOfDay());
+        Timestamp end = Timestamp.valueOf(from.plusDays(intervalDays).atStartOfDay());
+        jdbcTemplate.execute("CREATE TABLE " + name + " (LIKE stats INCLUDING DEFAULTS INCLUDING CONSTRAINTS)");
+        jdbcTemplate.update("""
+                WITH moved AS (
+                    DELETE FROM stats_default WHERE created >= ? AND created < ?
+                    RETURNING id, app_id, uri_id, ip, created
+                )
+                INSERT INTO %s (id, app_id, uri_id, ip, created) SELECT id, app_id, uri_id, ip, created FROM moved
+                """.formatted(name), start, end);
+        jdbcTemplate.execute("ALTER TABLE stats ATTACH PARTITION " + name
+                + " FOR VALUES FROM ('" + start + "') TO ('" + end + "')");
+        log.info("Создана партиция {} [{}, {})", name, start, end);
+    }
+
+    /**
+     * Прикрепленные партиции по возрастанию начала.
+     */
+    public List<Partition> findAttached() {
+        return findPartitions().stream()
+                .map(name -> {
+                    LocalDate from = LocalDate.parse(name.substring(PREFIX.length()), SUFFIX);
+                    return new Partition(name, from.atStartOfDay(), from.plusDays(intervalDays).atStartOfDay());
+                })
+                .toList();
+    }
+
+    /**
+     * Запрещает запись в партицию до конца текущей транзакции, чтение остается доступным.
+     */
+    public void lock(Partition partition) {
+        jdbcTemplate.execute("LOCK TABLE " + partition.name() + " IN SHARE MODE");
+    }
+
+    /**
+     * Отсоединяет и удаляет партицию, данные которой перенесены в архив.
+     */
+    public void drop(Partition partition) {
+        lockDdl();
+        jdbcTemplate.execute("ALTER TABLE stats DETACH PARTITION " + partition.name());
+        jdbcTemplate.execute("DROP TABLE " + partition.name());
+        log.info("Партиция {} перенесена в архив и удалена", partition.name());
+    }
+
+    private void expire(String partition) {
+        if (!findPartitions().contains(partition)) {
+            // уже отсоединена другим экземпляром
+            return;
+        }
+        jdbcTemplate.execute("ALTER TABLE stats DETACH PARTITION " + partition);
+        if (dropExpired) {
+            jdbcTemplate.execute("DROP TABLE " + partition);
+            log.info("Партиция {} удалена по сроку хранения", partition);
+        } else {
+            log.info("Партиция {} отсоединена по сроку хранения", partition);
+        }
+    }
+
+    private List<String> findPartitions() {
+        return jdbcTemplate.queryForList("""
+                SELECT c.relname FROM pg_inherits i
+                JOIN pg_class c ON c.oid = i.inhrelid
+                WHERE i.inhparent = 'stats'::regclass AND c.relname LIKE 'stats\\_p%'
+                ORDER BY c.relname
+                """, String.class);
+    }
+
+    /**
+     * Выравнивает дату по началу партиции: границы кратны interval-days, считая от эпохи.
+     */
+    private LocalDate floor(LocalDate date) {
+        long epochDay = date.toEpochDay();
+        return LocalDate.ofEpochDay(epochDay - Math.floorMod(epochDay, intervalDays));
+    }
+
+    /**
+     * Партиция [from, to) таблицы stats.
+     */
+    public record Partition(String name, LocalDateTime from, LocalDateTime to) {
+    }
+}
@@ -0,0 +1,219 @@
+package ru.practicum.stats.server.partition;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import ru.practicum.stats.server.shard.ConditionalOnLocalStorage;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Переводит таблицу stats старого формата (непартиционированную или со строковыми app, uri и ip)
+ * в партиционированную таблицу с id словарей и ip типа inet. Rollup-таблицы при этом пересчитываются
+ * по перенесенным данным. Словарь stats_ip, созданный со строковым ip, переводится на inet.
+ * Хиты с некорректным ip не попадают ни в stats, ни в агрегаты: они переносятся в stats_quarantine,
+ * так что все счетчики считают одни и те же хиты. Агрегаты со строковыми app и uri переводятся на id словарей.
+ * Вызывается из {@link StatsPartitionManager}, каждый перевод в своей транзакции.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+@ConditionalOnLocalStorage
+class StatsTableMigration {
+
+    private static final String IPV4_OCTET = "(25[0-5]|2[0-4][0-9]|1[0-9][0-9]|[1-9]?[0-9])";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    boolean isRequired() {
+        Boolean current = jdbcTemplate.queryForObject("""
+                SELECT c.relkind = 'p' AND EXISTS (
+                    SELECT 1 FROM pg_attribute a
+                    WHERE a.attrelid = c.oid AND a.attname = 'app_id' AND NOT a.attisdropped
+                )
+                FROM pg_class c WHERE c.oid = 'stats'::regclass
+                """, Boolean.class);
+        return !Boolean.TRUE.equals(current);
+    }
+
+    /**
+     * Переименовывает старую таблицу в stats_legacy и создает новую пустую stats с партицией по умолчанию.
+     *
+     * @return минимальное значение created в старой таблице или null, если она пуста
+     */
+    LocalDateTime prepare() {
+        log.info("Перевод таблицы stats в партиционированный формат со словарями");
+        List<String> partitions = jdbcTemplate.queryForList(
+                "SELECT inhrelid::regclass::text FROM pg_inherits WHERE inhparent = 'stats'::regclass", String.class);
+        for (String partition : partitions) {
+            jdbcTemplate.execute("ALTER TABLE " + partition + " RENAME TO stats_legacy_" + partition);
+        }
+        jdbcTemplate.execute("ALTER TABLE stats RENAME TO stats_legacy");
+        jdbcTemplate.execute("ALTER INDEX IF EXISTS stats_pkey RENAME TO stats_legacy_pkey");
+        jdbcTemplate.execute("ALTER INDEX IF EXISTS stats_created_idx RENAME TO stats_legacy_created_idx");
+        jdbcTemplate.execute("ALTER SEQUENCE IF EXISTS stats_id_seq RENAME TO stats_legacy_id_seq");
+
+        jdbcTemplate.execute("""
+                CREATE TABLE stats (
+                id BIGSERIAL,
+                app_id INTEGER NOT NULL,
+                uri_id INTEGER NOT NULL,
+                ip INET NOT NULL,
+                created TIMESTAMP WITHOUT TIME ZONE NOT NULL,
+                PRIMARY KEY (id, created)
+                ) PARTITION BY RANGE (created)
+                """);
+        jdbcTemplate.execute("CREATE TABLE stats_default PARTITION OF stats DEFAULT");
+
+        return jdbcTemplate.queryForObject("SELECT MIN(created) FROM stats_legacy", LocalDateTime.class);
+    }
+
+    /**
+     * Переносит строки из stats_legacy в новую stats и удаляет старую таблицу.
+     * Партиции для диапазона старых данных к этому моменту должны быть созданы.
+     */
+    void copyLegacy() {
+        jdbcTemplate.update("INSERT INTO stats_app (name) SELECT DISTINCT app FROM stats_legacy ON CONFLICT (name) DO NOTHING");
+        jdbcTemplate.update("INSERT INTO stats_uri (uri) SELECT DISTINCT uri FROM stats_legacy ON CONFLICT (uri) DO NOTHING");
+
+        // старый столбец ip проверялся только по длине, некорректные значения уходят в карантин
+        int quarantined = jdbcTemplate.update("""
+                INSERT INTO stats_quarantine (id, app, uri, ip, created, quarantined_at)
+                SELECT id, app, uri, ip, created, now() FROM stats_legacy WHERE %s
+                """.formatted(invalidIp("ip")));
+        int moved = jdbcTemplate.update("""
+                INSERT INTO stats (id, app_id, uri_id, ip, created)
+                SELECT l.id, a.id, u.id, CAST(l.ip AS inet), l.created
+                FROM stats_legacy l
+                JOIN stats_app a ON a.name = l.app
+                JOIN stats_uri u ON u.uri = l.uri
+                WHERE NOT (%s)
+                """.formatted(invalidIp("l.ip")));
+        jdbcTemplate.execute("SELECT setval('stats_id_seq', COALESCE((SELECT MAX(id) FROM stats), 0) + 1, false)");
+
+        rebuildRollup("stats_rollup_minute", "minute");
+        rebuildRollup("stats_rollup_hour", "hour");
+
+        jdbcTemplate.execute("DROP TABLE stats_legacy");
+        log.info("Таблица stats переведена в новый формат, перенесено {} хитов, в карантине {}", moved, quarantined);
+    }
+
+    /**
+     * Агрегат старого формата хранит app и uri строками, а не id словарей.
+     */
+    boolean isAggregateLegacy(String table) {
+        Boolean legacy = jdbcTemplate.queryForObject("""
+                SELECT EXISTS (
+                    SELECT 1 FROM pg_attribute
+                    WHERE attrelid = CAST(? AS regclass) AND attname = 'app' AND NOT attisdropped
+                )
+                """, Boolean.class, table);
+        return Boolean.TRUE.equals(legacy);
+    }
+
+    /**
+     * Переводит ключ агрегата со строк app и uri на app_id и uri_id. Недостающие значения добавляются
+     * в словари, строки агрегата при этом не пересчитываются.
+     */
+    void migrateAggregate(String table) {
+        jdbcTemplate.update("INSERT INTO stats_app (name) SELECT DISTINCT app FROM " + table + " ON CONFLICT (name) DO NOTHING");
+        jdbcTemplate.update("INSERT INTO stats_uri (uri) SELECT DISTINCT uri FROM " + table + " ON CONFLICT (uri) DO NOTHING");
+        jdbcTemplate.update("""
+                UPDATE stats_uri SET event_id = CAST(substring(uri FROM '^/events/([0-9]{1,18})$') AS BIGINT)
+                WHERE event_id IS NULL AND uri ~ '^/events/[0-9]{1,18}$'
+                """);
+
+        jdbcTemplate.execute("ALTER TABLE " + table + " ADD COLUMN app_id INTEGER, ADD COLUMN uri_id INTEGER");
+        int rows = jdbcTemplate.update("""
+                UPDATE %s t SET app_id = a.id, uri_id = u.id
+                FROM stats_app a, stats_uri u
+                WHERE a.name = t.app AND u.uri = t.uri
+                """.formatted(table));
+        // первичный ключ по (uri, bucket, app) удаляется вместе со столбцами
+        jdbcTemplate.execute("ALTER TABLE " + table + " DROP COLUMN app, DROP COLUMN uri");
+        jdbcTemplate.execute("ALTER TABLE " + table + " ALTER COLUMN app_id SET NOT NULL, ALTER COLUMN uri_id SET NOT NULL, "
+                + "ADD PRIMARY KEY (uri_id, bucket, app_id)");
+        log.info("Агрегат {} переведен на id словарей, строк: {}", table, rows);
+    }
+
+    boolean isIpDictionaryLegacy() {
+        String type = jdbcTemplate.queryForObject("""
+                SELECT format_type(a.atttypid, a.atttypmod)
+                FROM pg_attribute a
+                WHERE a.attrelid = 'stats_ip'::regclass AND a.attname = 'ip' AND NOT a.attisdropped
+                """, String.class);
+        return !"inet".equals(type);
+    }
+
+    /**
+     * Переводит stats_ip.ip из VARCHAR(15) в inet. Некорректные адреса удаляются из словаря: с inet-столбцом
+     * stats они больше не совпадут, а их id в уже посчитанных битмапах остаются. Корректный IPv4 без ведущих
+     * нулей переводится в inet однозначно, поэтому уникальность сохраняется.
+     */
+    void migrateIpDictionary() {
+        int removed = jdbcTemplate.update("DELETE FROM stats_ip WHERE " + invalidIp("ip"));
+        jdbcTemplate.execute("ALTER TABLE stats_ip ALTER COLUMN ip TYPE inet USING CAST(ip AS inet)");
+        log.info("Столбец stats_ip.ip переведен в inet, удалено некорректных адресов: {}", removed);
+    }
+
+    boolean hasNullableIp() {
+        Boolean notNull = jdbcTemplate.queryForObject(
+                "SELECT attnotnull FROM pg_attribute WHERE attrelid = 'stats'::regclass AND attname = 'ip'",
+                Boolean.class);
+        return !Boolean.TRUE.equals(notNull);
+    }
+
+    /**
+     * Таблица, переведенная в новый формат до карантина, хранит хиты с некорректным ip как NULL и учитывает
+     * их в rollup-таблицах. Такие хиты переносятся в stats_quarantine и вычитаются из rollup, после чего
+     * ip в stats становится обязательным.
+     */
+    void quarantineNullIps() {
+        int quarantined = jdbcTemplate.update("""
+                INSERT INTO stats_quarantine (id, app, uri, ip, created, quarantined_at)
+                SELECT s.id, a.name, u.uri, NULL, s.created, now()
+                FROM stats s
+                JOIN stats_app a ON a.id = s.app_id
+                JOIN stats_uri u ON u.id = s.uri_id
+                WHERE s.ip IS NULL
+                """);
+        subtractFromRollup("stats_rollup_minute", "minute");
+        subtractFromRollup("stats_rollup_hour", "hour");
+        jdbcTemplate.update("DELETE FROM stats WHERE ip IS NULL");
+        jdbcTemplate.execute("ALTER TABLE stats ALTER COLUMN ip SET NOT NULL");
+        log.info("Хиты без ip перенесены в stats_quarantine: {}", quarantined);
+    }
+
+    private void subtractFromRollup(String table, String unit) {
+        jdbcTemplate.update("""
+                UPDATE %1$s r SET hits = r.hits - q.hits
+                FROM (
+                    SELECT s.app_id, s.uri_id, date_trunc('%2$s', s.created) AS bucket, COUNT(*) AS hits
+                    FROM stats s
+                    WHERE s.ip IS NULL
+                    GROUP BY 1, 2, 3
+                ) q
+                WHERE r.uri_id = q.uri_id AND r.bucket = q.bucket AND r.app_id = q.app_id
+                """.formatted(table, unit));
+        jdbcTemplate.update("DELETE FROM " + table + " WHERE hits <= 0");
+    }
+
+    private static String invalidIp(String column) {
+        return "%1$s IS NULL OR %1$s !~ '^%2$s(\\.%2$s){3}$'".formatted(column, IPV4_OCTET);
+    }
+
+    private void rebuildRollup(String table, String unit) {
+        jdbcTemplate.update("DELETE FROM " + table);
+        jdbcTemplate.update("""
+                INSERT INTO %1$s (app_id, uri_id, bucket, hits)
+                SELECT a.id, u.id, date_trunc('%2$s', l.created), COUNT(*)
+                FROM stats_legacy l
+                JOIN stats_app a ON a.name = l.app
+                JOIN stats_uri u ON u.uri = l.uri
+                WHERE NOT (%3$s)
+                GROUP BY a.id, u.id, date_trunc('%2$s', l.created)
+                """.formatted(table, unit, invalidIp("l.ip")));
+    }
+}
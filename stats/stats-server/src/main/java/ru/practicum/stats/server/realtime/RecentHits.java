@@ -0,0 +1,196 @@
+package ru.practicum.stats.server.realtime;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import ru.practicum.dto.ViewStatsDto;
+import ru.practicum.stats.server.model.EndpointHit;
+import ru.practicum.stats.server.model.Visit;
+import ru.practicum.stats.server.shard.ConditionalOnLocalStorage;
+
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Счетчики хитов за последние window-minutes минут в памяти процесса, с точностью до секунды.
+ * Память считается полной для хитов с created от начала первой целой минуты после старта:
+ * за этот период /stats отвечает из памяти, а в Postgres идет только за более старой частью.
+ * Память верна, только пока все хиты принимает этот экземпляр stats-server: при регистрации
+ * второго экземпляра {@link SingleInstanceGuard} отключает ее, и /stats целиком считается по БД.
+ */
+@Component
+@ConditionalOnLocalStorage
+public class RecentHits {
+
+    private final boolean enabled;
+    private final SingleInstanceGuard singleInstance;
+    private final int windowMinutes;
+    private final LocalDateTime coverageStart;
+    private final ConcurrentSkipListMap<LocalDateTime, Map<List<String>, SecondCounters>> buckets =
+            new ConcurrentSkipListMap<>();
+    /**
+     * Начало первой минуты, хит за которую не попал в память из-за слишком далекого будущего created.
+     */
+    private volatile LocalDateTime gapFrom = LocalDateTime.MAX;
+
+    public RecentHits(@Value("${stats.realtime.enabled:true}") boolean enabled,
+                      @Value("${stats.realtime.window-minutes:60}") int windowMinutes,
+                      SingleInstanceGuard singleInstance) {
+        this.enabled = enabled;
+        this.singleInstance = singleInstance;
+        this.windowMinutes = windowMinutes;
+        this.coverageStart = LocalDateTime.now().truncatedTo(ChronoUnit.MINUTES).plusMinutes(1);
+    }
+
+    public void record(EndpointHit hit) {
+        if (!enabled) {
+            return;
+        }
+
+        LocalDateTime now = LocalDateTime.now();
+        LocalDateTime minute = hit.getCreated().truncatedTo(ChronoUnit.MINUTES);
+        if (minute.isBefore(windowStart(now))) {
+            return;
+        }
+        if (minute.isAfter(now.plusMinutes(windowMinutes))) {
+            synchronized (this) {
+                if (minute.isBefore(gapFrom)) {
+                    gapFrom = minute;
+                }
+            }
+            return;
+        }
+
+        buckets.computeIfAbsent(minute, m -> new ConcurrentHashMap<>())
+                .computeIfAbsent(List.of(hit.getApp(), hit.getUri()), k -> new SecondCounters())
+                .add(hit.getCreated().getSecond(), hit.getIp());
+    }
+
+    /**
+     * Момент, начиная с которого интервал [start, end] можно посчитать из памяти,
+     * или null, если память для этого интервала не подходит.
+     */
+    public LocalDateTime coverageFrom(LocalDateTime start, LocalDateTime end) {
+        if (!enabled || !singleInstance.isSingle() || !end.isBefore(gapFrom)) {
+            return null;
+        }
+
+        LocalDateTime from = windowStart(LocalDateTime.now());
+        if (from.isBefore(coverageStart)) {
+            from = coverageStart;
+        }
+        if (start.isAfter(from)) {
+            from = start;
+        }
+        return from.isAfter(end) ? null : from;
+    }
+
+    /**
+     * Неуникальные просмотры за [from, to] с точностью до секунды.
+     */
+    public List<ViewStatsDto> countHits(LocalDateTime from, LocalDateTime to, List<String> uris) {
+        List<ViewStatsDto> result = new ArrayList<>();
+        forEachCounter(from, to, uris, (key, counters, mask) -> {
+            long hits = counters.count(mask);
+            if (hits > 0) {
+                result.add(new ViewStatsDto(key.get(0), key.get(1), hits));
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Посещения (app, uri, ip) за [from, to] с точностью до секунды; одна пара может повторяться.
+     */
+    public List<Visit> findVisits(LocalDateTime from, LocalDateTime to, List<String> uris) {
+        List<Visit> result = new ArrayList<>();
+        forEachCounter(from, to, uris, (key, counters, mask) ->
+                counters.ips(mask).forEach(ip -> result.add(new Visit(key.get(0), key.get(1), ip))));
+        return result;
+    }
+
+    @Scheduled(fixedDelayString = "${stats.realtime.evict-interval-ms:60000}")
+    public void evict() {
+        buckets.headMap(windowStart(LocalDateTime.now())).clear();
+    }
+
+    private LocalDateTime windowStart(LocalDateTime now) {
+        return now.truncatedTo(ChronoUnit.MINUTES).minusMinutes(windowMinutes);
+    }
+
+    private void forEachCounter(LocalDateTime from, LocalDateTime to, List<String> uris, CounterVisitor visitor) {
+        Set<String> uriSet = uris == null ? null : Set.copyOf(uris);
+        LocalDateTime firstMinute = from.truncatedTo(ChronoUnit.MINUTES);
+        LocalDateTime lastMinute = to.truncatedTo(ChronoUnit.MINUTES);
+
+        ConcurrentNavigableMap<LocalDateTime, Map<List<String>, SecondCounters>> range =
+                buckets.subMap(firstMinute, true, lastMinute, true);
+        range.forEach((minute, counters) -> {
+            int fromSecond = minute.equals(firstMinute) ? from.getSecond() : 0;
+            int toSecond = minute.equals(lastMinute) ? to.getSecond() : 59;
+            long mask = SecondCounters.mask(fromSecond, toSecond);
+            counters.forEach((key, secondCounters) -> {
+                if (uriSet == null || uriSet.contains(key.get(1))) {
+                    visitor.visit(key, secondCounters, mask);
+                }
+            });
+        });
+    }
+
+    @FunctionalInterface
+    private interface CounterVisitor {
+        void visit(List<String> key, SecondCounters counters, long secondsMask);
+    }
+
+    /**
+     * Счетчики одной пары app + uri за одну минуту: число хитов по секундам
+     * и для каждого ip битовая маска секунд, в которые он заходил.
+     */
+    private static final class SecondCounters {
+
+        private final AtomicIntegerArray hits = new AtomicIntegerArray(60);
+        private final Map<String, AtomicLong> ipSeconds = new ConcurrentHashMap<>();
+
+        static long mask(int fromSecond, int toSecond) {
+            if (fromSecond > toSecond) {
+                return 0;
+            }
+            long upTo = toSecond == 63 ? -1L : (1L << (toSecond + 1)) - 1;
+            return upTo & -(1L << fromSecond);
+        }
+
+        void add(int second, String ip) {
+            hits.incrementAndGet(second);
+            ipSeconds.computeIfAbsent(ip, k -> new AtomicLong()).getAndAccumulate(1L << second, (a, b) -> a | b);
+        }
+
+        long count(long mask) {
+            long total = 0;
+            for (int second = 0; second < 60; second++) {
+                if ((mask & (1L << second)) != 0) {
+                    total += hits.get(second);
+                }
+            }
+            return total;
+        }
+
+        List<String> ips(long mask) {
+            List<String> result = new ArrayList<>();
+            ipSeconds.forEach((ip, seconds) -> {
+                if ((seconds.get() & mask) != 0) {
+                    result.add(ip);
+                }
+            });
+            return result;
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package ru.practicum.stats.server.realtime;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.client.discovery.DiscoveryClient;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import ru.practicum.stats.server.shard.ConditionalOnLocalStorage;
+
+/**
+ * Проверка, что хиты принимает один экземпляр stats-server. Счетчики в памяти ({@link RecentHits},
+ * трендинг) видят только хиты своего экземпляра, поэтому при нескольких экземплярах они занижают результат.
+ * Как только discovery покажет больше одного экземпляра, проверка отключает их до перезапуска:
+ * вернуть их после ухода реплики нельзя, в памяти уже нет хитов, которые та успела принять.
+ */
+@Slf4j
+@Component
+@ConditionalOnLocalStorage
+public class SingleInstanceGuard {
+
+    private final ObjectProvider<DiscoveryClient> discoveryClient;
+    private final String serviceId;
+    private volatile boolean single = true;
+
+    public SingleInstanceGuard(ObjectProvider<DiscoveryClient> discoveryClient,
+                               @Value("${stats.realtime.service-id:${spring.application.name:stats-server}}")
+                               String serviceId) {
+        this.discoveryClient = discoveryClient;
+        this.serviceId = serviceId;
+    }
+
+    /**
+     * @return true, пока ни разу не было зарегистрировано больше одного экземпляра
+     */
+    public boolean isSingle() {
+        return single;
+    }
+
+    @Scheduled(fixedDelayString = "${stats.realtime.instance-check-interval-ms:30000}")
+    public void check() {
+        DiscoveryClient client = discoveryClient.getIfAvailable();
+        if (client == null || !single) {
+            return;
+        }
+        int instances;
+        try {
+            instances = client.getInstances(serviceId).size();
+        } catch (RuntimeException e) {
+            log.warn("Не удалось получить экземпляры {} из discovery: {}", serviceId, e.getMessage());
+            return;
+        }
+        if (instances > 1) {
+            single = false;
+            log.warn("Зарегистрировано {} экземпляров {}, счетчики в памяти отключены до перезапуска, "
+                    + "статистика считается по БД", instances, serviceId);
+        }
+    }
+}
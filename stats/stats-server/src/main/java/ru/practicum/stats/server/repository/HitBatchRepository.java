@@ -0,0 +1,60 @@
+package ru.practicum.stats.server.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import ru.practicum.stats.server.dictionary.AppDictionary;
+import ru.practicum.stats.server.dictionary.UriDictionary;
+import ru.practicum.stats.server.model.EndpointHit;
+import ru.practicum.stats.server.util.IpAddresses;
+
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.List;
+import java.util.Map;
+
+@Repository
+@RequiredArgsConstructor
+public class HitBatchRepository {
+
+    private static final String INSERT_HIT = "INSERT INTO stats (app_id, uri_id, ip, created) VALUES (?, ?, CAST(? AS inet), ?)";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final AppDictionary appDictionary;
+    private final UriDictionary uriDictionary;
+
+    public long findMaxId() {
+        Long maxId = jdbcTemplate.queryForObject("SELECT MAX(id) FROM stats", Long.class);
+        return maxId == null ? 0 : maxId;
+    }
+
+    public List<EndpointHit> findChunkAfter(long afterId, long maxId, int limit) {
+        return jdbcTemplate.query("""
+                        SELECT s.id, a.name AS app, u.uri, host(s.ip) AS ip, s.created
+                        FROM stats s
+                        JOIN stats_app a ON a.id = s.app_id
+                        JOIN stats_uri u ON u.id = s.uri_id
+                        WHERE s.id > ? AND s.id <= ? AND s.ip IS NOT NULL
+                        ORDER BY s.id
+                        LIMIT ?
+                        """, (rs, rowNum) -> EndpointHit.builder()
+                        .id(rs.getLong("id"))
+                        .app(rs.getString("app"))
+                        .uri(rs.getString("uri"))
+                        .ip(IpAddresses.normalize(rs.getString("ip")))
+                        .created(rs.getTimestamp("created").toLocalDateTime())
+                        .build(),
+                afterId, maxId, limit);
+    }
+
+    public void insertAll(List<EndpointHit> hits) {
+        Map<String, Integer> apps = appDictionary.resolve(hits.stream().map(EndpointHit::getApp).distinct().toList());
+        Map<String, Integer> uris = uriDictionary.resolve(hits.stream().map(EndpointHit::getUri).distinct().toList());
+        jdbcTemplate.batchUpdate(INSERT_HIT, hits, hits.size(), (ps, hit) -> {
+            ps.setInt(1, apps.get(hit.getApp()));
+            ps.setInt(2, uris.get(hit.getUri()));
+            ps.setObject(3, hit.getIp(), Types.VARCHAR);
+            ps.setTimestamp(4, Timestamp.valueOf(hit.getCreated()));
+        });
+    }
+}
@@ -1,41 +1,283 @@
 package ru.practicum.stats.server.repository;
 
-import org.springframework.data.jpa.repository.JpaRepository;
-import org.springframework.data.jpa.repository.Query;
-import org.springframework.data.repository.query.Param;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+import ru.practicum.dto.StatsQueryDto;
+import ru.practicum.dto.ViewStatsBucketDto;
 import ru.practicum.dto.ViewStatsDto;
-import ru.practicum.stats.server.model.EndpointHit;
+import ru.practicum.stats.server.dictionary.AppDictionary;
+import ru.practicum.stats.server.dictionary.UriDictionary;
+import ru.practicum.stats.server.model.Visit;
+import ru.practicum.stats.server.util.IpAddresses;
 
+import javax.sql.DataSource;
+import java.sql.Timestamp;
+import java.time.Duration;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
 
-public interface StatsRepository extends JpaRepository<EndpointHit, Long> {
-
-    @Query("""
-            SELECT new ru.practicum.dto.ViewStatsDto(s.app, s.uri, COUNT(s.ip))
-            FROM   EndpointHit s
-            WHERE  s.created BETWEEN :start AND :end
-              AND (:uris IS NULL OR s.uri IN :uris)
-            GROUP BY s.app, s.uri
-            ORDER BY COUNT(s.ip) DESC
-          """)
-    List<ViewStatsDto> getAllStats(@Param("start") LocalDateTime start,
-                                   @Param("end") LocalDateTime end,
-                                   @Param("uris") List<String> uris);
-
-    @Query("""
-            SELECT new ru.practicum.dto.ViewStatsDto(s.app, s.uri, COUNT(DISTINCT s.ip))
-            FROM EndpointHit s
-            WHERE s.created BETWEEN :start AND :end
-              AND (:uris IS NULL OR s.uri IN :uris)
-            GROUP BY s.app, s.uri
-            ORDER BY COUNT(DISTINCT s.ip) DESC
-          """)
-    List<ViewStatsDto> findStatsWithUnique(@Param("start") LocalDateTime start,
-                                           @Param("end") LocalDateTime end,
-                                           @Param("uris") List<String> uris);
-
-    List<EndpointHit> findByUri(String uri);
-
-    long countByCreatedBetween(LocalDateTime start, LocalDateTime end);
+/**
+ * Запросы к сырой таблице stats. Группировка идет по целочисленным app_id и uri_id,
+ * строки app и uri подставляются из словарей уже после агрегации.
+ */
+@Repository
+public class StatsRepository {
+
+    private static final String CLOSED = "s.created BETWEEN :start AND :end";
+    private static final String HALF_OPEN = "s.created >= :start AND s.created < :end";
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+    private final NamedParameterJdbcTemplate streamingJdbcTemplate;
+    private final AppDictionary appDictionary;
+    private final UriDictionary uriDictionary;
+
+    public StatsRepository(NamedParameterJdbcTemplate jdbcTemplate,
+                           DataSource dataSource,
+                           AppDictionary appDictionary,
+                           UriDictionary uriDictionary,
+                           @Value("${stats.stream.fetch-size:1000}") int fetchSize) {
+        this.jdbcTemplate = jdbcTemplate;
+        JdbcTemplate streaming = new JdbcTemplate(dataSource);
+        streaming.setFetchSize(fetchSize);
+        this.streamingJdbcTemplate = new NamedParameterJdbcTemplate(streaming);
+        this.appDictionary = appDictionary;
+        this.uriDictionary = uriDictionary;
+    }
+
+    public List<ViewStatsDto> getAllStats(LocalDateTime start, LocalDateTime end, List<String> uris) {
+        return countHits("COUNT(s.ip)", CLOSED, start, end, uris);
+    }
+
+    public List<ViewStatsDto> getAllStatsBefore(LocalDateTime start, LocalDateTime end, List<String> uris) {
+        return countHits("COUNT(s.ip)", HALF_OPEN, start, end, uris);
+    }
+
+    public List<ViewStatsDto> findStatsWithUnique(LocalDateTime start, LocalDateTime end, List<String> uris) {
+        return countHits("COUNT(DISTINCT s.ip)", CLOSED, start, end, uris);
+    }
+
+    /**
+     * Хиты за [start, end], сгруппированные по бакетам длины interval, выровненным от эпохи.
+     */
+    public List<ViewStatsBucketDto> getBuckets(LocalDateTime start, LocalDateTime end, List<String> uris,
+                                               boolean unique, Duration interval) {
+        return countByBucket(CLOSED, start, end, uris, unique, interval);
+    }
+
+    /**
+     * То же для полуинтервала [start, end).
+     */
+    public List<ViewStatsBucketDto> getBucketsBefore(LocalDateTime start, LocalDateTime end, List<String> uris,
+                                                     boolean unique, Duration interval) {
+        return countByBucket(HALF_OPEN, start, end, uris, unique, interval);
+    }
+
+    /**
+     * Выполняет пакет запросов с собственными окнами одним SQL: запросы передаются массивами,
+     * разворачиваются через unnest и соединяются с таблицей stats. i-й список результата - ответ на i-й запрос.
+     * Видит только хиты в таблице stats: перенесенные в архив не учитываются.
+     */
+    public List<List<ViewStatsDto>> queryBatch(List<StatsQueryDto> queries) {
+        List<String> indexes = new ArrayList<>();
+        List<String> starts = new ArrayList<>();
+        List<String> ends = new ArrayList<>();
+        List<String> uriIds = new ArrayList<>();
+        List<String> uniques = new ArrayList<>();
+
+        for (int i = 0; i < queries.size(); i++) {
+            StatsQueryDto query = queries.get(i);
+            List<String> ids;
+            if (query.getUris() == null) {
+                ids = Collections.singletonList(null);
+            } else {
+                ids = uriDictionary.find(query.getUris()).values().stream().map(String::valueOf).toList();
+            }
+            for (String id : ids) {
+                indexes.add(String.valueOf(i));
+                starts.add(Timestamp.valueOf(query.getStart()).toString());
+                ends.add(Timestamp.valueOf(query.getEnd()).toString());
+                uriIds.add(id);
+                uniques.add(String.valueOf(query.isUnique()));
+            }
+        }
+
+        List<List<ViewStatsDto>> result = new ArrayList<>(queries.size());
+        queries.forEach(query -> result.add(new ArrayList<>()));
+        if (indexes.isEmpty()) {
+            return result;
+        }
+
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("indexes", indexes.toArray(String[]::new))
+                .addValue("starts", starts.toArray(String[]::new))
+                .addValue("ends", ends.toArray(String[]::new))
+                .addValue("uriIds", uriIds.toArray(String[]::new))
+                .addValue("uniques", uniques.toArray(String[]::new));
+        List<BatchCount> rows = jdbcTemplate.query("""
+                SELECT q.idx, s.app_id, s.uri_id,
+                       CASE WHEN q.uniq THEN COUNT(DISTINCT s.ip) ELSE COUNT(s.ip) END AS hits
+                FROM unnest(CAST(:indexes AS integer[]), CAST(:starts AS timestamp[]), CAST(:ends AS timestamp[]),
+                            CAST(:uriIds AS integer[]), CAST(:uniques AS boolean[]))
+                     AS q(idx, start_at, end_at, uri_id, uniq)
+                JOIN stats s ON s.created BETWEEN q.start_at AND q.end_at
+                            AND (q.uri_id IS NULL OR s.uri_id = q.uri_id)
+                GROUP BY q.idx, q.uniq, s.app_id, s.uri_id
+                """, params,
+                (rs, rowNum) -> new BatchCount(rs.getInt("idx"), rs.getInt("app_id"), rs.getInt("uri_id"), rs.getLong("hits")));
+
+        Map<Integer, String> apps = appDictionary.names(rows.stream().map(BatchCount::appId).distinct().toList());
+        Map<Integer, String> uriNames = uriDictionary.names(rows.stream().map(BatchCount::uriId).distinct().toList());
+        for (BatchCount row : rows) {
+            result.get(row.index()).add(new ViewStatsDto(apps.get(row.appId()), uriNames.get(row.uriId()), row.hits()));
+        }
+        result.forEach(stats -> stats.sort(Comparator.comparing(ViewStatsDto::getHits).reversed()));
+        return result;
+    }
+
+    /**
+     * Отдает статистику по сырой таблице построчно через курсор БД, не собирая результат в память.
+     * Курсор Postgres работает только внутри транзакции.
+     */
+    public void streamStats(LocalDateTime start, LocalDateTime end, List<String> uris, boolean unique,
+                            Consumer<ViewStatsDto> consumer) {
+        MapSqlParameterSource params = params(start, end);
+        String uriFilter = uriFilter(uris, params);
+        if (uriFilter == null) {
+            return;
+        }
+
+        String count = unique ? "COUNT(DISTINCT s.ip)" : "COUNT(s.ip)";
+        streamingJdbcTemplate.query(countSql(count, CLOSED, uriFilter), params, (RowCallbackHandler) rs -> {
+            int appId = rs.getInt("app_id");
+            int uriId = rs.getInt("uri_id");
+            consumer.accept(new ViewStatsDto(appDictionary.name(appId), uriDictionary.name(uriId), rs.getLong("hits")));
+        });
+    }
+
+    public List<Visit> findVisitsBefore(LocalDateTime start, LocalDateTime end, List<String> uris) {
+        return findVisits(HALF_OPEN, start, end, uris);
+    }
+
+    public List<Visit> findVisits(LocalDateTime start, LocalDateTime end, List<String> uris) {
+        return findVisits(CLOSED, start, end, uris);
+    }
+
+    private List<ViewStatsDto> countHits(String count, String period,
+                                         LocalDateTime start, LocalDateTime end, List<String> uris) {
+        MapSqlParameterSource params = params(start, end);
+        String uriFilter = uriFilter(uris, params);
+        if (uriFilter == null) {
+            return List.of();
+        }
+
+        List<HitCount> rows = jdbcTemplate.query(countSql(count, period, uriFilter), params,
+                (rs, rowNum) -> new HitCount(rs.getInt("app_id"), rs.getInt("uri_id"), rs.getLong("hits")));
+
+        Map<Integer, String> apps = appDictionary.names(rows.stream().map(HitCount::appId).distinct().toList());
+        Map<Integer, String> uriNames = uriDictionary.names(rows.stream().map(HitCount::uriId).distinct().toList());
+        return rows.stream()
+                .map(row -> new ViewStatsDto(apps.get(row.appId()), uriNames.get(row.uriId()), row.hits()))
+                .toList();
+    }
+
+    private List<ViewStatsBucketDto> countByBucket(String period, LocalDateTime start, LocalDateTime end,
+                                                   List<String> uris, boolean unique, Duration interval) {
+        MapSqlParameterSource params = params(start, end)
+                .addValue("stride", interval.toSeconds() + " seconds");
+        String uriFilter = uriFilter(uris, params);
+        if (uriFilter == null) {
+            return List.of();
+        }
+
+        List<BucketCount> rows = jdbcTemplate.query("""
+                SELECT s.app_id, s.uri_id,
+                       date_bin(CAST(:stride AS interval), s.created, TIMESTAMP '1970-01-01') AS time_bucket,
+                       %s AS hits
+                FROM stats s
+                WHERE %s%s
+                GROUP BY s.app_id, s.uri_id, time_bucket
+                """.formatted(unique ? "COUNT(DISTINCT s.ip)" : "COUNT(s.ip)", period, uriFilter), params,
+                (rs, rowNum) -> new BucketCount(rs.getInt("app_id"), rs.getInt("uri_id"),
+                        rs.getTimestamp("time_bucket").toLocalDateTime(), rs.getLong("hits")));
+
+        Map<Integer, String> apps = appDictionary.names(rows.stream().map(BucketCount::appId).distinct().toList());
+        Map<Integer, String> uriNames = uriDictionary.names(rows.stream().map(BucketCount::uriId).distinct().toList());
+        return rows.stream()
+                .map(row -> new ViewStatsBucketDto(apps.get(row.appId()), uriNames.get(row.uriId()), row.bucket(), row.hits()))
+                .toList();
+    }
+
+    private List<Visit> findVisits(String period, LocalDateTime start, LocalDateTime end, List<String> uris) {
+        MapSqlParameterSource params = params(start, end);
+        String uriFilter = uriFilter(uris, params);
+        if (uriFilter == null) {
+            return List.of();
+        }
+
+        List<EncodedVisit> rows = jdbcTemplate.query("""
+                SELECT DISTINCT s.app_id, s.uri_id, host(s.ip) AS ip
+                FROM stats s
+                WHERE s.ip IS NOT NULL AND %s%s
+                """.formatted(period, uriFilter), params,
+                (rs, rowNum) -> new EncodedVisit(rs.getInt("app_id"), rs.getInt("uri_id"), rs.getString("ip")));
+
+        Map<Integer, String> apps = appDictionary.names(rows.stream().map(EncodedVisit::appId).distinct().toList());
+        Map<Integer, String> uriNames = uriDictionary.names(rows.stream().map(EncodedVisit::uriId).distinct().toList());
+        return rows.stream()
+                .map(row -> new Visit(apps.get(row.appId()), uriNames.get(row.uriId()), IpAddresses.normalize(row.ip())))
+                .toList();
+    }
+
+    private String countSql(String count, String period, String uriFilter) {
+        return """
+                SELECT s.app_id, s.uri_id, %s AS hits
+                FROM stats s
+                WHERE %s%s
+                GROUP BY s.app_id, s.uri_id
+                ORDER BY hits DESC
+                """.formatted(count, period, uriFilter);
+    }
+
+    private MapSqlParameterSource params(LocalDateTime start, LocalDateTime end) {
+        return new MapSqlParameterSource()
+                .addValue("start", Timestamp.valueOf(start))
+                .addValue("end", Timestamp.valueOf(end));
+    }
+
+    /**
+     * Условие по uri через id из словаря; null, если ни один из запрошенных uri ещё не встречался.
+     */
+    private String uriFilter(List<String> uris, MapSqlParameterSource params) {
+        if (uris == null) {
+            return "";
+        }
+
+        List<Integer> uriIds = List.copyOf(uriDictionary.find(uris).values());
+        if (uriIds.isEmpty()) {
+            return null;
+        }
+        params.addValue("uriIds", uriIds);
+        return " AND s.uri_id IN (:uriIds)";
+    }
+
+    private record HitCount(int appId, int uriId, long hits) {
+    }
+
+    private record BucketCount(int appId, int uriId, LocalDateTime bucket, long hits) {
+    }
+
+    private record BatchCount(int index, int appId, int uriId, long hits) {
+    }
+
+    private record EncodedVisit(int appId, int uriId, String ip) {
+    }
 }
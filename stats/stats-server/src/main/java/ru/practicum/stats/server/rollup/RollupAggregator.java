@@ -0,0 +1,45 @@
+package ru.practicum.stats.server.rollup;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+import ru.practicum.stats.server.dictionary.AppDictionary;
+import ru.practicum.stats.server.dictionary.UriDictionary;
+import ru.practicum.stats.server.ingest.HitAggregator;
+import ru.practicum.stats.server.model.EndpointHit;
+import ru.practicum.stats.server.shard.ConditionalOnLocalStorage;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Инкрементально обновляет поминутные и почасовые счетчики по каждой записанной пачке хитов.
+ */
+@Component
+@RequiredArgsConstructor
+@ConditionalOnLocalStorage
+public class RollupAggregator implements HitAggregator {
+
+    private final RollupRepository rollupRepository;
+    private final AppDictionary appDictionary;
+    private final UriDictionary uriDictionary;
+
+    @Override
+    public void aggregate(List<EndpointHit> hits) {
+        Map<String, Integer> apps = appDictionary.resolve(hits.stream().map(EndpointHit::getApp).distinct().toList());
+        Map<String, Integer> uris = uriDictionary.resolve(hits.stream().map(EndpointHit::getUri).distinct().toList());
+        for (RollupGranularity granularity : RollupGranularity.values()) {
+            Map<RollupRow, Long> counts = new HashMap<>();
+            for (EndpointHit hit : hits) {
+                RollupRow key = new RollupRow(apps.get(hit.getApp()), uris.get(hit.getUri()),
+                        granularity.floor(hit.getCreated()), 0);
+                counts.merge(key, 1L, Long::sum);
+            }
+
+            List<RollupRow> rows = counts.entrySet().stream()
+                    .map(e -> new RollupRow(e.getKey().appId(), e.getKey().uriId(), e.getKey().bucket(), e.getValue()))
+                    .toList();
+            rollupRepository.increment(granularity, rows);
+        }
+    }
+}
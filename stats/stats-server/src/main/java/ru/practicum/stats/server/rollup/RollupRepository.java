@@ -0,0 +1,118 @@
+package ru.practicum.stats.server.rollup;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+import ru.practicum.dto.ViewStatsBucketDto;
+import ru.practicum.dto.ViewStatsDto;
+import ru.practicum.stats.server.dictionary.AppDictionary;
+import ru.practicum.stats.server.dictionary.UriDictionary;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Rollup-таблицы хранят app и uri как id словарей; строки подставляются после агрегации, как в StatsRepository.
+ */
+@Repository
+@RequiredArgsConstructor
+public class RollupRepository {
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+    private final AppDictionary appDictionary;
+    private final UriDictionary uriDictionary;
+
+    public void increment(RollupGranularity granularity, List<RollupRow> rows) {
+        String sql = "INSERT INTO " + granularity.getTable() + " (app_id, uri_id, bucket, hits) "
+                + "VALUES (:appId, :uriId, :bucket, :hits) "
+                + "ON CONFLICT (uri_id, bucket, app_id) DO UPDATE SET hits = " + granularity.getTable() + ".hits + EXCLUDED.hits";
+
+        MapSqlParameterSource[] params = rows.stream()
+                .map(row -> new MapSqlParameterSource()
+                        .addValue("appId", row.appId())
+                        .addValue("uriId", row.uriId())
+                        .addValue("bucket", Timestamp.valueOf(row.bucket()))
+                        .addValue("hits", row.hits()))
+                .toArray(MapSqlParameterSource[]::new);
+        jdbcTemplate.batchUpdate(sql, params);
+    }
+
+    /**
+     * Сумма хитов по бакетам из полуинтервала [from, to).
+     */
+    public List<ViewStatsDto> sumHits(RollupGranularity granularity, LocalDateTime from, LocalDateTime to,
+                                      List<String> uris) {
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("from", Timestamp.valueOf(from))
+                .addValue("to", Timestamp.valueOf(to));
+        String uriFilter = uriFilter(uris, params);
+        if (uriFilter == null) {
+            return List.of();
+        }
+
+        List<HitCount> rows = jdbcTemplate.query("SELECT app_id, uri_id, SUM(hits) AS hits FROM " + granularity.getTable()
+                        + " WHERE bucket >= :from AND bucket < :to" + uriFilter + " GROUP BY app_id, uri_id", params,
+                (rs, rowNum) -> new HitCount(rs.getInt("app_id"), rs.getInt("uri_id"), rs.getLong("hits")));
+
+        Map<Integer, String> apps = appDictionary.names(rows.stream().map(HitCount::appId).distinct().toList());
+        Map<Integer, String> uriNames = uriDictionary.names(rows.stream().map(HitCount::uriId).distinct().toList());
+        return rows.stream()
+                .map(row -> new ViewStatsDto(apps.get(row.appId()), uriNames.get(row.uriId()), row.hits()))
+                .toList();
+    }
+
+    /**
+     * Сумма хитов из полуинтервала [from, to), сгруппированная по бакетам длины interval, выровненным от эпохи.
+     */
+    public List<ViewStatsBucketDto> sumHitsByBucket(RollupGranularity granularity, LocalDateTime from, LocalDateTime to,
+                                                    List<String> uris, Duration interval) {
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("from", Timestamp.valueOf(from))
+                .addValue("to", Timestamp.valueOf(to))
+                .addValue("stride", interval.toSeconds() + " seconds");
+        String uriFilter = uriFilter(uris, params);
+        if (uriFilter == null) {
+            return List.of();
+        }
+
+        List<BucketCount> rows = jdbcTemplate.query("SELECT app_id, uri_id, "
+                        + "date_bin(CAST(:stride AS interval), bucket, TIMESTAMP '1970-01-01') AS time_bucket, "
+                        + "SUM(hits) AS hits FROM " + granularity.getTable()
+                        + " WHERE bucket >= :from AND bucket < :to" + uriFilter
+                        + " GROUP BY app_id, uri_id, time_bucket", params,
+                (rs, rowNum) -> new BucketCount(rs.getInt("app_id"), rs.getInt("uri_id"),
+                        rs.getTimestamp("time_bucket").toLocalDateTime(), rs.getLong("hits")));
+
+        Map<Integer, String> apps = appDictionary.names(rows.stream().map(BucketCount::appId).distinct().toList());
+        Map<Integer, String> uriNames = uriDictionary.names(rows.stream().map(BucketCount::uriId).distinct().toList());
+        return rows.stream()
+                .map(row -> new ViewStatsBucketDto(apps.get(row.appId()), uriNames.get(row.uriId()), row.bucket(), row.hits()))
+                .toList();
+    }
+
+    /**
+     * Условие по uri через id из словаря; null, если ни один из запрошенных uri ещё не встречался.
+     */
+    private String uriFilter(List<String> uris, MapSqlParameterSource params) {
+        if (uris == null) {
+            return "";
+        }
+
+        List<Integer> uriIds = List.copyOf(uriDictionary.find(uris).values());
+        if (uriIds.isEmpty()) {
+            return null;
+        }
+        params.addValue("uriIds", uriIds);
+        return " AND uri_id IN (:uriIds)";
+    }
+
+    private record HitCount(int appId, int uriId, long hits) {
+    }
+
+    private record BucketCount(int appId, int uriId, LocalDateTime bucket, long hits) {
+    }
+}
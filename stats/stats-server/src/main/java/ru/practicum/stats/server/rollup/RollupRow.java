@@ -0,0 +1,6 @@
+package ru.practicum.stats.server.rollup;
+
+import java.time.LocalDateTime;
+
+public record RollupRow(int appId, int uriId, LocalDateTime bucket, long hits) {
+}
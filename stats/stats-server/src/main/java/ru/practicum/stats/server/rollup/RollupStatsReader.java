@@ -0,0 +1,57 @@
+package ru.practicum.stats.server.rollup;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+import ru.practicum.dto.ViewStatsDto;
+import ru.practicum.stats.server.repository.StatsRepository;
+import ru.practicum.stats.server.shard.ConditionalOnLocalStorage;
+import ru.practicum.stats.server.util.ViewStats;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static ru.practicum.stats.server.rollup.RollupGranularity.HOUR;
+import static ru.practicum.stats.server.rollup.RollupGranularity.MINUTE;
+
+/**
+ * Считает неуникальные просмотры за произвольный интервал [start, end]: целые часы и минуты
+ * берутся из rollup-таблиц, а неполные минуты по краям досчитываются по сырой таблице stats.
+ */
+@Component
+@RequiredArgsConstructor
+@ConditionalOnLocalStorage
+public class RollupStatsReader {
+
+    private final RollupRepository rollupRepository;
+    private final StatsRepository statsRepository;
+
+    public List<ViewStatsDto> getHits(LocalDateTime start, LocalDateTime end, List<String> uris) {
+        if (uris != null && uris.isEmpty()) {
+            return List.of();
+        }
+
+        LocalDateTime minuteFrom = MINUTE.ceil(start);
+        LocalDateTime minuteTo = MINUTE.floor(end);
+
+        if (!minuteFrom.isBefore(minuteTo)) {
+            return statsRepository.getAllStats(start, end, uris);
+        }
+
+        List<ViewStatsDto> parts = new ArrayList<>();
+        parts.addAll(statsRepository.getAllStatsBefore(start, minuteFrom, uris));
+
+        LocalDateTime hourFrom = HOUR.ceil(minuteFrom);
+        LocalDateTime hourTo = HOUR.floor(minuteTo);
+        if (hourFrom.isBefore(hourTo)) {
+            parts.addAll(rollupRepository.sumHits(MINUTE, minuteFrom, hourFrom, uris));
+            parts.addAll(rollupRepository.sumHits(HOUR, hourFrom, hourTo, uris));
+            parts.addAll(rollupRepository.sumHits(MINUTE, hourTo, minuteTo, uris));
+        } else {
+            parts.addAll(rollupRepository.sumHits(MINUTE, minuteFrom, minuteTo, uris));
+        }
+
+        parts.addAll(statsRepository.getAllStats(minuteTo, end, uris));
+        return ViewStats.merge(parts);
+    }
+}
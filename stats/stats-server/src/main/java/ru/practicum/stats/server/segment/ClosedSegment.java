@@ -0,0 +1,203 @@
+package ru.practicum.stats.server.segment;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Закрытый сегмент: блоки открытого сегмента, сжатые по отдельности, и индекс блоков
+ * [смещение][длина][число записей][min и max created]. Запрос распаковывает только блоки,
+ * пересекающиеся с интервалом.
+ */
+final class ClosedSegment {
+
+    private static final int INDEX_MAGIC = 0x49445832;
+
+    final long startSecond;
+    private final Path blocksPath;
+    private final long[] offsets;
+    private final int[] lengths;
+    private final int[] counts;
+    private final long[] mins;
+    private final long[] maxs;
+
+    private ClosedSegment(long startSecond, Path blocksPath, int blocks) {
+        this.startSecond = startSecond;
+        this.blocksPath = blocksPath;
+        this.offsets = new long[blocks];
+        this.lengths = new int[blocks];
+        this.counts = new int[blocks];
+        this.mins = new long[blocks];
+        this.maxs = new long[blocks];
+    }
+
+    /**
+     * Сжимает открытый сегмент. Файлы пишутся во временные и переименовываются, индекс последним:
+     * его наличие означает, что закрытие завершено и открытый файл можно удалить.
+     */
+    static ClosedSegment write(OpenSegment segment, Path blocksPath, Path indexPath) {
+        int blocks = segment.blockCount();
+        ClosedSegment closed = new ClosedSegment(segment.startSecond, blocksPath, blocks);
+        Path blocksTmp = tmp(blocksPath);
+        Path indexTmp = tmp(indexPath);
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try (FileChannel out = FileChannel.open(blocksTmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            long offset = 0;
+            for (int block = 0; block < blocks; block++) {
+                byte[] raw = segment.blockBytes(block);
+                byte[] compressed = deflate(deflater, raw);
+                out.write(ByteBuffer.wrap(compressed));
+                closed.offsets[block] = offset;
+                closed.lengths[block] = compressed.length;
+                closed.counts[block] = raw.length / OpenSegment.RECORD_SIZE;
+                closed.mins[block] = segment.blockMin(block);
+                closed.maxs[block] = segment.blockMax(block);
+                offset += compressed.length;
+            }
+            out.force(true);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Не удалось сжать сегмент " + segment.path, e);
+        } finally {
+            deflater.end();
+        }
+
+        ByteArrayOutputStream index = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(index);
+             FileChannel channel = FileChannel.open(indexTmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                     StandardOpenOption.TRUNCATE_EXISTING)) {
+            out.writeInt(INDEX_MAGIC);
+            out.writeInt(blocks);
+            for (int block = 0; block < blocks; block++) {
+                out.writeLong(closed.offsets[block]);
+                out.writeInt(closed.lengths[block]);
+                out.writeInt(closed.counts[block]);
+                out.writeLong(closed.mins[block]);
+                out.writeLong(closed.maxs[block]);
+            }
+            channel.write(ByteBuffer.wrap(index.toByteArray()));
+            channel.force(true);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Не удалось записать индекс сегмента " + indexPath, e);
+        }
+
+        try {
+            Files.move(blocksTmp, blocksPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            Files.move(indexTmp, indexPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Не удалось завершить закрытие сегмента " + segment.path, e);
+        }
+        return closed;
+    }
+
+    static ClosedSegment load(long startSecond, Path blocksPath, Path indexPath) {
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(indexPath))) {
+            if (in.readInt() != INDEX_MAGIC) {
+                throw new IOException("Некорректный индекс сегмента " + indexPath);
+            }
+            ClosedSegment closed = new ClosedSegment(startSecond, blocksPath, in.readInt());
+            for (int block = 0; block < closed.offsets.length; block++) {
+                closed.offsets[block] = in.readLong();
+                closed.lengths[block] = in.readInt();
+                closed.counts[block] = in.readInt();
+                closed.mins[block] = in.readLong();
+                closed.maxs[block] = in.readLong();
+            }
+            return closed;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Максимальный created среди записей сегмента, мкс.
+     */
+    long maxCreated() {
+        long max = Long.MIN_VALUE;
+        for (long blockMax : maxs) {
+            max = Math.max(max, blockMax);
+        }
+        return max;
+    }
+
+    static Path tmp(Path path) {
+        return path.resolveSibling(path.getFileName() + ".tmp");
+    }
+
+    void scan(long fromMicros, long toMicros, RecordVisitor visitor) {
+        Inflater inflater = null;
+        FileChannel channel = null;
+        try {
+            for (int block = 0; block < offsets.length; block++) {
+                if (maxs[block] < fromMicros || mins[block] > toMicros) {
+                    continue;
+                }
+                if (channel == null) {
+                    channel = FileChannel.open(blocksPath, StandardOpenOption.READ);
+                    inflater = new Inflater();
+                }
+
+                ByteBuffer compressed = ByteBuffer.allocate(lengths[block]);
+                while (compressed.hasRemaining()) {
+                    if (channel.read(compressed, offsets[block] + compressed.position()) < 0) {
+                        throw new IOException("Сегмент " + blocksPath + " обрезан");
+                    }
+                }
+                byte[] raw = new byte[counts[block] * OpenSegment.RECORD_SIZE];
+                inflater.reset();
+                inflater.setInput(compressed.array());
+                int read = 0;
+                while (read < raw.length && !inflater.finished()) {
+                    read += inflater.inflate(raw, read, raw.length - read);
+                }
+
+                ByteBuffer records = ByteBuffer.wrap(raw);
+                for (int offset = 0; offset < raw.length; offset += OpenSegment.RECORD_SIZE) {
+                    long created = records.getLong(offset);
+                    if (created >= fromMicros && created <= toMicros) {
+                        visitor.visit(created, records.getInt(offset + 8), records.getInt(offset + 12), records.getInt(offset + 16));
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Поврежден блок сегмента " + blocksPath, e);
+        } finally {
+            if (inflater != null) {
+                inflater.end();
+            }
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                    // только чтение, закрытие без последствий
+                }
+            }
+        }
+    }
+
+    private static byte[] deflate(Deflater deflater, byte[] raw) {
+        deflater.reset();
+        deflater.setInput(raw);
+        deflater.finish();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(raw.length / 2 + 64);
+        byte[] chunk = new byte[8192];
+        while (!deflater.finished()) {
+            int length = deflater.deflate(chunk);
+            out.write(chunk, 0, length);
+        }
+        return out.toByteArray();
+    }
+}
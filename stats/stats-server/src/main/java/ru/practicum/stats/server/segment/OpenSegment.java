@@ -0,0 +1,195 @@
+package ru.practicum.stats.server.segment;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Открытый сегмент: файл фиксированного размера, отображенный в память, с записями фиксированной длины
+ * [long created, мкс][int app][int uri][int ip][int контрольная сумма]. Число записей хранится в заголовке
+ * и обновляется после дописывания пачки, поэтому после падения процесса хвост за этим числом отбрасывается.
+ * Страницы отображения ОС сбрасывает на диск в любом порядке, и после падения системы заголовок может
+ * опередить записи, поэтому при восстановлении записи проверяются по контрольной сумме до первой испорченной.
+ * Пишет один поток, читатели видят записи до опубликованного {@link #count()}.
+ */
+final class OpenSegment {
+
+    static final int MAGIC = 0x53454732;
+    static final int HEADER = 16;
+    static final int RECORD_SIZE = 24;
+    static final int BLOCK_RECORDS = 4096;
+
+    final long startSecond;
+    final Path path;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+    // разреженный индекс: границы времени по блокам из BLOCK_RECORDS записей
+    private final long[] blockMin;
+    private final long[] blockMax;
+    private int pending;
+    private volatile int count;
+    private int discarded;
+
+    private OpenSegment(long startSecond, Path path, int capacity) {
+        this.startSecond = startSecond;
+        this.path = path;
+        this.capacity = capacity;
+        int blocks = (capacity + BLOCK_RECORDS - 1) / BLOCK_RECORDS;
+        this.blockMin = new long[blocks];
+        this.blockMax = new long[blocks];
+        try {
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER + (long) capacity * RECORD_SIZE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Не удалось открыть сегмент " + path, e);
+        }
+    }
+
+    static OpenSegment create(long startSecond, Path path, int capacity) {
+        OpenSegment segment = new OpenSegment(startSecond, path, capacity);
+        segment.buffer.putInt(0, MAGIC);
+        segment.buffer.putLong(8, 0);
+        return segment;
+    }
+
+    /**
+     * Открывает сегмент после перезапуска: берет число записей из заголовка, проверяет записи
+     * и перестраивает индекс. Записи начиная с первой испорченной отбрасываются.
+     */
+    static OpenSegment recover(long startSecond, Path path, int capacity) {
+        OpenSegment segment = new OpenSegment(startSecond, path, capacity);
+        long stored = segment.buffer.getInt(0) == MAGIC ? segment.buffer.getLong(8) : 0;
+        int limit = (int) Math.max(0, Math.min(stored, capacity));
+        int recovered = 0;
+        while (recovered < limit && segment.isValid(recovered)) {
+            segment.index(recovered, segment.buffer.getLong(HEADER + recovered * RECORD_SIZE));
+            recovered++;
+        }
+        segment.discarded = limit - recovered;
+        segment.pending = recovered;
+        segment.commit();
+        return segment;
+    }
+
+    /**
+     * Сколько записей из заголовка не прошли проверку при восстановлении.
+     */
+    int discarded() {
+        return discarded;
+    }
+
+    boolean isFull() {
+        return pending == capacity;
+    }
+
+    int count() {
+        return count;
+    }
+
+    void append(long createdMicros, int appId, int uriId, int ipId) {
+        int offset = HEADER + pending * RECORD_SIZE;
+        buffer.putLong(offset, createdMicros);
+        buffer.putInt(offset + 8, appId);
+        buffer.putInt(offset + 12, uriId);
+        buffer.putInt(offset + 16, ipId);
+        buffer.putInt(offset + 20, checksum(createdMicros, appId, uriId, ipId));
+        index(pending, createdMicros);
+        pending++;
+    }
+
+    /**
+     * Фиксирует дописанные записи в заголовке и делает их видимыми читателям.
+     */
+    void commit() {
+        buffer.putInt(0, MAGIC);
+        buffer.putLong(8, pending);
+        count = pending;
+    }
+
+    void force() {
+        buffer.force();
+    }
+
+    void scan(long fromMicros, long toMicros, RecordVisitor visitor) {
+        int total = count;
+        for (int block = 0; block * BLOCK_RECORDS < total; block++) {
+            if (blockMax[block] < fromMicros || blockMin[block] > toMicros) {
+                continue;
+            }
+            int end = Math.min(total, (block + 1) * BLOCK_RECORDS);
+            for (int i = block * BLOCK_RECORDS; i < end; i++) {
+                int offset = HEADER + i * RECORD_SIZE;
+                long created = buffer.getLong(offset);
+                if (created >= fromMicros && created <= toMicros) {
+                    visitor.visit(created, buffer.getInt(offset + 8), buffer.getInt(offset + 12), buffer.getInt(offset + 16));
+                }
+            }
+        }
+    }
+
+    /**
+     * Копия записей блока в сыром виде, для сжатия при закрытии.
+     */
+    byte[] blockBytes(int block) {
+        int from = block * BLOCK_RECORDS;
+        int records = Math.min(count, from + BLOCK_RECORDS) - from;
+        byte[] bytes = new byte[records * RECORD_SIZE];
+        buffer.get(HEADER + from * RECORD_SIZE, bytes);
+        return bytes;
+    }
+
+    int blockCount() {
+        return (count + BLOCK_RECORDS - 1) / BLOCK_RECORDS;
+    }
+
+    long blockMin(int block) {
+        return blockMin[block];
+    }
+
+    long blockMax(int block) {
+        return blockMax[block];
+    }
+
+    void close() {
+        buffer.force();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private boolean isValid(int record) {
+        int offset = HEADER + record * RECORD_SIZE;
+        return buffer.getInt(offset + 20) == checksum(buffer.getLong(offset), buffer.getInt(offset + 8),
+                buffer.getInt(offset + 12), buffer.getInt(offset + 16));
+    }
+
+    /**
+     * Перемешивание полей записи с ненулевой константой: незаписанная (нулевая) страница проверку не проходит.
+     */
+    private static int checksum(long createdMicros, int appId, int uriId, int ipId) {
+        int hash = MAGIC;
+        hash = hash * 0x9E3779B1 + (int) createdMicros;
+        hash = hash * 0x9E3779B1 + (int) (createdMicros >>> 32);
+        hash = hash * 0x9E3779B1 + appId;
+        hash = hash * 0x9E3779B1 + uriId;
+        hash = hash * 0x9E3779B1 + ipId;
+        return hash ^ (hash >>> 15);
+    }
+
+    private void index(int record, long createdMicros) {
+        int block = record / BLOCK_RECORDS;
+        if (record % BLOCK_RECORDS == 0) {
+            blockMin[block] = createdMicros;
+            blockMax[block] = createdMicros;
+        } else {
+            blockMin[block] = Math.min(blockMin[block], createdMicros);
+            blockMax[block] = Math.max(blockMax[block], createdMicros);
+        }
+    }
+}
@@ -0,0 +1,10 @@
+package ru.practicum.stats.server.segment;
+
+/**
+ * Получает записи хитов при сканировании сегментов, без объекта на запись.
+ */
+@FunctionalInterface
+public interface RecordVisitor {
+
+    void visit(long createdMicros, int appId, int uriId, int ipId);
+}
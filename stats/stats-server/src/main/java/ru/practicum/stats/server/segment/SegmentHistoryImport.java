@@ -0,0 +1,128 @@
+package ru.practicum.stats.server.segment;
+
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Component;
+import ru.practicum.stats.server.shard.ConditionalOnLocalStorage;
+import ru.practicum.stats.server.sketch.IpDictionary;
+import ru.practicum.stats.server.util.IpAddresses;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Перенос истории из таблицы stats в сегменты при первом старте движка segment, до приема хитов.
+ * Пока перенос идет, в каталоге лежит маркер {@value #MARKER} со статусом importing: если процесс упал,
+ * при следующем старте сегменты удаляются и перенос начинается заново, так каждый хит переносится один раз.
+ * Хиты, уже перенесенные в архив (stats.archive), не переносятся.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "stats.engine", havingValue = "segment")
+@ConditionalOnLocalStorage
+public class SegmentHistoryImport {
+
+    static final String MARKER = "history-import";
+    private static final String IMPORTING = "importing";
+    private static final String DONE = "done";
+
+    private final SegmentStore store;
+    private final JdbcTemplate jdbcTemplate;
+    private final IpDictionary ipDictionary;
+    private final boolean enabled;
+    private final int chunkSize;
+
+    public SegmentHistoryImport(SegmentStore store,
+                                JdbcTemplate jdbcTemplate,
+                                IpDictionary ipDictionary,
+                                @Value("${stats.segment.import-history:true}") boolean enabled,
+                                @Value("${stats.segment.import-chunk-size:100000}") int chunkSize) {
+        this.store = store;
+        this.jdbcTemplate = jdbcTemplate;
+        this.ipDictionary = ipDictionary;
+        this.enabled = enabled;
+        this.chunkSize = chunkSize;
+    }
+
+    @PostConstruct
+    public void importHistory() throws IOException {
+        Path marker = store.dir().resolve(MARKER);
+        String status = Files.exists(marker) ? Files.readString(marker).trim() : null;
+        if (DONE.equals(status) || !enabled) {
+            return;
+        }
+        if (status == null && !store.isEmpty()) {
+            // сегменты появились до переноса истории, повторять его поверх них нельзя
+            log.warn("В каталоге сегментов {} уже есть данные, история из stats не переносится", store.dir());
+            Files.writeString(marker, DONE);
+            return;
+        }
+        if (IMPORTING.equals(status)) {
+            log.warn("Перенос истории в сегменты был прерван, сегменты удаляются и перенос начинается заново");
+            store.clear();
+        }
+
+        Files.writeString(marker, IMPORTING);
+        Long maxId = jdbcTemplate.queryForObject("SELECT MAX(id) FROM stats", Long.class);
+        long total = 0;
+        long afterId = 0;
+        while (maxId != null && afterId < maxId) {
+            long[] last = {maxId};
+            int count = importChunk(afterId, maxId, last);
+            total += count;
+            afterId = count == chunkSize ? last[0] : maxId;
+        }
+        Files.writeString(marker, DONE);
+        log.info("В сегменты перенесено {} хитов из таблицы stats", total);
+    }
+
+    private int importChunk(long afterId, long maxId, long[] lastId) {
+        long[] created = new long[chunkSize];
+        int[] apps = new int[chunkSize];
+        int[] uris = new int[chunkSize];
+        int[] ips = new int[chunkSize];
+        List<Integer> unresolvedRows = new ArrayList<>();
+        List<String> unresolvedIps = new ArrayList<>();
+        int[] count = {0};
+
+        jdbcTemplate.query("""
+                        SELECT s.id, s.app_id, s.uri_id, i.id AS ip_id, host(s.ip) AS ip, s.created
+                        FROM stats s
+                        LEFT JOIN stats_ip i ON i.ip = s.ip
+                        WHERE s.id > ? AND s.id <= ? AND s.ip IS NOT NULL
+                        ORDER BY s.id
+                        LIMIT ?
+                        """, (RowCallbackHandler) rs -> {
+                    int row = count[0]++;
+                    created[row] = SegmentStore.toMicros(rs.getTimestamp("created").toLocalDateTime());
+                    apps[row] = rs.getInt("app_id");
+                    uris[row] = rs.getInt("uri_id");
+                    int ipId = rs.getInt("ip_id");
+                    if (rs.wasNull()) {
+                        unresolvedRows.add(row);
+                        unresolvedIps.add(IpAddresses.normalize(rs.getString("ip")));
+                    } else {
+                        ips[row] = ipId;
+                    }
+                    lastId[0] = rs.getLong("id");
+                },
+                afterId, maxId, chunkSize);
+
+        if (!unresolvedRows.isEmpty()) {
+            Map<String, Integer> ipIds = ipDictionary.resolve(unresolvedIps.stream().distinct().toList());
+            for (int i = 0; i < unresolvedRows.size(); i++) {
+                ips[unresolvedRows.get(i)] = ipIds.get(unresolvedIps.get(i));
+            }
+        }
+        store.appendRecords(created, apps, uris, ips, count[0]);
+        return count[0];
+    }
+}
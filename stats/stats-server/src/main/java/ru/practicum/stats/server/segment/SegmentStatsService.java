@@ -0,0 +1,248 @@
+package ru.practicum.stats.server.segment;
+
+import org.roaringbitmap.RoaringBitmap;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Primary;
+import org.springframework.stereotype.Service;
+import ru.practicum.dto.EndpointHitDto;
+import ru.practicum.dto.StatsQueryDto;
+import ru.practicum.dto.ViewStatsBucketDto;
+import ru.practicum.dto.ViewStatsDto;
+import ru.practicum.stats.server.dictionary.AppDictionary;
+import ru.practicum.stats.server.dictionary.UriDictionary;
+import ru.practicum.stats.server.error.BadRequestException;
+import ru.practicum.stats.server.mapper.StatsMapper;
+import ru.practicum.stats.server.model.EndpointHit;
+import ru.practicum.stats.server.service.StatsService;
+import ru.practicum.stats.server.service.param.GetStatsParam;
+import ru.practicum.stats.server.service.param.GetTimeSeriesParam;
+import ru.practicum.stats.server.realtime.SingleInstanceGuard;
+import ru.practicum.stats.server.shard.ConditionalOnLocalStorage;
+import ru.practicum.stats.server.trending.TrendingHits;
+import ru.practicum.stats.server.util.ViewStats;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Статистика поверх {@link SegmentStore}: хиты пишутся в файлы сегментов, а не в таблицу stats,
+ * запросы считаются сканированием сегментов за нужный интервал. Подсчет всегда точный.
+ */
+@Service
+@Primary
+@ConditionalOnProperty(name = "stats.engine", havingValue = "segment")
+@ConditionalOnLocalStorage
+public class SegmentStatsService implements StatsService {
+
+    private static final LocalDateTime EPOCH = LocalDateTime.of(1970, 1, 1, 0, 0);
+
+    private final SegmentStore segmentStore;
+    private final StatsMapper statsMapper;
+    private final AppDictionary appDictionary;
+    private final UriDictionary uriDictionary;
+    private final TrendingHits trendingHits;
+    private final SingleInstanceGuard singleInstance;
+    private final int maxBatch;
+    private final long maxBuckets;
+
+    public SegmentStatsService(SegmentStore segmentStore,
+                               StatsMapper statsMapper,
+                               AppDictionary appDictionary,
+                               UriDictionary uriDictionary,
+                               TrendingHits trendingHits,
+                               SingleInstanceGuard singleInstance,
+                               @Value("${stats.query.max-batch:1000}") int maxBatch,
+                               @Value("${stats.timeseries.max-buckets:10000}") long maxBuckets) {
+        this.segmentStore = segmentStore;
+        this.statsMapper = statsMapper;
+        this.appDictionary = appDictionary;
+        this.uriDictionary = uriDictionary;
+        this.trendingHits = trendingHits;
+        this.singleInstance = singleInstance;
+        this.maxBatch = maxBatch;
+        this.maxBuckets = maxBuckets;
+    }
+
+    @Override
+    public void saveHit(EndpointHitDto hitDto) {
+        saveHits(List.of(hitDto));
+    }
+
+    @Override
+    public void saveHits(List<EndpointHitDto> hitDtos) {
+        List<EndpointHit> hits = statsMapper.mapToModel(hitDtos);
+        segmentStore.append(hits);
+        hits.forEach(trendingHits::record);
+    }
+
+    @Override
+    public List<ViewStatsDto> getStats(GetStatsParam param) {
+        return count(param.getStart(), param.getEnd(), param.getUris(), param.isUnique());
+    }
+
+    @Override
+    public void streamStats(GetStatsParam param, Consumer<ViewStatsDto> consumer) {
+        getStats(param).forEach(consumer);
+    }
+
+    @Override
+    public List<ViewStatsDto> getTop(String window, int limit) {
+        if (limit <= 0) {
+            throw new BadRequestException("limit должен быть больше 0");
+        }
+        Duration duration = trendingHits.parseWindow(window);
+        if (!singleInstance.isSingle()) {
+            return count(trendingHits.windowStart(duration), LocalDateTime.now(), null, false).stream()
+                    .limit(limit)
+                    .toList();
+        }
+        return trendingHits.getTop(duration, limit);
+    }
+
+    @Override
+    public List<ViewStatsBucketDto> getTimeSeries(GetTimeSeriesParam param) {
+        Duration interval = param.getInterval();
+        if (interval.toSeconds() % 60 != 0) {
+            throw new BadRequestException("interval должен быть кратен минуте");
+        }
+        if (Duration.between(param.getStart(), param.getEnd()).dividedBy(interval) >= maxBuckets) {
+            throw new BadRequestException("Слишком много бакетов, максимум " + maxBuckets);
+        }
+        BitSet uriFilter = uriFilter(param.getUris());
+        if (uriFilter != null && uriFilter.isEmpty()) {
+            return List.of();
+        }
+
+        // бакеты выровнены от эпохи, как date_bin в основном движке
+        long intervalMicros = interval.toSeconds() * 1_000_000;
+        Map<BucketKey, Counter> counters = new HashMap<>();
+        segmentStore.scan(param.getStart(), param.getEnd(), (created, app, uri, ip) -> {
+            if (uriFilter == null || uriFilter.get(uri)) {
+                long bucket = Math.floorDiv(created, intervalMicros) * intervalMicros;
+                counters.computeIfAbsent(new BucketKey(app, uri, bucket), k -> new Counter()).add(ip, param.isUnique());
+            }
+        });
+
+        Map<Integer, String> apps = appDictionary.names(counters.keySet().stream().map(BucketKey::app).distinct().toList());
+        Map<Integer, String> uris = uriDictionary.names(counters.keySet().stream().map(BucketKey::uri).distinct().toList());
+        return counters.entrySet().stream()
+                .map(e -> new ViewStatsBucketDto(apps.get(e.getKey().app()), uris.get(e.getKey().uri()),
+                        LocalDateTime.ofEpochSecond(Math.floorDiv(e.getKey().bucket(), 1_000_000), 0, ZoneOffset.UTC),
+                        e.getValue().hits(param.isUnique())))
+                .sorted(Comparator.comparing(ViewStatsBucketDto::getUri)
+                        .thenComparing(ViewStatsBucketDto::getApp)
+                        .thenComparing(ViewStatsBucketDto::getBucket))
+                .toList();
+    }
+
+    @Override
+    public List<List<ViewStatsDto>> queryStats(List<StatsQueryDto> queries) {
+        if (queries.size() > maxBatch) {
+            throw new BadRequestException("В пакете не может быть больше " + maxBatch + " запросов");
+        }
+        for (StatsQueryDto query : queries) {
+            if (query.getStart() == null || query.getEnd() == null) {
+                throw new BadRequestException("Поля start и end не могут быть пустыми");
+            }
+            if (query.getEnd().isBefore(query.getStart())) {
+                throw new BadRequestException("end < start");
+            }
+        }
+
+        return queries.stream()
+                .map(query -> count(query.getStart(), query.getEnd(), query.getUris(), query.isUnique()))
+                .toList();
+    }
+
+    @Override
+    public Map<Long, Long> getEventViews(List<Long> eventIds, boolean unique) {
+        if (eventIds.size() > maxBatch) {
+            throw new BadRequestException("В пакете не может быть больше " + maxBatch + " событий");
+        }
+
+        Map<Long, Long> views = new LinkedHashMap<>();
+        eventIds.forEach(eventId -> views.put(eventId, 0L));
+        Map<String, Long> eventIdByUri = uriDictionary.findEventUris(views.keySet());
+        if (eventIdByUri.isEmpty()) {
+            return views;
+        }
+
+        // счетчики ведутся по событию, а не по uri: уникальные ip всех uri события объединяются
+        Map<Integer, Long> eventIdByUriId = new HashMap<>();
+        uriDictionary.find(eventIdByUri.keySet()).forEach((uri, uriId) -> eventIdByUriId.put(uriId, eventIdByUri.get(uri)));
+        Map<Long, Counter> counters = new HashMap<>();
+        segmentStore.scan(EPOCH, LocalDateTime.now().plusMinutes(1), (created, app, uri, ip) -> {
+            Long eventId = eventIdByUriId.get(uri);
+            if (eventId != null) {
+                counters.computeIfAbsent(eventId, k -> new Counter()).add(ip, unique);
+            }
+        });
+        counters.forEach((eventId, counter) -> views.put(eventId, counter.hits(unique)));
+        return views;
+    }
+
+    private List<ViewStatsDto> count(LocalDateTime start, LocalDateTime end, List<String> uris, boolean unique) {
+        BitSet uriFilter = uriFilter(uris);
+        if (uriFilter != null && uriFilter.isEmpty()) {
+            return List.of();
+        }
+
+        Map<Long, Counter> counters = new HashMap<>();
+        segmentStore.scan(start, end, (created, app, uri, ip) -> {
+            if (uriFilter == null || uriFilter.get(uri)) {
+                counters.computeIfAbsent((long) app << 32 | uri, k -> new Counter()).add(ip, unique);
+            }
+        });
+
+        Map<Integer, String> apps = appDictionary.names(counters.keySet().stream().map(key -> (int) (key >>> 32)).distinct().toList());
+        Map<Integer, String> uriNames = uriDictionary.names(counters.keySet().stream().map(Long::intValue).distinct().toList());
+        return ViewStats.merge(counters.entrySet().stream()
+                .map(e -> new ViewStatsDto(apps.get((int) (e.getKey() >>> 32)), uriNames.get(e.getKey().intValue()),
+                        e.getValue().hits(unique)))
+                .toList());
+    }
+
+    /**
+     * null - без фильтра; пустой набор - ни один из uri еще не встречался.
+     */
+    private BitSet uriFilter(List<String> uris) {
+        if (uris == null) {
+            return null;
+        }
+        BitSet filter = new BitSet();
+        uriDictionary.find(uris).values().forEach(filter::set);
+        return filter;
+    }
+
+    private record BucketKey(int app, int uri, long bucket) {
+    }
+
+    private static final class Counter {
+        private long hits;
+        private RoaringBitmap visitors;
+
+        void add(int ip, boolean unique) {
+            if (!unique) {
+                hits++;
+                return;
+            }
+            if (visitors == null) {
+                visitors = new RoaringBitmap();
+            }
+            visitors.add(ip);
+        }
+
+        long hits(boolean unique) {
+            return unique ? visitors.getLongCardinality() : hits;
+        }
+    }
+}
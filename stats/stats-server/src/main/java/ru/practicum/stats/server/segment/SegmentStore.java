@@ -0,0 +1,347 @@
+package ru.practicum.stats.server.segment;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import ru.practicum.stats.server.dictionary.AppDictionary;
+import ru.practicum.stats.server.dictionary.UriDictionary;
+import ru.practicum.stats.server.model.EndpointHit;
+import ru.practicum.stats.server.shard.ConditionalOnLocalStorage;
+import ru.practicum.stats.server.sketch.IpDictionary;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Лог-структурированное хранилище хитов в файлах сегментов вместо таблицы stats. Хиты дописываются
+ * в открытый сегмент, который закрывается по времени или заполнению и сжимается поблочно.
+ * Словари app, uri и ip остаются в Postgres.
+ * <p>
+ * Запись попадает на диск через отображение в память, fsync выполняется раз в force-interval-ms.
+ * После перезапуска открытый сегмент восстанавливается по числу записей в заголовке с проверкой
+ * контрольных сумм, а недожатые сегменты сжимаются заново. Закрытые сегменты, все записи которых
+ * старше retention-days, удаляются. Историю из таблицы stats при первом старте переносит {@link SegmentHistoryImport}.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "stats.engine", havingValue = "segment")
+@ConditionalOnLocalStorage
+public class SegmentStore {
+
+    private static final Pattern FILE_NAME = Pattern.compile("hits-(\\d+)\\.(seg|blk|idx)");
+
+    private final AppDictionary appDictionary;
+    private final UriDictionary uriDictionary;
+    private final IpDictionary ipDictionary;
+    private final Path dir;
+    private final long rollSeconds;
+    private final int maxRecords;
+    private final int retentionDays;
+    private final Object writeLock = new Object();
+    private long lastStart;
+
+    /**
+     * Набор сегментов меняется целиком, чтобы читатель не увидел сегмент одновременно
+     * открытым и уже сжатым.
+     */
+    private volatile Segments segments = new Segments(List.of(), List.of(), null);
+
+    public SegmentStore(AppDictionary appDictionary,
+                        UriDictionary uriDictionary,
+                        IpDictionary ipDictionary,
+                        @Value("${stats.segment.dir:${java.io.tmpdir}/stats-segments}") String dir,
+                        @Value("${stats.segment.roll-minutes:60}") long rollMinutes,
+                        @Value("${stats.segment.max-records:1048576}") int maxRecords,
+                        @Value("${stats.segment.retention-days:${stats.partition.retention-days:0}}") int retentionDays) {
+        this.appDictionary = appDictionary;
+        this.uriDictionary = uriDictionary;
+        this.ipDictionary = ipDictionary;
+        this.dir = Path.of(dir);
+        this.rollSeconds = rollMinutes * 60;
+        this.maxRecords = maxRecords;
+        this.retentionDays = retentionDays;
+    }
+
+    @PostConstruct
+    public void recover() throws IOException {
+        Files.createDirectories(dir);
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path tmp : files.filter(path -> path.getFileName().toString().endsWith(".tmp")).toList()) {
+                Files.delete(tmp);
+            }
+        }
+
+        TreeMap<Long, List<String>> byStart = new TreeMap<>();
+        try (Stream<Path> files = Files.list(dir)) {
+            files.forEach(path -> {
+                Matcher matcher = FILE_NAME.matcher(path.getFileName().toString());
+                if (matcher.matches()) {
+                    byStart.computeIfAbsent(Long.parseLong(matcher.group(1)), k -> new ArrayList<>()).add(matcher.group(2));
+                }
+            });
+        }
+
+        lastStart = byStart.isEmpty() ? 0 : byStart.lastKey();
+        List<ClosedSegment> closed = new ArrayList<>();
+        List<OpenSegment> open = new ArrayList<>();
+        for (Map.Entry<Long, List<String>> entry : byStart.entrySet()) {
+            long start = entry.getKey();
+            if (entry.getValue().contains("idx")) {
+                // сжатие завершилось, открытый файл мог остаться, если процесс упал до его удаления
+                Files.deleteIfExists(path(start, "seg"));
+                closed.add(ClosedSegment.load(start, path(start, "blk"), path(start, "idx")));
+            } else if (entry.getValue().contains("seg")) {
+                Files.deleteIfExists(path(start, "blk"));
+                OpenSegment segment = OpenSegment.recover(start, path(start, "seg"), maxRecords);
+                if (segment.discarded() > 0) {
+                    log.warn("Сегмент {}: {} записей после сбоя не прошли проверку и отброшены",
+                            segment.path, segment.discarded());
+                }
+                open.add(segment);
+            } else {
+                // удаление по сроку хранения прервалось между индексом и блоками
+                Files.deleteIfExists(path(start, "blk"));
+            }
+        }
+
+        OpenSegment tail = null;
+        if (!open.isEmpty() && !isExpired(open.getLast(), nowSecond()) && !open.getLast().isFull()) {
+            tail = open.removeLast();
+        }
+        segments = new Segments(List.copyOf(closed), List.copyOf(open), tail);
+        log.info("Хранилище сегментов {}: закрытых {}, к сжатию {}, открытый {}",
+                dir, closed.size(), open.size(), tail == null ? "нет" : tail.path);
+        compactSealed();
+    }
+
+    public void append(List<EndpointHit> hits) {
+        Map<String, Integer> apps = appDictionary.resolve(hits.stream().map(EndpointHit::getApp).distinct().toList());
+        Map<String, Integer> uris = uriDictionary.resolve(hits.stream().map(EndpointHit::getUri).distinct().toList());
+        Map<String, Integer> ips = ipDictionary.resolve(hits.stream().map(EndpointHit::getIp).distinct().toList());
+
+        synchronized (writeLock) {
+            OpenSegment tail = currentTail();
+            for (EndpointHit hit : hits) {
+                if (tail.isFull()) {
+                    tail.commit();
+                    tail = roll();
+                }
+                tail.append(toMicros(hit.getCreated()), apps.get(hit.getApp()), uris.get(hit.getUri()), ips.get(hit.getIp()));
+            }
+            tail.commit();
+        }
+    }
+
+    /**
+     * Дописывает записи с уже разрешенными id словарей, для переноса истории.
+     */
+    void appendRecords(long[] createdMicros, int[] apps, int[] uris, int[] ips, int count) {
+        synchronized (writeLock) {
+            OpenSegment tail = currentTail();
+            for (int i = 0; i < count; i++) {
+                if (tail.isFull()) {
+                    tail.commit();
+                    tail = roll();
+                }
+                tail.append(createdMicros[i], apps[i], uris[i], ips[i]);
+            }
+            tail.commit();
+            tail.force();
+        }
+    }
+
+    /**
+     * Удаляет все сегменты. Нужен только перед повтором прерванного переноса истории, пока хиты не принимаются.
+     */
+    void clear() throws IOException {
+        synchronized (writeLock) {
+            Segments current = segments;
+            if (current.tail() != null) {
+                current.tail().close();
+            }
+            for (OpenSegment segment : current.sealed()) {
+                segment.close();
+            }
+            segments = new Segments(List.of(), List.of(), null);
+        }
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path path : files.filter(path -> FILE_NAME.matcher(path.getFileName().toString()).matches()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    boolean isEmpty() {
+        Segments snapshot = segments;
+        return snapshot.closed().isEmpty() && snapshot.sealed().isEmpty()
+                && (snapshot.tail() == null || snapshot.tail().count() == 0);
+    }
+
+    Path dir() {
+        return dir;
+    }
+
+    /**
+     * Передает в visitor все записи с created в [start, end].
+     */
+    public void scan(LocalDateTime start, LocalDateTime end, RecordVisitor visitor) {
+        long from = toMicros(start);
+        long to = toMicros(end);
+        Segments snapshot = segments;
+        snapshot.closed().forEach(segment -> segment.scan(from, to, visitor));
+        snapshot.sealed().forEach(segment -> segment.scan(from, to, visitor));
+        if (snapshot.tail() != null) {
+            snapshot.tail().scan(from, to, visitor);
+        }
+    }
+
+    /**
+     * Сбрасывает открытый сегмент на диск, закрывает его по истечении времени и сжимает закрытые.
+     */
+    @Scheduled(fixedDelayString = "${stats.segment.force-interval-ms:1000}")
+    public void maintain() {
+        synchronized (writeLock) {
+            OpenSegment tail = segments.tail();
+            if (tail != null) {
+                tail.force();
+                if (isExpired(tail, nowSecond())) {
+                    seal();
+                }
+            }
+        }
+        compactSealed();
+        dropExpired();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        synchronized (writeLock) {
+            if (segments.tail() != null) {
+                segments.tail().close();
+            }
+        }
+    }
+
+    private OpenSegment currentTail() {
+        OpenSegment tail = segments.tail();
+        if (tail == null || isExpired(tail, nowSecond())) {
+            tail = roll();
+        }
+        return tail;
+    }
+
+    private OpenSegment roll() {
+        seal();
+        // имя файла должно быть уникальным, даже если сегмент заполнился быстрее секунды
+        long start = Math.max(nowSecond(), lastStart + 1);
+        lastStart = start;
+        OpenSegment tail = OpenSegment.create(start, path(start, "seg"), maxRecords);
+        Segments current = segments;
+        segments = new Segments(current.closed(), current.sealed(), tail);
+        return tail;
+    }
+
+    private void seal() {
+        Segments current = segments;
+        if (current.tail() == null) {
+            return;
+        }
+        current.tail().force();
+        List<OpenSegment> sealed = new ArrayList<>(current.sealed());
+        sealed.add(current.tail());
+        segments = new Segments(current.closed(), List.copyOf(sealed), null);
+    }
+
+    /**
+     * Сжатие идет вне блокировки записи: пока оно не закончено, сегмент читается как открытый.
+     */
+    private synchronized void compactSealed() {
+        for (OpenSegment segment : segments.sealed()) {
+            ClosedSegment closed = ClosedSegment.write(segment, path(segment.startSecond, "blk"), path(segment.startSecond, "idx"));
+            synchronized (writeLock) {
+                Segments current = segments;
+                List<ClosedSegment> allClosed = new ArrayList<>(current.closed());
+                allClosed.add(closed);
+                List<OpenSegment> sealed = new ArrayList<>(current.sealed());
+                sealed.remove(segment);
+                segments = new Segments(List.copyOf(allClosed), List.copyOf(sealed), current.tail());
+            }
+            segment.close();
+            try {
+                Files.deleteIfExists(segment.path);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            log.info("Сегмент {} закрыт и сжат: {} записей", segment.path, segment.count());
+        }
+    }
+
+    /**
+     * Удаляет закрытые сегменты, в которых нет записей новее retention-days. Индекс удаляется первым:
+     * без него оставшийся файл блоков при восстановлении считается мусором.
+     */
+    private synchronized void dropExpired() {
+        if (retentionDays <= 0) {
+            return;
+        }
+        long cutoff = toMicros(LocalDateTime.now().minusDays(retentionDays));
+        List<ClosedSegment> expired;
+        synchronized (writeLock) {
+            Segments current = segments;
+            expired = current.closed().stream()
+                    .filter(segment -> segment.maxCreated() < cutoff)
+                    .toList();
+            if (expired.isEmpty()) {
+                return;
+            }
+            List<ClosedSegment> kept = new ArrayList<>(current.closed());
+            kept.removeAll(expired);
+            segments = new Segments(List.copyOf(kept), current.sealed(), current.tail());
+        }
+        for (ClosedSegment segment : expired) {
+            try {
+                Files.deleteIfExists(path(segment.startSecond, "idx"));
+                Files.deleteIfExists(path(segment.startSecond, "blk"));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            log.info("Сегмент hits-{} удален по сроку хранения {} дней", segment.startSecond, retentionDays);
+        }
+    }
+
+    private boolean isExpired(OpenSegment segment, long nowSecond) {
+        return nowSecond - segment.startSecond >= rollSeconds;
+    }
+
+    private Path path(long startSecond, String extension) {
+        return dir.resolve("hits-" + startSecond + "." + extension);
+    }
+
+    private static long nowSecond() {
+        return Instant.now().getEpochSecond();
+    }
+
+    static long toMicros(LocalDateTime dateTime) {
+        return ChronoUnit.MICROS.between(LocalDateTime.ofEpochSecond(0, 0, ZoneOffset.UTC), dateTime);
+    }
+
+    private record Segments(List<ClosedSegment> closed, List<OpenSegment> sealed, OpenSegment tail) {
+    }
+}
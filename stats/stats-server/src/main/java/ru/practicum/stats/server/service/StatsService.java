@@ -1,15 +1,39 @@
 package ru.practicum.stats.server.service;
 
 import ru.practicum.dto.EndpointHitDto;
+import ru.practicum.dto.StatsQueryDto;
+import ru.practicum.dto.ViewStatsBucketDto;
 import ru.practicum.dto.ViewStatsDto;
+import ru.practicum.stats.server.service.param.GetStatsParam;
+import ru.practicum.stats.server.service.param.GetTimeSeriesParam;
 
-import java.time.LocalDateTime;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
 
 public interface StatsService {
 
     void saveHit(EndpointHitDto hitDto);
 
-    List<ViewStatsDto> getStats(LocalDateTime start, LocalDateTime end,
-                                List<String> uris, Boolean unique);
+    void saveHits(List<EndpointHitDto> hitDtos);
+
+    List<ViewStatsDto> getStats(GetStatsParam param);
+
+    /**
+     * Передает строки статистики в consumer по мере чтения из БД, по убыванию hits. Всегда точный подсчет:
+     * по сырой таблице, а если интервал заходит в архив - вместе с архивом, как GET /stats.
+     */
+    void streamStats(GetStatsParam param, Consumer<ViewStatsDto> consumer);
+
+    List<ViewStatsDto> getTop(String window, int limit);
+
+    List<ViewStatsBucketDto> getTimeSeries(GetTimeSeriesParam param);
+
+    List<List<ViewStatsDto>> queryStats(List<StatsQueryDto> queries);
+
+    /**
+     * Просмотры событий за всю историю по id события; для событий без хитов возвращается 0.
+     * Учитываются все uri события: при unique посетитель, открывший событие по двум разным uri, считается один раз.
+     */
+    Map<Long, Long> getEventViews(List<Long> eventIds, boolean unique);
 }
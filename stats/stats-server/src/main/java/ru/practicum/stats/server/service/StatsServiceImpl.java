@@ -1,38 +1,332 @@
 package ru.practicum.stats.server.service;
 
-import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 import ru.practicum.dto.EndpointHitDto;
+import ru.practicum.dto.StatsQueryDto;
+import ru.practicum.dto.ViewStatsBucketDto;
 import ru.practicum.dto.ViewStatsDto;
+import ru.practicum.stats.server.archive.HitArchive;
+import ru.practicum.stats.server.error.BadRequestException;
+import ru.practicum.stats.server.cache.StatsResultCache;
+import ru.practicum.stats.server.dictionary.UriDictionary;
+import ru.practicum.stats.server.ingest.HitBuffer;
 import ru.practicum.stats.server.mapper.StatsMapper;
 import ru.practicum.stats.server.model.EndpointHit;
+import ru.practicum.stats.server.model.Visit;
+import ru.practicum.stats.server.realtime.RecentHits;
+import ru.practicum.stats.server.realtime.SingleInstanceGuard;
 import ru.practicum.stats.server.repository.StatsRepository;
+import ru.practicum.stats.server.rollup.RollupStatsReader;
+import ru.practicum.stats.server.service.param.GetStatsParam;
+import ru.practicum.stats.server.service.param.GetTimeSeriesParam;
+import ru.practicum.stats.server.shard.ConditionalOnLocalStorage;
+import ru.practicum.stats.server.sketch.BitmapStatsReader;
+import ru.practicum.stats.server.sketch.HllStatsReader;
+import ru.practicum.stats.server.timeseries.TimeSeriesReader;
+import ru.practicum.stats.server.trending.TrendingHits;
+import ru.practicum.stats.server.util.ViewStats;
 
+import java.time.Duration;
 import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
+/**
+ * Кэш результатов /stats проверяется вне транзакции: попадание в кэш не занимает соединение с БД,
+ * read-only транзакция открывается только на подсчет при промахе.
+ */
 @Service
-@Transactional(readOnly = true)
-@RequiredArgsConstructor
+@ConditionalOnLocalStorage
 public class StatsServiceImpl implements StatsService {
 
+    private static final LocalDateTime EPOCH = LocalDateTime.of(1970, 1, 1, 0, 0);
+
     private final StatsMapper statsMapper;
     private final StatsRepository statsRepository;
+    private final HitBuffer hitBuffer;
+    private final RollupStatsReader rollupStatsReader;
+    private final HllStatsReader hllStatsReader;
+    private final BitmapStatsReader bitmapStatsReader;
+    private final StatsResultCache resultCache;
+    private final RecentHits recentHits;
+    private final TrendingHits trendingHits;
+    private final SingleInstanceGuard singleInstance;
+    private final TimeSeriesReader timeSeriesReader;
+    private final UriDictionary uriDictionary;
+    private final HitArchive hitArchive;
+    private final TransactionTemplate readOnlyTransaction;
+    private final int maxBatch;
+
+    public StatsServiceImpl(StatsMapper statsMapper,
+                            StatsRepository statsRepository,
+                            HitBuffer hitBuffer,
+                            RollupStatsReader rollupStatsReader,
+                            HllStatsReader hllStatsReader,
+                            BitmapStatsReader bitmapStatsReader,
+                            StatsResultCache resultCache,
+                            RecentHits recentHits,
+                            TrendingHits trendingHits,
+                            SingleInstanceGuard singleInstance,
+                            TimeSeriesReader timeSeriesReader,
+                            UriDictionary uriDictionary,
+                            HitArchive hitArchive,
+                            PlatformTransactionManager transactionManager,
+                            @Value("${stats.query.max-batch:1000}") int maxBatch) {
+        this.statsMapper = statsMapper;
+        this.statsRepository = statsRepository;
+        this.hitBuffer = hitBuffer;
+        this.rollupStatsReader = rollupStatsReader;
+        this.hllStatsReader = hllStatsReader;
+        this.bitmapStatsReader = bitmapStatsReader;
+        this.resultCache = resultCache;
+        this.recentHits = recentHits;
+        this.trendingHits = trendingHits;
+        this.singleInstance = singleInstance;
+        this.timeSeriesReader = timeSeriesReader;
+        this.uriDictionary = uriDictionary;
+        this.hitArchive = hitArchive;
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
+        this.maxBatch = maxBatch;
+    }
 
-    @Transactional
     @Override
     public void saveHit(EndpointHitDto hitDto) {
-        EndpointHit endpointHit = statsMapper.mapToModel(hitDto);
-        statsRepository.save(endpointHit);
+        EndpointHit hit = statsMapper.mapToModel(hitDto);
+        hitBuffer.add(hit);
+        recentHits.record(hit);
+        trendingHits.record(hit);
+    }
+
+    @Override
+    public void saveHits(List<EndpointHitDto> hitDtos) {
+        List<EndpointHit> hits = statsMapper.mapToModel(hitDtos);
+        hitBuffer.addAll(hits);
+        hits.forEach(hit -> {
+            recentHits.record(hit);
+            trendingHits.record(hit);
+        });
+    }
+
+    @Override
+    public List<ViewStatsDto> getStats(GetStatsParam param) {
+        return resultCache.get(param, () -> readOnlyTransaction.execute(status -> loadStats(param)));
+    }
+
+    /**
+     * Курсором читается только таблица stats. Интервал, заходящий в архив, считается как GET /stats
+     * в обход кэша и отдается уже собранным в памяти: архивные файлы построчно не читаются.
+     */
+    @Override
+    @Transactional(readOnly = true)
+    public void streamStats(GetStatsParam param, Consumer<ViewStatsDto> consumer) {
+        LocalDateTime hotFrom = hitArchive.hotFrom();
+        if (hotFrom != null && param.getStart().isBefore(hotFrom)) {
+            loadStats(param).forEach(consumer);
+            return;
+        }
+
+        hitBuffer.flush();
+        statsRepository.streamStats(param.getStart(), param.getEnd(), param.getUris(), param.isUnique(), consumer);
+    }
+
+    @Override
+    public List<ViewStatsDto> getTop(String window, int limit) {
+        if (limit <= 0) {
+            throw new BadRequestException("limit должен быть больше 0");
+        }
+        Duration duration = trendingHits.parseWindow(window);
+        if (!singleInstance.isSingle()) {
+            GetStatsParam param = GetStatsParam.builder()
+                    .start(trendingHits.windowStart(duration))
+                    .end(LocalDateTime.now())
+                    .build();
+            return getStats(param).stream().limit(limit).toList();
+        }
+        return trendingHits.getTop(duration, limit);
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public List<ViewStatsBucketDto> getTimeSeries(GetTimeSeriesParam param) {
+        hitBuffer.flush();
+        return timeSeriesReader.getTimeSeries(param);
+    }
+
+    /**
+     * Запросы пакета считаются одним SQL по таблице stats в обход кэша результатов, поэтому совпадают
+     * с /stats без кэша. Запросы, окно которых заходит в архив, в таблице stats видят не все хиты
+     * и считаются по одному через {@link #getStats(GetStatsParam)}.
+     */
+    @Override
+    @Transactional(readOnly = true)
+    public List<List<ViewStatsDto>> queryStats(List<StatsQueryDto> queries) {
+        if (queries.size() > maxBatch) {
+            throw new BadRequestException("В пакете не может быть больше " + maxBatch + " запросов");
+        }
+        for (StatsQueryDto query : queries) {
+            if (query.getStart() == null || query.getEnd() == null) {
+                throw new BadRequestException("Поля start и end не могут быть пустыми");
+            }
+            if (query.getEnd().isBefore(query.getStart())) {
+                throw new BadRequestException("end < start");
+            }
+        }
+
+        hitBuffer.flush();
+        LocalDateTime hotFrom = hitArchive.hotFrom();
+        if (hotFrom == null || queries.stream().noneMatch(query -> query.getStart().isBefore(hotFrom))) {
+            return statsRepository.queryBatch(queries);
+        }
+
+        List<StatsQueryDto> hot = new ArrayList<>();
+        List<Integer> hotPositions = new ArrayList<>();
+        List<List<ViewStatsDto>> result = new ArrayList<>(queries.size());
+        for (int i = 0; i < queries.size(); i++) {
+            StatsQueryDto query = queries.get(i);
+            if (query.getStart().isBefore(hotFrom)) {
+                result.add(getStats(GetStatsParam.builder()
+                        .start(query.getStart())
+                        .end(query.getEnd())
+                        .uris(query.getUris())
+                        .unique(query.isUnique())
+                        .bypassCache(true)
+                        .build()));
+            } else {
+                result.add(null);
+                hot.add(query);
+                hotPositions.add(i);
+            }
+        }
+        List<List<ViewStatsDto>> hotResults = statsRepository.queryBatch(hot);
+        for (int j = 0; j < hotPositions.size(); j++) {
+            result.set(hotPositions.get(j), hotResults.get(j));
+        }
+        return result;
     }
 
     @Override
-    public List<ViewStatsDto> getStats(LocalDateTime start, LocalDateTime end, List<String> uris, Boolean unique) {
+    public Map<Long, Long> getEventViews(List<Long> eventIds, boolean unique) {
+        if (eventIds.size() > maxBatch) {
+            throw new BadRequestException("В пакете не может быть больше " + maxBatch + " событий");
+        }
+
+        Map<Long, Long> views = new LinkedHashMap<>();
+        eventIds.forEach(eventId -> views.put(eventId, 0L));
+
+        // uri новых событий попадают в словарь только при сбросе буфера
+        hitBuffer.flush();
+        Map<String, Long> eventIdByUri = uriDictionary.findEventUris(views.keySet());
+        if (eventIdByUri.isEmpty()) {
+            return views;
+        }
+
+        List<String> uris = List.copyOf(eventIdByUri.keySet());
+        LocalDateTime end = LocalDateTime.now().plusMinutes(1);
         if (unique) {
-            return statsRepository.findStatsWithUnique(start, end, uris);
+            views.putAll(readOnlyTransaction.execute(status -> countEventVisitors(uris, end, eventIdByUri)));
+            return views;
+        }
+
+        GetStatsParam param = GetStatsParam.builder()
+                .start(EPOCH)
+                .end(end)
+                .uris(uris)
+                .build();
+        getStats(param).forEach(stat -> views.merge(eventIdByUri.get(stat.getUri()), stat.getHits(), Long::sum));
+        return views;
+    }
+
+    /**
+     * Уникальные ip по событию сразу по всем его uri: битмапы объединяются по event_id, а не по uri,
+     * поэтому посетитель /events/5 и /events/05 считается один раз. Архив добавляется посещениями.
+     */
+    private Map<Long, Long> countEventVisitors(List<String> uris, LocalDateTime end, Map<String, Long> eventIdByUri) {
+        LocalDateTime hotFrom = hitArchive.hotFrom();
+        if (hotFrom == null) {
+            return bitmapStatsReader.countDistinct(EPOCH, end, uris, Stream.empty(), (app, uri) -> eventIdByUri.get(uri));
+        }
+        Stream<Visit> archivedVisits = hitArchive.streamVisits(EPOCH, hotFrom.minus(1, ChronoUnit.MICROS), uris);
+        return bitmapStatsReader.countDistinct(hotFrom, end, uris, archivedVisits, (app, uri) -> eventIdByUri.get(uri));
+    }
+
+    /**
+     * Хиты старше границы архива считаются по архивным файлам, более новые - по таблице stats и памяти.
+     */
+    private List<ViewStatsDto> loadStats(GetStatsParam param) {
+        LocalDateTime hotFrom = hitArchive.hotFrom();
+        if (hotFrom == null || !param.getStart().isBefore(hotFrom)) {
+            return loadHot(param.getStart(), param, Stream.empty());
+        }
+
+        boolean needHot = !param.getEnd().isBefore(hotFrom);
+        LocalDateTime archiveEnd = needHot ? hotFrom.minus(1, ChronoUnit.MICROS) : param.getEnd();
+        if (!param.isUnique()) {
+            List<ViewStatsDto> parts = new ArrayList<>(hitArchive.getHits(param.getStart(), archiveEnd, param.getUris()));
+            if (needHot) {
+                parts.addAll(loadHot(hotFrom, param, Stream.empty()));
+            }
+            return ViewStats.merge(parts);
+        }
+
+        Stream<Visit> archivedVisits = hitArchive.streamVisits(param.getStart(), archiveEnd, param.getUris());
+        if (!needHot) {
+            return ViewStats.countDistinct(archivedVisits);
+        }
+        return loadHot(hotFrom, param, archivedVisits);
+    }
+
+    /**
+     * Свежая часть интервала считается по счетчикам в памяти, в БД уходит только более старая часть.
+     * Для уникальных просмотров archivedVisits - посещения из архива, которые нужно учесть вместе с остальными.
+     */
+    private List<ViewStatsDto> loadHot(LocalDateTime start, GetStatsParam param, Stream<Visit> archivedVisits) {
+        LocalDateTime recentFrom = recentHits.coverageFrom(start, param.getEnd());
+        if (recentFrom == null) {
+            hitBuffer.flush();
+            return loadFromDb(start, param.getEnd(), param, archivedVisits);
+        }
+
+        boolean needDb = start.isBefore(recentFrom);
+        if (needDb) {
+            hitBuffer.flush();
+        }
+        // created хранится с точностью до микросекунды, поэтому [start, recentFrom) == [start, recentFrom - 1 мкс]
+        LocalDateTime dbEnd = recentFrom.minus(1, ChronoUnit.MICROS);
+
+        if (!param.isUnique()) {
+            List<ViewStatsDto> parts = new ArrayList<>(recentHits.countHits(recentFrom, param.getEnd(), param.getUris()));
+            if (needDb) {
+                parts.addAll(rollupStatsReader.getHits(start, dbEnd, param.getUris()));
+            }
+            return ViewStats.merge(parts);
+        }
+
+        Stream<Visit> visits = Stream.concat(
+                recentHits.findVisits(recentFrom, param.getEnd(), param.getUris()).stream(), archivedVisits);
+        if (!needDb) {
+            return ViewStats.countDistinct(visits);
+        }
+        return loadFromDb(start, dbEnd, param, visits);
+    }
+
+    private List<ViewStatsDto> loadFromDb(LocalDateTime start, LocalDateTime end, GetStatsParam param,
+                                          Stream<Visit> extraVisits) {
+        if (!param.isUnique()) {
+            return rollupStatsReader.getHits(start, end, param.getUris());
+        } else if (param.isApprox()) {
+            return hllStatsReader.getUniqueHits(start, end, param.getUris(), extraVisits);
         } else {
-            return statsRepository.getAllStats(start, end, uris);
+            return bitmapStatsReader.getUniqueHits(start, end, param.getUris(), extraVisits);
         }
     }
 }
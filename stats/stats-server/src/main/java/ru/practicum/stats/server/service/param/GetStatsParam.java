@@ -0,0 +1,33 @@
+package ru.practicum.stats.server.service.param;
+
+import lombok.Builder;
+import lombok.Getter;
+import lombok.Setter;
+import ru.practicum.stats.server.service.StatsPrecision;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Getter
+@Setter
+@Builder
+public class GetStatsParam {
+    LocalDateTime start;
+    LocalDateTime end;
+    List<String> uris;
+    boolean unique;
+    @Builder.Default
+    StatsPrecision precision = StatsPrecision.EXACT;
+    /**
+     * Считать в обход кэша результатов, когда нужна точная свежесть.
+     */
+    boolean bypassCache;
+
+    public boolean hasUris() {
+        return uris != null;
+    }
+
+    public boolean isApprox() {
+        return precision == StatsPrecision.APPROX;
+    }
+}
@@ -0,0 +1,24 @@
+package ru.practicum.stats.server.service.param;
+
+import lombok.Builder;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Getter
+@Setter
+@Builder
+public class GetTimeSeriesParam {
+    LocalDateTime start;
+    LocalDateTime end;
+    List<String> uris;
+    boolean unique;
+    Duration interval;
+
+    public boolean hasUris() {
+        return uris != null;
+    }
+}
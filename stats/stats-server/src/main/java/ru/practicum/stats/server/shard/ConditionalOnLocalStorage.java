@@ -0,0 +1,20 @@
+package ru.practicum.stats.server.shard;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Бин нужен, только когда сервер сам хранит хиты. В режиме роутера (stats.shard.enabled=true)
+ * хиты хранят шарды, и локальные буфер, партиции, агрегаты и их планировщики не создаются.
+ */
+@Target(ElementType.TYPE)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+@ConditionalOnProperty(name = "stats.shard.enabled", havingValue = "false", matchIfMissing = true)
+public @interface ConditionalOnLocalStorage {
+}
@@ -0,0 +1,82 @@
+package ru.practicum.stats.server.shard;
+
+import ru.practicum.dto.ViewStatsDto;
+import ru.practicum.stats.server.error.ShardUnavailableException;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+/**
+ * Поток строк статистики одного шарда, который можно читать по одной строке. Ответ шарда читается
+ * в отдельном потоке в ограниченную очередь, поэтому роутер держит в памяти не больше capacity строк на шард.
+ */
+final class ShardStream implements AutoCloseable {
+
+    private static final Object END = new Object();
+
+    private final StatsShard shard;
+    private final BlockingQueue<Object> queue;
+    private final Future<?> reader;
+    private ViewStatsDto head;
+
+    ShardStream(StatsShard shard, ExecutorService executor, int capacity, Consumer<Consumer<ViewStatsDto>> source) {
+        this.shard = shard;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.reader = executor.submit(() -> {
+            Object last = END;
+            try {
+                source.accept(this::put);
+            } catch (RuntimeException e) {
+                last = e;
+            }
+            put(last);
+        });
+    }
+
+    /**
+     * Текущая строка; после {@link #advance()}, вернувшего true.
+     */
+    ViewStatsDto head() {
+        return head;
+    }
+
+    /**
+     * Переходит к следующей строке шарда. Возвращает false, если шард отдал все строки;
+     * если шард упал посреди ответа, бросает его ошибку, а не обрывает поток молча.
+     */
+    boolean advance() {
+        Object next;
+        try {
+            next = queue.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ShardUnavailableException("Чтение потока статистики шарда " + shard.url() + " прервано", e);
+        }
+        if (next == END) {
+            head = null;
+            return false;
+        }
+        if (next instanceof RuntimeException e) {
+            throw e;
+        }
+        head = (ViewStatsDto) next;
+        return true;
+    }
+
+    @Override
+    public void close() {
+        reader.cancel(true);
+    }
+
+    private void put(Object value) {
+        try {
+            queue.put(value);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ShardUnavailableException("Чтение потока статистики шарда " + shard.url() + " отменено", e);
+        }
+    }
+}
@@ -0,0 +1,325 @@
+package ru.practicum.stats.server.shard;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Primary;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.web.client.RestClient;
+import ru.practicum.dto.EndpointHitDto;
+import ru.practicum.dto.StatsQueryDto;
+import ru.practicum.dto.ViewStatsBucketDto;
+import ru.practicum.dto.ViewStatsDto;
+import ru.practicum.stats.server.error.BadRequestException;
+import ru.practicum.stats.server.error.PartialSaveException;
+import ru.practicum.stats.server.dictionary.UriDictionary;
+import ru.practicum.stats.server.error.ShardUnavailableException;
+import ru.practicum.stats.server.service.StatsService;
+import ru.practicum.stats.server.service.param.GetStatsParam;
+import ru.practicum.stats.server.service.param.GetTimeSeriesParam;
+import ru.practicum.stats.server.util.ViewStats;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+
+/**
+ * Режим роутера перед N шардами (обычными stats-server со своими БД). Хиты раскладываются по шардам
+ * по хэшу uri, запросы статистики параллельно уходят шардам, владеющим запрошенными uri, или всем,
+ * если uris не заданы, и частичные ответы сливаются.
+ * <p>
+ * Все хиты одного uri лежат на одном шарде, поэтому ответы шардов не пересекаются по uri:
+ * уникальные просмотры не требуют слияния скетчей или множеств ip, достаточно объединить строки.
+ * Все uri одного события (/events/5, /events/05) кладутся на шард канонического /events/5,
+ * поэтому просмотры события считает один шард без двойного счета посетителей.
+ * <p>
+ * Роутер не хранит хиты сам: локальные буфер, партиции и агрегаты отключены ({@link ConditionalOnLocalStorage}),
+ * поэтому режим роутера несовместим с stats.engine=columnar|segment.
+ */
+@Slf4j
+@Service
+@Primary
+@ConditionalOnProperty(name = "stats.shard.enabled", havingValue = "true")
+public class ShardedStatsService implements StatsService {
+
+    private final List<StatsShard> shards;
+    private final ObjectMapper objectMapper;
+    private final int maxBatch;
+    private final int streamBuffer;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    public ShardedStatsService(RestClient.Builder restClientBuilder,
+                               ObjectMapper objectMapper,
+                               @Value("${stats.shard.urls}") List<String> urls,
+                               @Value("${stats.shard.connect-timeout-ms:1000}") int connectTimeoutMs,
+                               @Value("${stats.shard.read-timeout-ms:10000}") int readTimeoutMs,
+                               @Value("${stats.query.max-batch:1000}") int maxBatch,
+                               @Value("${stats.stream.fetch-size:1000}") int streamBuffer,
+                               @Value("${stats.engine:jdbc}") String engine) {
+        if (!"jdbc".equals(engine)) {
+            throw new IllegalStateException("stats.engine=" + engine + " несовместим с stats.shard.enabled=true: "
+                    + "роутер не хранит хиты, движок хранения выбирается на шардах");
+        }
+        if (urls.isEmpty()) {
+            throw new IllegalStateException("Не задан список шардов stats.shard.urls");
+        }
+
+        SimpleClientHttpRequestFactory requestFactory = new SimpleClientHttpRequestFactory();
+        requestFactory.setConnectTimeout(connectTimeoutMs);
+        requestFactory.setReadTimeout(readTimeoutMs);
+        // порядок шардов задает раскладку uri и не должен меняться без переноса данных
+        this.shards = urls.stream()
+                .map(url -> new StatsShard(url, restClientBuilder.clone()
+                        .baseUrl(url)
+                        .requestFactory(requestFactory)
+                        .defaultStatusHandler(HttpStatusCode::isError, (req, resp) -> StatsShard.checkStatus(resp))
+                        .build()))
+                .toList();
+        this.objectMapper = objectMapper;
+        this.maxBatch = maxBatch;
+        this.streamBuffer = streamBuffer;
+        log.info("Сервер статистики работает роутером перед {} шардами: {}", shards.size(), urls);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.close();
+    }
+
+    @Override
+    public void saveHit(EndpointHitDto hitDto) {
+        saveHits(List.of(hitDto));
+    }
+
+    /**
+     * Части пачки уходят шардам параллельно и независимо. Если часть шардов ответила ошибкой,
+     * а остальные приняли свои хиты, клиент получает {@link PartialSaveException} только с непринятыми хитами:
+     * повтор всей пачки продублировал бы хиты на принявших шардах.
+     */
+    @Override
+    public void saveHits(List<EndpointHitDto> hitDtos) {
+        Map<StatsShard, List<EndpointHitDto>> byShard = new LinkedHashMap<>();
+        hitDtos.forEach(hit -> byShard.computeIfAbsent(shardOf(hit.getUri()), k -> new ArrayList<>()).add(hit));
+
+        Map<StatsShard, Future<?>> futures = new LinkedHashMap<>();
+        byShard.forEach((shard, hits) -> futures.put(shard, executor.submit(() -> shard.saveHits(hits))));
+
+        RuntimeException failure = null;
+        for (Map.Entry<StatsShard, Future<?>> entry : futures.entrySet()) {
+            try {
+                entry.getValue().get();
+            } catch (ExecutionException e) {
+                failure = e.getCause() instanceof RuntimeException cause ? cause
+                        : new ShardUnavailableException("Ошибка записи на шард " + entry.getKey().url(), e.getCause());
+                log.warn("Шард {} не принял {} хитов: {}", entry.getKey().url(), byShard.get(entry.getKey()).size(),
+                        failure.getMessage());
+            } catch (InterruptedException e) {
+                // уже принятые шардами части не повторяются, отменяются и возвращаются клиенту только незавершенные
+                futures.values().forEach(future -> future.cancel(true));
+                Thread.currentThread().interrupt();
+                failure = new ShardUnavailableException("Запись хитов на шарды прервана", e);
+                break;
+            }
+        }
+
+        if (failure == null) {
+            return;
+        }
+        List<EndpointHitDto> rejected = new ArrayList<>();
+        futures.forEach((shard, future) -> {
+            if (future.state() != Future.State.SUCCESS) {
+                rejected.addAll(byShard.get(shard));
+            }
+        });
+        if (rejected.size() == hitDtos.size()) {
+            // ни один шард не принял хиты, пачку можно повторить целиком
+            throw failure;
+        }
+        throw new PartialSaveException("Шарды приняли " + (hitDtos.size() - rejected.size()) + " из "
+                + hitDtos.size() + " хитов", rejected, failure);
+    }
+
+    @Override
+    public List<ViewStatsDto> getStats(GetStatsParam param) {
+        List<ViewStatsDto> parts = new ArrayList<>();
+        scatter(route(param.getUris()), (shard, uris) -> shard.getStats(param, uris))
+                .values()
+                .forEach(parts::addAll);
+        return ViewStats.merge(parts);
+    }
+
+    /**
+     * Шарды читаются параллельно, их потоки уже отсортированы по убыванию hits и не пересекаются по uri,
+     * поэтому k-way слияние по hits сохраняет общий порядок, не собирая ответ в памяти.
+     * Ошибка шарда посреди ответа пробрасывается из consumer-цикла, и ответ обрывается с ошибкой,
+     * а не завершается как полный.
+     */
+    @Override
+    public void streamStats(GetStatsParam param, Consumer<ViewStatsDto> consumer) {
+        List<ShardStream> streams = new ArrayList<>();
+        try {
+            route(param.getUris()).forEach((shard, uris) -> streams.add(new ShardStream(shard, executor, streamBuffer,
+                    rows -> shard.streamStats(param, uris, objectMapper, rows))));
+
+            PriorityQueue<ShardStream> heads = new PriorityQueue<>(
+                    Comparator.comparingLong((ShardStream stream) -> stream.head().getHits()).reversed());
+            for (ShardStream stream : streams) {
+                if (stream.advance()) {
+                    heads.add(stream);
+                }
+            }
+            while (!heads.isEmpty()) {
+                ShardStream stream = heads.poll();
+                consumer.accept(stream.head());
+                if (stream.advance()) {
+                    heads.add(stream);
+                }
+            }
+        } finally {
+            streams.forEach(ShardStream::close);
+        }
+    }
+
+    @Override
+    public List<ViewStatsDto> getTop(String window, int limit) {
+        if (limit <= 0) {
+            throw new BadRequestException("limit должен быть больше 0");
+        }
+
+        List<ViewStatsDto> parts = new ArrayList<>();
+        scatter(route(null), (shard, uris) -> shard.getTop(window, limit))
+                .values()
+                .forEach(parts::addAll);
+        return ViewStats.merge(parts).stream()
+                .limit(limit)
+                .toList();
+    }
+
+    @Override
+    public List<ViewStatsBucketDto> getTimeSeries(GetTimeSeriesParam param) {
+        List<ViewStatsBucketDto> series = new ArrayList<>();
+        scatter(route(param.getUris()), (shard, uris) -> shard.getTimeSeries(param, uris))
+                .values()
+                .forEach(series::addAll);
+        series.sort(Comparator.comparing(ViewStatsBucketDto::getUri)
+                .thenComparing(ViewStatsBucketDto::getApp)
+                .thenComparing(ViewStatsBucketDto::getBucket));
+        return series;
+    }
+
+    /**
+     * Каждый запрос пакета режется по шардам, каждому шарду уходит один пакет из своих частей.
+     */
+    @Override
+    public List<List<ViewStatsDto>> queryStats(List<StatsQueryDto> queries) {
+        if (queries.size() > maxBatch) {
+            throw new BadRequestException("В пакете не может быть больше " + maxBatch + " запросов");
+        }
+
+        Map<StatsShard, List<StatsQueryDto>> subQueries = new LinkedHashMap<>();
+        Map<StatsShard, List<Integer>> positions = new LinkedHashMap<>();
+        for (int i = 0; i < queries.size(); i++) {
+            StatsQueryDto query = queries.get(i);
+            int position = i;
+            route(query.getUris()).forEach((shard, uris) -> {
+                subQueries.computeIfAbsent(shard, k -> new ArrayList<>())
+                        .add(new StatsQueryDto(query.getStart(), query.getEnd(), uris, query.isUnique()));
+                positions.computeIfAbsent(shard, k -> new ArrayList<>()).add(position);
+            });
+        }
+
+        List<List<ViewStatsDto>> parts = new ArrayList<>(queries.size());
+        queries.forEach(query -> parts.add(new ArrayList<>()));
+        scatter(subQueries, StatsShard::queryStats).forEach((shard, results) -> {
+            List<Integer> shardPositions = positions.get(shard);
+            for (int j = 0; j < results.size(); j++) {
+                parts.get(shardPositions.get(j)).addAll(results.get(j));
+            }
+        });
+        return parts.stream()
+                .map(ViewStats::merge)
+                .toList();
+    }
+
+    @Override
+    public Map<Long, Long> getEventViews(List<Long> eventIds, boolean unique) {
+        Map<Long, Long> views = new LinkedHashMap<>();
+        Map<StatsShard, List<Long>> byShard = new LinkedHashMap<>();
+        for (Long eventId : eventIds) {
+            views.put(eventId, 0L);
+            // все uri события лежат на шарде канонического uri, см. shardOf
+            byShard.computeIfAbsent(shardOf("/events/" + eventId), k -> new ArrayList<>()).add(eventId);
+        }
+
+        scatter(byShard, (shard, ids) -> shard.getEventViews(ids, unique))
+                .values()
+                .forEach(views::putAll);
+        return views;
+    }
+
+    /**
+     * Шард uri: перемешанный String.hashCode по модулю числа шардов. hashCode строки определен
+     * спецификацией, поэтому раскладка одинакова на всех узлах и после перезапуска.
+     * Uri события хэшируется в каноническом виде, чтобы /events/05 попал на шард /events/5.
+     */
+    private StatsShard shardOf(String uri) {
+        Long eventId = UriDictionary.eventId(uri);
+        int hash = (eventId == null ? uri : "/events/" + eventId).hashCode();
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        hash *= 0xc2b2ae35;
+        hash ^= hash >>> 16;
+        return shards.get(Math.floorMod(hash, shards.size()));
+    }
+
+    /**
+     * Шарды, которые нужно опросить, и uri для каждого; без фильтра по uri опрашиваются все шарды.
+     */
+    private Map<StatsShard, List<String>> route(List<String> uris) {
+        Map<StatsShard, List<String>> targets = new LinkedHashMap<>();
+        if (uris == null) {
+            shards.forEach(shard -> targets.put(shard, null));
+            return targets;
+        }
+
+        uris.forEach(uri -> targets.computeIfAbsent(shardOf(uri), k -> new ArrayList<>()).add(uri));
+        return targets;
+    }
+
+    private <T, R> Map<StatsShard, R> scatter(Map<StatsShard, T> requests, BiFunction<StatsShard, T, R> call) {
+        Map<StatsShard, Future<R>> futures = new LinkedHashMap<>();
+        requests.forEach((shard, request) -> futures.put(shard, executor.submit(() -> call.apply(shard, request))));
+
+        Map<StatsShard, R> results = new LinkedHashMap<>();
+        try {
+            for (Map.Entry<StatsShard, Future<R>> entry : futures.entrySet()) {
+                results.put(entry.getKey(), entry.getValue().get());
+            }
+        } catch (ExecutionException e) {
+            futures.values().forEach(future -> future.cancel(true));
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw new ShardUnavailableException("Ошибка запроса к шардам статистики", e.getCause());
+        } catch (InterruptedException e) {
+            futures.values().forEach(future -> future.cancel(true));
+            Thread.currentThread().interrupt();
+            throw new ShardUnavailableException("Запрос к шардам статистики прерван", e);
+        }
+        return results;
+    }
+}
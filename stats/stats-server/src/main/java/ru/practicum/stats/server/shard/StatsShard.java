@@ -0,0 +1,174 @@
+package ru.practicum.stats.server.shard;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.web.client.RestClient;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.util.UriBuilder;
+import ru.practicum.dto.EndpointHitDto;
+import ru.practicum.dto.StatsQueryDto;
+import ru.practicum.dto.ViewStatsBucketDto;
+import ru.practicum.dto.ViewStatsDto;
+import ru.practicum.stats.server.error.BadRequestException;
+import ru.practicum.stats.server.error.BufferOverflowException;
+import ru.practicum.stats.server.error.ShardUnavailableException;
+import ru.practicum.stats.server.service.param.GetStatsParam;
+import ru.practicum.stats.server.service.param.GetTimeSeriesParam;
+import ru.practicum.util.NdjsonReader;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * HTTP-клиент одного шарда: обычного stats-server со своей БД. Ответы шарда с ошибкой
+ * переводятся в исключения сервера статистики, чтобы роутер отвечал клиенту так же, как шард.
+ */
+class StatsShard {
+
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    private final String url;
+    private final RestClient restClient;
+
+    StatsShard(String url, RestClient restClient) {
+        this.url = url;
+        this.restClient = restClient;
+    }
+
+    String url() {
+        return url;
+    }
+
+    void saveHits(List<EndpointHitDto> hits) {
+        call(() -> restClient.post()
+                .uri("/hits")
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(hits)
+                .retrieve()
+                .toBodilessEntity());
+    }
+
+    List<ViewStatsDto> getStats(GetStatsParam param, List<String> uris) {
+        return call(() -> restClient.get()
+                .uri(uriBuilder -> statsUri(uriBuilder, param, uris)
+                        .queryParam("precision", param.getPrecision().name().toLowerCase())
+                        .build())
+                .headers(headers -> {
+                    if (param.isBypassCache()) {
+                        headers.setCacheControl("no-cache");
+                    }
+                })
+                .accept(MediaType.APPLICATION_JSON)
+                .retrieve()
+                .body(new ParameterizedTypeReference<List<ViewStatsDto>>() {
+                }));
+    }
+
+    void streamStats(GetStatsParam param, List<String> uris, ObjectMapper objectMapper, Consumer<ViewStatsDto> consumer) {
+        call(() -> restClient.get()
+                .uri(uriBuilder -> statsUri(uriBuilder, param, uris).build())
+                .accept(MediaType.APPLICATION_NDJSON)
+                .exchange((req, resp) -> {
+                    if (resp.getStatusCode().isError()) {
+                        checkStatus(resp);
+                    }
+                    return NdjsonReader.read(resp.getBody(), objectMapper, ViewStatsDto.class, consumer);
+                }));
+    }
+
+    List<ViewStatsDto> getTop(String window, int limit) {
+        return call(() -> restClient.get()
+                .uri(uriBuilder -> uriBuilder.path("/stats/top")
+                        .queryParam("window", window)
+                        .queryParam("limit", limit)
+                        .build())
+                .retrieve()
+                .body(new ParameterizedTypeReference<List<ViewStatsDto>>() {
+                }));
+    }
+
+    List<ViewStatsBucketDto> getTimeSeries(GetTimeSeriesParam param, List<String> uris) {
+        return call(() -> restClient.get()
+                .uri(uriBuilder -> {
+                    uriBuilder.path("/stats/timeseries")
+                            .queryParam("start", DATE_FORMAT.format(param.getStart()))
+                            .queryParam("end", DATE_FORMAT.format(param.getEnd()))
+                            .queryParam("interval", param.getInterval().toMinutes() + "m")
+                            .queryParam("unique", param.isUnique());
+                    if (uris != null) {
+                        uriBuilder.queryParam("uris", uris);
+                    }
+                    return uriBuilder.build();
+                })
+                .retrieve()
+                .body(new ParameterizedTypeReference<List<ViewStatsBucketDto>>() {
+                }));
+    }
+
+    List<List<ViewStatsDto>> queryStats(List<StatsQueryDto> queries) {
+        return call(() -> restClient.post()
+                .uri("/stats/query")
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(queries)
+                .retrieve()
+                .body(new ParameterizedTypeReference<List<List<ViewStatsDto>>>() {
+                }));
+    }
+
+    Map<Long, Long> getEventViews(List<Long> eventIds, boolean unique) {
+        return call(() -> restClient.post()
+                .uri(uriBuilder -> uriBuilder.path("/stats/views/events")
+                        .queryParam("unique", unique)
+                        .build())
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(eventIds)
+                .retrieve()
+                .body(new ParameterizedTypeReference<Map<Long, Long>>() {
+                }));
+    }
+
+    private UriBuilder statsUri(UriBuilder uriBuilder, GetStatsParam param, List<String> uris) {
+        uriBuilder.path("/stats")
+                .queryParam("start", DATE_FORMAT.format(param.getStart()))
+                .queryParam("end", DATE_FORMAT.format(param.getEnd()))
+                .queryParam("unique", param.isUnique());
+        if (uris != null) {
+            uriBuilder.queryParam("uris", uris);
+        }
+        return uriBuilder;
+    }
+
+    private <T> T call(Supplier<T> request) {
+        try {
+            return request.get();
+        } catch (RestClientException e) {
+            throw new ShardUnavailableException("Шард статистики " + url + " недоступен: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Обработчик ответов с ошибкой для RestClient всех шардов.
+     */
+    static void checkStatus(ClientHttpResponse response) throws IOException {
+        HttpStatusCode status = response.getStatusCode();
+        String body = new String(response.getBody().readAllBytes(), StandardCharsets.UTF_8);
+        if (status.isSameCodeAs(HttpStatus.BAD_REQUEST)) {
+            throw new BadRequestException(body);
+        }
+        if (status.isSameCodeAs(HttpStatus.TOO_MANY_REQUESTS)) {
+            String retryAfter = response.getHeaders().getFirst(HttpHeaders.RETRY_AFTER);
+            throw new BufferOverflowException("Шард статистики перегружен", retryAfter == null ? 1 : Long.parseLong(retryAfter));
+        }
+        throw new ShardUnavailableException("Шард статистики ответил " + status.value() + ": " + body, null);
+    }
+}
@@ -0,0 +1,52 @@
+package ru.practicum.stats.server.sketch;
+
+import lombok.RequiredArgsConstructor;
+import org.roaringbitmap.RoaringBitmap;
+import org.springframework.stereotype.Component;
+import ru.practicum.stats.server.dictionary.AppDictionary;
+import ru.practicum.stats.server.dictionary.UriDictionary;
+import ru.practicum.stats.server.ingest.HitAggregator;
+import ru.practicum.stats.server.model.EndpointHit;
+import ru.practicum.stats.server.shard.ConditionalOnLocalStorage;
+
+import java.time.temporal.ChronoUnit;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Поддерживает дневные Roaring-битмапы id ip по каждой паре app + uri.
+ */
+@Component
+@RequiredArgsConstructor
+@ConditionalOnLocalStorage
+public class BitmapAggregator implements HitAggregator {
+
+    private final BitmapRepository bitmapRepository;
+    private final IpDictionary ipDictionary;
+    private final AppDictionary appDictionary;
+    private final UriDictionary uriDictionary;
+
+    @Override
+    public void aggregate(List<EndpointHit> hits) {
+        Map<String, Integer> apps = appDictionary.resolve(hits.stream().map(EndpointHit::getApp).distinct().toList());
+        Map<String, Integer> uris = uriDictionary.resolve(hits.stream().map(EndpointHit::getUri).distinct().toList());
+        Map<String, Integer> ipIds = ipDictionary.resolve(hits.stream().map(EndpointHit::getIp).distinct().toList());
+
+        Map<SketchKey, RoaringBitmap> delta = new HashMap<>();
+        for (EndpointHit hit : hits) {
+            SketchKey key = new SketchKey(apps.get(hit.getApp()), uris.get(hit.getUri()),
+                    hit.getCreated().truncatedTo(ChronoUnit.DAYS));
+            delta.computeIfAbsent(key, k -> new RoaringBitmap()).add(ipIds.get(hit.getIp()));
+        }
+
+        Map<SketchKey, RoaringBitmap> stored = bitmapRepository.lockAll(delta.keySet());
+        stored.forEach((key, bitmap) -> bitmap.or(delta.get(key)));
+        bitmapRepository.updateAll(stored);
+    }
+
+    @Override
+    public boolean isBackfillable() {
+        return true;
+    }
+}
@@ -0,0 +1,139 @@
+package ru.practicum.stats.server.sketch;
+
+import lombok.RequiredArgsConstructor;
+import org.roaringbitmap.RoaringBitmap;
+import org.springframework.stereotype.Component;
+import ru.practicum.dto.ViewStatsDto;
+import ru.practicum.stats.server.ingest.AggregateBackfill;
+import ru.practicum.stats.server.model.Visit;
+import ru.practicum.stats.server.repository.StatsRepository;
+import ru.practicum.stats.server.shard.ConditionalOnLocalStorage;
+import ru.practicum.stats.server.util.ViewStats;
+
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.BiFunction;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Точный подсчет уникальных ip: целые сутки объединяются из дневных битмапов,
+ * неполные сутки по краям интервала добавляются из сырой таблицы stats.
+ * Результат совпадает с COUNT(DISTINCT ip) по сырой таблице.
+ * Посещения за части интервала, посчитанные в памяти и по архиву, передаются потоком в extraVisits.
+ */
+@Component
+@RequiredArgsConstructor
+@ConditionalOnLocalStorage
+public class BitmapStatsReader {
+
+    private static final int RESOLVE_CHUNK = 10_000;
+
+    private final BitmapRepository bitmapRepository;
+    private final IpDictionary ipDictionary;
+    private final StatsRepository statsRepository;
+    private final BitmapAggregator bitmapAggregator;
+    private final AggregateBackfill aggregateBackfill;
+
+    public List<ViewStatsDto> getUniqueHits(LocalDateTime start, LocalDateTime end, List<String> uris,
+                                            Stream<Visit> extraVisits) {
+        if (uris != null && uris.isEmpty()) {
+            return List.of();
+        }
+
+        if (!usesBitmaps(start, end)) {
+            Iterator<Visit> extra = extraVisits.iterator();
+            if (!extra.hasNext()) {
+                return statsRepository.findStatsWithUnique(start, end, uris);
+            }
+            return ViewStats.countDistinct(Stream.concat(statsRepository.findVisits(start, end, uris).stream(),
+                    StreamSupport.stream(Spliterators.spliteratorUnknownSize(extra, Spliterator.NONNULL), false)));
+        }
+
+        return visitors(start, end, uris, extraVisits, List::of).entrySet().stream()
+                .map(e -> new ViewStatsDto(e.getKey().get(0), e.getKey().get(1), e.getValue().getLongCardinality()))
+                .sorted(Comparator.comparing(ViewStatsDto::getHits).reversed())
+                .toList();
+    }
+
+    /**
+     * Уникальные ip по группам пар app + uri: ip, встретившийся в группе под несколькими парами,
+     * считается один раз. Пары, для которых group вернул null, не учитываются.
+     */
+    public <G> Map<G, Long> countDistinct(LocalDateTime start, LocalDateTime end, List<String> uris,
+                                          Stream<Visit> extraVisits, BiFunction<String, String, G> group) {
+        Map<G, Long> result = new HashMap<>();
+        if (uris != null && uris.isEmpty()) {
+            return result;
+        }
+        visitors(start, end, uris, extraVisits, group)
+                .forEach((key, bitmap) -> result.put(key, bitmap.getLongCardinality()));
+        return result;
+    }
+
+    private <G> Map<G, RoaringBitmap> visitors(LocalDateTime start, LocalDateTime end, List<String> uris,
+                                               Stream<Visit> extraVisits, BiFunction<String, String, G> group) {
+        Map<G, RoaringBitmap> bitmaps = new HashMap<>();
+        if (!usesBitmaps(start, end)) {
+            addVisits(bitmaps, statsRepository.findVisits(start, end, uris).stream(), group);
+            addVisits(bitmaps, extraVisits, group);
+            return bitmaps;
+        }
+
+        LocalDateTime dayFrom = ceilDay(start);
+        LocalDateTime dayTo = end.truncatedTo(ChronoUnit.DAYS);
+        bitmapRepository.orRange(dayFrom, dayTo, uris).forEach((key, bitmap) -> {
+            G target = group.apply(key.get(0), key.get(1));
+            if (target != null) {
+                bitmaps.computeIfAbsent(target, k -> new RoaringBitmap()).or(bitmap);
+            }
+        });
+        addVisits(bitmaps, statsRepository.findVisitsBefore(start, dayFrom, uris).stream(), group);
+        addVisits(bitmaps, statsRepository.findVisits(dayTo, end, uris).stream(), group);
+        addVisits(bitmaps, extraVisits, group);
+        return bitmaps;
+    }
+
+    /**
+     * Битмапы читаются, если в интервал входят целые сутки и они уже заполнены по всей истории.
+     */
+    private boolean usesBitmaps(LocalDateTime start, LocalDateTime end) {
+        return ceilDay(start).isBefore(end.truncatedTo(ChronoUnit.DAYS)) && aggregateBackfill.isComplete(bitmapAggregator);
+    }
+
+    /**
+     * ip переводятся в id словаря пачками по RESOLVE_CHUNK посещений, поток целиком в памяти не держится.
+     */
+    private <G> void addVisits(Map<G, RoaringBitmap> bitmaps, Stream<Visit> visits, BiFunction<String, String, G> group) {
+        Iterator<Visit> iterator = visits.iterator();
+        List<Visit> chunk = new ArrayList<>();
+        while (iterator.hasNext()) {
+            chunk.add(iterator.next());
+            if (chunk.size() < RESOLVE_CHUNK && iterator.hasNext()) {
+                continue;
+            }
+
+            Map<String, Integer> ipIds = ipDictionary.resolve(chunk.stream().map(Visit::ip).distinct().toList());
+            for (Visit visit : chunk) {
+                G target = group.apply(visit.app(), visit.uri());
+                if (target != null) {
+                    bitmaps.computeIfAbsent(target, k -> new RoaringBitmap()).add(ipIds.get(visit.ip()));
+                }
+            }
+            chunk.clear();
+        }
+    }
+
+    private LocalDateTime ceilDay(LocalDateTime time) {
+        LocalDateTime floor = time.truncatedTo(ChronoUnit.DAYS);
+        return floor.equals(time) ? floor : floor.plusDays(1);
+    }
+}
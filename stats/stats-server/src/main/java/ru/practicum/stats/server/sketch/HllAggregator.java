@@ -0,0 +1,48 @@
+package ru.practicum.stats.server.sketch;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+import ru.practicum.stats.server.dictionary.AppDictionary;
+import ru.practicum.stats.server.dictionary.UriDictionary;
+import ru.practicum.stats.server.ingest.HitAggregator;
+import ru.practicum.stats.server.model.EndpointHit;
+import ru.practicum.stats.server.rollup.RollupGranularity;
+import ru.practicum.stats.server.shard.ConditionalOnLocalStorage;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Поддерживает почасовые HyperLogLog-скетчи уникальных ip по каждой паре app + uri.
+ */
+@Component
+@RequiredArgsConstructor
+@ConditionalOnLocalStorage
+public class HllAggregator implements HitAggregator {
+
+    private final HllSketchRepository sketchRepository;
+    private final AppDictionary appDictionary;
+    private final UriDictionary uriDictionary;
+
+    @Override
+    public void aggregate(List<EndpointHit> hits) {
+        Map<String, Integer> apps = appDictionary.resolve(hits.stream().map(EndpointHit::getApp).distinct().toList());
+        Map<String, Integer> uris = uriDictionary.resolve(hits.stream().map(EndpointHit::getUri).distinct().toList());
+        Map<SketchKey, HyperLogLog> delta = new HashMap<>();
+        for (EndpointHit hit : hits) {
+            SketchKey key = new SketchKey(apps.get(hit.getApp()), uris.get(hit.getUri()),
+                    RollupGranularity.HOUR.floor(hit.getCreated()));
+            delta.computeIfAbsent(key, k -> new HyperLogLog()).add(hit.getIp());
+        }
+
+        Map<SketchKey, HyperLogLog> stored = sketchRepository.lockAll(delta.keySet());
+        stored.forEach((key, sketch) -> sketch.merge(delta.get(key)));
+        sketchRepository.updateAll(stored);
+    }
+
+    @Override
+    public boolean isBackfillable() {
+        return true;
+    }
+}
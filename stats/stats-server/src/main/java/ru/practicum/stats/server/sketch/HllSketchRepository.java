@@ -0,0 +1,115 @@
+package ru.practicum.stats.server.sketch;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+import ru.practicum.stats.server.dictionary.AppDictionary;
+import ru.practicum.stats.server.dictionary.UriDictionary;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+@Repository
+@RequiredArgsConstructor
+public class HllSketchRepository {
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+    private final AppDictionary appDictionary;
+    private final UriDictionary uriDictionary;
+
+    /**
+     * Блокирует (создавая при необходимости) строки скетчей до конца текущей транзакции
+     * и возвращает их содержимое, чтобы параллельные писатели не теряли обновления.
+     */
+    public Map<SketchKey, HyperLogLog> lockAll(Collection<SketchKey> keys) {
+        MapSqlParameterSource[] inserts = keys.stream()
+                .map(key -> keyParams(key).addValue("sketch", new HyperLogLog().toBytes()))
+                .toArray(MapSqlParameterSource[]::new);
+        jdbcTemplate.batchUpdate("""
+                INSERT INTO stats_hll_hour (app_id, uri_id, bucket, sketch)
+                VALUES (:appId, :uriId, :bucket, :sketch)
+                ON CONFLICT (uri_id, bucket, app_id) DO NOTHING
+                """, inserts);
+
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("uriIds", keys.stream().map(SketchKey::uriId).distinct().toList())
+                .addValue("buckets", keys.stream().map(key -> Timestamp.valueOf(key.bucket())).distinct().toList());
+
+        Map<SketchKey, HyperLogLog> result = new HashMap<>();
+        jdbcTemplate.query("""
+                SELECT app_id, uri_id, bucket, sketch
+                FROM stats_hll_hour
+                WHERE uri_id IN (:uriIds) AND bucket IN (:buckets)
+                ORDER BY uri_id, bucket, app_id
+                FOR UPDATE
+                """, params, (RowCallbackHandler) rs -> {
+            SketchKey key = new SketchKey(rs.getInt("app_id"), rs.getInt("uri_id"),
+                    rs.getTimestamp("bucket").toLocalDateTime());
+            if (keys.contains(key)) {
+                result.put(key, HyperLogLog.fromBytes(rs.getBytes("sketch")));
+            }
+        });
+        return result;
+    }
+
+    public void updateAll(Map<SketchKey, HyperLogLog> sketches) {
+        MapSqlParameterSource[] updates = sketches.entrySet().stream()
+                .map(e -> keyParams(e.getKey()).addValue("sketch", e.getValue().toBytes()))
+                .toArray(MapSqlParameterSource[]::new);
+        jdbcTemplate.batchUpdate("""
+                UPDATE stats_hll_hour SET sketch = :sketch
+                WHERE uri_id = :uriId AND bucket = :bucket AND app_id = :appId
+                """, updates);
+    }
+
+    /**
+     * Объединяет почасовые скетчи из полуинтервала [from, to) по каждой паре app + uri.
+     */
+    public Map<List<String>, HyperLogLog> mergeRange(LocalDateTime from, LocalDateTime to, List<String> uris) {
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("from", Timestamp.valueOf(from))
+                .addValue("to", Timestamp.valueOf(to));
+
+        if (uris != null) {
+            List<Integer> uriIds = List.copyOf(uriDictionary.find(uris).values());
+            if (uriIds.isEmpty()) {
+                return new HashMap<>();
+            }
+            params.addValue("uriIds", uriIds);
+        }
+
+        Map<Long, HyperLogLog> merged = new HashMap<>();
+        jdbcTemplate.query("SELECT app_id, uri_id, sketch FROM stats_hll_hour WHERE bucket >= :from AND bucket < :to"
+                + (uris != null ? " AND uri_id IN (:uriIds)" : ""), params, (RowCallbackHandler) rs -> {
+            HyperLogLog sketch = HyperLogLog.fromBytes(rs.getBytes("sketch"));
+            merged.merge(key(rs), sketch, HyperLogLog::merge);
+        });
+
+        // строки app и uri подставляются уже после объединения
+        Map<Integer, String> apps = appDictionary.names(merged.keySet().stream().map(key -> (int) (key >>> 32)).distinct().toList());
+        Map<Integer, String> uriNames = uriDictionary.names(merged.keySet().stream().map(Long::intValue).distinct().toList());
+        Map<List<String>, HyperLogLog> result = new HashMap<>();
+        merged.forEach((key, value) ->
+                result.put(List.of(apps.get((int) (key >>> 32)), uriNames.get(key.intValue())), value));
+        return result;
+    }
+
+    private static long key(ResultSet rs) throws SQLException {
+        return (long) rs.getInt("app_id") << 32 | rs.getInt("uri_id");
+    }
+
+    private MapSqlParameterSource keyParams(SketchKey key) {
+        return new MapSqlParameterSource()
+                .addValue("appId", key.appId())
+                .addValue("uriId", key.uriId())
+                .addValue("bucket", Timestamp.valueOf(key.bucket()));
+    }
+}
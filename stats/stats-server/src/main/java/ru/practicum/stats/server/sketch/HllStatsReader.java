@@ -0,0 +1,71 @@
+package ru.practicum.stats.server.sketch;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+import ru.practicum.dto.ViewStatsDto;
+import ru.practicum.stats.server.ingest.AggregateBackfill;
+import ru.practicum.stats.server.model.Visit;
+import ru.practicum.stats.server.repository.StatsRepository;
+import ru.practicum.stats.server.shard.ConditionalOnLocalStorage;
+import ru.practicum.stats.server.util.ViewStats;
+
+import java.time.LocalDateTime;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import static ru.practicum.stats.server.rollup.RollupGranularity.HOUR;
+
+/**
+ * Приближенный подсчет уникальных ip: целые часы берутся из HyperLogLog-скетчей,
+ * неполные часы по краям интервала добавляются в скетч из сырой таблицы stats.
+ * Посещения за части интервала, посчитанные в памяти и по архиву, передаются потоком в extraVisits.
+ */
+@Component
+@RequiredArgsConstructor
+@ConditionalOnLocalStorage
+public class HllStatsReader {
+
+    private final HllSketchRepository sketchRepository;
+    private final StatsRepository statsRepository;
+    private final HllAggregator hllAggregator;
+    private final AggregateBackfill aggregateBackfill;
+
+    public List<ViewStatsDto> getUniqueHits(LocalDateTime start, LocalDateTime end, List<String> uris,
+                                            Stream<Visit> extraVisits) {
+        if (uris != null && uris.isEmpty()) {
+            return List.of();
+        }
+
+        LocalDateTime hourFrom = HOUR.ceil(start);
+        LocalDateTime hourTo = HOUR.floor(end);
+        if (!hourFrom.isBefore(hourTo) || !aggregateBackfill.isComplete(hllAggregator)) {
+            Iterator<Visit> extra = extraVisits.iterator();
+            if (!extra.hasNext()) {
+                return statsRepository.findStatsWithUnique(start, end, uris);
+            }
+            return ViewStats.countDistinct(Stream.concat(statsRepository.findVisits(start, end, uris).stream(),
+                    StreamSupport.stream(Spliterators.spliteratorUnknownSize(extra, Spliterator.NONNULL), false)));
+        }
+
+        Map<List<String>, HyperLogLog> sketches = sketchRepository.mergeRange(hourFrom, hourTo, uris);
+        addVisits(sketches, statsRepository.findVisitsBefore(start, hourFrom, uris).stream());
+        addVisits(sketches, statsRepository.findVisits(hourTo, end, uris).stream());
+        addVisits(sketches, extraVisits);
+
+        return sketches.entrySet().stream()
+                .map(e -> new ViewStatsDto(e.getKey().get(0), e.getKey().get(1), e.getValue().estimate()))
+                .sorted(Comparator.comparing(ViewStatsDto::getHits).reversed())
+                .toList();
+    }
+
+    private void addVisits(Map<List<String>, HyperLogLog> sketches, Stream<Visit> visits) {
+        visits.forEach(visit -> sketches.computeIfAbsent(List.of(visit.app(), visit.uri()), k -> new HyperLogLog())
+                .add(visit.ip()));
+    }
+}
@@ -0,0 +1,88 @@
+package ru.practicum.stats.server.sketch;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.practicum.stats.server.util.IpAddresses;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Словарь ip -> плотный int id для битмапов уникальных посетителей.
+ * Уже известные id кэшируются в памяти процесса. Новые ip фиксируются в отдельной транзакции,
+ * чтобы откат пачки хитов не оставил в кэше id, которых нет в БД.
+ */
+@Component
+public class IpDictionary {
+
+    private static final int CHUNK_SIZE = 1000;
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final Map<String, Integer> cache = new ConcurrentHashMap<>();
+    private final int cacheSize;
+
+    public IpDictionary(NamedParameterJdbcTemplate jdbcTemplate,
+                        PlatformTransactionManager transactionManager,
+                        @Value("${stats.ip-dictionary.cache-size:1000000}") int cacheSize) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.cacheSize = cacheSize;
+    }
+
+    /**
+     * Возвращает id для каждого ip, при необходимости добавляя новые ip в словарь.
+     */
+    public Map<String, Integer> resolve(Collection<String> ips) {
+        Map<String, Integer> result = new HashMap<>();
+        List<String> missing = new ArrayList<>();
+        for (String ip : ips) {
+            Integer id = cache.get(ip);
+            if (id != null) {
+                result.put(ip, id);
+            } else {
+                missing.add(ip);
+            }
+        }
+
+        for (int from = 0; from < missing.size(); from += CHUNK_SIZE) {
+            List<String> chunk = missing.subList(from, Math.min(from + CHUNK_SIZE, missing.size()));
+            transactionTemplate.executeWithoutResult(status -> insertMissing(chunk));
+            loadIds(chunk, result);
+        }
+        return result;
+    }
+
+    private void insertMissing(List<String> ips) {
+        MapSqlParameterSource[] params = ips.stream()
+                .map(ip -> new MapSqlParameterSource("ip", ip))
+                .toArray(MapSqlParameterSource[]::new);
+        jdbcTemplate.batchUpdate("INSERT INTO stats_ip (ip) VALUES (CAST(:ip AS inet)) ON CONFLICT (ip) DO NOTHING", params);
+    }
+
+    private void loadIds(List<String> ips, Map<String, Integer> result) {
+        if (cache.size() + ips.size() > cacheSize) {
+            cache.clear();
+        }
+
+        jdbcTemplate.query("SELECT id, host(ip) AS ip FROM stats_ip WHERE ip = ANY (CAST(:ips AS inet[]))",
+                new MapSqlParameterSource("ips", ips.toArray(String[]::new)),
+                (RowCallbackHandler) rs -> {
+                    String ip = IpAddresses.normalize(rs.getString("ip"));
+                    int id = rs.getInt("id");
+                    cache.put(ip, id);
+                    result.put(ip, id);
+                });
+    }
+}
@@ -0,0 +1,94 @@
+package ru.practicum.stats.server.timeseries;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.practicum.dto.ViewStatsBucketDto;
+import ru.practicum.stats.server.error.BadRequestException;
+import ru.practicum.stats.server.repository.StatsRepository;
+import ru.practicum.stats.server.rollup.RollupGranularity;
+import ru.practicum.stats.server.rollup.RollupRepository;
+import ru.practicum.stats.server.service.param.GetTimeSeriesParam;
+import ru.practicum.stats.server.shard.ConditionalOnLocalStorage;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Гистограмма хитов по бакетам длины interval, выровненным от эпохи. Неуникальные просмотры
+ * берутся из самой крупной rollup-таблицы, на которую делится interval, края досчитываются
+ * по сырой таблице. Уникальные считаются одним проходом по сырой таблице.
+ */
+@Component
+@ConditionalOnLocalStorage
+public class TimeSeriesReader {
+
+    private final RollupRepository rollupRepository;
+    private final StatsRepository statsRepository;
+    private final long maxBuckets;
+
+    public TimeSeriesReader(RollupRepository rollupRepository,
+                            StatsRepository statsRepository,
+                            @Value("${stats.timeseries.max-buckets:10000}") long maxBuckets) {
+        this.rollupRepository = rollupRepository;
+        this.statsRepository = statsRepository;
+        this.maxBuckets = maxBuckets;
+    }
+
+    public List<ViewStatsBucketDto> getTimeSeries(GetTimeSeriesParam param) {
+        Duration interval = param.getInterval();
+        if (interval.toSeconds() % 60 != 0) {
+            throw new BadRequestException("interval должен быть кратен минуте");
+        }
+        if (Duration.between(param.getStart(), param.getEnd()).dividedBy(interval) >= maxBuckets) {
+            throw new BadRequestException("Слишком много бакетов, максимум " + maxBuckets);
+        }
+        if (param.hasUris() && param.getUris().isEmpty()) {
+            return List.of();
+        }
+
+        if (param.isUnique()) {
+            return sorted(statsRepository.getBuckets(param.getStart(), param.getEnd(), param.getUris(), true, interval));
+        }
+
+        RollupGranularity granularity = interval.toSeconds() % 3600 == 0 ? RollupGranularity.HOUR : RollupGranularity.MINUTE;
+        LocalDateTime from = granularity.ceil(param.getStart());
+        LocalDateTime to = granularity.floor(param.getEnd());
+        if (!from.isBefore(to)) {
+            return sorted(statsRepository.getBuckets(param.getStart(), param.getEnd(), param.getUris(), false, interval));
+        }
+
+        List<ViewStatsBucketDto> parts = new ArrayList<>();
+        parts.addAll(statsRepository.getBucketsBefore(param.getStart(), from, param.getUris(), false, interval));
+        parts.addAll(rollupRepository.sumHitsByBucket(granularity, from, to, param.getUris(), interval));
+        parts.addAll(statsRepository.getBuckets(to, param.getEnd(), param.getUris(), false, interval));
+        return merge(parts);
+    }
+
+    private List<ViewStatsBucketDto> merge(List<ViewStatsBucketDto> parts) {
+        Map<List<Object>, ViewStatsBucketDto> byKey = new LinkedHashMap<>();
+        for (ViewStatsBucketDto part : parts) {
+            byKey.merge(List.of(part.getApp(), part.getUri(), part.getBucket()),
+                    new ViewStatsBucketDto(part.getApp(), part.getUri(), part.getBucket(), part.getHits()),
+                    (a, b) -> {
+                        a.setHits(a.getHits() + b.getHits());
+                        return a;
+                    });
+        }
+        return sorted(byKey.values());
+    }
+
+    private List<ViewStatsBucketDto> sorted(Iterable<ViewStatsBucketDto> buckets) {
+        List<ViewStatsBucketDto> result = new ArrayList<>();
+        buckets.forEach(result::add);
+        result.sort(Comparator.comparing(ViewStatsBucketDto::getUri)
+                .thenComparing(ViewStatsBucketDto::getApp)
+                .thenComparing(ViewStatsBucketDto::getBucket));
+        return result;
+    }
+}
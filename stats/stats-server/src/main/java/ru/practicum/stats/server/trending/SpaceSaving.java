@@ -0,0 +1,76 @@
+package ru.practicum.stats.server.trending;
+
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.BiConsumer;
+
+/**
+ * Алгоритм Space-Saving: хранит не более capacity ключей. Новый ключ при заполнении вытесняет
+ * ключ с минимальным счетчиком и наследует его значение, поэтому счет может быть завышен
+ * не больше чем на минимальный счетчик на момент вытеснения. Любой ключ с долей хитов больше 1 / capacity гарантированно присутствует.
+ */
+class SpaceSaving<K> {
+
+    private final int capacity;
+    private final Map<K, Counter> counters = new HashMap<>();
+    private final TreeMap<Long, LinkedHashSet<Counter>> byCount = new TreeMap<>();
+
+    SpaceSaving(int capacity) {
+        this.capacity = capacity;
+    }
+
+    synchronized void add(K key) {
+        Counter counter = counters.get(key);
+        if (counter != null) {
+            move(counter, counter.count + 1);
+            return;
+        }
+
+        if (counters.size() < capacity) {
+            counter = new Counter(key, 1);
+            counters.put(key, counter);
+            place(counter);
+            return;
+        }
+
+        LinkedHashSet<Counter> minimal = byCount.firstEntry().getValue();
+        Counter evicted = minimal.iterator().next();
+        counters.remove(evicted.key);
+        counters.put(key, evicted);
+        evicted.key = key;
+        move(evicted, evicted.count + 1);
+    }
+
+    /**
+     * Передает каждый ключ и его (возможно завышенный) счетчик.
+     */
+    synchronized void forEach(BiConsumer<K, Long> consumer) {
+        counters.forEach((key, counter) -> consumer.accept(key, counter.count));
+    }
+
+    private void move(Counter counter, long count) {
+        LinkedHashSet<Counter> bucket = byCount.get(counter.count);
+        bucket.remove(counter);
+        if (bucket.isEmpty()) {
+            byCount.remove(counter.count);
+        }
+        counter.count = count;
+        place(counter);
+    }
+
+    private void place(Counter counter) {
+        byCount.computeIfAbsent(counter.count, c -> new LinkedHashSet<>()).add(counter);
+    }
+
+    private final class Counter {
+        private K key;
+        private long count;
+
+        private Counter(K key, long count) {
+            this.key = key;
+            this.count = count;
+        }
+    }
+}
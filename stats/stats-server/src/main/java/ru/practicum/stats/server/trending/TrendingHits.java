@@ -0,0 +1,88 @@
+package ru.practicum.stats.server.trending;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import ru.practicum.dto.ViewStatsDto;
+import ru.practicum.stats.server.error.BadRequestException;
+import ru.practicum.stats.server.model.EndpointHit;
+import ru.practicum.stats.server.shard.ConditionalOnLocalStorage;
+import ru.practicum.stats.server.util.Durations;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Самые просматриваемые uri в скользящем окне. Для каждой минуты приема хитов ведется
+ * отдельная сводка Space-Saving, запрос складывает сводки минут, попавших в окно.
+ * Сводки видят только хиты своего экземпляра: при нескольких экземплярах stats-server
+ * топ считается по БД за интервал {@link #windowStart(Duration)} - сейчас.
+ */
+@Component
+@ConditionalOnLocalStorage
+public class TrendingHits {
+
+    private final int capacity;
+    private final int maxWindowMinutes;
+    private final ConcurrentSkipListMap<LocalDateTime, SpaceSaving<HitKey>> minutes = new ConcurrentSkipListMap<>();
+
+    public TrendingHits(@Value("${stats.trending.capacity:1000}") int capacity,
+                        @Value("${stats.trending.max-window-minutes:60}") int maxWindowMinutes) {
+        this.capacity = capacity;
+        this.maxWindowMinutes = maxWindowMinutes;
+    }
+
+    public void record(EndpointHit hit) {
+        LocalDateTime minute = LocalDateTime.now().truncatedTo(ChronoUnit.MINUTES);
+        minutes.computeIfAbsent(minute, m -> new SpaceSaving<>(capacity))
+                .add(new HitKey(hit.getApp(), hit.getUri()));
+    }
+
+    /**
+     * Топ uri за последние window, текущая неполная минута входит в окно.
+     */
+    public List<ViewStatsDto> getTop(Duration window, int limit) {
+        Map<HitKey, Long> totals = new HashMap<>();
+        minutes.tailMap(windowStart(window)).values()
+                .forEach(summary -> summary.forEach((key, count) -> totals.merge(key, count, Long::sum)));
+
+        return totals.entrySet().stream()
+                .sorted(Map.Entry.<HitKey, Long>comparingByValue(Comparator.reverseOrder()))
+                .limit(limit)
+                .map(e -> new ViewStatsDto(e.getKey().app(), e.getKey().uri(), e.getValue()))
+                .toList();
+    }
+
+    /**
+     * Начало окна: минута, с которой начинается последняя window, включая текущую неполную минуту.
+     */
+    public LocalDateTime windowStart(Duration window) {
+        return LocalDateTime.now().truncatedTo(ChronoUnit.MINUTES).minusMinutes(window.toMinutes() - 1);
+    }
+
+    /**
+     * Разбирает окно вида 15m или 1h.
+     */
+    public Duration parseWindow(String window) {
+        Duration duration = Durations.parse("window", window);
+        if (duration.toMinutes() > maxWindowMinutes) {
+            throw new BadRequestException("Окно должно быть от 1 до " + maxWindowMinutes + " минут");
+        }
+        return duration;
+    }
+
+    @Scheduled(fixedDelayString = "${stats.trending.evict-interval-ms:60000}")
+    public void evict() {
+        LocalDateTime current = LocalDateTime.now().truncatedTo(ChronoUnit.MINUTES);
+        minutes.headMap(current.minusMinutes(maxWindowMinutes - 1)).clear();
+    }
+
+    private record HitKey(String app, String uri) {
+    }
+}
@@ -0,0 +1,42 @@
+package ru.practicum.stats.server.util;
+
+import ru.practicum.stats.server.error.BadRequestException;
+
+import java.time.Duration;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Разбор длительностей из параметров запроса в формате 15m, 1h или 1d.
+ */
+public final class Durations {
+
+    private static final Pattern DURATION = Pattern.compile("(\\d+)([mhd])");
+
+    private Durations() {
+    }
+
+    public static Duration parse(String name, String value) {
+        Matcher matcher = DURATION.matcher(value);
+        if (!matcher.matches()) {
+            throw new BadRequestException("Некорректное значение " + name + ": " + value
+                    + ", ожидается формат 15m, 1h или 1d");
+        }
+
+        Duration duration;
+        try {
+            long amount = Long.parseLong(matcher.group(1));
+            duration = switch (matcher.group(2)) {
+                case "m" -> Duration.ofMinutes(amount);
+                case "h" -> Duration.ofHours(amount);
+                default -> Duration.ofDays(amount);
+            };
+        } catch (NumberFormatException | ArithmeticException e) {
+            throw new BadRequestException("Слишком большое значение " + name + ": " + value);
+        }
+        if (duration.isZero()) {
+            throw new BadRequestException("Значение " + name + " должно быть больше 0");
+        }
+        return duration;
+    }
+}
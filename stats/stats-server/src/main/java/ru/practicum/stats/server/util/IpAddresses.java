@@ -0,0 +1,33 @@
+package ru.practicum.stats.server.util;
+
+import ru.practicum.stats.server.error.BadRequestException;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.regex.Pattern;
+
+/**
+ * Приведение ip к единому текстовому виду: IPv4 и IPv4-mapped IPv6 записываются как IPv4,
+ * остальные IPv6 в полной форме. Одинаковый вид нужен, чтобы ip из запроса и из БД совпадали.
+ */
+public final class IpAddresses {
+
+    private static final String OCTET = "(25[0-5]|2[0-4]\\d|1\\d\\d|[1-9]?\\d)";
+    private static final Pattern IPV4 = Pattern.compile(OCTET + "(\\." + OCTET + "){3}");
+    private static final Pattern IPV6 = Pattern.compile("[0-9a-fA-F:.]+");
+
+    private IpAddresses() {
+    }
+
+    public static String normalize(String ip) {
+        // проверка формы обязательна: для не-литерала InetAddress.getByName пойдет в DNS
+        if (ip == null || !(IPV4.matcher(ip).matches() || ip.contains(":") && IPV6.matcher(ip).matches())) {
+            throw new BadRequestException("Некорректный ip: " + ip);
+        }
+        try {
+            return InetAddress.getByName(ip).getHostAddress();
+        } catch (UnknownHostException e) {
+            throw new BadRequestException("Некорректный ip: " + ip);
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package ru.practicum.stats.server.util;
+
+import ru.practicum.dto.ViewStatsDto;
+import ru.practicum.stats.server.model.Visit;
+
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * Сборка итоговой статистики из частей, посчитанных по разным источникам.
+ */
+public final class ViewStats {
+
+    private ViewStats() {
+    }
+
+    /**
+     * Складывает просмотры частей по паре app + uri и сортирует по убыванию.
+     */
+    public static List<ViewStatsDto> merge(Collection<ViewStatsDto> parts) {
+        Map<List<String>, ViewStatsDto> byKey = new LinkedHashMap<>();
+        for (ViewStatsDto part : parts) {
+            byKey.merge(List.of(part.getApp(), part.getUri()),
+                    new ViewStatsDto(part.getApp(), part.getUri(), part.getHits()),
+                    (a, b) -> {
+                        a.setHits(a.getHits() + b.getHits());
+                        return a;
+                    });
+        }
+        return sorted(byKey.values());
+    }
+
+    /**
+     * Считает уникальные ip по паре app + uri; повторы посещений допустимы.
+     */
+    public static List<ViewStatsDto> countDistinct(Stream<Visit> visits) {
+        Map<List<String>, Set<String>> ips = new LinkedHashMap<>();
+        visits.forEach(visit ->
+                ips.computeIfAbsent(List.of(visit.app(), visit.uri()), k -> new HashSet<>()).add(visit.ip()));
+        return sorted(ips.entrySet().stream()
+                .map(e -> new ViewStatsDto(e.getKey().get(0), e.getKey().get(1), (long) e.getValue().size()))
+                .toList());
+    }
+
+    private static List<ViewStatsDto> sorted(Collection<ViewStatsDto> stats) {
+        return stats.stream()
+                .sorted(Comparator.comparing(ViewStatsDto::getHits).reversed())
+                .toList();
+    }
+}
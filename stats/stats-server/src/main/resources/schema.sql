@@ -1,7 +1,95 @@
+CREATE TABLE IF NOT EXISTS stats_app (
+id INTEGER GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+name VARCHAR(255) NOT NULL UNIQUE
+);
+
+CREATE TABLE IF NOT EXISTS stats_uri (
+id INTEGER GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+uri VARCHAR(255) NOT NULL UNIQUE,
+event_id BIGINT
+);
+
+ALTER TABLE stats_uri ADD COLUMN IF NOT EXISTS event_id BIGINT;
+
+CREATE INDEX IF NOT EXISTS stats_uri_event_id_idx ON stats_uri (event_id);
+
+UPDATE stats_uri SET event_id = CAST(substring(uri FROM '^/events/([0-9]{1,18})$') AS BIGINT)
+WHERE event_id IS NULL AND uri ~ '^/events/[0-9]{1,18}$';
+
 CREATE TABLE IF NOT EXISTS stats (
-id BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+id BIGSERIAL,
+app_id INTEGER NOT NULL,
+uri_id INTEGER NOT NULL,
+ip INET NOT NULL,
+created TIMESTAMP WITHOUT TIME ZONE NOT NULL,
+PRIMARY KEY (id, created)
+) PARTITION BY RANGE (created);
+
+CREATE TABLE IF NOT EXISTS stats_quarantine (
+id BIGINT NOT NULL,
 app VARCHAR(255) NOT NULL,
-ip VARCHAR(15) CHECK (LENGTH(ip) >= 7),
 uri VARCHAR(255) NOT NULL,
-created TIMESTAMP WITHOUT TIME ZONE NOT NULL
-);
\ No newline at end of file
+ip VARCHAR(255),
+created TIMESTAMP WITHOUT TIME ZONE NOT NULL,
+quarantined_at TIMESTAMP WITHOUT TIME ZONE NOT NULL
+);
+
+CREATE TABLE IF NOT EXISTS stats_rollup_minute (
+app_id INTEGER NOT NULL,
+uri_id INTEGER NOT NULL,
+bucket TIMESTAMP WITHOUT TIME ZONE NOT NULL,
+hits BIGINT NOT NULL,
+PRIMARY KEY (uri_id, bucket, app_id)
+);
+
+CREATE INDEX IF NOT EXISTS stats_rollup_minute_bucket_idx ON stats_rollup_minute (bucket);
+
+CREATE TABLE IF NOT EXISTS stats_rollup_hour (
+app_id INTEGER NOT NULL,
+uri_id INTEGER NOT NULL,
+bucket TIMESTAMP WITHOUT TIME ZONE NOT NULL,
+hits BIGINT NOT NULL,
+PRIMARY KEY (uri_id, bucket, app_id)
+);
+
+CREATE INDEX IF NOT EXISTS stats_rollup_hour_bucket_idx ON stats_rollup_hour (bucket);
+
+CREATE TABLE IF NOT EXISTS stats_hll_hour (
+app_id INTEGER NOT NULL,
+uri_id INTEGER NOT NULL,
+bucket TIMESTAMP WITHOUT TIME ZONE NOT NULL,
+sketch BYTEA NOT NULL,
+PRIMARY KEY (uri_id, bucket, app_id)
+);
+
+CREATE INDEX IF NOT EXISTS stats_hll_hour_bucket_idx ON stats_hll_hour (bucket);
+
+CREATE TABLE IF NOT EXISTS stats_backfill (
+aggregator VARCHAR(64) PRIMARY KEY,
+completed_at TIMESTAMP WITHOUT TIME ZONE NOT NULL
+);
+
+CREATE TABLE IF NOT EXISTS stats_ip (
+id INTEGER GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+ip INET NOT NULL UNIQUE
+);
+
+CREATE TABLE IF NOT EXISTS stats_bitmap_day (
+app_id INTEGER NOT NULL,
+uri_id INTEGER NOT NULL,
+bucket TIMESTAMP WITHOUT TIME ZONE NOT NULL,
+bitmap BYTEA NOT NULL,
+PRIMARY KEY (uri_id, bucket, app_id)
+);
+
+CREATE INDEX IF NOT EXISTS stats_bitmap_day_bucket_idx ON stats_bitmap_day (bucket);
+
+CREATE TABLE IF NOT EXISTS stats_archive (
+file VARCHAR(255) PRIMARY KEY,
+range_from TIMESTAMP WITHOUT TIME ZONE NOT NULL,
+range_to TIMESTAMP WITHOUT TIME ZONE NOT NULL,
+max_id BIGINT NOT NULL,
+row_count BIGINT NOT NULL,
+archived_at TIMESTAMP WITHOUT TIME ZONE NOT NULL,
+purged BOOLEAN NOT NULL DEFAULT FALSE
+);
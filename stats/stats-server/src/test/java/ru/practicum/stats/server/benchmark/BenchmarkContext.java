@@ -0,0 +1,79 @@
+package ru.practicum.stats.server.benchmark;
+
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import ru.practicum.stats.server.StatsServerApplication;
+import ru.practicum.stats.server.ingest.HitBuffer;
+import ru.practicum.stats.server.model.EndpointHit;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Контекст stats-server для бенчмарков на настоящем Postgres и генератор синтетических хитов.
+ * Адрес БД задается -Dstats.benchmark.url, -Dstats.benchmark.username и -Dstats.benchmark.password,
+ * таблицы stats должны быть пустыми: бенчмарк заливает в них свои хиты.
+ */
+final class BenchmarkContext {
+
+    static final int URIS = 10_000;
+    static final int IPS = 1_000_000;
+    static final int DAYS = 30;
+    static final LocalDateTime END = LocalDateTime.of(2025, 1, 1, 0, 0);
+    static final LocalDateTime START = END.minusDays(DAYS);
+
+    private static final int CHUNK = 100_000;
+
+    private BenchmarkContext() {
+    }
+
+    static ConfigurableApplicationContext start(String... properties) {
+        List<String> all = new ArrayList<>(List.of(
+                "spring.datasource.url=" + System.getProperty("stats.benchmark.url",
+                        "jdbc:postgresql://localhost:5432/stats"),
+                "spring.datasource.username=" + System.getProperty("stats.benchmark.username", "stats"),
+                "spring.datasource.password=" + System.getProperty("stats.benchmark.password", "stats"),
+                "spring.sql.init.mode=always",
+                "server.port=0",
+                "stats.partition.retention-days=0",
+                "stats.archive.enabled=false"));
+        all.addAll(List.of(properties));
+        return new SpringApplicationBuilder(StatsServerApplication.class)
+                .properties(all.toArray(String[]::new))
+                .run();
+    }
+
+    /**
+     * Заливает hits хитов через буфер записи, равномерно по URIS uri и IPS ip за DAYS дней до END.
+     */
+    static void load(ConfigurableApplicationContext context, int hits) {
+        HitBuffer buffer = context.getBean(HitBuffer.class);
+        Random random = new Random(42);
+        long seconds = DAYS * 24L * 3600;
+        for (int loaded = 0; loaded < hits; loaded += CHUNK) {
+            int size = Math.min(CHUNK, hits - loaded);
+            List<EndpointHit> chunk = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                int ip = random.nextInt(IPS);
+                chunk.add(EndpointHit.builder()
+                        .app("ewm-main-service")
+                        .uri("/events/" + random.nextInt(URIS))
+                        .ip("10." + (ip >> 16 & 255) + "." + (ip >> 8 & 255) + "." + (ip & 255))
+                        .created(START.plusSeconds(random.nextLong(seconds)))
+                        .build());
+            }
+            buffer.addAll(chunk);
+            buffer.flush();
+        }
+    }
+
+    static List<String> randomUris(Random random, int count) {
+        List<String> uris = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            uris.add("/events/" + random.nextInt(URIS));
+        }
+        return uris;
+    }
+}
@@ -0,0 +1,106 @@
+package ru.practicum.stats.server.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import ru.practicum.dto.ViewStatsDto;
+import ru.practicum.stats.server.columnar.ColumnarHitStore;
+import ru.practicum.stats.server.repository.StatsRepository;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * GET /stats из колоночного хранилища против запросов {@link StatsRepository} на тех же хитах.
+ * Запуск: main с -Dstats.benchmark.url=jdbc:postgresql://... на пустой базе, см. {@link BenchmarkContext}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ColumnarStatsBenchmark {
+
+    @Param("10000000")
+    private int hits;
+
+    @Param({"1", "100"})
+    private int uriCount;
+
+    private ConfigurableApplicationContext context;
+    private ColumnarHitStore store;
+    private StatsRepository repository;
+    private Random random;
+
+    @Setup(Level.Trial)
+    public void setUp() throws InterruptedException {
+        context = BenchmarkContext.start("stats.engine=columnar");
+        store = context.getBean(ColumnarHitStore.class);
+        repository = context.getBean(StatsRepository.class);
+        BenchmarkContext.load(context, hits);
+        while (!store.isReady()) {
+            TimeUnit.MILLISECONDS.sleep(100);
+        }
+        random = new Random(7);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public List<ViewStatsDto> columnarHits() {
+        return store.getStats(start(), BenchmarkContext.END, uris(), false, List::of);
+    }
+
+    @Benchmark
+    public List<ViewStatsDto> sqlHits() {
+        return repository.getAllStats(start(), BenchmarkContext.END, uris());
+    }
+
+    @Benchmark
+    public List<ViewStatsDto> columnarUnique() {
+        return store.getStats(start(), BenchmarkContext.END, uris(), true, List::of);
+    }
+
+    @Benchmark
+    public List<ViewStatsDto> sqlUnique() {
+        return repository.findStatsWithUnique(start(), BenchmarkContext.END, uris());
+    }
+
+    private LocalDateTime start() {
+        return BenchmarkContext.START.plusDays(random.nextInt(BenchmarkContext.DAYS));
+    }
+
+    private List<String> uris() {
+        return BenchmarkContext.randomUris(random, uriCount);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(ColumnarStatsBenchmark.class.getSimpleName())
+                .jvmArgsAppend(System.getProperties().stringPropertyNames().stream()
+                        .filter(name -> name.startsWith("stats.benchmark."))
+                        .map(name -> "-D" + name + "=" + System.getProperty(name))
+                        .toArray(String[]::new))
+                .build()).run();
+    }
+}
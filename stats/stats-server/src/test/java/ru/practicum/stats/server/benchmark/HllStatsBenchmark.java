@@ -0,0 +1,121 @@
+package ru.practicum.stats.server.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import ru.practicum.dto.ViewStatsDto;
+import ru.practicum.stats.server.ingest.AggregateBackfill;
+import ru.practicum.stats.server.repository.StatsRepository;
+import ru.practicum.stats.server.sketch.HllAggregator;
+import ru.practicum.stats.server.sketch.HllStatsReader;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Уникальные просмотры по HyperLogLog-скетчам (precision=approx) против COUNT(DISTINCT ip) по сырой таблице.
+ * Перед замерами печатается наибольшая относительная ошибка приближенного подсчета на тех же запросах.
+ * Запуск: main с -Dstats.benchmark.url=jdbc:postgresql://... на пустой базе, см. {@link BenchmarkContext}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class HllStatsBenchmark {
+
+    @Param("20000000")
+    private int hits;
+
+    @Param({"1", "100"})
+    private int uriCount;
+
+    private ConfigurableApplicationContext context;
+    private HllStatsReader hllStatsReader;
+    private StatsRepository repository;
+    private Random random;
+
+    @Setup(Level.Trial)
+    public void setUp() throws InterruptedException {
+        context = BenchmarkContext.start();
+        hllStatsReader = context.getBean(HllStatsReader.class);
+        repository = context.getBean(StatsRepository.class);
+        AggregateBackfill backfill = context.getBean(AggregateBackfill.class);
+        HllAggregator aggregator = context.getBean(HllAggregator.class);
+        BenchmarkContext.load(context, hits);
+        while (!backfill.isComplete(aggregator)) {
+            TimeUnit.MILLISECONDS.sleep(100);
+        }
+
+        random = new Random(7);
+        double maxError = 0;
+        for (int i = 0; i < 20; i++) {
+            LocalDateTime start = start();
+            List<String> uris = uris();
+            Map<String, Long> exact = asMap(repository.findStatsWithUnique(start, BenchmarkContext.END, uris));
+            for (Map.Entry<String, Long> approx : asMap(hllStatsReader.getUniqueHits(start, BenchmarkContext.END,
+                    uris, Stream.empty())).entrySet()) {
+                long expected = exact.getOrDefault(approx.getKey(), 0L);
+                maxError = Math.max(maxError, Math.abs(approx.getValue() - expected) / (double) Math.max(expected, 1));
+            }
+        }
+        System.out.printf("Наибольшая относительная ошибка HLL: %.4f%n", maxError);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public List<ViewStatsDto> hllUnique() {
+        return hllStatsReader.getUniqueHits(start(), BenchmarkContext.END, uris(), Stream.empty());
+    }
+
+    @Benchmark
+    public List<ViewStatsDto> sqlUnique() {
+        return repository.findStatsWithUnique(start(), BenchmarkContext.END, uris());
+    }
+
+    private LocalDateTime start() {
+        return BenchmarkContext.START.plusDays(random.nextInt(BenchmarkContext.DAYS)).plusMinutes(random.nextInt(1440));
+    }
+
+    private List<String> uris() {
+        return BenchmarkContext.randomUris(random, uriCount);
+    }
+
+    private static Map<String, Long> asMap(List<ViewStatsDto> stats) {
+        return stats.stream().collect(Collectors.toMap(stat -> stat.getApp() + stat.getUri(), ViewStatsDto::getHits));
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(HllStatsBenchmark.class.getSimpleName())
+                .jvmArgsAppend(System.getProperties().stringPropertyNames().stream()
+                        .filter(name -> name.startsWith("stats.benchmark."))
+                        .map(name -> "-D" + name + "=" + System.getProperty(name))
+                        .toArray(String[]::new))
+                .build()).run();
+    }
+}
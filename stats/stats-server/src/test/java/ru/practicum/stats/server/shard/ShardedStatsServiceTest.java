@@ -0,0 +1,393 @@
+package ru.practicum.stats.server.shard;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.ApplicationContext;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.web.client.RestClient;
+import ru.practicum.dto.EndpointHitDto;
+import ru.practicum.dto.ViewStatsDto;
+import ru.practicum.stats.server.dictionary.UriDictionary;
+import ru.practicum.stats.server.error.PartialSaveException;
+import ru.practicum.stats.server.error.ShardUnavailableException;
+import ru.practicum.stats.server.ingest.HitBuffer;
+import ru.practicum.stats.server.partition.StatsPartitionManager;
+import ru.practicum.stats.server.service.StatsService;
+import ru.practicum.stats.server.service.StatsServiceImpl;
+import ru.practicum.stats.server.service.param.GetStatsParam;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.stream.Collector;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Роутер перед двумя шардами, поднятыми как настоящие HTTP-серверы. Проверяет раскладку хитов,
+ * слияние ответов и частичную запись, после повтора которой хиты не дублируются.
+ * Шарды - заглушки с хитами в памяти: настоящим stats-server нужен Postgres.
+ */
+@SpringBootTest(properties = "stats.shard.enabled=true")
+@AutoConfigureMockMvc
+class ShardedStatsServiceTest {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper().findAndRegisterModules();
+    private static final FakeShard FIRST = new FakeShard();
+    private static final FakeShard SECOND = new FakeShard();
+
+    @Autowired
+    private MockMvc mockMvc;
+    @Autowired
+    private ApplicationContext context;
+    @Autowired
+    private StatsService statsService;
+
+    @DynamicPropertySource
+    static void shards(DynamicPropertyRegistry registry) {
+        registry.add("stats.shard.urls", () -> FIRST.url() + "," + SECOND.url());
+    }
+
+    @AfterAll
+    static void stopShards() {
+        FIRST.stop();
+        SECOND.stop();
+    }
+
+    @BeforeEach
+    void reset() {
+        FIRST.reset();
+        SECOND.reset();
+    }
+
+    @Test
+    void routerDoesNotStartLocalStorage() {
+        assertThat(statsService).isInstanceOf(ShardedStatsService.class);
+        assertThat(context.getBeansOfType(StatsServiceImpl.class)).isEmpty();
+        assertThat(context.getBeansOfType(HitBuffer.class)).isEmpty();
+        assertThat(context.getBeansOfType(StatsPartitionManager.class)).isEmpty();
+    }
+
+    @Test
+    void hitsOfOneUriLandOnOneShardAndStatsAreMerged() throws Exception {
+        List<EndpointHitDto> hits = hits(100);
+
+        mockMvc.perform(post("/hits")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(MAPPER.writeValueAsBytes(hits)))
+                .andExpect(status().isAccepted());
+
+        assertThat(FIRST.hits()).isNotEmpty();
+        assertThat(SECOND.hits()).isNotEmpty();
+        assertThat(FIRST.hits().size() + SECOND.hits().size()).isEqualTo(hits.size());
+        assertThat(uris(FIRST.hits())).doesNotContainAnyElementsOf(uris(SECOND.hits()));
+
+        MvcResult result = mockMvc.perform(get("/stats")
+                        .param("start", "2020-01-01 00:00:00")
+                        .param("end", "2030-01-01 00:00:00"))
+                .andExpect(status().isOk())
+                .andReturn();
+        List<ViewStatsDto> stats = MAPPER.readValue(result.getResponse().getContentAsByteArray(), new TypeReference<>() {
+        });
+        assertThat(stats).hasSize(10);
+        assertThat(stats.stream().mapToLong(ViewStatsDto::getHits).sum()).isEqualTo(hits.size());
+    }
+
+    @Test
+    void uniqueStatsAreMergedAcrossShards() throws Exception {
+        postHits(IntStream.range(0, 100)
+                .mapToObj(i -> hit("/events/" + (i % 10), "10.0.0." + (i % 3)))
+                .toList());
+
+        MvcResult result = mockMvc.perform(get("/stats")
+                        .param("start", "2020-01-01 00:00:00")
+                        .param("end", "2030-01-01 00:00:00")
+                        .param("unique", "true"))
+                .andExpect(status().isOk())
+                .andReturn();
+        List<ViewStatsDto> stats = MAPPER.readValue(result.getResponse().getContentAsByteArray(), new TypeReference<>() {
+        });
+        assertThat(stats).hasSize(10).allSatisfy(stat -> assertThat(stat.getHits()).isEqualTo(3));
+    }
+
+    @Test
+    void eventAliasesLandOnOneShardAndAreCountedOnce() throws Exception {
+        List<EndpointHitDto> hits = IntStream.range(0, 20)
+                .boxed()
+                .flatMap(id -> Stream.of(hit("/events/" + id, "10.0.0.1"), hit("/events/0" + id, "10.0.0.1")))
+                .toList();
+        postHits(hits);
+
+        assertThat(FIRST.hits()).isNotEmpty();
+        assertThat(SECOND.hits()).isNotEmpty();
+        assertThat(eventIds(FIRST.hits())).doesNotContainAnyElementsOf(eventIds(SECOND.hits()));
+
+        List<Long> eventIds = LongStream.range(0, 20).boxed().toList();
+        assertThat(eventViews(eventIds, true)).hasSize(20).allSatisfy((id, views) -> assertThat(views).isEqualTo(1));
+        assertThat(eventViews(eventIds, false)).hasSize(20).allSatisfy((id, views) -> assertThat(views).isEqualTo(2));
+    }
+
+    @Test
+    void streamMergesShardsByHitsDescending() throws Exception {
+        postHits(rankedHits(20));
+        assertThat(FIRST.hits()).isNotEmpty();
+        assertThat(SECOND.hits()).isNotEmpty();
+
+        List<ViewStatsDto> rows = new ArrayList<>();
+        statsService.streamStats(allTime(), rows::add);
+
+        assertThat(rows).hasSize(20)
+                .isSortedAccordingTo(Comparator.comparingLong(ViewStatsDto::getHits).reversed());
+        assertThat(rows.getFirst().getHits()).isEqualTo(20);
+    }
+
+    @Test
+    void shardFailureMidStreamFailsWholeStream() throws Exception {
+        postHits(rankedHits(20));
+        SECOND.failingStream = true;
+
+        List<ViewStatsDto> rows = new ArrayList<>();
+        assertThatThrownBy(() -> statsService.streamStats(allTime(), rows::add))
+                .isInstanceOf(ShardUnavailableException.class);
+        assertThat(rows).hasSizeLessThan(20);
+    }
+
+    @Test
+    void partialFailureReturnsOnlyRejectedHits() throws Exception {
+        List<EndpointHitDto> hits = hits(100);
+        SECOND.failing = true;
+
+        MvcResult result = mockMvc.perform(post("/hits")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(MAPPER.writeValueAsBytes(hits)))
+                .andExpect(status().isServiceUnavailable())
+                .andExpect(header().exists(PartialSaveException.REJECTED_HEADER))
+                .andReturn();
+        List<EndpointHitDto> rejected = MAPPER.readValue(result.getResponse().getContentAsByteArray(), new TypeReference<>() {
+        });
+        assertThat(FIRST.hits().size() + rejected.size()).isEqualTo(hits.size());
+
+        SECOND.failing = false;
+        mockMvc.perform(post("/hits")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(MAPPER.writeValueAsBytes(rejected)))
+                .andExpect(status().isAccepted());
+
+        assertThat(FIRST.hits().size() + SECOND.hits().size()).isEqualTo(hits.size());
+    }
+
+    @Test
+    void failureOfEveryShardIsRetryableAsWhole() throws Exception {
+        FIRST.failing = true;
+        SECOND.failing = true;
+
+        mockMvc.perform(post("/hits")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(MAPPER.writeValueAsBytes(hits(10))))
+                .andExpect(status().isServiceUnavailable())
+                .andExpect(header().doesNotExist(PartialSaveException.REJECTED_HEADER));
+    }
+
+    @Test
+    void storageEngineCannotBeCombinedWithRouter() {
+        assertThatThrownBy(() -> new ShardedStatsService(RestClient.builder(), MAPPER, List.of(FIRST.url()),
+                1000, 1000, 1000, 1000, "columnar"))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("stats.engine=columnar");
+    }
+
+    private void postHits(List<EndpointHitDto> hits) throws Exception {
+        mockMvc.perform(post("/hits")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(MAPPER.writeValueAsBytes(hits)))
+                .andExpect(status().isAccepted());
+    }
+
+    private Map<Long, Long> eventViews(List<Long> eventIds, boolean unique) throws Exception {
+        MvcResult result = mockMvc.perform(post("/stats/views/events")
+                        .param("unique", String.valueOf(unique))
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(MAPPER.writeValueAsBytes(eventIds)))
+                .andExpect(status().isOk())
+                .andReturn();
+        return MAPPER.readValue(result.getResponse().getContentAsByteArray(), new TypeReference<>() {
+        });
+    }
+
+    private static GetStatsParam allTime() {
+        return GetStatsParam.builder()
+                .start(LocalDateTime.of(2020, 1, 1, 0, 0))
+                .end(LocalDateTime.of(2030, 1, 1, 0, 0))
+                .build();
+    }
+
+    private static List<EndpointHitDto> hits(int count) {
+        return IntStream.range(0, count)
+                .mapToObj(i -> hit("/events/" + (i % 10), "10.0.0." + i))
+                .toList();
+    }
+
+    /**
+     * У uri /events/{j} ровно j + 1 хитов, поэтому порядок строк по hits однозначен.
+     */
+    private static List<EndpointHitDto> rankedHits(int uriCount) {
+        return IntStream.range(0, uriCount)
+                .boxed()
+                .flatMap(j -> IntStream.rangeClosed(0, j).mapToObj(i -> hit("/events/" + j, "10.0.0." + i)))
+                .toList();
+    }
+
+    private static EndpointHitDto hit(String uri, String ip) {
+        EndpointHitDto hit = new EndpointHitDto();
+        hit.setApp("ewm-main-service");
+        hit.setUri(uri);
+        hit.setIp(ip);
+        hit.setCreated(LocalDateTime.of(2025, 1, 1, 12, 0));
+        return hit;
+    }
+
+    private static List<String> uris(List<EndpointHitDto> hits) {
+        return hits.stream().map(EndpointHitDto::getUri).distinct().toList();
+    }
+
+    private static List<Long> eventIds(List<EndpointHitDto> hits) {
+        return hits.stream().map(hit -> UriDictionary.eventId(hit.getUri())).distinct().toList();
+    }
+
+    /**
+     * Шард, который хранит принятые хиты в памяти и отвечает на POST /hits, GET /stats (json и ndjson)
+     * и POST /stats/views/events.
+     */
+    private static final class FakeShard {
+
+        private final HttpServer server;
+        private final List<EndpointHitDto> hits = Collections.synchronizedList(new ArrayList<>());
+        private volatile boolean failing;
+        private volatile boolean failingStream;
+
+        FakeShard() {
+            try {
+                server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            server.createContext("/hits", this::saveHits);
+            server.createContext("/stats", this::getStats);
+            server.createContext("/stats/views/events", this::getEventViews);
+            server.start();
+        }
+
+        String url() {
+            return "http://localhost:" + server.getAddress().getPort();
+        }
+
+        List<EndpointHitDto> hits() {
+            return List.copyOf(hits);
+        }
+
+        void reset() {
+            hits.clear();
+            failing = false;
+            failingStream = false;
+        }
+
+        void stop() {
+            server.stop(0);
+        }
+
+        private void saveHits(HttpExchange exchange) throws IOException {
+            if (failing) {
+                respond(exchange, 503, "{}");
+                return;
+            }
+            hits.addAll(MAPPER.readValue(exchange.getRequestBody(), new TypeReference<List<EndpointHitDto>>() {
+            }));
+            respond(exchange, 202, "\"Информация принята\"");
+        }
+
+        private void getStats(HttpExchange exchange) throws IOException {
+            Map<String, Long> counts = hits().stream()
+                    .collect(Collectors.groupingBy(EndpointHitDto::getUri, views(unique(exchange))));
+            List<ViewStatsDto> stats = counts.entrySet().stream()
+                    .map(e -> new ViewStatsDto("ewm-main-service", e.getKey(), e.getValue()))
+                    .sorted(Comparator.comparingLong(ViewStatsDto::getHits).reversed())
+                    .toList();
+            if (!Objects.equals(exchange.getRequestHeaders().getFirst("Accept"), MediaType.APPLICATION_NDJSON_VALUE)) {
+                respond(exchange, 200, MAPPER.writeValueAsString(stats));
+                return;
+            }
+
+            exchange.getResponseHeaders().add("Content-Type", MediaType.APPLICATION_NDJSON_VALUE);
+            exchange.sendResponseHeaders(200, 0);
+            try (OutputStream out = exchange.getResponseBody()) {
+                for (ViewStatsDto stat : stats) {
+                    out.write((MAPPER.writeValueAsString(stat) + "\n").getBytes(StandardCharsets.UTF_8));
+                    if (failingStream) {
+                        // ответ обрывается посреди строки, как при падении шарда
+                        out.write("{\"app\":".getBytes(StandardCharsets.UTF_8));
+                        return;
+                    }
+                }
+            }
+        }
+
+        private void getEventViews(HttpExchange exchange) throws IOException {
+            List<Long> eventIds = MAPPER.readValue(exchange.getRequestBody(), new TypeReference<>() {
+            });
+            Map<Long, Long> counts = hits().stream()
+                    .filter(hit -> eventIds.contains(UriDictionary.eventId(hit.getUri())))
+                    .collect(Collectors.groupingBy(hit -> UriDictionary.eventId(hit.getUri()), views(unique(exchange))));
+            respond(exchange, 200, MAPPER.writeValueAsString(counts));
+        }
+
+        private static boolean unique(HttpExchange exchange) {
+            String query = exchange.getRequestURI().getQuery();
+            return query != null && query.contains("unique=true");
+        }
+
+        private static Collector<EndpointHitDto, ?, Long> views(boolean unique) {
+            return unique
+                    ? Collectors.collectingAndThen(Collectors.mapping(EndpointHitDto::getIp, Collectors.toSet()),
+                    ips -> (long) ips.size())
+                    : Collectors.counting();
+        }
+
+        private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+            byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(status, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        }
+    }
+}
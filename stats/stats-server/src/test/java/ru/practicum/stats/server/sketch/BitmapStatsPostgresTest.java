@@ -0,0 +1,97 @@
+package ru.practicum.stats.server.sketch;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import ru.practicum.dto.ViewStatsDto;
+import ru.practicum.stats.server.ingest.AggregateBackfill;
+import ru.practicum.stats.server.ingest.HitBuffer;
+import ru.practicum.stats.server.model.EndpointHit;
+import ru.practicum.stats.server.repository.StatsRepository;
+
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Сверка битмапов с findStatsWithUnique на настоящем Postgres. Запускается только с
+ * -Dstats.test.postgres-url=jdbc:postgresql://...; хиты пишутся под случайными uri, поэтому
+ * данные прошлых запусков сверке не мешают.
+ */
+@SpringBootTest
+@EnabledIfSystemProperty(named = "stats.test.postgres-url", matches = ".+")
+class BitmapStatsPostgresTest {
+
+    private static final int DAYS = 10;
+
+    @Autowired
+    private HitBuffer hitBuffer;
+    @Autowired
+    private BitmapStatsReader bitmapStatsReader;
+    @Autowired
+    private BitmapAggregator bitmapAggregator;
+    @Autowired
+    private AggregateBackfill aggregateBackfill;
+    @Autowired
+    private StatsRepository statsRepository;
+
+    @DynamicPropertySource
+    static void postgres(DynamicPropertyRegistry registry) {
+        registry.add("spring.datasource.url", () -> System.getProperty("stats.test.postgres-url"));
+        registry.add("spring.datasource.username", () -> System.getProperty("stats.test.postgres-username", "stats"));
+        registry.add("spring.datasource.password", () -> System.getProperty("stats.test.postgres-password", "stats"));
+        registry.add("spring.sql.init.mode", () -> "always");
+    }
+
+    @Test
+    void matchesFindStatsWithUniqueOnRandomHits() throws InterruptedException {
+        Random random = new Random(42);
+        String prefix = "/verify/" + UUID.randomUUID() + "/";
+        List<String> uris = Stream.iterate(0, i -> i + 1).limit(5).map(i -> prefix + i).toList();
+        LocalDateTime from = LocalDateTime.now().truncatedTo(ChronoUnit.DAYS).minusDays(DAYS);
+
+        List<EndpointHit> hits = new ArrayList<>();
+        for (int i = 0; i < 20_000; i++) {
+            hits.add(EndpointHit.builder()
+                    .app(random.nextBoolean() ? "ewm-main-service" : "ewm-admin")
+                    .uri(uris.get(random.nextInt(uris.size())))
+                    .ip(random.nextInt(20) == 0
+                            ? "2001:db8::" + Integer.toHexString(random.nextInt(500))
+                            : "10.1." + random.nextInt(8) + "." + random.nextInt(250))
+                    .created(from.plus(random.nextLong(DAYS * 24L * 3600 * 1_000_000), ChronoUnit.MICROS))
+                    .build());
+        }
+        hitBuffer.addAll(hits);
+        hitBuffer.flush();
+        for (int i = 0; i < 600 && !aggregateBackfill.isComplete(bitmapAggregator); i++) {
+            TimeUnit.MILLISECONDS.sleep(100);
+        }
+        assertThat(aggregateBackfill.isComplete(bitmapAggregator)).isTrue();
+
+        for (int query = 0; query < 50; query++) {
+            LocalDateTime start = from.plus(random.nextLong(DAYS * 24L * 3600 * 1_000_000), ChronoUnit.MICROS);
+            LocalDateTime end = start.plus(random.nextLong(DAYS * 24L * 3600 * 1_000_000), ChronoUnit.MICROS);
+            List<String> queried = random.nextBoolean() ? uris : uris.subList(0, 1 + random.nextInt(uris.size() - 1));
+
+            assertThat(asMap(bitmapStatsReader.getUniqueHits(start, end, queried, Stream.empty())))
+                    .as("[%s, %s] uris=%s", start, end, queried)
+                    .isEqualTo(asMap(statsRepository.findStatsWithUnique(start, end, queried)));
+        }
+    }
+
+    private Map<String, Long> asMap(List<ViewStatsDto> stats) {
+        return stats.stream().collect(Collectors.toMap(stat -> stat.getApp() + stat.getUri(), ViewStatsDto::getHits));
+    }
+}
@@ -0,0 +1,202 @@
+package ru.practicum.stats.server.sketch;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.RepetitionInfo;
+import org.junit.jupiter.api.RepeatedTest;
+import org.roaringbitmap.RoaringBitmap;
+import ru.practicum.dto.ViewStatsDto;
+import ru.practicum.stats.server.ingest.AggregateBackfill;
+import ru.practicum.stats.server.model.EndpointHit;
+import ru.practicum.stats.server.model.Visit;
+import ru.practicum.stats.server.repository.StatsRepository;
+
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Сверка точного подсчета по битмапам с COUNT(DISTINCT ip) на случайных хитах. Хранилища заменены
+ * моделями в памяти с той же семантикой границ: дневные битмапы за [from, to), сырая таблица
+ * за [start, end) и [start, end]. Проверяется склейка целых суток с неполными краями интервала.
+ */
+class BitmapStatsReaderTest {
+
+    private static final LocalDateTime FROM = LocalDateTime.of(2024, 3, 1, 0, 0);
+    private static final int DAYS = 10;
+    private static final List<String> APPS = List.of("ewm-main-service", "ewm-admin");
+    private static final List<String> URIS = List.of("/events", "/events/1", "/events/2", "/events/3", "/events/4");
+
+    private final List<EndpointHit> hits = new ArrayList<>();
+    private final Map<String, Integer> ipIds = new HashMap<>();
+    private BitmapStatsReader reader;
+
+    @BeforeEach
+    void setUp() {
+        BitmapRepository bitmapRepository = mock(BitmapRepository.class);
+        IpDictionary ipDictionary = mock(IpDictionary.class);
+        StatsRepository statsRepository = mock(StatsRepository.class);
+        AggregateBackfill aggregateBackfill = mock(AggregateBackfill.class);
+
+        when(aggregateBackfill.isComplete(any())).thenReturn(true);
+        when(ipDictionary.resolve(anyCollection())).thenAnswer(invocation -> {
+            Collection<String> ips = invocation.getArgument(0);
+            return ips.stream().collect(Collectors.toMap(ip -> ip, ip -> ipIds.computeIfAbsent(ip, k -> ipIds.size())));
+        });
+        when(bitmapRepository.orRange(any(), any(), any())).thenAnswer(invocation -> {
+            LocalDateTime from = invocation.getArgument(0);
+            LocalDateTime to = invocation.getArgument(1);
+            Map<List<String>, RoaringBitmap> bitmaps = new HashMap<>();
+            select(hit -> {
+                LocalDateTime day = hit.getCreated().truncatedTo(ChronoUnit.DAYS);
+                return !day.isBefore(from) && day.isBefore(to);
+            }, invocation.getArgument(2)).forEach(hit ->
+                    bitmaps.computeIfAbsent(List.of(hit.getApp(), hit.getUri()), k -> new RoaringBitmap())
+                            .add(ipIds.computeIfAbsent(hit.getIp(), k -> ipIds.size())));
+            return bitmaps;
+        });
+        when(statsRepository.findVisitsBefore(any(), any(), any())).thenAnswer(invocation ->
+                visits(invocation.getArgument(0), invocation.getArgument(1), false, invocation.getArgument(2)));
+        when(statsRepository.findVisits(any(), any(), any())).thenAnswer(invocation ->
+                visits(invocation.getArgument(0), invocation.getArgument(1), true, invocation.getArgument(2)));
+        when(statsRepository.findStatsWithUnique(any(), any(), any())).thenAnswer(invocation ->
+                exact(invocation.getArgument(0), invocation.getArgument(1), invocation.getArgument(2)));
+
+        reader = new BitmapStatsReader(bitmapRepository, ipDictionary, statsRepository,
+                mock(BitmapAggregator.class), aggregateBackfill);
+    }
+
+    @RepeatedTest(50)
+    void matchesExactCountOnRandomHits(RepetitionInfo repetition) {
+        Random random = new Random(repetition.getCurrentRepetition());
+        generateHits(random, 500 + random.nextInt(2000));
+
+        for (int query = 0; query < 20; query++) {
+            LocalDateTime start = randomTime(random);
+            LocalDateTime end = randomTime(random);
+            if (end.isBefore(start)) {
+                LocalDateTime swap = start;
+                start = end;
+                end = swap;
+            }
+            List<String> uris = random.nextInt(4) == 0 ? null : randomUris(random);
+
+            assertThat(asMap(reader.getUniqueHits(start, end, uris, Stream.empty())))
+                    .as("[%s, %s] uris=%s", start, end, uris)
+                    .isEqualTo(asMap(exact(start, end, uris)));
+        }
+    }
+
+    @RepeatedTest(10)
+    void countsExtraVisitsOnce(RepetitionInfo repetition) {
+        Random random = new Random(1000L + repetition.getCurrentRepetition());
+        generateHits(random, 1000);
+        LocalDateTime start = FROM.plusHours(5);
+        LocalDateTime end = FROM.plusDays(DAYS - 1).plusHours(7);
+
+        // посещения из памяти и архива частично повторяют хиты таблицы
+        List<Visit> extra = new ArrayList<>(visits(start, end, true, null).subList(0, 50));
+        extra.add(new Visit(APPS.getFirst(), URIS.getFirst(), "192.168.0.1"));
+
+        Map<String, Long> expected = asMap(exact(start, end, null));
+        expected.merge(APPS.getFirst() + URIS.getFirst(),
+                hits.stream().anyMatch(hit -> hit.getIp().equals("192.168.0.1")) ? 0L : 1L, Long::sum);
+
+        assertThat(asMap(reader.getUniqueHits(start, end, null, extra.stream()))).isEqualTo(expected);
+    }
+
+    @RepeatedTest(10)
+    void countsGroupedUrisOnce(RepetitionInfo repetition) {
+        Random random = new Random(2000L + repetition.getCurrentRepetition());
+        generateHits(random, 1000);
+        LocalDateTime start = randomTime(random);
+        LocalDateTime end = start.plusDays(1 + random.nextInt(DAYS));
+        // /events/1 и /events/2 - один объект под двумя uri, /events не учитывается
+        Map<String, String> group = Map.of("/events/1", "a", "/events/2", "a", "/events/3", "b", "/events/4", "b");
+
+        Map<String, Set<String>> ips = new HashMap<>();
+        visits(start, end, true, null).forEach(visit -> {
+            if (group.containsKey(visit.uri())) {
+                ips.computeIfAbsent(group.get(visit.uri()), k -> new HashSet<>()).add(visit.ip());
+            }
+        });
+        Map<String, Long> expected = new HashMap<>();
+        ips.forEach((key, values) -> expected.put(key, (long) values.size()));
+
+        assertThat(reader.countDistinct(start, end, null, Stream.empty(), (app, uri) -> group.get(uri)))
+                .as("[%s, %s]", start, end)
+                .isEqualTo(expected);
+    }
+
+    private void generateHits(Random random, int count) {
+        for (int i = 0; i < count; i++) {
+            LocalDateTime created = random.nextInt(10) == 0
+                    // хиты ровно на границе суток
+                    ? FROM.plusDays(random.nextInt(DAYS))
+                    : randomTime(random);
+            hits.add(EndpointHit.builder()
+                    .app(APPS.get(random.nextInt(APPS.size())))
+                    .uri(URIS.get(random.nextInt(URIS.size())))
+                    .ip("10.0." + random.nextInt(4) + "." + random.nextInt(40))
+                    .created(created)
+                    .build());
+        }
+    }
+
+    private LocalDateTime randomTime(Random random) {
+        if (random.nextInt(5) == 0) {
+            return FROM.plusDays(random.nextInt(DAYS + 1));
+        }
+        return FROM.plus(random.nextLong(DAYS * 24L * 3600 * 1_000_000), ChronoUnit.MICROS);
+    }
+
+    private List<String> randomUris(Random random) {
+        List<String> uris = new ArrayList<>();
+        for (String uri : URIS) {
+            if (random.nextBoolean()) {
+                uris.add(uri);
+            }
+        }
+        return uris;
+    }
+
+    private Stream<EndpointHit> select(Predicate<EndpointHit> period, List<String> uris) {
+        return hits.stream().filter(period).filter(hit -> uris == null || uris.contains(hit.getUri()));
+    }
+
+    private List<Visit> visits(LocalDateTime start, LocalDateTime end, boolean closed, List<String> uris) {
+        return select(hit -> !hit.getCreated().isBefore(start)
+                        && (closed ? !hit.getCreated().isAfter(end) : hit.getCreated().isBefore(end)), uris)
+                .map(hit -> new Visit(hit.getApp(), hit.getUri(), hit.getIp()))
+                .distinct()
+                .toList();
+    }
+
+    private List<ViewStatsDto> exact(LocalDateTime start, LocalDateTime end, List<String> uris) {
+        Map<List<String>, Set<String>> ips = new HashMap<>();
+        visits(start, end, true, uris).forEach(visit ->
+                ips.computeIfAbsent(List.of(visit.app(), visit.uri()), k -> new HashSet<>()).add(visit.ip()));
+        return ips.entrySet().stream()
+                .map(e -> new ViewStatsDto(e.getKey().get(0), e.getKey().get(1), (long) e.getValue().size()))
+                .toList();
+    }
+
+    private Map<String, Long> asMap(List<ViewStatsDto> stats) {
+        return stats.stream().collect(Collectors.toMap(stat -> stat.getApp() + stat.getUri(), ViewStatsDto::getHits));
+    }
+}